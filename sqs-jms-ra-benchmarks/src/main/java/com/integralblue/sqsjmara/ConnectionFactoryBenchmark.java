@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.QueueConnection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of opening and closing a connection with {@link SQSJMSConnectionFactory#createConnection()} outside a container (no
+ * connection manager), where each connection wraps the factory's shared client.
+ *
+ * Opening a connection sends no requests to SQS, so the factory is configured with a region and credentials (through the
+ * {@code aws.region}, {@code aws.accessKeyId} and {@code aws.secretKey} system properties) but never talks to SQS.
+ *
+ * @author Craig Andrews
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Daws.region=us-east-1", "-Daws.accessKeyId=benchmark", "-Daws.secretKey=benchmark"})
+@State(Scope.Benchmark)
+public class ConnectionFactoryBenchmark {
+	private SQSJMSConnectionFactory connectionFactory;
+
+	@Setup
+	public void setUp() {
+		connectionFactory = new SQSJMSConnectionFactory(null, new SQSJMSManagedConnectionFactory());
+	}
+
+	@Benchmark
+	public void createConnection() throws JMSException {
+		final QueueConnection connection = connectionFactory.createConnection();
+		connection.close();
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Timer;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.resource.ResourceException;
+import javax.resource.spi.endpoint.MessageEndpoint;
+import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.transaction.xa.XAResource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.sqs.javamessaging.message.SQSTextMessage;
+
+/**
+ * Overhead of delivering a message to an endpoint: taking (or, for transacted delivery, creating) an endpoint, calling
+ * {@code beforeDelivery}, invoking {@code onMessage} through a dynamic proxy as application servers do, calling
+ * {@code afterDelivery}, and recording the activation's statistics.
+ *
+ * The endpoint does nothing with the message, so the result is the adapter's own cost per delivery.
+ *
+ * @author Craig Andrews
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InboundDispatchBenchmark {
+	private static final String QUEUE_NAME = "benchmark";
+
+	/**
+	 * Whether the endpoint factory reports delivery as transacted, which disables endpoint pooling.
+	 */
+	@Param({"false", "true"})
+	public boolean deliveryTransacted;
+
+	private Timer timer;
+	private SQSJMSEndpointActivation activation;
+	private Message message;
+
+	@Setup
+	public void setUp() throws JMSException, ResourceException {
+		final SQSJMSActivationSpec spec = new SQSJMSActivationSpec();
+		spec.setDestination(QUEUE_NAME);
+		spec.setUseJndi(false);
+		spec.setAcknowledgeMode("auto-acknowledge");
+		timer = new Timer(true);
+		activation = new SQSJMSEndpointActivation(new NoOpEndpointFactory(deliveryTransacted), spec, new StubAmazonSQS(), timer, null);
+		activation.start(Collections.singletonList(new SQSJMSQueue(QUEUE_NAME)));
+		message = new SQSTextMessage("benchmark");
+	}
+
+	@TearDown
+	public void tearDown() throws JMSException {
+		activation.stop();
+		timer.cancel();
+	}
+
+	@Benchmark
+	public void deliver() {
+		activation.deliver(message);
+	}
+
+	/**
+	 * Creates endpoints the way an application server does: as dynamic proxies implementing {@link MessageEndpoint} and
+	 * {@link MessageListener}.
+	 */
+	private static final class NoOpEndpointFactory implements MessageEndpointFactory {
+		private final boolean deliveryTransacted;
+
+		NoOpEndpointFactory(final boolean deliveryTransacted) {
+			this.deliveryTransacted = deliveryTransacted;
+		}
+
+		@Override
+		public MessageEndpoint createEndpoint(final XAResource xaResource) {
+			return (MessageEndpoint) Proxy.newProxyInstance(
+					InboundDispatchBenchmark.class.getClassLoader(),
+					new Class<?>[] {MessageEndpoint.class, MessageListener.class},
+					new InvocationHandler() {
+						@Override
+						public Object invoke(final Object proxy, final Method method, final Object[] args) {
+							return null;
+						}
+					});
+		}
+
+		@Override
+		public MessageEndpoint createEndpoint(final XAResource xaResource, final long timeout) {
+			return createEndpoint(xaResource);
+		}
+
+		@Override
+		public boolean isDeliveryTransacted(final Method method) {
+			return deliveryTransacted;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.ObjectMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazon.sqs.javamessaging.message.SQSMessage;
+import com.amazon.sqs.javamessaging.message.SQSObjectMessage;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
+
+/**
+ * Cost of the body of an object message carrying a small domain object, with Java serialization (the SQS JMS library's default)
+ * and with the built-in {@link CompactObjectMessageCodec}.
+ *
+ * {@link #encode()} sets the object on a new message to be sent and gets the body that would be sent, and {@link #decode()}
+ * gets the object from a received message, as an endpoint would; both include the base64 encoding of the body.
+ * The README records the results along with the size of the body sent for each codec and order.
+ *
+ * @author Craig Andrews
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObjectMessageCodecBenchmark {
+	private static final String JAVA_SERIALIZATION = "java";
+
+	/**
+	 * The codec: {@value #JAVA_SERIALIZATION} for Java serialization, or {@value CompactObjectMessageCodec#ID}.
+	 */
+	@Param({JAVA_SERIALIZATION, CompactObjectMessageCodec.ID})
+	public String codec;
+
+	/**
+	 * Number of line items in the order sent.
+	 */
+	@Param({"1", "20"})
+	public int lineItems;
+
+	private ObjectMessageCodec objectMessageCodec;
+	private Order order;
+	private SQSObjectMessage received;
+
+	@Setup
+	public void setUp() throws JMSException {
+		objectMessageCodec = SQSJMSObjectMessageCodecs.create(JAVA_SERIALIZATION.equals(codec) ? null : codec);
+		order = new Order("order-1", "customer-1", System.currentTimeMillis());
+		for (int i = 0; i < lineItems; i++) {
+			order.lineItems.add(new LineItem("sku-" + i, i + 1, 100L * i));
+		}
+		final String body = encode();
+		final Message message = new Message()
+				.withMessageId("benchmark")
+				.withReceiptHandle("benchmark")
+				.withBody(body)
+				.addAttributesEntry(MessageSystemAttributeName.ApproximateReceiveCount.toString(), "1")
+				.addMessageAttributesEntry(SQSMessage.JMS_SQS_MESSAGE_TYPE, stringAttribute(SQSMessage.OBJECT_MESSAGE_TYPE));
+		if (objectMessageCodec != null) {
+			message.addMessageAttributesEntry(SQSJMSObjectMessageCodecs.CODEC_PROPERTY, stringAttribute(objectMessageCodec.getId()));
+		}
+		received = new SQSObjectMessage(null, "benchmark", message);
+	}
+
+	@Benchmark
+	public String encode() throws JMSException {
+		final SQSObjectMessage message = objectMessageCodec == null ? new SQSObjectMessage() : new SQSJMSEncodedObjectMessage(objectMessageCodec);
+		message.setObject(order);
+		return message.getMessageBody();
+	}
+
+	@Benchmark
+	public Serializable decode() throws JMSException {
+		// a new message for each call, since the codec's messages decode only once
+		return ((ObjectMessage) SQSJMSObjectMessageCodecs.decoding(received, objectMessageCodec)).getObject();
+	}
+
+	private static MessageAttributeValue stringAttribute(final String value) {
+		return new MessageAttributeValue().withDataType(SQSMessagingClientConstants.STRING).withStringValue(value);
+	}
+
+	/**
+	 * A typical small domain object.
+	 */
+	public static class Order implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String orderId;
+		private final String customerId;
+		private final long createdMillis;
+		private final List<LineItem> lineItems = new ArrayList<>();
+
+		Order(final String orderId, final String customerId, final long createdMillis) {
+			this.orderId = orderId;
+			this.customerId = customerId;
+			this.createdMillis = createdMillis;
+		}
+	}
+
+	/**
+	 * A line of an {@link Order}.
+	 */
+	public static class LineItem implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String sku;
+		private final int quantity;
+		private final long priceCents;
+
+		LineItem(final String sku, final int quantity, final long priceCents) {
+			this.sku = sku;
+			this.quantity = quantity;
+			this.priceCents = priceCents;
+		}
+	}
+}
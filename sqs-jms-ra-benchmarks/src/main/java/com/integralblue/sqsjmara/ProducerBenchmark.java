@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.sqs.javamessaging.ProviderConfiguration;
+import com.amazon.sqs.javamessaging.SQSConnectionFactory;
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.buffered.AmazonSQSBufferedAsyncClient;
+import com.amazonaws.services.sqs.buffered.QueueBufferConfig;
+
+/**
+ * Cost of sending a text message through an {@link SQSJMSMessageProducer}, in each session acknowledge mode, with and without
+ * send batching.
+ *
+ * With send batching, sends go through the same buffered client the managed connection factory builds, and each send waits for
+ * its batch to be sent, so the result depends on how many threads send at once; the benchmark uses several.
+ * The SQS JMS library logs every send at the {@code INFO} level, which would dominate the result, so its logging is limited to
+ * warnings as it usually is in production.
+ *
+ * @author Craig Andrews
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class ProducerBenchmark {
+	private static final long SEND_BATCH_OPEN_MILLIS = 5;
+	private static final long QUEUE_URL_CACHE_TTL_MILLIS = 300_000L;
+	private static final long QUEUE_URL_NEGATIVE_CACHE_TTL_MILLIS = 10_000L;
+	// held so that the level is not lost when the logger is garbage collected
+	private static final Logger SQS_JMS_LOGGER = Logger.getLogger("com.amazon.sqs.javamessaging");
+
+	static {
+		SQS_JMS_LOGGER.setLevel(Level.WARNING);
+	}
+
+	@Benchmark
+	public void send(final ProducerState producer) throws JMSException {
+		producer.producer.send(producer.message);
+	}
+
+	/**
+	 * The connection, shared by every sending thread as in an application.
+	 */
+	@State(Scope.Benchmark)
+	public static class ConnectionState {
+		@Param({"false", "true"})
+		public boolean sendBatching;
+
+		@Param({"AUTO_ACKNOWLEDGE", "CLIENT_ACKNOWLEDGE", "DUPS_OK_ACKNOWLEDGE"})
+		public String acknowledgeMode;
+
+		private AmazonSQS amazonSQS;
+		private SQSJMSConnection connection;
+
+		@Setup
+		public void setUp() throws JMSException {
+			amazonSQS = sendBatching
+					? new AmazonSQSBufferedAsyncClient(
+							new StubAmazonSQS(),
+							new QueueBufferConfig()
+								.withMaxBatchOpenMs(SEND_BATCH_OPEN_MILLIS)
+								.withMaxBatchSize(SQSMessagingClientConstants.MAX_BATCH)
+								.withMaxInflightReceiveBatches(0)
+								.withMaxDoneReceiveBatches(0))
+					: new StubAmazonSQS();
+			connection = new SQSJMSConnection(
+					new SQSConnectionFactory(new ProviderConfiguration(), amazonSQS).createConnection(),
+					new SQSJMSQueueUrlCache(QUEUE_URL_CACHE_TTL_MILLIS, QUEUE_URL_NEGATIVE_CACHE_TTL_MILLIS));
+		}
+
+		@TearDown
+		public void tearDown() throws JMSException {
+			connection.close();
+			amazonSQS.shutdown();
+		}
+
+		int sessionAcknowledgeMode() {
+			switch (acknowledgeMode) {
+				case "CLIENT_ACKNOWLEDGE":
+					return Session.CLIENT_ACKNOWLEDGE;
+				case "DUPS_OK_ACKNOWLEDGE":
+					return Session.DUPS_OK_ACKNOWLEDGE;
+				default:
+					return Session.AUTO_ACKNOWLEDGE;
+			}
+		}
+	}
+
+	/**
+	 * A session and producer for each sending thread, since sessions must not be shared between threads.
+	 */
+	@State(Scope.Thread)
+	public static class ProducerState {
+		private Session session;
+		private MessageProducer producer;
+		private TextMessage message;
+
+		@Setup
+		public void setUp(final ConnectionState connectionState) throws JMSException {
+			session = connectionState.connection.createQueueSession(false, connectionState.sessionAcknowledgeMode());
+			producer = session.createProducer(new SQSJMSQueue("benchmark"));
+			message = session.createTextMessage("benchmark");
+		}
+
+		@TearDown
+		public void tearDown() throws JMSException {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.sqs.javamessaging.ProviderConfiguration;
+import com.amazon.sqs.javamessaging.SQSConnectionFactory;
+import com.amazon.sqs.javamessaging.SQSQueueDestination;
+
+/**
+ * Cost of {@link SQSJMSSession#toSQSQueueDestination(javax.jms.Destination)}, which every send to an {@link SQSJMSQueue} goes
+ * through, with and without the queue URL cache.
+ *
+ * @author Craig Andrews
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class QueueResolutionBenchmark {
+	private static final long QUEUE_URL_CACHE_TTL_MILLIS = 300_000L;
+	private static final long QUEUE_URL_NEGATIVE_CACHE_TTL_MILLIS = 10_000L;
+
+	/**
+	 * Whether the connection resolves queue names through a {@link SQSJMSQueueUrlCache}; if not, every resolution is a
+	 * {@code GetQueueUrl} call (to the stub).
+	 */
+	@Param({"true", "false"})
+	public boolean queueUrlCache;
+
+	private SQSJMSConnection connection;
+	private SQSJMSSession session;
+	private SQSJMSQueue queue;
+
+	@Setup
+	public void setUp() throws JMSException {
+		connection = new SQSJMSConnection(
+				new SQSConnectionFactory(new ProviderConfiguration(), new StubAmazonSQS()).createConnection(),
+				queueUrlCache ? new SQSJMSQueueUrlCache(QUEUE_URL_CACHE_TTL_MILLIS, QUEUE_URL_NEGATIVE_CACHE_TTL_MILLIS) : null);
+		session = (SQSJMSSession) connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+		queue = new SQSJMSQueue("benchmark");
+	}
+
+	@TearDown
+	public void tearDown() throws JMSException {
+		connection.close();
+	}
+
+	@Benchmark
+	public SQSQueueDestination toSQSQueueDestination() throws JMSException {
+		return session.toSQSQueueDestination(queue);
+	}
+}
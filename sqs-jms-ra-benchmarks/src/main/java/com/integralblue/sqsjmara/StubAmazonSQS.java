@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQSAsync;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageResult;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+/**
+ * In-process stand-in for SQS that answers every call the adapter makes without doing any work, so that benchmarks measure
+ * the adapter rather than the network.
+ *
+ * Every queue exists, sends and deletes always succeed, and receives return no messages after a short pause (so that consumers
+ * polling in the background do not spin).
+ *
+ * @author Craig Andrews
+ *
+ */
+public class StubAmazonSQS extends AbstractAmazonSQSAsync {
+	private static final String QUEUE_URL_PREFIX = "https://sqs.us-east-1.amazonaws.com/123456789012/";
+	private static final long RECEIVE_PAUSE_MILLIS = 10;
+
+	@Override
+	public GetQueueUrlResult getQueueUrl(final GetQueueUrlRequest request) {
+		return new GetQueueUrlResult().withQueueUrl(QUEUE_URL_PREFIX + request.getQueueName());
+	}
+
+	@Override
+	public GetQueueAttributesResult getQueueAttributes(final GetQueueAttributesRequest request) {
+		return new GetQueueAttributesResult().addAttributesEntry(QueueAttributeName.VisibilityTimeout.toString(), "30");
+	}
+
+	@Override
+	public SendMessageResult sendMessage(final SendMessageRequest request) {
+		return new SendMessageResult().withMessageId(UUID.randomUUID().toString());
+	}
+
+	@Override
+	public SendMessageBatchResult sendMessageBatch(final SendMessageBatchRequest request) {
+		final List<SendMessageBatchResultEntry> successful = new ArrayList<>(request.getEntries().size());
+		for (final SendMessageBatchRequestEntry entry : request.getEntries()) {
+			successful.add(new SendMessageBatchResultEntry().withId(entry.getId()).withMessageId(UUID.randomUUID().toString()));
+		}
+		return new SendMessageBatchResult().withSuccessful(successful);
+	}
+
+	@Override
+	public ReceiveMessageResult receiveMessage(final ReceiveMessageRequest request) {
+		try {
+			TimeUnit.MILLISECONDS.sleep(RECEIVE_PAUSE_MILLIS);
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return new ReceiveMessageResult();
+	}
+
+	@Override
+	public DeleteMessageResult deleteMessage(final DeleteMessageRequest request) {
+		return new DeleteMessageResult();
+	}
+
+	@Override
+	public DeleteMessageBatchResult deleteMessageBatch(final DeleteMessageBatchRequest request) {
+		final List<DeleteMessageBatchResultEntry> successful = new ArrayList<>(request.getEntries().size());
+		for (final DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+			successful.add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+		}
+		return new DeleteMessageBatchResult().withSuccessful(successful);
+	}
+
+	@Override
+	public ChangeMessageVisibilityResult changeMessageVisibility(final ChangeMessageVisibilityRequest request) {
+		return new ChangeMessageVisibilityResult();
+	}
+
+	@Override
+	public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(final ChangeMessageVisibilityBatchRequest request) {
+		final List<ChangeMessageVisibilityBatchResultEntry> successful = new ArrayList<>(request.getEntries().size());
+		for (final ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+			successful.add(new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+		}
+		return new ChangeMessageVisibilityBatchResult().withSuccessful(successful);
+	}
+
+	@Override
+	public void shutdown() {
+		// nothing to release
+	}
+}
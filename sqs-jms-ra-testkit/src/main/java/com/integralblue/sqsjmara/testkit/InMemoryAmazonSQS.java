@@ -0,0 +1,460 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara.testkit;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonServiceException.ErrorType;
+import com.amazonaws.services.sqs.AbstractAmazonSQSAsync;
+import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.model.BatchEntryIdsNotDistinctException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityResult;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageResult;
+import com.amazonaws.services.sqs.model.DeleteQueueRequest;
+import com.amazonaws.services.sqs.model.DeleteQueueResult;
+import com.amazonaws.services.sqs.model.EmptyBatchRequestException;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.ListQueuesRequest;
+import com.amazonaws.services.sqs.model.ListQueuesResult;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.PurgeQueueRequest;
+import com.amazonaws.services.sqs.model.PurgeQueueResult;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.amazonaws.services.sqs.model.TooManyEntriesInBatchRequestException;
+import com.amazonaws.util.StringUtils;
+
+/**
+ * In-process stand-in for Amazon SQS, so that code using SQS (such as the SQS JMS resource adapter) can be tested and
+ * load tested without AWS.
+ *
+ * Supports creating, listing, purging and deleting queues, {@code GetQueueUrl}, {@code GetQueueAttributes}, sending, receiving
+ * (including long polling), deleting and changing the visibility of messages, and the batch forms of those calls, with the
+ * visibility timeouts, delays and limits of a standard SQS queue. Ordering and deduplication of FIFO queues are not emulated,
+ * although message group and deduplication ids are kept as message attributes.
+ *
+ * Latency, server errors and throttling can be injected into every call (see {@link InMemoryAmazonSQSConfig}).
+ *
+ * Only the synchronous API is implemented; it is enough for the SQS JMS library and for
+ * {@link com.amazonaws.services.sqs.buffered.AmazonSQSBufferedAsyncClient}, which this class can be given to. Queues and messages
+ * live as long as the instance: {@link #shutdown()} does not discard them, so one instance can be shared by clients that come and go.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class InMemoryAmazonSQS extends AbstractAmazonSQSAsync {
+	static final String ACCOUNT_ID = "000000000000";
+	static final String REGION = "us-east-1";
+
+	private static final String QUEUE_URL_PREFIX = "http://localhost/" + ACCOUNT_ID + "/";
+	private static final String SERVICE_NAME = "AmazonSQS";
+	private static final int MAX_BATCH = 10;
+	private static final int MAX_MESSAGE_SIZE = 262_144;
+	private static final int MAX_WAIT_TIME_SECONDS = 20;
+	private static final int MAX_VISIBILITY_TIMEOUT_SECONDS = 43_200;
+	private static final int HTTP_BAD_REQUEST = 400;
+	private static final int HTTP_INTERNAL_SERVER_ERROR = 500;
+
+	private final InMemoryAmazonSQSConfig config;
+	private final ConcurrentMap<String, InMemoryQueue> queues = new ConcurrentHashMap<>();
+
+	/**
+	 * Create an instance without injected faults.
+	 */
+	public InMemoryAmazonSQS() {
+		this(new InMemoryAmazonSQSConfig());
+	}
+
+	/**
+	 * Create an instance.
+	 *
+	 * @param config settings, which are copied; later changes to it have no effect
+	 */
+	public InMemoryAmazonSQS(final InMemoryAmazonSQSConfig config) {
+		super();
+		this.config = config.clone();
+	}
+
+	@Override
+	public CreateQueueResult createQueue(final CreateQueueRequest request) {
+		injectFaults();
+		return new CreateQueueResult().withQueueUrl(createQueue(request.getQueueName(), request.getAttributes()).getUrl());
+	}
+
+	@Override
+	public GetQueueUrlResult getQueueUrl(final GetQueueUrlRequest request) {
+		injectFaults();
+		InMemoryQueue queue = queues.get(request.getQueueName());
+		if (queue == null) {
+			if (!config.isAutoCreateQueues()) {
+				throw queueDoesNotExist(request.getQueueName());
+			}
+			queue = createQueue(request.getQueueName(), null);
+		}
+		return new GetQueueUrlResult().withQueueUrl(queue.getUrl());
+	}
+
+	@Override
+	public ListQueuesResult listQueues(final ListQueuesRequest request) {
+		injectFaults();
+		final List<String> queueUrls = new ArrayList<>();
+		for (final Map.Entry<String, InMemoryQueue> queue : queues.entrySet()) {
+			if (request.getQueueNamePrefix() == null || queue.getKey().startsWith(request.getQueueNamePrefix())) {
+				queueUrls.add(queue.getValue().getUrl());
+			}
+		}
+		return new ListQueuesResult().withQueueUrls(queueUrls);
+	}
+
+	@Override
+	public DeleteQueueResult deleteQueue(final DeleteQueueRequest request) {
+		injectFaults();
+		final InMemoryQueue queue = queue(request.getQueueUrl());
+		queues.remove(queueName(request.getQueueUrl()), queue);
+		queue.delete();
+		return new DeleteQueueResult();
+	}
+
+	@Override
+	public PurgeQueueResult purgeQueue(final PurgeQueueRequest request) {
+		injectFaults();
+		queue(request.getQueueUrl()).purge();
+		return new PurgeQueueResult();
+	}
+
+	@Override
+	public GetQueueAttributesResult getQueueAttributes(final GetQueueAttributesRequest request) {
+		injectFaults();
+		return new GetQueueAttributesResult().withAttributes(queue(request.getQueueUrl()).getAttributes(request.getAttributeNames()));
+	}
+
+	@Override
+	public SendMessageResult sendMessage(final SendMessageRequest request) {
+		injectFaults();
+		final InMemoryMessage message = send(
+				queue(request.getQueueUrl()),
+				request.getMessageBody(),
+				request.getMessageAttributes(),
+				request.getDelaySeconds(),
+				request.getMessageGroupId(),
+				request.getMessageDeduplicationId());
+		return new SendMessageResult().withMessageId(message.getMessageId()).withMD5OfMessageBody(message.getMd5OfBody());
+	}
+
+	@Override
+	public SendMessageBatchResult sendMessageBatch(final SendMessageBatchRequest request) {
+		injectFaults();
+		final InMemoryQueue queue = queue(request.getQueueUrl());
+		final List<String> ids = new ArrayList<>(request.getEntries().size());
+		for (final SendMessageBatchRequestEntry entry : request.getEntries()) {
+			ids.add(entry.getId());
+		}
+		checkBatch(ids);
+		final SendMessageBatchResult result = new SendMessageBatchResult();
+		for (final SendMessageBatchRequestEntry entry : request.getEntries()) {
+			try {
+				final InMemoryMessage message = send(
+						queue,
+						entry.getMessageBody(),
+						entry.getMessageAttributes(),
+						entry.getDelaySeconds(),
+						entry.getMessageGroupId(),
+						entry.getMessageDeduplicationId());
+				result.withSuccessful(new SendMessageBatchResultEntry()
+						.withId(entry.getId())
+						.withMessageId(message.getMessageId())
+						.withMD5OfMessageBody(message.getMd5OfBody()));
+			}
+			catch (final AmazonServiceException e) {
+				result.withFailed(failed(entry.getId(), e));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public ReceiveMessageResult receiveMessage(final ReceiveMessageRequest request) {
+		injectFaults();
+		final InMemoryQueue queue = queue(request.getQueueUrl());
+		final int maxNumberOfMessages = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+		checkRange("MaxNumberOfMessages", maxNumberOfMessages, 1, MAX_BATCH);
+		final int waitTimeSeconds = request.getWaitTimeSeconds() == null ? queue.getReceiveMessageWaitTimeSeconds() : request.getWaitTimeSeconds();
+		checkRange("WaitTimeSeconds", waitTimeSeconds, 0, MAX_WAIT_TIME_SECONDS);
+		if (request.getVisibilityTimeout() != null) {
+			checkRange("VisibilityTimeout", request.getVisibilityTimeout(), 0, MAX_VISIBILITY_TIMEOUT_SECONDS);
+		}
+		try {
+			return new ReceiveMessageResult().withMessages(
+					queue.receive(maxNumberOfMessages, request.getVisibilityTimeout(), TimeUnit.SECONDS.toMillis(waitTimeSeconds)));
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AbortedException(e);
+		}
+	}
+
+	@Override
+	public DeleteMessageResult deleteMessage(final DeleteMessageRequest request) {
+		injectFaults();
+		queue(request.getQueueUrl()).delete(request.getReceiptHandle());
+		return new DeleteMessageResult();
+	}
+
+	@Override
+	public DeleteMessageBatchResult deleteMessageBatch(final DeleteMessageBatchRequest request) {
+		injectFaults();
+		final InMemoryQueue queue = queue(request.getQueueUrl());
+		final List<String> ids = new ArrayList<>(request.getEntries().size());
+		for (final DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+			ids.add(entry.getId());
+		}
+		checkBatch(ids);
+		final DeleteMessageBatchResult result = new DeleteMessageBatchResult();
+		for (final DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+			try {
+				queue.delete(entry.getReceiptHandle());
+				result.withSuccessful(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+			}
+			catch (final AmazonServiceException e) {
+				result.withFailed(failed(entry.getId(), e));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public ChangeMessageVisibilityResult changeMessageVisibility(final ChangeMessageVisibilityRequest request) {
+		injectFaults();
+		checkRange("VisibilityTimeout", request.getVisibilityTimeout(), 0, MAX_VISIBILITY_TIMEOUT_SECONDS);
+		queue(request.getQueueUrl()).changeMessageVisibility(request.getReceiptHandle(), request.getVisibilityTimeout());
+		return new ChangeMessageVisibilityResult();
+	}
+
+	@Override
+	public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(final ChangeMessageVisibilityBatchRequest request) {
+		injectFaults();
+		final InMemoryQueue queue = queue(request.getQueueUrl());
+		final List<String> ids = new ArrayList<>(request.getEntries().size());
+		for (final ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+			ids.add(entry.getId());
+		}
+		checkBatch(ids);
+		final ChangeMessageVisibilityBatchResult result = new ChangeMessageVisibilityBatchResult();
+		for (final ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+			try {
+				checkRange("VisibilityTimeout", entry.getVisibilityTimeout(), 0, MAX_VISIBILITY_TIMEOUT_SECONDS);
+				queue.changeMessageVisibility(entry.getReceiptHandle(), entry.getVisibilityTimeout());
+				result.withSuccessful(new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+			}
+			catch (final AmazonServiceException e) {
+				result.withFailed(failed(entry.getId(), e));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Does nothing: there is nothing to release, and the queues are kept for other users of this instance.
+	 */
+	@Override
+	public void shutdown() {
+		// nothing to release
+	}
+
+	static QueueDoesNotExistException queueDoesNotExist(final String queueName) {
+		return clientError(
+				new QueueDoesNotExistException("The specified queue does not exist: " + queueName),
+				"AWS.SimpleQueueService.NonExistentQueue");
+	}
+
+	static <T extends AmazonServiceException> T clientError(final T exception, final String errorCode) {
+		exception.setErrorCode(errorCode);
+		exception.setErrorType(ErrorType.Client);
+		exception.setStatusCode(HTTP_BAD_REQUEST);
+		exception.setServiceName(SERVICE_NAME);
+		return exception;
+	}
+
+	private InMemoryQueue createQueue(final String queueName, final Map<String, String> attributes) {
+		if (StringUtils.isNullOrEmpty(queueName)) {
+			throw invalidParameterValue("QueueName is required");
+		}
+		final InMemoryQueue created = new InMemoryQueue(
+				queueName,
+				QUEUE_URL_PREFIX + queueName,
+				intAttribute(attributes, QueueAttributeName.VisibilityTimeout, config.getDefaultVisibilityTimeoutSeconds()),
+				intAttribute(attributes, QueueAttributeName.DelaySeconds, 0),
+				intAttribute(attributes, QueueAttributeName.ReceiveMessageWaitTimeSeconds, 0));
+		final InMemoryQueue existing = queues.putIfAbsent(queueName, created);
+		return existing == null ? created : existing;
+	}
+
+	private InMemoryQueue queue(final String queueUrl) {
+		final InMemoryQueue queue = queues.get(queueName(queueUrl));
+		if (queue == null) {
+			throw queueDoesNotExist(queueUrl);
+		}
+		return queue;
+	}
+
+	private static String queueName(final String queueUrl) {
+		return queueUrl != null && queueUrl.startsWith(QUEUE_URL_PREFIX) ? queueUrl.substring(QUEUE_URL_PREFIX.length()) : "";
+	}
+
+	private static InMemoryMessage send(
+			final InMemoryQueue queue,
+			final String body,
+			final Map<String, MessageAttributeValue> messageAttributes,
+			final Integer delaySeconds,
+			final String messageGroupId,
+			final String messageDeduplicationId) {
+		if (StringUtils.isNullOrEmpty(body)) {
+			throw invalidParameterValue("The request must contain the parameter MessageBody");
+		}
+		if (size(body, messageAttributes) > MAX_MESSAGE_SIZE) {
+			throw invalidParameterValue("One or more parameters are invalid. Reason: Message must be shorter than " + MAX_MESSAGE_SIZE + " bytes");
+		}
+		if (delaySeconds != null) {
+			checkRange("DelaySeconds", delaySeconds, 0, (int) TimeUnit.MINUTES.toSeconds(15));
+		}
+		return queue.send(body, messageAttributes, delaySeconds, messageGroupId, messageDeduplicationId);
+	}
+
+	private static long size(final String body, final Map<String, MessageAttributeValue> messageAttributes) {
+		long size = body.getBytes(StringUtils.UTF8).length;
+		if (messageAttributes != null) {
+			for (final Map.Entry<String, MessageAttributeValue> attribute : messageAttributes.entrySet()) {
+				final MessageAttributeValue value = attribute.getValue();
+				size += attribute.getKey().getBytes(StringUtils.UTF8).length;
+				size += value.getDataType() == null ? 0 : value.getDataType().getBytes(StringUtils.UTF8).length;
+				size += value.getStringValue() == null ? 0 : value.getStringValue().getBytes(StringUtils.UTF8).length;
+				size += value.getBinaryValue() == null ? 0 : value.getBinaryValue().remaining();
+			}
+		}
+		return size;
+	}
+
+	private static void checkBatch(final List<String> ids) {
+		if (ids.isEmpty()) {
+			throw clientError(
+					new EmptyBatchRequestException("There should be at least one entry in the request"),
+					"AWS.SimpleQueueService.EmptyBatchRequest");
+		}
+		if (ids.size() > MAX_BATCH) {
+			throw clientError(
+					new TooManyEntriesInBatchRequestException("Maximum number of entries per request are " + MAX_BATCH + ". You have sent " + ids.size() + "."),
+					"AWS.SimpleQueueService.TooManyEntriesInBatchRequest");
+		}
+		final Set<String> distinct = new HashSet<>(ids);
+		if (distinct.size() != ids.size()) {
+			throw clientError(
+					new BatchEntryIdsNotDistinctException("Two or more batch entries in the request have the same Id"),
+					"AWS.SimpleQueueService.BatchEntryIdsNotDistinct");
+		}
+	}
+
+	private static void checkRange(final String parameter, final Integer value, final int min, final int max) {
+		if (value == null || value < min || value > max) {
+			throw invalidParameterValue("Value " + value + " for parameter " + parameter + " is invalid. Reason: must be between " + min + " and " + max + ".");
+		}
+	}
+
+	private static int intAttribute(final Map<String, String> attributes, final QueueAttributeName name, final int defaultValue) {
+		final String value = attributes == null ? null : attributes.get(name.toString());
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (final NumberFormatException e) {
+			throw invalidParameterValue("Invalid value for the parameter " + name);
+		}
+	}
+
+	private static AmazonSQSException invalidParameterValue(final String message) {
+		return clientError(new AmazonSQSException(message), "InvalidParameterValue");
+	}
+
+	private static BatchResultErrorEntry failed(final String id, final AmazonServiceException e) {
+		return new BatchResultErrorEntry()
+				.withId(id)
+				.withSenderFault(e.getErrorType() != ErrorType.Service)
+				.withCode(e.getErrorCode())
+				.withMessage(e.getErrorMessage());
+	}
+
+	private void injectFaults() {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final long latency = config.getLatencyMillis() + (config.getLatencyJitterMillis() == 0 ? 0 : random.nextLong(config.getLatencyJitterMillis() + 1));
+		if (latency > 0) {
+			try {
+				TimeUnit.MILLISECONDS.sleep(latency);
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AbortedException(e);
+			}
+		}
+		final double fault = random.nextDouble();
+		if (fault < config.getThrottleRate()) {
+			throw clientError(new AmazonSQSException("Rate exceeded"), "ThrottlingException");
+		}
+		if (fault < config.getThrottleRate() + config.getErrorRate()) {
+			final AmazonSQSException e = new AmazonSQSException("We encountered an internal error. Please try again.");
+			e.setErrorCode("InternalError");
+			e.setErrorType(ErrorType.Service);
+			e.setStatusCode(HTTP_INTERNAL_SERVER_ERROR);
+			e.setServiceName(SERVICE_NAME);
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara.testkit;
+
+/**
+ * Settings of an {@link InMemoryAmazonSQS}: the defaults of the queues it creates, and the latency, errors and throttling it
+ * injects into calls.
+ *
+ * Faults are injected into each call as a whole, before it takes effect: a call that fails changes nothing. Unlike the AWS SDK's
+ * clients, {@link InMemoryAmazonSQS} does not retry, so every injected fault reaches the caller.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class InMemoryAmazonSQSConfig implements Cloneable {
+	/**
+	 * Visibility timeout of queues created without one, as in SQS.
+	 */
+	public static final int DEFAULT_VISIBILITY_TIMEOUT_SECONDS = 30;
+
+	private int defaultVisibilityTimeoutSeconds = DEFAULT_VISIBILITY_TIMEOUT_SECONDS;
+	private boolean autoCreateQueues;
+	private long latencyMillis;
+	private long latencyJitterMillis;
+	private double errorRate;
+	private double throttleRate;
+
+	public int getDefaultVisibilityTimeoutSeconds() {
+		return defaultVisibilityTimeoutSeconds;
+	}
+
+	/**
+	 * Set the visibility timeout of queues created without one.
+	 *
+	 * @param defaultVisibilityTimeoutSeconds the visibility timeout in seconds
+	 * @return this config
+	 */
+	public InMemoryAmazonSQSConfig withDefaultVisibilityTimeoutSeconds(final int defaultVisibilityTimeoutSeconds) {
+		if (defaultVisibilityTimeoutSeconds < 0) {
+			throw new IllegalArgumentException("defaultVisibilityTimeoutSeconds must not be negative");
+		}
+		this.defaultVisibilityTimeoutSeconds = defaultVisibilityTimeoutSeconds;
+		return this;
+	}
+
+	public boolean isAutoCreateQueues() {
+		return autoCreateQueues;
+	}
+
+	/**
+	 * Set whether {@code GetQueueUrl} creates queues that do not exist, instead of failing as SQS does.
+	 *
+	 * @param autoCreateQueues true to create queues on first use
+	 * @return this config
+	 */
+	public InMemoryAmazonSQSConfig withAutoCreateQueues(final boolean autoCreateQueues) {
+		this.autoCreateQueues = autoCreateQueues;
+		return this;
+	}
+
+	public long getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	/**
+	 * Set the time every call takes before it takes effect, standing in for the round trip to SQS.
+	 *
+	 * @param latencyMillis the latency in milliseconds
+	 * @return this config
+	 */
+	public InMemoryAmazonSQSConfig withLatencyMillis(final long latencyMillis) {
+		if (latencyMillis < 0) {
+			throw new IllegalArgumentException("latencyMillis must not be negative");
+		}
+		this.latencyMillis = latencyMillis;
+		return this;
+	}
+
+	public long getLatencyJitterMillis() {
+		return latencyJitterMillis;
+	}
+
+	/**
+	 * Set the most time, chosen at random for each call, added to the latency.
+	 *
+	 * @param latencyJitterMillis the jitter in milliseconds
+	 * @return this config
+	 */
+	public InMemoryAmazonSQSConfig withLatencyJitterMillis(final long latencyJitterMillis) {
+		if (latencyJitterMillis < 0) {
+			throw new IllegalArgumentException("latencyJitterMillis must not be negative");
+		}
+		this.latencyJitterMillis = latencyJitterMillis;
+		return this;
+	}
+
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	/**
+	 * Set the fraction of calls that fail with a server error ({@code InternalError}, HTTP status 500).
+	 *
+	 * @param errorRate between 0 and 1
+	 * @return this config
+	 */
+	public InMemoryAmazonSQSConfig withErrorRate(final double errorRate) {
+		checkRate("errorRate", errorRate);
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	public double getThrottleRate() {
+		return throttleRate;
+	}
+
+	/**
+	 * Set the fraction of calls that are throttled ({@code ThrottlingException}, HTTP status 400).
+	 *
+	 * @param throttleRate between 0 and 1
+	 * @return this config
+	 */
+	public InMemoryAmazonSQSConfig withThrottleRate(final double throttleRate) {
+		checkRate("throttleRate", throttleRate);
+		this.throttleRate = throttleRate;
+		return this;
+	}
+
+	@Override
+	public InMemoryAmazonSQSConfig clone() {
+		try {
+			return (InMemoryAmazonSQSConfig) super.clone();
+		}
+		catch (final CloneNotSupportedException e) {
+			// this should never happen
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void checkRate(final String name, final double rate) {
+		if (rate < 0 || rate > 1) {
+			throw new IllegalArgumentException(name + " must be between 0 and 1");
+		}
+	}
+}
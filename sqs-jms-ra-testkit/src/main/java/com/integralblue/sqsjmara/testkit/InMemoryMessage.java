@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara.testkit;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+import com.amazonaws.util.StringUtils;
+
+/**
+ * A message held by an {@link InMemoryQueue}. Guarded by the queue's lock.
+ *
+ * @author Craig Andrews
+ *
+ */
+final class InMemoryMessage {
+	private final String messageId = UUID.randomUUID().toString();
+	private final String body;
+	private final String md5OfBody;
+	private final Map<String, MessageAttributeValue> messageAttributes;
+	private final Map<String, String> attributes = new HashMap<>();
+	private long visibleAtNanos;
+	private String receiptHandle;
+	private int receiveCount;
+
+	InMemoryMessage(
+			final String body,
+			final Map<String, MessageAttributeValue> messageAttributes,
+			final String messageGroupId,
+			final String messageDeduplicationId,
+			final long visibleAtNanos) {
+		this.body = body;
+		this.md5OfBody = BinaryUtils.toHex(Md5Utils.computeMD5Hash(body.getBytes(StringUtils.UTF8)));
+		this.messageAttributes = messageAttributes == null
+				? new HashMap<String, MessageAttributeValue>()
+				: new HashMap<>(messageAttributes);
+		this.visibleAtNanos = visibleAtNanos;
+		attributes.put(MessageSystemAttributeName.SenderId.toString(), InMemoryAmazonSQS.ACCOUNT_ID);
+		attributes.put(MessageSystemAttributeName.SentTimestamp.toString(), Long.toString(System.currentTimeMillis()));
+		if (messageGroupId != null) {
+			attributes.put(MessageSystemAttributeName.MessageGroupId.toString(), messageGroupId);
+		}
+		if (messageDeduplicationId != null) {
+			attributes.put(MessageSystemAttributeName.MessageDeduplicationId.toString(), messageDeduplicationId);
+		}
+	}
+
+	String getMessageId() {
+		return messageId;
+	}
+
+	String getMd5OfBody() {
+		return md5OfBody;
+	}
+
+	String getReceiptHandle() {
+		return receiptHandle;
+	}
+
+	long getVisibleAtNanos() {
+		return visibleAtNanos;
+	}
+
+	void setVisibleAtNanos(final long visibleAtNanos) {
+		this.visibleAtNanos = visibleAtNanos;
+	}
+
+	/**
+	 * Record a receive of this message.
+	 *
+	 * @param newReceiptHandle receipt handle of this receive, which replaces any earlier one
+	 * @param newVisibleAtNanos when the message becomes visible again
+	 * @return the message as returned by {@code ReceiveMessage}
+	 */
+	Message receive(final String newReceiptHandle, final long newVisibleAtNanos) {
+		receiptHandle = newReceiptHandle;
+		visibleAtNanos = newVisibleAtNanos;
+		receiveCount++;
+		if (receiveCount == 1) {
+			attributes.put(MessageSystemAttributeName.ApproximateFirstReceiveTimestamp.toString(), Long.toString(System.currentTimeMillis()));
+		}
+		attributes.put(MessageSystemAttributeName.ApproximateReceiveCount.toString(), Integer.toString(receiveCount));
+		return new Message()
+				.withMessageId(messageId)
+				.withReceiptHandle(receiptHandle)
+				.withBody(body)
+				.withMD5OfBody(md5OfBody)
+				.withAttributes(new HashMap<>(attributes))
+				.withMessageAttributes(new HashMap<>(messageAttributes));
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara.testkit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.MessageNotInflightException;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.ReceiptHandleIsInvalidException;
+
+/**
+ * One queue of an {@link InMemoryAmazonSQS}.
+ *
+ * Messages are kept in the order they were sent, except that a received message moves to the back, so that receives find visible
+ * messages without scanning past the ones in flight. Receives long-poll by waiting on the queue until a message is sent, becomes
+ * visible again, or the wait time runs out.
+ *
+ * @author Craig Andrews
+ *
+ */
+final class InMemoryQueue {
+	private static final String ALL_ATTRIBUTES = "All";
+
+	private final String name;
+	private final String url;
+	private final int visibilityTimeoutSeconds;
+	private final int delaySeconds;
+	private final int receiveMessageWaitTimeSeconds;
+	private final long createdTimestamp = System.currentTimeMillis();
+	private final Map<String, InMemoryMessage> messages = new LinkedHashMap<>();
+	private final Map<String, InMemoryMessage> messagesByReceiptHandle = new HashMap<>();
+	private boolean deleted;
+
+	InMemoryQueue(
+			final String name,
+			final String url,
+			final int visibilityTimeoutSeconds,
+			final int delaySeconds,
+			final int receiveMessageWaitTimeSeconds) {
+		this.name = name;
+		this.url = url;
+		this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+		this.delaySeconds = delaySeconds;
+		this.receiveMessageWaitTimeSeconds = receiveMessageWaitTimeSeconds;
+	}
+
+	String getUrl() {
+		return url;
+	}
+
+	int getReceiveMessageWaitTimeSeconds() {
+		return receiveMessageWaitTimeSeconds;
+	}
+
+	synchronized InMemoryMessage send(
+			final String body,
+			final Map<String, MessageAttributeValue> messageAttributes,
+			final Integer messageDelaySeconds,
+			final String messageGroupId,
+			final String messageDeduplicationId) {
+		checkNotDeleted();
+		final int delay = messageDelaySeconds == null ? delaySeconds : messageDelaySeconds;
+		final InMemoryMessage message = new InMemoryMessage(
+				body, messageAttributes, messageGroupId, messageDeduplicationId, System.nanoTime() + TimeUnit.SECONDS.toNanos(delay));
+		messages.put(message.getMessageId(), message);
+		if (delay == 0) {
+			notifyAll();
+		}
+		return message;
+	}
+
+	synchronized List<Message> receive(final int maxNumberOfMessages, final Integer messageVisibilityTimeoutSeconds, final long waitMillis)
+			throws InterruptedException {
+		final long timeout = TimeUnit.SECONDS.toNanos(messageVisibilityTimeoutSeconds == null ? visibilityTimeoutSeconds : messageVisibilityTimeoutSeconds);
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+		while (true) {
+			checkNotDeleted();
+			final long now = System.nanoTime();
+			long nextVisible = Long.MAX_VALUE;
+			final List<InMemoryMessage> visible = new ArrayList<>(maxNumberOfMessages);
+			for (final InMemoryMessage message : messages.values()) {
+				if (message.getVisibleAtNanos() - now <= 0) {
+					visible.add(message);
+					if (visible.size() == maxNumberOfMessages) {
+						break;
+					}
+				}
+				else {
+					nextVisible = Math.min(nextVisible, message.getVisibleAtNanos() - now);
+				}
+			}
+			if (!visible.isEmpty()) {
+				return receive(visible, now + timeout);
+			}
+			final long remaining = deadline - now;
+			if (remaining <= 0) {
+				return Collections.emptyList();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, nextVisible));
+		}
+	}
+
+	synchronized void delete(final String receiptHandle) {
+		checkNotDeleted();
+		final InMemoryMessage message = messagesByReceiptHandle.remove(checkReceiptHandle(receiptHandle));
+		if (message != null) {
+			messages.remove(message.getMessageId());
+		}
+		// as in SQS, deleting a message that was already deleted (or received again since) succeeds
+	}
+
+	synchronized void changeMessageVisibility(final String receiptHandle, final int timeoutSeconds) {
+		checkNotDeleted();
+		final InMemoryMessage message = messagesByReceiptHandle.get(checkReceiptHandle(receiptHandle));
+		final long now = System.nanoTime();
+		if (message == null || message.getVisibleAtNanos() - now <= 0) {
+			throw InMemoryAmazonSQS.clientError(
+					new MessageNotInflightException("Message does not exist or is not available for visibility timeout change"),
+					"AWS.SimpleQueueService.MessageNotInflight");
+		}
+		message.setVisibleAtNanos(now + TimeUnit.SECONDS.toNanos(timeoutSeconds));
+		if (timeoutSeconds == 0) {
+			notifyAll();
+		}
+	}
+
+	synchronized Map<String, String> getAttributes(final List<String> attributeNames) {
+		checkNotDeleted();
+		final long now = System.nanoTime();
+		int visible = 0;
+		int delayed = 0;
+		int notVisible = 0;
+		for (final InMemoryMessage message : messages.values()) {
+			if (message.getVisibleAtNanos() - now <= 0) {
+				visible++;
+			}
+			else if (message.getReceiptHandle() == null) {
+				delayed++;
+			}
+			else {
+				notVisible++;
+			}
+		}
+		final Map<String, String> all = new HashMap<>();
+		all.put(QueueAttributeName.QueueArn.toString(), "arn:aws:sqs:" + InMemoryAmazonSQS.REGION + ":" + InMemoryAmazonSQS.ACCOUNT_ID + ":" + name);
+		all.put(QueueAttributeName.VisibilityTimeout.toString(), Integer.toString(visibilityTimeoutSeconds));
+		all.put(QueueAttributeName.DelaySeconds.toString(), Integer.toString(delaySeconds));
+		all.put(QueueAttributeName.ReceiveMessageWaitTimeSeconds.toString(), Integer.toString(receiveMessageWaitTimeSeconds));
+		all.put(QueueAttributeName.CreatedTimestamp.toString(), Long.toString(TimeUnit.MILLISECONDS.toSeconds(createdTimestamp)));
+		all.put(QueueAttributeName.ApproximateNumberOfMessages.toString(), Integer.toString(visible));
+		all.put(QueueAttributeName.ApproximateNumberOfMessagesNotVisible.toString(), Integer.toString(notVisible));
+		all.put(QueueAttributeName.ApproximateNumberOfMessagesDelayed.toString(), Integer.toString(delayed));
+		if (attributeNames == null || attributeNames.isEmpty() || attributeNames.contains(ALL_ATTRIBUTES)) {
+			return all;
+		}
+		all.keySet().retainAll(attributeNames);
+		return all;
+	}
+
+	synchronized void purge() {
+		checkNotDeleted();
+		messages.clear();
+		messagesByReceiptHandle.clear();
+	}
+
+	/**
+	 * Delete the queue. Receives waiting on it fail.
+	 */
+	synchronized void delete() {
+		deleted = true;
+		purge();
+		notifyAll();
+	}
+
+	private List<Message> receive(final List<InMemoryMessage> visible, final long visibleAtNanos) {
+		final List<Message> received = new ArrayList<>(visible.size());
+		for (final InMemoryMessage message : visible) {
+			if (message.getReceiptHandle() != null) {
+				messagesByReceiptHandle.remove(message.getReceiptHandle());
+			}
+			final String receiptHandle = name + ":" + UUID.randomUUID();
+			received.add(message.receive(receiptHandle, visibleAtNanos));
+			messagesByReceiptHandle.put(receiptHandle, message);
+			// move to the back
+			messages.remove(message.getMessageId());
+			messages.put(message.getMessageId(), message);
+		}
+		return received;
+	}
+
+	private String checkReceiptHandle(final String receiptHandle) {
+		if (receiptHandle == null || !receiptHandle.startsWith(name + ":")) {
+			throw InMemoryAmazonSQS.clientError(
+					new ReceiptHandleIsInvalidException("The receipt handle \"" + receiptHandle + "\" is not valid for queue " + name),
+					"ReceiptHandleIsInvalid");
+		}
+		return receiptHandle;
+	}
+
+	private void checkNotDeleted() {
+		if (deleted) {
+			throw InMemoryAmazonSQS.queueDoesNotExist(name);
+		}
+	}
+}
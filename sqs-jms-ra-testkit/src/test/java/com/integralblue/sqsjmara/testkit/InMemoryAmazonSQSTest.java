@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara.testkit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageSystemAttributeName;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+
+/**
+ * Tests of the in-memory SQS stand-in's queue semantics and injected faults.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class InMemoryAmazonSQSTest {
+	private static final String QUEUE_NAME = "in-memory-test";
+
+	private InMemoryAmazonSQS amazonSQS;
+	private String queueUrl;
+
+	@Before
+	public void before() {
+		amazonSQS = new InMemoryAmazonSQS();
+		queueUrl = amazonSQS.createQueue(QUEUE_NAME).getQueueUrl();
+	}
+
+	private List<Message> receive(final int visibilityTimeoutSeconds) {
+		return amazonSQS.receiveMessage(new ReceiveMessageRequest(queueUrl)
+				.withMaxNumberOfMessages(10)
+				.withVisibilityTimeout(visibilityTimeoutSeconds)
+				.withWaitTimeSeconds(0)).getMessages();
+	}
+
+	private int count(final QueueAttributeName attribute) {
+		return Integer.parseInt(amazonSQS.getQueueAttributes(new GetQueueAttributesRequest(queueUrl).withAttributeNames(attribute))
+				.getAttributes().get(attribute.toString()));
+	}
+
+	@Test
+	public void testSendReceiveDelete() {
+		amazonSQS.sendMessage(queueUrl, "hello");
+		final List<Message> messages = receive(30);
+		assertThat(messages.size(), equalTo(1));
+		assertThat(messages.get(0).getBody(), equalTo("hello"));
+		assertThat(messages.get(0).getAttributes().get(MessageSystemAttributeName.ApproximateReceiveCount.toString()), equalTo("1"));
+		// invisible while in flight
+		assertTrue(receive(30).isEmpty());
+		assertThat(count(QueueAttributeName.ApproximateNumberOfMessagesNotVisible), equalTo(1));
+		amazonSQS.deleteMessage(queueUrl, messages.get(0).getReceiptHandle());
+		assertThat(count(QueueAttributeName.ApproximateNumberOfMessagesNotVisible), equalTo(0));
+		assertThat(count(QueueAttributeName.ApproximateNumberOfMessages), equalTo(0));
+	}
+
+	@Test
+	public void testRedeliveredAfterVisibilityTimeout() throws InterruptedException {
+		amazonSQS.sendMessage(queueUrl, "redelivered");
+		assertThat(receive(1).size(), equalTo(1));
+		Thread.sleep(1100);
+		final List<Message> messages = receive(1);
+		assertThat(messages.size(), equalTo(1));
+		assertThat(messages.get(0).getAttributes().get(MessageSystemAttributeName.ApproximateReceiveCount.toString()), equalTo("2"));
+	}
+
+	@Test
+	public void testChangeVisibilityToZeroReturnsMessage() {
+		amazonSQS.sendMessage(queueUrl, "returned");
+		final Message message = receive(30).get(0);
+		amazonSQS.changeMessageVisibility(queueUrl, message.getReceiptHandle(), 0);
+		assertThat(receive(30).size(), equalTo(1));
+	}
+
+	@Test
+	public void testDelayedMessage() throws InterruptedException {
+		amazonSQS.sendMessage(new SendMessageRequest(queueUrl, "delayed").withDelaySeconds(1));
+		assertTrue(receive(30).isEmpty());
+		assertThat(count(QueueAttributeName.ApproximateNumberOfMessagesDelayed), equalTo(1));
+		Thread.sleep(1100);
+		assertThat(receive(30).size(), equalTo(1));
+	}
+
+	@Test
+	public void testLongPollReturnsWhenMessageSent() {
+		final Thread sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				amazonSQS.sendMessage(queueUrl, "long polled");
+			}
+		});
+		sender.start();
+		final long start = System.currentTimeMillis();
+		final List<Message> messages = amazonSQS.receiveMessage(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(10)).getMessages();
+		assertThat(messages.size(), equalTo(1));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+	@Test
+	public void testBatches() {
+		final SendMessageBatchResult sent = amazonSQS.sendMessageBatch(new SendMessageBatchRequest(queueUrl).withEntries(
+				new SendMessageBatchRequestEntry("1", "one"),
+				new SendMessageBatchRequestEntry("2", "two")));
+		assertThat(sent.getSuccessful().size(), equalTo(2));
+		final List<Message> messages = receive(30);
+		assertThat(messages.size(), equalTo(2));
+		final DeleteMessageBatchResult deleted = amazonSQS.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl).withEntries(
+				new DeleteMessageBatchRequestEntry("1", messages.get(0).getReceiptHandle()),
+				new DeleteMessageBatchRequestEntry("2", "not a receipt handle")));
+		assertThat(deleted.getSuccessful().size(), equalTo(1));
+		assertThat(deleted.getFailed().size(), equalTo(1));
+		assertThat(deleted.getFailed().get(0).getId(), equalTo("2"));
+		assertThat(deleted.getFailed().get(0).getSenderFault(), equalTo(true));
+	}
+
+	@Test
+	public void testBatchLimits() {
+		final SendMessageBatchRequest tooMany = new SendMessageBatchRequest(queueUrl);
+		for (int i = 0; i < 11; i++) {
+			tooMany.withEntries(new SendMessageBatchRequestEntry(Integer.toString(i), "message"));
+		}
+		try {
+			amazonSQS.sendMessageBatch(tooMany);
+			fail("a batch holds at most 10 entries");
+		}
+		catch (final AmazonServiceException e) {
+			assertThat(e.getErrorCode(), equalTo("AWS.SimpleQueueService.TooManyEntriesInBatchRequest"));
+		}
+	}
+
+	@Test
+	public void testQueuesCreatedOnlyWhenConfigured() {
+		try {
+			amazonSQS.getQueueUrl("missing");
+			fail("the queue does not exist");
+		}
+		catch (final QueueDoesNotExistException e) {
+			assertThat(e.getErrorCode(), equalTo("AWS.SimpleQueueService.NonExistentQueue"));
+		}
+		final InMemoryAmazonSQS autoCreating = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true));
+		assertTrue(autoCreating.getQueueUrl("created").getQueueUrl().endsWith("/created"));
+	}
+
+	@Test
+	public void testInjectedFaults() {
+		final InMemoryAmazonSQS throttling = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withThrottleRate(1));
+		try {
+			throttling.listQueues();
+			fail("every call is throttled");
+		}
+		catch (final AmazonServiceException e) {
+			assertThat(RetryUtils.isThrottlingException(e), equalTo(true));
+		}
+		final InMemoryAmazonSQS failing = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withErrorRate(1));
+		try {
+			failing.listQueues();
+			fail("every call fails");
+		}
+		catch (final AmazonServiceException e) {
+			assertThat(e.getStatusCode(), equalTo(500));
+			assertThat(RetryUtils.isRetryableServiceException(e), equalTo(true));
+		}
+	}
+
+	@Test
+	public void testInjectedLatency() {
+		final InMemoryAmazonSQS slow = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withLatencyMillis(100));
+		final long start = System.nanoTime();
+		slow.listQueues();
+		assertTrue(System.nanoTime() - start >= 100_000_000L);
+	}
+}
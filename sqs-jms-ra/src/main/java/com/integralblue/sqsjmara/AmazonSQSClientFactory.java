@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+
+/**
+ * Builds the {@link AmazonSQS} clients the resource adapter uses to talk to SQS.
+ *
+ * By default clients are built with the AWS SDK's client builders. Setting the resource adapter's {@code amazonSQSClientFactory}
+ * property to the name of a class implementing this interface (with a public no-argument constructor) replaces them, for example
+ * with an in-process stand-in for SQS so that the adapter can be tested without AWS.
+ *
+ * Clients are shared (see {@link SQSJMSClientRegistry}), so a factory is called once for each distinct combination of region,
+ * credentials and send batching in use, and each client it returns is shut down when it is no longer used.
+ *
+ * @author Craig Andrews
+ *
+ */
+public interface AmazonSQSClientFactory {
+	/**
+	 * Create a client.
+	 *
+	 * @param region region of the client
+	 * @param credentialsProvider credentials the client should use
+	 * @param requestHandler handler that records the requests the client sends; clients that send requests with the AWS SDK
+	 *     should run it, others may ignore it
+	 * @return the client
+	 */
+	AmazonSQS createClient(String region, AWSCredentialsProvider credentialsProvider, RequestHandler2 requestHandler);
+
+	/**
+	 * Create an asynchronous client, which the resource adapter wraps in a buffering client to collect sends into batches.
+	 *
+	 * @param region region of the client
+	 * @param credentialsProvider credentials the client should use
+	 * @param requestHandler handler that records the requests the client sends; clients that send requests with the AWS SDK
+	 *     should run it, others may ignore it
+	 * @return the client
+	 */
+	AmazonSQSAsync createAsyncClient(String region, AWSCredentialsProvider credentialsProvider, RequestHandler2 requestHandler);
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.List;
+
+import javax.jms.Message;
+
+/**
+ * Message listener interface for endpoints that process several messages in one delivery.
+ *
+ * Batches hold at most {@link SQSJMSActivationSpec#getMaxBatchSize()} messages, received from SQS together or collected over
+ * at most {@link SQSJMSActivationSpec#getMaxBatchWaitMillis()}. Batches are always delivered by the adapter's own receive loop,
+ * as with the {@code workManager} dispatch mode.
+ *
+ * If {@link #onMessages(List)} returns normally, every message is acknowledged (in the client-acknowledge mode, the listener
+ * acknowledges the messages itself). If it throws, every message that the listener has not acknowledged is redelivered, so a
+ * listener can acknowledge the messages it did process before failing.
+ *
+ * @author Craig Andrews
+ *
+ */
+public interface BatchMessageListener {
+	/**
+	 * Process a batch of messages.
+	 *
+	 * @param messages the messages, never empty
+	 */
+	void onMessages(List<Message> messages);
+}
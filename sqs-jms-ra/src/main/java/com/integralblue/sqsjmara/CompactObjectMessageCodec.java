@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Java serialization with compact class descriptors.
+ *
+ * Java serialization describes the class of each object it writes by its name, serial version UID and the names and types of all
+ * of its fields, which for small domain objects often takes more space than their data. This codec writes the class name, the
+ * serial version UID and a hash of the fields instead, and the receiver uses its own description of the class; a receiver whose
+ * class has a different serial version UID or different fields fails to decode the object rather than misreading it, so unlike
+ * Java serialization both sides must have the same version of each class.
+ * Everything else, including custom {@code writeObject} and {@code readObject} methods, enums and proxies, works as in Java
+ * serialization.
+ *
+ * Resolving a class by name is slow, so the classes found are cached for each class loader (without keeping either the class
+ * loaders or the classes from being unloaded).
+ *
+ * @author Craig Andrews
+ *
+ */
+public final class CompactObjectMessageCodec implements ObjectMessageCodec {
+	/**
+	 * Id of this codec.
+	 */
+	public static final String ID = "compact";
+
+	private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<>();
+
+	static {
+		for (final Class<?> primitiveType : new Class<?>[] {Boolean.TYPE, Byte.TYPE, Character.TYPE, Short.TYPE, Integer.TYPE, Long.TYPE, Float.TYPE, Double.TYPE, Void.TYPE}) {
+			PRIMITIVE_TYPES.put(primitiveType.getName(), primitiveType);
+		}
+	}
+
+	private final Map<ClassLoader, ConcurrentMap<String, WeakReference<Class<?>>>> classCaches = new WeakHashMap<>();
+
+	@Override
+	public String getId() {
+		return ID;
+	}
+
+	@Override
+	public byte[] encode(final Serializable object) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new CompactObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public Serializable decode(final byte[] encoded, final ClassLoader classLoader) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new CompactObjectInputStream(new ByteArrayInputStream(encoded), classLoader, classCache(classLoader))) {
+			return (Serializable) in.readObject();
+		}
+	}
+
+	private ConcurrentMap<String, WeakReference<Class<?>>> classCache(final ClassLoader classLoader) {
+		synchronized (classCaches) {
+			ConcurrentMap<String, WeakReference<Class<?>>> classCache = classCaches.get(classLoader);
+			if (classCache == null) {
+				classCache = new ConcurrentHashMap<>();
+				classCaches.put(classLoader, classCache);
+			}
+			return classCache;
+		}
+	}
+
+	/**
+	 * Hash of the names and types of a class's serializable fields.
+	 *
+	 * @param descriptor description of the class
+	 * @return the hash
+	 */
+	private static int fieldsHash(final ObjectStreamClass descriptor) {
+		int hash = 1;
+		for (final ObjectStreamField field : descriptor.getFields()) {
+			hash = 31 * hash + field.getName().hashCode();
+			hash = 31 * hash + (field.isPrimitive() ? field.getTypeCode() : field.getTypeString().hashCode());
+		}
+		return hash;
+	}
+
+	/**
+	 * Writes class descriptors as the class name, serial version UID and fields hash.
+	 */
+	private static final class CompactObjectOutputStream extends ObjectOutputStream {
+		CompactObjectOutputStream(final OutputStream out) throws IOException {
+			super(out);
+		}
+
+		@Override
+		protected void writeClassDescriptor(final ObjectStreamClass descriptor) throws IOException {
+			writeUTF(descriptor.getName());
+			writeLong(descriptor.getSerialVersionUID());
+			writeInt(fieldsHash(descriptor));
+		}
+	}
+
+	/**
+	 * Reads the class descriptors written by {@link CompactObjectOutputStream}, resolving classes with one class loader.
+	 */
+	private static final class CompactObjectInputStream extends ObjectInputStream {
+		private final ClassLoader classLoader;
+		private final ConcurrentMap<String, WeakReference<Class<?>>> classCache;
+
+		CompactObjectInputStream(
+				final InputStream in,
+				final ClassLoader classLoader,
+				final ConcurrentMap<String, WeakReference<Class<?>>> classCache) throws IOException {
+			super(in);
+			this.classLoader = classLoader;
+			this.classCache = classCache;
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			final String name = readUTF();
+			final long serialVersionUID = readLong();
+			final int fieldsHash = readInt();
+			final ObjectStreamClass descriptor = ObjectStreamClass.lookupAny(resolve(name));
+			if (descriptor.getSerialVersionUID() != serialVersionUID || fieldsHash(descriptor) != fieldsHash) {
+				throw new InvalidClassException(name, "local class is not the version the object was encoded with");
+			}
+			return descriptor;
+		}
+
+		@Override
+		protected Class<?> resolveClass(final ObjectStreamClass descriptor) throws IOException, ClassNotFoundException {
+			return resolve(descriptor.getName());
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(final String[] interfaceNames) throws IOException, ClassNotFoundException {
+			final Class<?>[] interfaces = new Class<?>[interfaceNames.length];
+			for (int i = 0; i < interfaceNames.length; i++) {
+				interfaces[i] = resolve(interfaceNames[i]);
+			}
+			try {
+				return Proxy.getProxyClass(classLoader, interfaces);
+			}
+			catch (final IllegalArgumentException e) {
+				throw new ClassNotFoundException("Failed to create a proxy class for " + interfaceNames.length + " interfaces", e);
+			}
+		}
+
+		private Class<?> resolve(final String name) throws ClassNotFoundException {
+			final WeakReference<Class<?>> cached = classCache.get(name);
+			Class<?> resolved = cached == null ? null : cached.get();
+			if (resolved == null) {
+				resolved = PRIMITIVE_TYPES.get(name);
+				if (resolved == null) {
+					resolved = Class.forName(name, false, classLoader);
+				}
+				classCache.put(name, new WeakReference<Class<?>>(resolved));
+			}
+			return resolved;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClientBuilder;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+
+/**
+ * {@link AmazonSQSClientFactory} that builds clients with the AWS SDK's client builders.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class DefaultAmazonSQSClientFactory implements AmazonSQSClientFactory {
+	@Override
+	public AmazonSQS createClient(final String region, final AWSCredentialsProvider credentialsProvider, final RequestHandler2 requestHandler) {
+		return AmazonSQSClientBuilder.standard()
+				.withRegion(Regions.fromName(region))
+				.withCredentials(credentialsProvider)
+				.withRequestHandlers(requestHandler)
+				.build();
+	}
+
+	@Override
+	public AmazonSQSAsync createAsyncClient(final String region, final AWSCredentialsProvider credentialsProvider, final RequestHandler2 requestHandler) {
+		return AmazonSQSAsyncClientBuilder.standard()
+				.withRegion(Regions.fromName(region))
+				.withCredentials(credentialsProvider)
+				.withRequestHandlers(requestHandler)
+				.build();
+	}
+}
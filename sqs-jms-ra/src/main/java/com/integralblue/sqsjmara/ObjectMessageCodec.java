@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Encodes the bodies of {@link javax.jms.ObjectMessage}s in place of Java serialization.
+ *
+ * Setting the managed connection factory's {@code objectMessageCodec} property to {@value CompactObjectMessageCodec#ID}, or to the
+ * name of a class implementing this interface (with a public no-argument constructor), makes the object messages created by its
+ * sessions encode their objects with that codec. The codec's {@link #getId() id} is sent with each message, and endpoints decode
+ * it with the codec of that id: the built-in {@link CompactObjectMessageCodec} is always available, and other codecs are configured
+ * with the activation spec's {@code objectMessageCodec} property. Messages sent without a codec use Java serialization, so
+ * senders and receivers can be moved to a codec one at a time.
+ *
+ * Codecs are shared by every session and endpoint that use them, so they must be safe to use from several threads at once.
+ *
+ * @author Craig Andrews
+ *
+ */
+public interface ObjectMessageCodec {
+	/**
+	 * Identifies the encoding on the wire.
+	 *
+	 * @return the id, which must not change for as long as messages encoded with it may be waiting in a queue
+	 */
+	String getId();
+
+	/**
+	 * Encode an object.
+	 *
+	 * @param object the object to encode, never null
+	 * @return the encoded object
+	 * @throws IOException if the object cannot be encoded
+	 */
+	byte[] encode(Serializable object) throws IOException;
+
+	/**
+	 * Decode an object.
+	 *
+	 * @param encoded an object encoded by a codec with the same id
+	 * @param classLoader class loader of the endpoint receiving the object, which classes should be resolved with
+	 * @return the object
+	 * @throws IOException if the object cannot be decoded
+	 * @throws ClassNotFoundException if a class of the object cannot be found
+	 */
+	Serializable decode(byte[] encoded, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.resource.spi.work.WorkManager;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+
+/**
+ * Coalesces the single message deletes that acknowledge messages into {@code DeleteMessageBatch} calls.
+ *
+ * A {@link SQSJMSClientDecorator} with the batcher hands it its {@code deleteMessage} calls, and {@link #add(DeleteMessageRequest)}
+ * only queues the receipt handle; batches are sent with the client the batcher was created with. Queued deletes are sent when
+ * {@value SQSMessagingClientConstants#MAX_BATCH} are waiting for a queue, or when the batch window elapses. Entries that fail in a
+ * batch are retried one at a time. Deletes queued when the window elapses are sent with a {@link SQSJMSPeriodicWork}, so that
+ * they do not block the timer shared by the activations.
+ *
+ * A delete from a FIFO queue does not return until its batch has been sent, and throws if the message could not be deleted,
+ * as an unbatched delete would. Otherwise the next message of the group could be processed while the delete of the one before
+ * it is still queued, and if that delete then failed, the earlier message would be redelivered after the later one. Deletes
+ * from different message groups are still sent together. A delete still queued after the batch window sends its queue's batch
+ * itself, so it is not left waiting for a flush that cannot be scheduled while every work thread is waiting for a delete.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSAcknowledgementBatcher {
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSAcknowledgementBatcher.class.getName());
+
+	private static final String FIFO_SUFFIX = ".fifo";
+
+	private final AmazonSQS amazonSQS;
+	private final Map<String, List<PendingDelete>> pending = new HashMap<>();
+	private final long batchWindowMillis;
+	private final SQSJMSPeriodicWork flushWork;
+
+	SQSJMSAcknowledgementBatcher(final AmazonSQS amazonSQS, final Timer timer, final WorkManager workManager, final long batchWindowMillis) {
+		this.amazonSQS = amazonSQS;
+		this.batchWindowMillis = batchWindowMillis;
+		flushWork = new SQSJMSPeriodicWork(
+				"SQS acknowledgement batch flush",
+				new Runnable() {
+					@Override
+					public void run() {
+						flush();
+					}
+				},
+				timer,
+				workManager,
+				batchWindowMillis);
+	}
+
+	/**
+	 * Stop the batch window timer and send everything still queued.
+	 */
+	void close() {
+		flushWork.cancel();
+		flush();
+	}
+
+	/**
+	 * Queue a delete, to be sent with the next batch for its queue.
+	 *
+	 * @param request the delete
+	 * @throws AmazonClientException if the queue is a FIFO queue and the message could not be deleted
+	 */
+	void add(final DeleteMessageRequest request) {
+		final PendingDelete delete = new PendingDelete(request.getReceiptHandle());
+		final List<PendingDelete> batch = queue(request.getQueueUrl(), delete);
+		if (batch != null) {
+			deleteMessageBatch(request.getQueueUrl(), batch);
+		}
+		if (request.getQueueUrl().endsWith(FIFO_SUFFIX) && !delete.await(batchWindowMillis)) {
+			final List<PendingDelete> late = take(request.getQueueUrl());
+			if (late != null) {
+				deleteMessageBatch(request.getQueueUrl(), late);
+			}
+			// if another thread took the batch, it is sending it now
+			delete.await(Long.MAX_VALUE);
+		}
+	}
+
+	private List<PendingDelete> take(final String queueUrl) {
+		synchronized (pending) {
+			return pending.remove(queueUrl);
+		}
+	}
+
+	/**
+	 * Queue a delete.
+	 *
+	 * @param queueUrl queue to delete from
+	 * @param delete the delete
+	 * @return the queue's batch, taken to be sent now, if the delete filled it; otherwise null
+	 */
+	@SuppressWarnings({"PMD.NcssCount", "PMD.NullAssignment"})
+	private List<PendingDelete> queue(final String queueUrl, final PendingDelete delete) {
+		synchronized (pending) {
+			List<PendingDelete> deletes = pending.get(queueUrl);
+			if (deletes == null) {
+				deletes = new ArrayList<>(SQSMessagingClientConstants.MAX_BATCH);
+				pending.put(queueUrl, deletes);
+			}
+			deletes.add(delete);
+			return deletes.size() < SQSMessagingClientConstants.MAX_BATCH ? null : pending.remove(queueUrl);
+		}
+	}
+
+	private void flush() {
+		final Map<String, List<PendingDelete>> batches;
+		synchronized (pending) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			batches = new HashMap<>(pending);
+			pending.clear();
+		}
+		for (final Map.Entry<String, List<PendingDelete>> batch : batches.entrySet()) {
+			deleteMessageBatch(batch.getKey(), batch.getValue());
+		}
+	}
+
+	private void deleteMessageBatch(final String queueUrl, final List<PendingDelete> deletes) {
+		try {
+			sendBatch(queueUrl, deletes);
+		}
+		finally {
+			// release anyone waiting for a delete the batch did not get to, such as after an unexpected exception
+			for (final PendingDelete delete : deletes) {
+				delete.failIfWaiting();
+			}
+		}
+	}
+
+	@SuppressWarnings("PMD.NcssCount")
+	private void sendBatch(final String queueUrl, final List<PendingDelete> deletes) {
+		final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(deletes.size());
+		for (int i = 0; i < deletes.size(); i++) {
+			entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), deletes.get(i).receiptHandle));
+		}
+		final DeleteMessageBatchResult result;
+		try {
+			result = amazonSQS.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries));
+		}
+		catch (final AmazonClientException e) {
+			LOGGER.log(Level.FINE, "Batch delete from " + queueUrl + " failed; deleting messages one at a time", e);
+			for (final PendingDelete delete : deletes) {
+				deleteMessage(queueUrl, delete);
+			}
+			return;
+		}
+		final boolean[] retried = new boolean[deletes.size()];
+		for (final BatchResultErrorEntry failed : result.getFailed()) {
+			final int index = Integer.parseInt(failed.getId());
+			retried[index] = true;
+			deleteMessage(queueUrl, deletes.get(index));
+		}
+		for (int i = 0; i < deletes.size(); i++) {
+			if (!retried[i]) {
+				deletes.get(i).sent(null);
+			}
+		}
+	}
+
+	private void deleteMessage(final String queueUrl, final PendingDelete delete) {
+		try {
+			amazonSQS.deleteMessage(new DeleteMessageRequest(queueUrl, delete.receiptHandle));
+			delete.sent(null);
+		}
+		catch (final AmazonClientException e) {
+			LOGGER.log(Level.WARNING, "Failed to delete message from " + queueUrl + "; it will be redelivered", e);
+			delete.sent(e);
+		}
+	}
+
+	/**
+	 * A queued delete, which can be waited for until its batch has been sent.
+	 */
+	private static final class PendingDelete {
+		private final String receiptHandle;
+		private final CountDownLatch done = new CountDownLatch(1);
+		// set before the latch is counted down, and read after it is, so the latch makes it visible
+		private AmazonClientException failure;
+
+		PendingDelete(final String receiptHandle) {
+			this.receiptHandle = receiptHandle;
+		}
+
+		void sent(final AmazonClientException deleteFailure) {
+			failure = deleteFailure;
+			done.countDown();
+		}
+
+		void failIfWaiting() {
+			if (done.getCount() > 0) {
+				sent(new AmazonClientException("Failed to send the delete of a message; it will be redelivered"));
+			}
+		}
+
+		/**
+		 * Wait until the delete has been sent.
+		 *
+		 * @param timeoutMillis longest time to wait
+		 * @return true if the delete was sent, false if it is still queued
+		 * @throws AmazonClientException if the message could not be deleted, or the wait was interrupted (the delete is still
+		 *     sent with its batch)
+		 */
+		boolean await(final long timeoutMillis) {
+			try {
+				if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					return false;
+				}
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AmazonClientException("Interrupted waiting for the delete of a message to be sent", e);
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.JMSException;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazon.sqs.javamessaging.acknowledge.Acknowledger;
+import com.amazon.sqs.javamessaging.acknowledge.SQSMessageIdentifier;
+import com.amazon.sqs.javamessaging.message.SQSMessage;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+
+/**
+ * {@link Acknowledger} for messages received by the resource adapter itself (rather than by an SQS JMS consumer).
+ *
+ * Acknowledgements may be made from any thread, in any order; the adapter, not a session, tracks which messages are outstanding.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+class SQSJMSAcknowledger implements Acknowledger {
+	private final AmazonSQS amazonSQS;
+
+	SQSJMSAcknowledger(final AmazonSQS amazonSQS) {
+		this.amazonSQS = amazonSQS;
+	}
+
+	@Override
+	public void acknowledge(final SQSMessage message) throws JMSException {
+		delete(message);
+	}
+
+	/**
+	 * Acknowledge messages received together from one queue, using {@code DeleteMessageBatch} for more than one message.
+	 * Entries that fail in a batch are retried one at a time.
+	 *
+	 * @param messages the messages to acknowledge
+	 * @throws JMSException if a message could not be deleted
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	void acknowledge(final List<SQSMessage> messages) throws JMSException {
+		if (messages.size() == 1) {
+			delete(messages.get(0));
+			return;
+		}
+		for (int start = 0; start < messages.size(); start += SQSMessagingClientConstants.MAX_BATCH) {
+			final List<SQSMessage> batch = messages.subList(start, Math.min(start + SQSMessagingClientConstants.MAX_BATCH, messages.size()));
+			final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+				entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), batch.get(i).getReceiptHandle()));
+			}
+			final DeleteMessageBatchResult result;
+			try {
+				result = amazonSQS.deleteMessageBatch(new DeleteMessageBatchRequest(batch.get(0).getQueueUrl(), entries));
+			}
+			catch (final AmazonClientException e) {
+				throw toJMSException("Failed to acknowledge " + batch.size() + " messages", e);
+			}
+			for (final BatchResultErrorEntry failed : result.getFailed()) {
+				delete(batch.get(Integer.parseInt(failed.getId())));
+			}
+		}
+	}
+
+	private void delete(final SQSMessage message) throws JMSException {
+		try {
+			amazonSQS.deleteMessage(new DeleteMessageRequest(message.getQueueUrl(), message.getReceiptHandle()));
+		}
+		catch (final AmazonClientException e) {
+			throw toJMSException("Failed to acknowledge message " + message.getSQSMessageId(), e);
+		}
+	}
+
+	/**
+	 * Make a message immediately visible again so that it is redelivered.
+	 *
+	 * @param message the message to redeliver
+	 * @throws JMSException if the visibility timeout could not be changed
+	 */
+	public void negativeAcknowledge(final SQSMessage message) throws JMSException {
+		try {
+			amazonSQS.changeMessageVisibility(new ChangeMessageVisibilityRequest(message.getQueueUrl(), message.getReceiptHandle(), 0));
+		}
+		catch (final AmazonClientException e) {
+			throw toJMSException("Failed to negatively acknowledge message " + message.getSQSMessageId(), e);
+		}
+	}
+
+	@Override
+	public void notifyMessageReceived(final SQSMessage message) throws JMSException {
+		// nothing to track; see acknowledge
+	}
+
+	@Override
+	public List<SQSMessageIdentifier> getUnAckMessages() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void forgetUnAckMessages() {
+		// nothing to forget; see acknowledge
+	}
+
+	static JMSException toJMSException(final String reason, final Exception e) {
+		final JMSException jmsException = new JMSException(reason);
+		jmsException.initCause(e);
+		jmsException.setLinkedException(e);
+		return jmsException;
+	}
+}
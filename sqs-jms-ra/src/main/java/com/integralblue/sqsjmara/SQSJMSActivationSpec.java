@@ -25,6 +25,8 @@ import javax.resource.spi.ActivationSpec;
 import javax.resource.spi.ConfigProperty;
 import javax.resource.spi.InvalidPropertyException;
 import javax.resource.spi.ResourceAdapter;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
 
@@ -47,9 +49,28 @@ import com.amazonaws.util.StringUtils;
  * @author Craig Andrews
  *
  */
-@SuppressWarnings("serial")
-@Activation(messageListeners = { javax.jms.MessageListener.class })
+@SuppressWarnings({"serial", "PMD.TooManyFields", "PMD.ExcessivePublicCount", "PMD.NcssCount", "PMD.CyclomaticComplexity"})
+@Activation(messageListeners = { javax.jms.MessageListener.class, BatchMessageListener.class })
 public class SQSJMSActivationSpec implements ActivationSpec, Serializable, AWSCredentialsProvider {
+	/**
+	 * Each session's consumer delivers messages to the endpoint on the SQS JMS library's callback thread.
+	 */
+	public static final String DISPATCH_MODE_SESSION = "session";
+
+	/**
+	 * The adapter receives messages itself and delivers each one as {@link javax.resource.spi.work.Work} submitted to the container's {@link javax.resource.spi.work.WorkManager}.
+	 */
+	public static final String DISPATCH_MODE_WORK_MANAGER = "workManager";
+
+	/**
+	 * With several queues, busy queues are received from more often, and empty ones less.
+	 */
+	public static final String POLLING_MODE_WEIGHTED = "weighted";
+
+	/**
+	 * With several queues, each is only received from while every queue listed before it is empty.
+	 */
+	public static final String POLLING_MODE_PRIORITY = "priority";
 
 	private ResourceAdapter adapter;
 
@@ -70,7 +91,7 @@ public class SQSJMSActivationSpec implements ActivationSpec, Serializable, AWSCr
 	@NotNull
 	private Boolean useJndi = true;
 
-	@ConfigProperty(description = "Destination (queue) from which messages are consumed. If useJndi, then treated as a JNDI name. Otherwise, treated as the name of a queue.")
+	@ConfigProperty(description = "Destination (queue) from which messages are consumed. If useJndi, then treated as a JNDI name. Otherwise, treated as the name of a queue. In the 'workManager' dispatch mode (and for batch listeners), may instead be a comma separated list of such names, and of queue name prefixes ending in '*' (such as 'orders-*'), to consume from every matching queue (in order of name) with one client and one pool of workers, choosing the queue to receive from as set by pollingMode. The queues must be all FIFO queues or all standard queues.")
 	@NotNull
 	private String destination;
 
@@ -79,6 +100,132 @@ public class SQSJMSActivationSpec implements ActivationSpec, Serializable, AWSCr
 	@Pattern(regexp = "^javax\\.jms\\.Queue$")
 	private String destinationType = Queue.class.getName();
 
+	@ConfigProperty(description = "Number of sessions (each with its own consumer) opened when the endpoint is activated.", defaultValue = "1")
+	@NotNull
+	private Integer minSessions = 1;
+
+	@ConfigProperty(description = "Maximum number of sessions (each with its own consumer) used to deliver messages concurrently to the endpoint. An additional session is opened, up to this number, once all open sessions have been busy for sessionGrowthDelayMillis, and sessions beyond minSessions are closed once idle for sessionIdleTimeoutSeconds.", defaultValue = "1")
+	@NotNull
+	private Integer maxSessions = 1;
+
+	@ConfigProperty(description = "How long in milliseconds every open session must stay busy delivering before another session is opened.", defaultValue = "1000")
+	@NotNull
+	@Min(1)
+	private Long sessionGrowthDelayMillis = 1000L;
+
+	@ConfigProperty(description = "How long in seconds a session opened beyond minSessions may stay idle before it is closed.", defaultValue = "60")
+	@NotNull
+	@Min(1)
+	private Integer sessionIdleTimeoutSeconds = 60;
+
+	@ConfigProperty(description = "How received messages are delivered to the endpoint. Values are 'session' (on each session's consumer thread) and 'workManager' (as Work submitted to the container's WorkManager).", defaultValue = DISPATCH_MODE_SESSION)
+	@NotNull
+	@Pattern(regexp = "^(?i)(session|workManager)$")
+	private String dispatchMode = DISPATCH_MODE_SESSION;
+
+	@ConfigProperty(description = "In the 'workManager' dispatch mode, the maximum number of received messages waiting for or undergoing delivery. Receiving pauses while this many are outstanding.", defaultValue = "10")
+	@NotNull
+	private Integer workQueueSize = 10;
+
+	@ConfigProperty(description = "In the 'workManager' dispatch mode, the number of stripes deliveries from a FIFO queue are spread over by message group (or from a standard queue, by affinityKey). Each stripe delivers one message at a time, in the order received, so the messages of a group are delivered in order while up to this many groups are delivered in parallel.", defaultValue = "10")
+	@NotNull
+	@Min(1)
+	private Integer dispatchStripes = 10;
+
+	@ConfigProperty(description = "In the 'workManager' dispatch mode, the name of a message property (or SQS message attribute) whose value spreads deliveries from a standard queue over the dispatch stripes, as the message group does for a FIFO queue: messages with the same value are never delivered concurrently, while different values are delivered in parallel. Ignored for FIFO queues.")
+	private String affinityKey;
+
+	@ConfigProperty(description = "The most messages waiting on one dispatch stripe; once a stripe is full, receiving waits until it has room.", defaultValue = "10")
+	@NotNull
+	@Min(1)
+	private Integer stripeQueueSize = 10;
+
+	@ConfigProperty(description = "In the auto-acknowledge and dups-ok-acknowledge modes, delete acknowledged messages in batches (DeleteMessageBatch) instead of one request per message. An acknowledgement of a message from a FIFO queue waits until its batch is deleted, so the next message of its group is not delivered before it is deleted; this adds up to acknowledgementBatchWindowMillis to each message of a group.", defaultValue = "false")
+	@NotNull
+	private Boolean batchAcknowledgements = false;
+
+	@ConfigProperty(description = "When batchAcknowledgements is enabled, the longest time in milliseconds an acknowledgement waits for its batch to fill before the batch is sent.", defaultValue = "100")
+	@NotNull
+	private Long acknowledgementBatchWindowMillis = 100L;
+
+	@ConfigProperty(description = "For BatchMessageListener endpoints, the maximum number of messages delivered in one batch.", defaultValue = "10")
+	@NotNull
+	private Integer maxBatchSize = 10;
+
+	@ConfigProperty(description = "For BatchMessageListener endpoints, the longest time in milliseconds received messages are held while a batch fills. With 0, the messages from each receive are delivered as they are.", defaultValue = "0")
+	@NotNull
+	private Long maxBatchWaitMillis = 0L;
+
+	@ConfigProperty(description = "In the 'session' dispatch mode, the number of messages each session's consumer receives ahead of delivery. 0 disables prefetching.", defaultValue = "1")
+	@NotNull
+	@Min(0)
+	private Integer numberOfMessagesToPrefetch = 1;
+
+	@ConfigProperty(description = "Longest time in seconds a ReceiveMessage request waits (long-polls) for messages to arrive. 0 polls without waiting.", defaultValue = "20")
+	@NotNull
+	@Min(0)
+	@Max(SQSJMSReceiveTuning.MAX_WAIT_TIME_SECONDS)
+	private Integer receiveWaitTimeSeconds = SQSJMSReceiveTuning.MAX_WAIT_TIME_SECONDS;
+
+	@ConfigProperty(description = "Visibility timeout in seconds for received messages. If not set, the queue's visibility timeout is used.")
+	@Min(0)
+	@Max(SQSJMSReceiveTuning.MAX_VISIBILITY_TIMEOUT_SECONDS)
+	private Integer visibilityTimeoutSeconds;
+
+	@ConfigProperty(description = "In the 'workManager' dispatch mode (and for batch listeners), adjust the number of received messages held for delivery between 1 and workQueueSize: more while the endpoint takes every message as soon as it is received, fewer while received messages wait for the endpoint.", defaultValue = "false")
+	@NotNull
+	private Boolean adaptivePrefetch = false;
+
+	@ConfigProperty(description = "While a delivery to the endpoint is running, keep extending the visibility timeout of its messages so that they are not redelivered in parallel.", defaultValue = "false")
+	@NotNull
+	private Boolean visibilityHeartbeat = false;
+
+	@ConfigProperty(description = "When visibilityHeartbeat is enabled, the longest time in seconds a message's visibility timeout is extended for. A delivery still running after this long is no longer protected from redelivery.", defaultValue = "3600")
+	@NotNull
+	@Min(1)
+	@Max(SQSJMSReceiveTuning.MAX_VISIBILITY_TIMEOUT_SECONDS)
+	private Integer maxVisibilityLeaseSeconds = 3600;
+
+	@ConfigProperty(description = "Pause receiving once this many received messages are waiting for or undergoing delivery. If not set, receiving is only limited by numberOfMessagesToPrefetch (or workQueueSize).")
+	@Min(1)
+	private Integer receiveHighWatermark;
+
+	@ConfigProperty(description = "When receiving has been paused by receiveHighWatermark, resume once no more than this many received messages are waiting for or undergoing delivery. Must be less than receiveHighWatermark.")
+	@Min(0)
+	private Integer receiveLowWatermark;
+
+	@ConfigProperty(description = "Decompress the bodies of received messages that were compressed by a connection factory with compressionThresholdBytes set, before they are delivered.", defaultValue = "true")
+	@NotNull
+	private Boolean decompressBodies = true;
+
+	@ConfigProperty(description = "In the 'workManager' dispatch mode (and for batch listeners), deliver bytes messages with their body still encoded, decoding it on first read, and base64 decode object message bodies once, on the first getObject, instead of on every call (each getObject still deserializes its own copy of the object).", defaultValue = "false")
+	@NotNull
+	private Boolean lazyBodyDecoding = false;
+
+	@ConfigProperty(description = "Fully qualified name of a class implementing com.integralblue.sqsjmara.ObjectMessageCodec, with a public no-argument constructor, to decode received object messages that were encoded with a codec of its id. Messages encoded with the built-in 'compact' codec, and messages sent without a codec, are always decoded.")
+	private String objectMessageCodec;
+
+	@ConfigProperty(description = "In the auto-acknowledge and dups-ok-acknowledge modes, acknowledge without delivering received messages that are duplicates of a message delivered successfully within about this many seconds. If not set, duplicates are delivered.")
+	@Min(1)
+	private Integer duplicateSuppressionWindowSeconds;
+
+	@ConfigProperty(description = "When duplicateSuppressionWindowSeconds is set, the most delivered messages remembered; older ones are forgotten sooner once this many have been delivered within the window.", defaultValue = "10000")
+	@NotNull
+	@Min(2)
+	private Integer duplicateSuppressionCapacity = 10_000;
+
+	@ConfigProperty(description = "When duplicateSuppressionWindowSeconds is set, what identifies duplicate messages: 'JMSMessageID' (the SQS message id), 'JMSCorrelationID', or the name of a message property. Messages without it are never suppressed.", defaultValue = SQSJMSDuplicateFilter.MESSAGE_ID_KEY)
+	@NotNull
+	private String duplicateSuppressionKey = SQSJMSDuplicateFilter.MESSAGE_ID_KEY;
+
+	@ConfigProperty(description = "When destination names several queues, how the queue to receive from next is chosen. Values are 'weighted' (busy queues are received from more often, and empty ones less) and 'priority' (queues are in order of priority, highest first, and a queue is only received from while the queues before it are empty).", defaultValue = POLLING_MODE_WEIGHTED)
+	@NotNull
+	private String pollingMode = POLLING_MODE_WEIGHTED;
+
+	@ConfigProperty(description = "In the 'priority' polling mode, once a queue that has messages has been passed over for higher priority queues this many receives in a row, receive from it once, so that a busy higher priority queue does not starve it. If not set, priorities are strict.")
+	@Min(1)
+	private Integer priorityStarvationLimit;
+
 	public SQSJMSActivationSpec() {
 		final Region currentRegion = Regions.getCurrentRegion();
 		if (currentRegion != null)  {
@@ -130,6 +277,7 @@ public class SQSJMSActivationSpec implements ActivationSpec, Serializable, AWSCr
 	}
 
 	@Override
+	@SuppressWarnings({"PMD.NcssCount", "PMD.CyclomaticComplexity", "PMD.NPathComplexity"})
 	public void validate() throws InvalidPropertyException {
 		if (!Queue.class.getName().equals(destinationType)) {
 			throw new InvalidPropertyException("'destinationType' must be '" + Queue.class.getName() + "'.");
@@ -140,6 +288,13 @@ public class SQSJMSActivationSpec implements ActivationSpec, Serializable, AWSCr
 		catch (final IllegalArgumentException e) {
 			throw new InvalidPropertyException(e.getMessage(), e);
 		}
+		validateDelivery();
+		try {
+			SQSJMSObjectMessageCodecs.create(objectMessageCodec);
+		}
+		catch (final IllegalArgumentException e) {
+			throw new InvalidPropertyException(e.getMessage(), e);
+		}
 		if (StringUtils.isNullOrEmpty(getAwsRegionProvider().getRegion())) {
 			throw new InvalidPropertyException("Must set the 'region' property or provide the region to use via one of the com.amazonaws.regions.DefaultAwsRegionProviderChain supported mechanisms");
 		}
@@ -151,6 +306,118 @@ public class SQSJMSActivationSpec implements ActivationSpec, Serializable, AWSCr
 		}
 	}
 
+	@SuppressWarnings({"PMD.NcssCount", "PMD.CyclomaticComplexity", "PMD.NPathComplexity"})
+	private void validateDelivery() throws InvalidPropertyException {
+		validateSessions();
+		if (!DISPATCH_MODE_SESSION.equalsIgnoreCase(dispatchMode) && !DISPATCH_MODE_WORK_MANAGER.equalsIgnoreCase(dispatchMode)) {
+			throw new InvalidPropertyException("'dispatchMode' must be '" + DISPATCH_MODE_SESSION + "' or '" + DISPATCH_MODE_WORK_MANAGER + "'.");
+		}
+		if (workQueueSize == null || workQueueSize < 1) {
+			throw new InvalidPropertyException("'workQueueSize' must be at least 1.");
+		}
+		if (acknowledgementBatchWindowMillis == null || acknowledgementBatchWindowMillis < 1) {
+			throw new InvalidPropertyException("'acknowledgementBatchWindowMillis' must be at least 1.");
+		}
+		if (maxBatchSize == null || maxBatchSize < 1 || maxBatchSize > workQueueSize) {
+			throw new InvalidPropertyException("'maxBatchSize' must be at least 1 and no more than 'workQueueSize'.");
+		}
+		if (maxBatchWaitMillis == null || maxBatchWaitMillis < 0) {
+			throw new InvalidPropertyException("'maxBatchWaitMillis' must not be negative.");
+		}
+		validateStriping();
+		validatePolling();
+		validateDuplicateSuppression();
+		validateReceive();
+	}
+
+	private void validateDuplicateSuppression() throws InvalidPropertyException {
+		if (duplicateSuppressionWindowSeconds != null && duplicateSuppressionWindowSeconds < 1) {
+			throw new InvalidPropertyException("'duplicateSuppressionWindowSeconds' must be at least 1.");
+		}
+		if (duplicateSuppressionCapacity == null || duplicateSuppressionCapacity < 2) {
+			throw new InvalidPropertyException("'duplicateSuppressionCapacity' must be at least 2.");
+		}
+		if (StringUtils.isNullOrEmpty(duplicateSuppressionKey)) {
+			throw new InvalidPropertyException("'duplicateSuppressionKey' must be set.");
+		}
+	}
+
+	private void validatePolling() throws InvalidPropertyException {
+		if (!POLLING_MODE_WEIGHTED.equalsIgnoreCase(pollingMode) && !POLLING_MODE_PRIORITY.equalsIgnoreCase(pollingMode)) {
+			throw new InvalidPropertyException("'pollingMode' must be '" + POLLING_MODE_WEIGHTED + "' or '" + POLLING_MODE_PRIORITY + "'.");
+		}
+		if (priorityStarvationLimit != null && priorityStarvationLimit < 1) {
+			throw new InvalidPropertyException("'priorityStarvationLimit' must be at least 1.");
+		}
+	}
+
+	private void validateStriping() throws InvalidPropertyException {
+		if (dispatchStripes == null || dispatchStripes < 1) {
+			throw new InvalidPropertyException("'dispatchStripes' must be at least 1.");
+		}
+		if (stripeQueueSize == null || stripeQueueSize < 1) {
+			throw new InvalidPropertyException("'stripeQueueSize' must be at least 1.");
+		}
+	}
+
+	@SuppressWarnings({"PMD.NcssCount", "PMD.CyclomaticComplexity", "PMD.NPathComplexity"})
+	private void validateReceive() throws InvalidPropertyException {
+		if (numberOfMessagesToPrefetch == null || numberOfMessagesToPrefetch < 0) {
+			throw new InvalidPropertyException("'numberOfMessagesToPrefetch' must not be negative.");
+		}
+		if (receiveWaitTimeSeconds == null || receiveWaitTimeSeconds < 0 || receiveWaitTimeSeconds > SQSJMSReceiveTuning.MAX_WAIT_TIME_SECONDS) {
+			throw new InvalidPropertyException("'receiveWaitTimeSeconds' must be between 0 and " + SQSJMSReceiveTuning.MAX_WAIT_TIME_SECONDS + ".");
+		}
+		if (visibilityTimeoutSeconds != null
+				&& (visibilityTimeoutSeconds < 0 || visibilityTimeoutSeconds > SQSJMSReceiveTuning.MAX_VISIBILITY_TIMEOUT_SECONDS)) {
+			throw new InvalidPropertyException("'visibilityTimeoutSeconds' must be between 0 and " + SQSJMSReceiveTuning.MAX_VISIBILITY_TIMEOUT_SECONDS + ".");
+		}
+		if (adaptivePrefetch == null) {
+			throw new InvalidPropertyException("'adaptivePrefetch' must be set.");
+		}
+		if (visibilityHeartbeat == null) {
+			throw new InvalidPropertyException("'visibilityHeartbeat' must be set.");
+		}
+		if (decompressBodies == null) {
+			throw new InvalidPropertyException("'decompressBodies' must be set.");
+		}
+		if (lazyBodyDecoding == null) {
+			throw new InvalidPropertyException("'lazyBodyDecoding' must be set.");
+		}
+		if (maxVisibilityLeaseSeconds == null
+				|| maxVisibilityLeaseSeconds < 1 || maxVisibilityLeaseSeconds > SQSJMSReceiveTuning.MAX_VISIBILITY_TIMEOUT_SECONDS) {
+			throw new InvalidPropertyException("'maxVisibilityLeaseSeconds' must be between 1 and " + SQSJMSReceiveTuning.MAX_VISIBILITY_TIMEOUT_SECONDS + ".");
+		}
+		validateWatermarks();
+	}
+
+	private void validateWatermarks() throws InvalidPropertyException {
+		if (receiveHighWatermark == null && receiveLowWatermark == null) {
+			return;
+		}
+		if (receiveHighWatermark == null || receiveLowWatermark == null) {
+			throw new InvalidPropertyException("'receiveHighWatermark' and 'receiveLowWatermark' must be set together.");
+		}
+		if (receiveLowWatermark < 0 || receiveLowWatermark >= receiveHighWatermark) {
+			throw new InvalidPropertyException("'receiveLowWatermark' must be at least 0 and less than 'receiveHighWatermark'.");
+		}
+	}
+
+	private void validateSessions() throws InvalidPropertyException {
+		if (minSessions == null || minSessions < 1) {
+			throw new InvalidPropertyException("'minSessions' must be at least 1.");
+		}
+		if (maxSessions == null || maxSessions < minSessions) {
+			throw new InvalidPropertyException("'maxSessions' must be greater than or equal to 'minSessions'.");
+		}
+		if (sessionGrowthDelayMillis == null || sessionGrowthDelayMillis < 1) {
+			throw new InvalidPropertyException("'sessionGrowthDelayMillis' must be at least 1.");
+		}
+		if (sessionIdleTimeoutSeconds == null || sessionIdleTimeoutSeconds < 1) {
+			throw new InvalidPropertyException("'sessionIdleTimeoutSeconds' must be at least 1.");
+		}
+	}
+
 	public String getAwsAccessKeyId() {
 		return awsAccessKeyId;
 	}
@@ -192,6 +459,238 @@ public class SQSJMSActivationSpec implements ActivationSpec, Serializable, AWSCr
 		return region;
 	}
 
+	public Integer getMinSessions() {
+		return minSessions;
+	}
+
+	public void setMinSessions(final Integer minSessions) {
+		this.minSessions = minSessions;
+	}
+
+	public Integer getMaxSessions() {
+		return maxSessions;
+	}
+
+	public void setMaxSessions(final Integer maxSessions) {
+		this.maxSessions = maxSessions;
+	}
+
+	public Long getSessionGrowthDelayMillis() {
+		return sessionGrowthDelayMillis;
+	}
+
+	public void setSessionGrowthDelayMillis(final Long sessionGrowthDelayMillis) {
+		this.sessionGrowthDelayMillis = sessionGrowthDelayMillis;
+	}
+
+	public Integer getSessionIdleTimeoutSeconds() {
+		return sessionIdleTimeoutSeconds;
+	}
+
+	public void setSessionIdleTimeoutSeconds(final Integer sessionIdleTimeoutSeconds) {
+		this.sessionIdleTimeoutSeconds = sessionIdleTimeoutSeconds;
+	}
+
+	public String getDispatchMode() {
+		return dispatchMode;
+	}
+
+	public void setDispatchMode(final String dispatchMode) {
+		this.dispatchMode = dispatchMode;
+	}
+
+	public Integer getWorkQueueSize() {
+		return workQueueSize;
+	}
+
+	public void setWorkQueueSize(final Integer workQueueSize) {
+		this.workQueueSize = workQueueSize;
+	}
+
+	public Integer getDispatchStripes() {
+		return dispatchStripes;
+	}
+
+	public void setDispatchStripes(final Integer dispatchStripes) {
+		this.dispatchStripes = dispatchStripes;
+	}
+
+	public String getAffinityKey() {
+		return affinityKey;
+	}
+
+	public void setAffinityKey(final String affinityKey) {
+		this.affinityKey = affinityKey;
+	}
+
+	public Integer getStripeQueueSize() {
+		return stripeQueueSize;
+	}
+
+	public void setStripeQueueSize(final Integer stripeQueueSize) {
+		this.stripeQueueSize = stripeQueueSize;
+	}
+
+	public Boolean getBatchAcknowledgements() {
+		return batchAcknowledgements;
+	}
+
+	public void setBatchAcknowledgements(final Boolean batchAcknowledgements) {
+		this.batchAcknowledgements = batchAcknowledgements;
+	}
+
+	public Long getAcknowledgementBatchWindowMillis() {
+		return acknowledgementBatchWindowMillis;
+	}
+
+	public void setAcknowledgementBatchWindowMillis(final Long acknowledgementBatchWindowMillis) {
+		this.acknowledgementBatchWindowMillis = acknowledgementBatchWindowMillis;
+	}
+
+	public Integer getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(final Integer maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public Long getMaxBatchWaitMillis() {
+		return maxBatchWaitMillis;
+	}
+
+	public void setMaxBatchWaitMillis(final Long maxBatchWaitMillis) {
+		this.maxBatchWaitMillis = maxBatchWaitMillis;
+	}
+
+	public Integer getNumberOfMessagesToPrefetch() {
+		return numberOfMessagesToPrefetch;
+	}
+
+	public void setNumberOfMessagesToPrefetch(final Integer numberOfMessagesToPrefetch) {
+		this.numberOfMessagesToPrefetch = numberOfMessagesToPrefetch;
+	}
+
+	public Integer getReceiveWaitTimeSeconds() {
+		return receiveWaitTimeSeconds;
+	}
+
+	public void setReceiveWaitTimeSeconds(final Integer receiveWaitTimeSeconds) {
+		this.receiveWaitTimeSeconds = receiveWaitTimeSeconds;
+	}
+
+	public Integer getVisibilityTimeoutSeconds() {
+		return visibilityTimeoutSeconds;
+	}
+
+	public void setVisibilityTimeoutSeconds(final Integer visibilityTimeoutSeconds) {
+		this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+	}
+
+	public Boolean getAdaptivePrefetch() {
+		return adaptivePrefetch;
+	}
+
+	public void setAdaptivePrefetch(final Boolean adaptivePrefetch) {
+		this.adaptivePrefetch = adaptivePrefetch;
+	}
+
+	public Boolean getVisibilityHeartbeat() {
+		return visibilityHeartbeat;
+	}
+
+	public void setVisibilityHeartbeat(final Boolean visibilityHeartbeat) {
+		this.visibilityHeartbeat = visibilityHeartbeat;
+	}
+
+	public Integer getMaxVisibilityLeaseSeconds() {
+		return maxVisibilityLeaseSeconds;
+	}
+
+	public void setMaxVisibilityLeaseSeconds(final Integer maxVisibilityLeaseSeconds) {
+		this.maxVisibilityLeaseSeconds = maxVisibilityLeaseSeconds;
+	}
+
+	public Integer getReceiveHighWatermark() {
+		return receiveHighWatermark;
+	}
+
+	public void setReceiveHighWatermark(final Integer receiveHighWatermark) {
+		this.receiveHighWatermark = receiveHighWatermark;
+	}
+
+	public Integer getReceiveLowWatermark() {
+		return receiveLowWatermark;
+	}
+
+	public void setReceiveLowWatermark(final Integer receiveLowWatermark) {
+		this.receiveLowWatermark = receiveLowWatermark;
+	}
+
+	public Boolean getDecompressBodies() {
+		return decompressBodies;
+	}
+
+	public void setDecompressBodies(final Boolean decompressBodies) {
+		this.decompressBodies = decompressBodies;
+	}
+
+	public Boolean getLazyBodyDecoding() {
+		return lazyBodyDecoding;
+	}
+
+	public void setLazyBodyDecoding(final Boolean lazyBodyDecoding) {
+		this.lazyBodyDecoding = lazyBodyDecoding;
+	}
+
+	public String getObjectMessageCodec() {
+		return objectMessageCodec;
+	}
+
+	public void setObjectMessageCodec(final String objectMessageCodec) {
+		this.objectMessageCodec = objectMessageCodec;
+	}
+
+	public Integer getDuplicateSuppressionWindowSeconds() {
+		return duplicateSuppressionWindowSeconds;
+	}
+
+	public void setDuplicateSuppressionWindowSeconds(final Integer duplicateSuppressionWindowSeconds) {
+		this.duplicateSuppressionWindowSeconds = duplicateSuppressionWindowSeconds;
+	}
+
+	public Integer getDuplicateSuppressionCapacity() {
+		return duplicateSuppressionCapacity;
+	}
+
+	public void setDuplicateSuppressionCapacity(final Integer duplicateSuppressionCapacity) {
+		this.duplicateSuppressionCapacity = duplicateSuppressionCapacity;
+	}
+
+	public String getDuplicateSuppressionKey() {
+		return duplicateSuppressionKey;
+	}
+
+	public void setDuplicateSuppressionKey(final String duplicateSuppressionKey) {
+		this.duplicateSuppressionKey = duplicateSuppressionKey;
+	}
+
+	public String getPollingMode() {
+		return pollingMode;
+	}
+
+	public void setPollingMode(final String pollingMode) {
+		this.pollingMode = pollingMode;
+	}
+
+	public Integer getPriorityStarvationLimit() {
+		return priorityStarvationLimit;
+	}
+
+	public void setPriorityStarvationLimit(final Integer priorityStarvationLimit) {
+		this.priorityStarvationLimit = priorityStarvationLimit;
+	}
+
 	@Override
 	public void refresh() {
 		awsCredentialsProvider.refresh();
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Statistics of one endpoint activation, registered as an MBean while the activation is active.
+ *
+ * Counts are kept in atomic counters and latencies in {@link SQSJMSLatencyHistogram}s, so recording never blocks the delivery path.
+ * Requests, receives and acknowledgements are recorded by the activation's {@link SQSJMSClientDecorator}s, which see the calls
+ * of both the SQS JMS library's consumers and the adapter's own receive loop. Deletes are recorded as they are sent to SQS, after
+ * any acknowledgement batching, so that a batch of deletes counts once, and the acknowledgement latency is that of the delete
+ * requests sent rather than of queueing them.
+ *
+ * @author Craig Andrews
+ *
+ */
+public final class SQSJMSActivationStats implements SQSJMSActivationStatsMBean {
+	private static final double P50 = 0.5;
+	private static final double P99 = 0.99;
+
+	private final String destination;
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong emptyReceives = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong discardedMessages = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong duplicateHits = new AtomicLong();
+	private final AtomicLong duplicateMisses = new AtomicLong();
+	private final SQSJMSLatencyHistogram deliveryLatency = new SQSJMSLatencyHistogram();
+	private final SQSJMSLatencyHistogram acknowledgeLatency = new SQSJMSLatencyHistogram();
+	private final AtomicReference<SQSJMSDeliveryDispatcher> dispatcher = new AtomicReference<>();
+
+	SQSJMSActivationStats(final String destination) {
+		this.destination = destination;
+	}
+
+	/**
+	 * Record a request sent to SQS.
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void requestSent() {
+		requests.incrementAndGet();
+	}
+
+	/**
+	 * Record the messages a receive returned.
+	 *
+	 * @param count number of messages, which may be 0
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void receiveReturned(final int count) {
+		received.addAndGet(count);
+		if (count == 0) {
+			emptyReceives.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Record a delete (acknowledgement) request.
+	 *
+	 * @param nanos how long the request took
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void acknowledged(final long nanos) {
+		acknowledgeLatency.record(nanos);
+	}
+
+	/**
+	 * Record that deliveries are starting.
+	 *
+	 * @param count number of messages
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void deliveryStarted(final int count) {
+		started.addAndGet(count);
+	}
+
+	/**
+	 * Record the outcome of a delivery.
+	 *
+	 * @param count number of messages delivered together
+	 * @param nanos how long the delivery took
+	 * @param success whether the endpoint processed the messages successfully
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void deliveryFinished(final int count, final long nanos, final boolean success) {
+		deliveryLatency.record(nanos);
+		(success ? delivered : failed).addAndGet(count);
+	}
+
+	/**
+	 * Record received messages that will never be delivered, such as those returned to the queue when the activation stops.
+	 *
+	 * @param count number of messages
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void discarded(final int count) {
+		discardedMessages.addAndGet(count);
+	}
+
+	/**
+	 * Record a check for a duplicate delivery.
+	 *
+	 * @param duplicate whether the message was a duplicate, and so not delivered
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void duplicateChecked(final boolean duplicate) {
+		(duplicate ? duplicateHits : duplicateMisses).incrementAndGet();
+	}
+
+	/**
+	 * Report the stripe depths of the dispatcher deliveries go through.
+	 *
+	 * @param dispatcher the dispatcher
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void setDispatcher(final SQSJMSDeliveryDispatcher dispatcher) {
+		this.dispatcher.set(dispatcher);
+	}
+
+	@Override
+	public String getDestination() {
+		return destination;
+	}
+
+	@Override
+	public long getMessagesReceived() {
+		return received.get();
+	}
+
+	@Override
+	public long getEmptyReceives() {
+		return emptyReceives.get();
+	}
+
+	@Override
+	public long getRequests() {
+		return requests.get();
+	}
+
+	@Override
+	public double getRequestsPerDeliveredMessage() {
+		final long messages = delivered.get();
+		return messages == 0 ? 0 : (double) requests.get() / messages;
+	}
+
+	@Override
+	public long getMessagesDelivered() {
+		return delivered.get();
+	}
+
+	@Override
+	public long getMessagesFailed() {
+		return failed.get();
+	}
+
+	@Override
+	public long getInFlightMessages() {
+		return Math.max(0, started.get() - delivered.get() - failed.get());
+	}
+
+	@Override
+	public long getBufferedMessages() {
+		return Math.max(0, received.get() - started.get() - discardedMessages.get());
+	}
+
+	@Override
+	public long getDuplicateHits() {
+		return duplicateHits.get();
+	}
+
+	@Override
+	public long getDuplicateMisses() {
+		return duplicateMisses.get();
+	}
+
+	@Override
+	public int[] getStripeDepths() {
+		final SQSJMSDeliveryDispatcher current = dispatcher.get();
+		return current == null ? new int[0] : current.getStripeDepths();
+	}
+
+	@Override
+	public double getDeliveryLatencyP50Millis() {
+		return deliveryLatency.percentileMillis(P50);
+	}
+
+	@Override
+	public double getDeliveryLatencyP99Millis() {
+		return deliveryLatency.percentileMillis(P99);
+	}
+
+	@Override
+	public double getDeliveryLatencyMaxMillis() {
+		return deliveryLatency.maxMillis();
+	}
+
+	@Override
+	public double getAcknowledgeLatencyP50Millis() {
+		return acknowledgeLatency.percentileMillis(P50);
+	}
+
+	@Override
+	public double getAcknowledgeLatencyP99Millis() {
+		return acknowledgeLatency.percentileMillis(P99);
+	}
+
+	@Override
+	public double getAcknowledgeLatencyMaxMillis() {
+		return acknowledgeLatency.maxMillis();
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+/**
+ * Management interface for the statistics of one endpoint activation.
+ *
+ * Latencies are reported in milliseconds, as the upper bound of a power-of-two bucket (see {@link SQSJMSLatencyHistogram}).
+ *
+ * @author Craig Andrews
+ *
+ */
+public interface SQSJMSActivationStatsMBean {
+	/**
+	 * Destination the activation consumes from.
+	 *
+	 * @return the destination, as configured on the activation spec
+	 */
+	String getDestination();
+
+	/**
+	 * Messages received from SQS.
+	 *
+	 * @return the count
+	 */
+	long getMessagesReceived();
+
+	/**
+	 * Receives that returned no messages.
+	 *
+	 * @return the count
+	 */
+	long getEmptyReceives();
+
+	/**
+	 * Requests sent to SQS for this activation: receives, deletes, visibility changes and any others.
+	 *
+	 * @return the count
+	 */
+	long getRequests();
+
+	/**
+	 * SQS requests sent per successfully delivered message; the lower, the more efficient the batching and polling settings.
+	 * Retries made by the SDK are not included (see {@link SQSJMSOperationStatsMBean#getRetries()}).
+	 *
+	 * @return the ratio, or 0 if no message has been delivered
+	 */
+	double getRequestsPerDeliveredMessage();
+
+	/**
+	 * Messages whose delivery to the endpoint completed successfully.
+	 *
+	 * @return the count
+	 */
+	long getMessagesDelivered();
+
+	/**
+	 * Messages whose delivery to the endpoint failed.
+	 *
+	 * @return the count
+	 */
+	long getMessagesFailed();
+
+	/**
+	 * Messages being delivered to the endpoint now.
+	 *
+	 * @return the count
+	 */
+	long getInFlightMessages();
+
+	/**
+	 * Messages received but not yet being delivered.
+	 *
+	 * @return the count
+	 */
+	long getBufferedMessages();
+
+	/**
+	 * Received messages found to be duplicates of messages already delivered, and so acknowledged without being delivered.
+	 *
+	 * @return the count; always 0 unless duplicate suppression is enabled
+	 */
+	long getDuplicateHits();
+
+	/**
+	 * Received messages checked for being duplicates and found not to be.
+	 *
+	 * @return the count; always 0 unless duplicate suppression is enabled
+	 */
+	long getDuplicateMisses();
+
+	/**
+	 * Messages waiting on each dispatch stripe (counted among the buffered messages).
+	 *
+	 * @return the count for each stripe; empty if deliveries are not striped
+	 */
+	int[] getStripeDepths();
+
+	double getDeliveryLatencyP50Millis();
+
+	double getDeliveryLatencyP99Millis();
+
+	double getDeliveryLatencyMaxMillis();
+
+	double getAcknowledgeLatencyP50Millis();
+
+	double getAcknowledgeLatencyP99Millis();
+
+	double getAcknowledgeLatencyMaxMillis();
+}
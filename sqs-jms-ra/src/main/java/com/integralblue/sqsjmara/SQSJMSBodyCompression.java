@@ -0,0 +1,296 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.amazon.sqs.javamessaging.message.SQSMessage;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.util.Base64;
+import com.amazonaws.util.StringUtils;
+
+/**
+ * Compresses the bodies of sent messages, and decompresses the bodies of received messages.
+ *
+ * Bodies of at least the threshold size, in bytes of UTF-8 as SQS counts them, are deflated and sent base64 encoded, marked with the {@value #CONTENT_ENCODING_ATTRIBUTE}
+ * message attribute, unless that does not make them smaller or the message already has as many attributes as SQS allows.
+ * Text message bodies are compressed as UTF-8; bytes and object message bodies (which the SQS JMS library sends base64 encoded)
+ * are compressed as the bytes they encode. Received messages with the attribute get back their original body, and lose the
+ * attribute, before the SQS JMS library turns them into JMS messages, so the application never sees the compression.
+ *
+ * Like {@link SQSJMSReceiveTuning}, this is applied by the {@link SQSJMSClientDecorator} given to the SQS JMS library. Deflaters
+ * and inflaters are pooled, as each holds native memory that is costly to allocate for every message.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings({"PMD.DefaultPackage", "PMD.TooManyMethods"})
+final class SQSJMSBodyCompression {
+	/**
+	 * Message attribute naming how the body is encoded.
+	 */
+	static final String CONTENT_ENCODING_ATTRIBUTE = "SQSJMS_ContentEncoding";
+
+	/**
+	 * Value of {@link #CONTENT_ENCODING_ATTRIBUTE} for deflated bodies.
+	 */
+	static final String DEFLATE = "deflate";
+
+	/**
+	 * Largest body a compressed body may decompress to: 64 times the largest body SQS accepts, far more than deflate achieves
+	 * on real bodies, but a bound on what a crafted body can make a consumer allocate.
+	 */
+	static final int MAX_DECOMPRESSED_BYTES = 64 * 256 * 1024;
+
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSBodyCompression.class.getName());
+
+	private static final int MAX_MESSAGE_ATTRIBUTES = 10;
+	private static final int POOL_SIZE = 16;
+	private static final int INFLATE_BUFFER_SIZE = 8192;
+
+	private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+	private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+	private SQSJMSBodyCompression() {
+	}
+
+	/**
+	 * Compress a body.
+	 *
+	 * @param body body as the SQS JMS library sends it
+	 * @param messageType the message's {@value SQSMessage#JMS_SQS_MESSAGE_TYPE} attribute, or null
+	 * @return the compressed body, or null if compressing does not make it smaller
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	static String compress(final String body, final String messageType) {
+		final boolean text = isText(messageType);
+		final byte[] bytes = text ? body.getBytes(StringUtils.UTF8) : Base64.decode(body);
+		// only worth it if the compressed bytes, once base64 encoded, are smaller than the body as sent (base64 bodies are ASCII)
+		final byte[] compressed = new byte[(text ? bytes.length : body.length()) * 3 / 4];
+		int length = 0;
+		Deflater deflater = DEFLATERS.poll();
+		if (deflater == null) {
+			deflater = new Deflater();
+		}
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			while (!deflater.finished() && length < compressed.length) {
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+			if (!deflater.finished()) {
+				return null;
+			}
+		}
+		finally {
+			release(deflater);
+		}
+		return Base64.encodeAsString(Arrays.copyOf(compressed, length));
+	}
+
+	/**
+	 * Size of a body as SQS counts it, without encoding it.
+	 *
+	 * @param body the body
+	 * @return the number of bytes of the body encoded as UTF-8
+	 */
+	static int utf8Length(final String body) {
+		int length = body.length();
+		for (int i = 0; i < body.length(); i++) {
+			final char c = body.charAt(i);
+			if (c >= 0x800 && !Character.isSurrogate(c)) {
+				length += 2;
+			}
+			else if (c >= 0x80) {
+				// two bytes, or half of a surrogate pair's four
+				length++;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Decompress a body compressed by {@link #compress(String, String)}.
+	 *
+	 * @param body compressed body
+	 * @param messageType the message's {@value SQSMessage#JMS_SQS_MESSAGE_TYPE} attribute, or null
+	 * @return the original body
+	 * @throws DataFormatException if the body is not a compressed body, or decompresses to more than
+	 *     {@value #MAX_DECOMPRESSED_BYTES} bytes
+	 */
+	static String decompress(final String body, final String messageType) throws DataFormatException {
+		final byte[] bytes = inflate(Base64.decode(body));
+		return isText(messageType) ? new String(bytes, StringUtils.UTF8) : Base64.encodeAsString(bytes);
+	}
+
+	@SuppressWarnings("PMD.NcssCount")
+	private static byte[] inflate(final byte[] compressed) throws DataFormatException {
+		byte[] bytes = new byte[Math.min(Math.max(INFLATE_BUFFER_SIZE, compressed.length * 4), MAX_DECOMPRESSED_BYTES)];
+		int length = 0;
+		Inflater inflater = INFLATERS.poll();
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		try {
+			inflater.setInput(compressed);
+			while (!inflater.finished()) {
+				if (length == bytes.length) {
+					bytes = grow(bytes);
+				}
+				final int inflated = inflater.inflate(bytes, length, bytes.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DataFormatException("Truncated compressed body");
+				}
+				length += inflated;
+			}
+		}
+		finally {
+			release(inflater);
+		}
+		return Arrays.copyOf(bytes, length);
+	}
+
+	private static byte[] grow(final byte[] bytes) throws DataFormatException {
+		if (bytes.length >= MAX_DECOMPRESSED_BYTES) {
+			throw new DataFormatException("Compressed body decompresses to more than " + MAX_DECOMPRESSED_BYTES + " bytes");
+		}
+		return Arrays.copyOf(bytes, Math.min(bytes.length * 2, MAX_DECOMPRESSED_BYTES));
+	}
+
+	/**
+	 * Compress the body of a message to be sent, if it is large enough.
+	 *
+	 * @param request the request, which is left unchanged
+	 * @param thresholdBytes smallest body (in UTF-8 bytes as sent) to compress
+	 * @return a request with the body compressed, or the request itself if the body is not to be compressed
+	 */
+	static SendMessageRequest compress(final SendMessageRequest request, final int thresholdBytes) {
+		final Map<String, MessageAttributeValue> attributes = compressedAttributes(request.getMessageBody(), request.getMessageAttributes(), thresholdBytes);
+		if (attributes == null) {
+			return request;
+		}
+		final String body = compress(request.getMessageBody(), messageType(request.getMessageAttributes()));
+		if (body == null) {
+			return request;
+		}
+		return request.clone().withMessageBody(body).withMessageAttributes(attributes);
+	}
+
+	/**
+	 * Compress the bodies of a batch of messages to be sent that are large enough.
+	 *
+	 * @param request the request, which is left unchanged
+	 * @param thresholdBytes smallest body (in UTF-8 bytes as sent) to compress
+	 * @return a request with the bodies compressed, or the request itself if no body is to be compressed
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	static SendMessageBatchRequest compress(final SendMessageBatchRequest request, final int thresholdBytes) {
+		SendMessageBatchRequest compressed = request;
+		for (int i = 0; i < request.getEntries().size(); i++) {
+			final SendMessageBatchRequestEntry entry = request.getEntries().get(i);
+			final Map<String, MessageAttributeValue> attributes = compressedAttributes(entry.getMessageBody(), entry.getMessageAttributes(), thresholdBytes);
+			final String body = attributes == null ? null : compress(entry.getMessageBody(), messageType(entry.getMessageAttributes()));
+			if (body != null) {
+				if (compressed == request) {
+					compressed = request.clone();
+					compressed.setEntries(new ArrayList<>(request.getEntries()));
+				}
+				compressed.getEntries().set(i, entry.clone().withMessageBody(body).withMessageAttributes(attributes));
+			}
+		}
+		return compressed;
+	}
+
+	/**
+	 * Give a received message back its original body, and remove the attribute marking it as compressed, if it is compressed.
+	 * A body that cannot be decompressed, or that would decompress to more than {@value #MAX_DECOMPRESSED_BYTES} bytes, is left as
+	 * it is, still marked, rather than failing every receive that gets it.
+	 *
+	 * @param message the received message
+	 */
+	static void decompress(final Message message) {
+		final MessageAttributeValue contentEncoding = message.getMessageAttributes().get(CONTENT_ENCODING_ATTRIBUTE);
+		if (contentEncoding == null || !DEFLATE.equals(contentEncoding.getStringValue())) {
+			return;
+		}
+		try {
+			message.setBody(decompress(message.getBody(), messageType(message.getMessageAttributes())));
+			message.getMessageAttributes().remove(CONTENT_ENCODING_ATTRIBUTE);
+		}
+		catch (final DataFormatException | IllegalArgumentException e) {
+			LOGGER.log(Level.WARNING, "Failed to decompress the body of message " + message.getMessageId(), e);
+		}
+	}
+
+	/**
+	 * The attributes of a message whose body is to be compressed.
+	 *
+	 * @param body body of the message
+	 * @param attributes attributes of the message
+	 * @param thresholdBytes smallest body (in UTF-8 bytes as sent) to compress
+	 * @return the attributes marking the body as compressed, or null if the body is not to be compressed
+	 */
+	private static Map<String, MessageAttributeValue> compressedAttributes(
+			final String body,
+			final Map<String, MessageAttributeValue> attributes,
+			final int thresholdBytes) {
+		if (body == null || utf8Length(body) < thresholdBytes || attributes != null && attributes.size() >= MAX_MESSAGE_ATTRIBUTES) {
+			return null;
+		}
+		final Map<String, MessageAttributeValue> compressedAttributes = attributes == null ? new HashMap<String, MessageAttributeValue>() : new HashMap<>(attributes);
+		compressedAttributes.put(CONTENT_ENCODING_ATTRIBUTE, new MessageAttributeValue().withDataType("String").withStringValue(DEFLATE));
+		return compressedAttributes;
+	}
+
+	private static boolean isText(final String messageType) {
+		return messageType == null || SQSMessage.TEXT_MESSAGE_TYPE.equals(messageType);
+	}
+
+	private static void release(final Deflater deflater) {
+		deflater.reset();
+		if (!DEFLATERS.offer(deflater)) {
+			deflater.end();
+		}
+	}
+
+	private static void release(final Inflater inflater) {
+		inflater.reset();
+		if (!INFLATERS.offer(inflater)) {
+			inflater.end();
+		}
+	}
+
+	private static String messageType(final Map<String, MessageAttributeValue> attributes) {
+		final MessageAttributeValue messageType = attributes == null ? null : attributes.get(SQSMessage.JMS_SQS_MESSAGE_TYPE);
+		return messageType == null ? null : messageType.getStringValue();
+	}
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ResponseMetadata;
+import com.amazonaws.regions.Region;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.AddPermissionRequest;
+import com.amazonaws.services.sqs.model.AddPermissionResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityResult;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageResult;
+import com.amazonaws.services.sqs.model.DeleteQueueRequest;
+import com.amazonaws.services.sqs.model.DeleteQueueResult;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.ListDeadLetterSourceQueuesRequest;
+import com.amazonaws.services.sqs.model.ListDeadLetterSourceQueuesResult;
+import com.amazonaws.services.sqs.model.ListQueueTagsRequest;
+import com.amazonaws.services.sqs.model.ListQueueTagsResult;
+import com.amazonaws.services.sqs.model.ListQueuesRequest;
+import com.amazonaws.services.sqs.model.ListQueuesResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.PurgeQueueRequest;
+import com.amazonaws.services.sqs.model.PurgeQueueResult;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.RemovePermissionRequest;
+import com.amazonaws.services.sqs.model.RemovePermissionResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.amazonaws.services.sqs.model.SetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.SetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.TagQueueRequest;
+import com.amazonaws.services.sqs.model.TagQueueResult;
+import com.amazonaws.services.sqs.model.UntagQueueRequest;
+import com.amazonaws.services.sqs.model.UntagQueueResult;
+
+/**
+ * The client given to the SQS JMS library: the registry's client, with the adapter's receive tuning, body compression,
+ * acknowledgement batching and statistics applied to its calls.
+ *
+ * Each is configured with a {@code with} method before the client is used, and left out if it is not. They are applied in a
+ * fixed order: a receive is tuned (and held back by flow control) before it is sent, its messages are counted, and then their
+ * bodies are decompressed; a send's bodies are compressed, and then it is timed. A {@code deleteMessage} is queued with the
+ * {@link SQSJMSAcknowledgementBatcher} if there is one; the batcher sends its batches with a client of its own that has the same
+ * statistics but no batcher, so that acknowledgements are counted and timed by the requests actually sent. Every request sent to
+ * SQS counts towards the activation's request count; a receive answered by flow control, or a queued delete, sends none.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings({"PMD.DefaultPackage", "PMD.TooManyMethods", "PMD.ExcessiveImports", "PMD.CouplingBetweenObjects"})
+final class SQSJMSClientDecorator extends AbstractAmazonSQS {
+	private final AmazonSQS amazonSQS;
+	private Integer waitTimeSeconds;
+	private Integer visibilityTimeoutSeconds;
+	private SQSJMSFlowControl flowControl;
+	private Integer compressionThresholdBytes;
+	private boolean decompressBodies;
+	private SQSJMSAcknowledgementBatcher acknowledgementBatcher;
+	private SQSJMSActivationStats activationStats;
+	private SQSJMSConnectionFactoryStats connectionFactoryStats;
+
+	SQSJMSClientDecorator(final AmazonSQS amazonSQS) {
+		super();
+		this.amazonSQS = amazonSQS;
+	}
+
+	/**
+	 * Apply the given settings to receives.
+	 *
+	 * @param waitTimeSeconds longest time a receive waits for messages, or null for no limit beyond the caller's
+	 * @param visibilityTimeoutSeconds visibility timeout for received messages, or null to use the queue's
+	 * @param flowControl flow control that receives must honor, or null for none
+	 * @return this client
+	 * @see SQSJMSReceiveTuning
+	 */
+	SQSJMSClientDecorator withReceiveTuning(
+			final Integer waitTimeSeconds,
+			final Integer visibilityTimeoutSeconds,
+			final SQSJMSFlowControl flowControl) {
+		this.waitTimeSeconds = waitTimeSeconds;
+		this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+		this.flowControl = flowControl;
+		return this;
+	}
+
+	/**
+	 * Compress sent bodies and decompress received ones.
+	 *
+	 * @param thresholdBytes smallest body (in UTF-8 bytes as sent) to compress, or null to compress nothing
+	 * @param decompress whether to decompress received bodies
+	 * @return this client
+	 * @see SQSJMSBodyCompression
+	 */
+	SQSJMSClientDecorator withCompression(final Integer thresholdBytes, final boolean decompress) {
+		this.compressionThresholdBytes = thresholdBytes;
+		this.decompressBodies = decompress;
+		return this;
+	}
+
+	/**
+	 * Queue {@code deleteMessage} calls with a batcher instead of sending them.
+	 *
+	 * @param acknowledgementBatcher the batcher
+	 * @return this client
+	 */
+	SQSJMSClientDecorator withAcknowledgementBatcher(final SQSJMSAcknowledgementBatcher acknowledgementBatcher) {
+		this.acknowledgementBatcher = acknowledgementBatcher;
+		return this;
+	}
+
+	/**
+	 * Record requests, received messages and the time it takes to delete (acknowledge) messages.
+	 *
+	 * @param activationStats statistics of the activation using the client
+	 * @return this client
+	 */
+	SQSJMSClientDecorator withActivationStats(final SQSJMSActivationStats activationStats) {
+		this.activationStats = activationStats;
+		return this;
+	}
+
+	/**
+	 * Record sent messages.
+	 *
+	 * @param connectionFactoryStats statistics of the connection factory using the client
+	 * @return this client
+	 */
+	SQSJMSClientDecorator withConnectionFactoryStats(final SQSJMSConnectionFactoryStats connectionFactoryStats) {
+		this.connectionFactoryStats = connectionFactoryStats;
+		return this;
+	}
+
+	private void requestSent() {
+		if (activationStats != null) {
+			activationStats.requestSent();
+		}
+	}
+
+	@Override
+	public ReceiveMessageResult receiveMessage(final ReceiveMessageRequest request) {
+		if (waitTimeSeconds == null && visibilityTimeoutSeconds == null && flowControl == null) {
+			return received(send(request));
+		}
+		final ReceiveMessageRequest tuned = SQSJMSReceiveTuning.tune(request, waitTimeSeconds, visibilityTimeoutSeconds);
+		if (flowControl != null && !SQSJMSReceiveTuning.awaitCapacity(flowControl, tuned)) {
+			return SQSJMSReceiveTuning.paused();
+		}
+		return received(send(tuned));
+	}
+
+	private ReceiveMessageResult send(final ReceiveMessageRequest request) {
+		requestSent();
+		return amazonSQS.receiveMessage(request);
+	}
+
+	private ReceiveMessageResult received(final ReceiveMessageResult result) {
+		if (flowControl != null) {
+			flowControl.received(result.getMessages().size());
+		}
+		if (activationStats != null) {
+			activationStats.receiveReturned(result.getMessages().size());
+		}
+		if (decompressBodies) {
+			for (final Message message : result.getMessages()) {
+				SQSJMSBodyCompression.decompress(message);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public DeleteMessageResult deleteMessage(final DeleteMessageRequest request) {
+		if (acknowledgementBatcher != null) {
+			acknowledgementBatcher.add(request);
+			return new DeleteMessageResult();
+		}
+		requestSent();
+		final long start = System.nanoTime();
+		final DeleteMessageResult result = amazonSQS.deleteMessage(request);
+		acknowledged(start);
+		return result;
+	}
+
+	@Override
+	public DeleteMessageBatchResult deleteMessageBatch(final DeleteMessageBatchRequest request) {
+		requestSent();
+		final long start = System.nanoTime();
+		final DeleteMessageBatchResult result = amazonSQS.deleteMessageBatch(request);
+		acknowledged(start);
+		return result;
+	}
+
+	private void acknowledged(final long start) {
+		if (activationStats != null) {
+			activationStats.acknowledged(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("PMD.NcssCount")
+	public SendMessageResult sendMessage(final SendMessageRequest request) {
+		final SendMessageRequest compressed = compressionThresholdBytes == null
+				? request : SQSJMSBodyCompression.compress(request, compressionThresholdBytes);
+		requestSent();
+		if (connectionFactoryStats == null) {
+			return amazonSQS.sendMessage(compressed);
+		}
+		final long start = System.nanoTime();
+		try {
+			final SendMessageResult result = amazonSQS.sendMessage(compressed);
+			connectionFactoryStats.sendFinished(1, 0, System.nanoTime() - start);
+			return result;
+		}
+		catch (final AmazonClientException e) {
+			connectionFactoryStats.sendFinished(0, 1, System.nanoTime() - start);
+			throw e;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("PMD.NcssCount")
+	public SendMessageBatchResult sendMessageBatch(final SendMessageBatchRequest request) {
+		final SendMessageBatchRequest compressed = compressionThresholdBytes == null
+				? request : SQSJMSBodyCompression.compress(request, compressionThresholdBytes);
+		requestSent();
+		if (connectionFactoryStats == null) {
+			return amazonSQS.sendMessageBatch(compressed);
+		}
+		final int count = compressed.getEntries().size();
+		final long start = System.nanoTime();
+		try {
+			final SendMessageBatchResult result = amazonSQS.sendMessageBatch(compressed);
+			final int failures = result.getFailed().size();
+			connectionFactoryStats.sendFinished(count - failures, failures, System.nanoTime() - start);
+			return result;
+		}
+		catch (final AmazonClientException e) {
+			connectionFactoryStats.sendFinished(0, count, System.nanoTime() - start);
+			throw e;
+		}
+	}
+
+	@Override
+	public AddPermissionResult addPermission(final AddPermissionRequest request) {
+		requestSent();
+		return amazonSQS.addPermission(request);
+	}
+
+	@Override
+	public ChangeMessageVisibilityResult changeMessageVisibility(final ChangeMessageVisibilityRequest request) {
+		requestSent();
+		return amazonSQS.changeMessageVisibility(request);
+	}
+
+	@Override
+	public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(final ChangeMessageVisibilityBatchRequest request) {
+		requestSent();
+		return amazonSQS.changeMessageVisibilityBatch(request);
+	}
+
+	@Override
+	public CreateQueueResult createQueue(final CreateQueueRequest request) {
+		requestSent();
+		return amazonSQS.createQueue(request);
+	}
+
+	@Override
+	public DeleteQueueResult deleteQueue(final DeleteQueueRequest request) {
+		requestSent();
+		return amazonSQS.deleteQueue(request);
+	}
+
+	@Override
+	public GetQueueAttributesResult getQueueAttributes(final GetQueueAttributesRequest request) {
+		requestSent();
+		return amazonSQS.getQueueAttributes(request);
+	}
+
+	@Override
+	public GetQueueUrlResult getQueueUrl(final GetQueueUrlRequest request) {
+		requestSent();
+		return amazonSQS.getQueueUrl(request);
+	}
+
+	@Override
+	public ListDeadLetterSourceQueuesResult listDeadLetterSourceQueues(final ListDeadLetterSourceQueuesRequest request) {
+		requestSent();
+		return amazonSQS.listDeadLetterSourceQueues(request);
+	}
+
+	@Override
+	public ListQueueTagsResult listQueueTags(final ListQueueTagsRequest request) {
+		requestSent();
+		return amazonSQS.listQueueTags(request);
+	}
+
+	@Override
+	public ListQueuesResult listQueues(final ListQueuesRequest request) {
+		requestSent();
+		return amazonSQS.listQueues(request);
+	}
+
+	@Override
+	public PurgeQueueResult purgeQueue(final PurgeQueueRequest request) {
+		requestSent();
+		return amazonSQS.purgeQueue(request);
+	}
+
+	@Override
+	public RemovePermissionResult removePermission(final RemovePermissionRequest request) {
+		requestSent();
+		return amazonSQS.removePermission(request);
+	}
+
+	@Override
+	public SetQueueAttributesResult setQueueAttributes(final SetQueueAttributesRequest request) {
+		requestSent();
+		return amazonSQS.setQueueAttributes(request);
+	}
+
+	@Override
+	public TagQueueResult tagQueue(final TagQueueRequest request) {
+		requestSent();
+		return amazonSQS.tagQueue(request);
+	}
+
+	@Override
+	public UntagQueueResult untagQueue(final UntagQueueRequest request) {
+		requestSent();
+		return amazonSQS.untagQueue(request);
+	}
+
+	@Override
+	public void setEndpoint(final String endpoint) {
+		amazonSQS.setEndpoint(endpoint);
+	}
+
+	@Override
+	public void setRegion(final Region region) {
+		amazonSQS.setRegion(region);
+	}
+
+	@Override
+	public void shutdown() {
+		amazonSQS.shutdown();
+	}
+
+	@Override
+	public ResponseMetadata getCachedResponseMetadata(final AmazonWebServiceRequest request) {
+		return amazonSQS.getCachedResponseMetadata(request);
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.buffered.AmazonSQSBufferedAsyncClient;
+import com.amazonaws.services.sqs.buffered.QueueBufferConfig;
+import com.amazonaws.util.StringUtils;
+
+/**
+ * Shares {@link AmazonSQS} clients (and so their HTTP connection pools) between everything in the resource adapter
+ * that talks to the same region with the same credentials.
+ *
+ * Clients are reference counted: each {@link #acquire(String, String, String, AWSCredentialsProvider, Long)} must be matched by a
+ * {@link #release(AmazonSQS)}, and a client is shut down when its last user releases it (or when the registry is shut down).
+ *
+ * Every client records the requests it sends with a {@link SQSJMSRequestMetrics}, whose MBeans live as long as the client.
+ * Clients are built by an {@link AmazonSQSClientFactory}, by default one using the AWS SDK's client builders.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSClientRegistry {
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSClientRegistry.class.getName());
+
+	private final Map<Key, Entry> entries = new HashMap<>();
+	private final Map<AmazonSQS, Entry> entriesByClient = new IdentityHashMap<>();
+	private AmazonSQSClientFactory clientFactory = new DefaultAmazonSQSClientFactory();
+
+	/**
+	 * Use another factory for the clients created from now on.
+	 *
+	 * @param clientFactory the factory
+	 */
+	synchronized void setClientFactory(final AmazonSQSClientFactory clientFactory) {
+		this.clientFactory = clientFactory;
+	}
+
+	/**
+	 * Get a client for the given region and credentials, creating it if no matching client is in use.
+	 *
+	 * @param region region of the client
+	 * @param awsAccessKeyId explicitly configured access key id, or null/empty if the credentials come from the default chain
+	 * @param awsSecretKey explicitly configured secret key, or null/empty if the credentials come from the default chain
+	 * @param credentialsProvider provider used if a new client has to be created
+	 * @param sendBatchOpenMillis if not null, the client collects sends to the same queue into {@code SendMessageBatch} calls,
+	 *     waiting up to this long for a batch to fill
+	 * @return a client, which must be passed to {@link #release(AmazonSQS)} when no longer needed
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	synchronized AmazonSQS acquire(
+			final String region,
+			final String awsAccessKeyId,
+			final String awsSecretKey,
+			final AWSCredentialsProvider credentialsProvider,
+			final Long sendBatchOpenMillis) {
+		if (StringUtils.isNullOrEmpty(region)) {
+			throw new IllegalStateException("No region set. Please set a region or provide one using a method supported by com.amazonaws.regions.DefaultAwsRegionProviderChain");
+		}
+		final Key key = new Key(region, awsAccessKeyId, awsSecretKey, sendBatchOpenMillis);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			final SQSJMSRequestMetrics requestMetrics = new SQSJMSRequestMetrics(region);
+			entry = createEntry(key, region, credentialsProvider, requestMetrics);
+			entries.put(key, entry);
+			entriesByClient.put(entry.client, entry);
+		}
+		entry.references++;
+		return entry.client;
+	}
+
+	/**
+	 * Give back a client obtained from {@link #acquire(String, String, String, AWSCredentialsProvider, Long)}.
+	 *
+	 * @param client the client to give back
+	 */
+	synchronized void release(final AmazonSQS client) {
+		final Entry entry = entriesByClient.get(client);
+		if (entry == null) {
+			// already shut down by shutdown()
+			return;
+		}
+		entry.references--;
+		if (entry.references <= 0) {
+			entries.remove(entry.key);
+			entriesByClient.remove(client);
+			shutdown(entry);
+		}
+	}
+
+	/**
+	 * Shut down every client, whether or not it is still in use.
+	 */
+	synchronized void shutdown() {
+		for (final Entry entry : entriesByClient.values()) {
+			shutdown(entry);
+		}
+		entries.clear();
+		entriesByClient.clear();
+	}
+
+	private Entry createEntry(
+			final Key key,
+			final String region,
+			final AWSCredentialsProvider credentialsProvider,
+			final SQSJMSRequestMetrics requestMetrics) {
+		if (key.sendBatchOpenMillis < 0) {
+			final AmazonSQS client = clientFactory.createClient(region, credentialsProvider, requestMetrics);
+			return new Entry(key, client, client, requestMetrics);
+		}
+		// only sends (and deletes and visibility changes) are buffered; receives always go straight to SQS
+		final AmazonSQSAsync realClient = clientFactory.createAsyncClient(region, credentialsProvider, requestMetrics);
+		final AmazonSQSBufferedAsyncClient bufferedClient = new AmazonSQSBufferedAsyncClient(
+				realClient,
+				new QueueBufferConfig()
+					.withMaxBatchOpenMs(key.sendBatchOpenMillis)
+					.withMaxBatchSize(SQSMessagingClientConstants.MAX_BATCH)
+					.withMaxBatchSizeBytes(QueueBufferConfig.SERVICE_MAX_BATCH_SIZE_BYTES)
+					.withMaxInflightReceiveBatches(0)
+					.withMaxDoneReceiveBatches(0)
+					.withFlushOnShutdown(true));
+		return new Entry(key, bufferedClient, realClient, requestMetrics);
+	}
+
+	/**
+	 * Shut down a client. A buffered client first flushes the sends it is holding, then shuts down the client it sends them with;
+	 * that client is shut down here too, so that a failed flush does not leave its connection pool and threads behind.
+	 *
+	 * @param entry the client to shut down
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	private static void shutdown(final Entry entry) {
+		try {
+			entry.client.shutdown();
+		}
+		catch (final AmazonClientException e) {
+			LOGGER.log(Level.WARNING, "Failed to shut down Amazon SQS client", e);
+		}
+		finally {
+			try {
+				if (entry.realClient != entry.client) {
+					entry.realClient.shutdown();
+				}
+			}
+			finally {
+				entry.requestMetrics.close();
+			}
+		}
+	}
+
+	private static final class Entry {
+		private final Key key;
+		private final AmazonSQS client;
+		private final AmazonSQS realClient;
+		private final SQSJMSRequestMetrics requestMetrics;
+		private int references;
+
+		Entry(final Key key, final AmazonSQS client, final AmazonSQS realClient, final SQSJMSRequestMetrics requestMetrics) {
+			this.key = key;
+			this.client = client;
+			this.realClient = realClient;
+			this.requestMetrics = requestMetrics;
+		}
+	}
+
+	/**
+	 * Identifies clients that can be shared. Credentials that come from the default chain are represented by an empty access key,
+	 * and a client that does not batch sends by a negative batch open time.
+	 */
+	private static final class Key {
+		private final String region;
+		private final String awsAccessKeyId;
+		private final String awsSecretKey;
+		private final long sendBatchOpenMillis;
+
+		Key(final String region, final String awsAccessKeyId, final String awsSecretKey, final Long sendBatchOpenMillis) {
+			this.region = region;
+			this.awsAccessKeyId = StringUtils.isNullOrEmpty(awsAccessKeyId) ? "" : awsAccessKeyId;
+			this.awsSecretKey = StringUtils.isNullOrEmpty(awsSecretKey) ? "" : awsSecretKey;
+			this.sendBatchOpenMillis = sendBatchOpenMillis == null ? -1 : sendBatchOpenMillis;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((region.hashCode() * 31 + awsAccessKeyId.hashCode()) * 31 + awsSecretKey.hashCode()) * 31
+					+ (int) (sendBatchOpenMillis ^ (sendBatchOpenMillis >>> 32));
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return region.equals(other.region)
+					&& awsAccessKeyId.equals(other.awsAccessKeyId)
+					&& awsSecretKey.equals(other.awsSecretKey)
+					&& sendBatchOpenMillis == other.sendBatchOpenMillis;
+		}
+	}
+}
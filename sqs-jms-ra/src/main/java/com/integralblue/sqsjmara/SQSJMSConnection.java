@@ -17,11 +17,15 @@
 package com.integralblue.sqsjmara;
 
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.jms.ConnectionConsumer;
 import javax.jms.ConnectionMetaData;
 import javax.jms.Destination;
 import javax.jms.ExceptionListener;
+import javax.jms.IllegalStateException;
 import javax.jms.JMSException;
 import javax.jms.Queue;
 import javax.jms.QueueConnection;
@@ -29,56 +33,125 @@ import javax.jms.QueueSession;
 import javax.jms.ServerSessionPool;
 import javax.jms.Session;
 import javax.jms.Topic;
-import javax.resource.spi.ConnectionEvent;
-import javax.resource.spi.ConnectionEventListener;
-import javax.resource.spi.ManagedConnection;
 
 import com.amazon.sqs.javamessaging.SQSConnection;
 import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
 import com.amazon.sqs.javamessaging.SQSSession;
+import com.amazonaws.services.sqs.AmazonSQS;
 
 /**
  * JCA adapter for SQS {@link Connection}.
  *
+ * When created by a {@link SQSJMSManagedConnection}, this is a lightweight handle over the managed connection's physical
+ * {@link SQSConnection}: closing it closes only the sessions it created and returns the managed connection to the pool.
+ * The physical connection is shared with the managed connection's other handles and with its later users, so a handle keeps
+ * its client ID, exception listener and started state to itself: the physical connection is started while any handle is
+ * started, and its exceptions are passed to the listeners of the handles using it at the time.
+ *
  * @author Craig Andrews
  *
  */
+@SuppressWarnings({"PMD.TooManyMethods"})
 public class SQSJMSConnection implements QueueConnection {
-	private final SQSConnection delegate;
-	private final ManagedConnection managedConnection;
-	private final List<ConnectionEventListener> listeners;
+	private final List<SQSJMSSession> sessions = new CopyOnWriteArrayList<>();
+	private SQSConnection delegate;
+	private SQSJMSManagedConnection managedConnection;
+	private SQSJMSQueueUrlCache queueUrlCache;
+	private ObjectMessageCodec codec;
+	private final SQSJMSManagedConnectionFactory clientOwner;
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private String clientID;
+	private final AtomicReference<ExceptionListener> exceptionListener = new AtomicReference<>();
+	private final AtomicBoolean started = new AtomicBoolean();
 
-	@SuppressWarnings("PMD.NullAssignment")
 	public SQSJMSConnection(
 			final SQSConnection delegate) {
+		this(delegate, null);
+	}
+
+	SQSJMSConnection(
+			final SQSConnection delegate,
+			final SQSJMSQueueUrlCache queueUrlCache) {
+		this(delegate, queueUrlCache, null);
+	}
+
+	SQSJMSConnection(
+			final SQSConnection delegate,
+			final SQSJMSQueueUrlCache queueUrlCache,
+			final ObjectMessageCodec codec) {
+		this(delegate, queueUrlCache, codec, null);
+	}
+
+	/**
+	 * Create a connection that is not managed by a connection manager.
+	 *
+	 * @param delegate the physical connection, which this connection owns
+	 * @param queueUrlCache cache of queue URL resolutions, or null for none
+	 * @param codec codec of object messages, or null to Java serialize objects
+	 * @param clientOwner the managed connection factory whose client the physical connection uses, told when this connection
+	 *     is closed; or null
+	 */
+	@SuppressWarnings("PMD.NullAssignment")
+	SQSJMSConnection(
+			final SQSConnection delegate,
+			final SQSJMSQueueUrlCache queueUrlCache,
+			final ObjectMessageCodec codec,
+			final SQSJMSManagedConnectionFactory clientOwner) {
 		this.managedConnection = null;
 		this.delegate = delegate;
-		this.listeners = null;
+		this.queueUrlCache = queueUrlCache;
+		this.codec = codec;
+		this.clientOwner = clientOwner;
 	}
 
+	@SuppressWarnings("PMD.NullAssignment")
 	public SQSJMSConnection(
-			final ManagedConnection managedConnection,
-			final SQSConnection delegate,
-			final List<ConnectionEventListener> listeners) {
+			final SQSJMSManagedConnection managedConnection,
+			final SQSConnection delegate) {
 		this.managedConnection = managedConnection;
 		this.delegate = delegate;
-		this.listeners = listeners;
+		this.queueUrlCache = managedConnection.getQueueUrlCache();
+		this.codec = managedConnection.getCodec();
+		this.clientOwner = null;
 	}
 
 	@Override
 	public Session createSession(final boolean transacted, final int acknowledgeMode) throws JMSException {
-		final SQSSession sqsSession = (SQSSession) delegate.createSession(transacted, acknowledgeMode);
-		return new SQSJMSSession(sqsSession);
+		return createQueueSession(transacted, acknowledgeMode);
 	}
 
 	@Override
 	public String getClientID() throws JMSException {
-		return delegate.getClientID();
+		if (managedConnection == null) {
+			return delegate.getClientID();
+		}
+		synchronized (this) {
+			return clientID;
+		}
 	}
 
+	/**
+	 * Set the client ID of this connection.
+	 *
+	 * A handle given out by a managed connection keeps the client ID to itself rather than setting it on the shared physical
+	 * connection, and, as with any connection, it can only be set once.
+	 *
+	 * @param clientID the client ID
+	 * @throws JMSException if the client ID was already set
+	 */
 	@Override
 	public void setClientID(final String clientID) throws JMSException {
-		delegate.setClientID(clientID);
+		if (managedConnection == null) {
+			delegate.setClientID(clientID);
+			return;
+		}
+		checkClosed();
+		synchronized (this) {
+			if (this.clientID != null) {
+				throw new IllegalStateException("Client ID is already set to " + this.clientID);
+			}
+			this.clientID = clientID;
+		}
 	}
 
 	@Override
@@ -88,38 +161,77 @@ public class SQSJMSConnection implements QueueConnection {
 
 	@Override
 	public ExceptionListener getExceptionListener() throws JMSException {
-		return delegate.getExceptionListener();
+		if (managedConnection == null) {
+			return delegate.getExceptionListener();
+		}
+		return exceptionListener.get();
 	}
 
 	@Override
 	public void setExceptionListener(final ExceptionListener listener) throws JMSException {
-		delegate.setExceptionListener(listener);
+		if (managedConnection == null) {
+			delegate.setExceptionListener(listener);
+			return;
+		}
+		checkClosed();
+		exceptionListener.set(listener);
 	}
 
 	@Override
 	public void start() throws JMSException {
-		delegate.start();
+		if (managedConnection == null) {
+			delegate.start();
+			return;
+		}
+		checkClosed();
+		started.set(true);
+		managedConnection.handleStarted();
 	}
 
+	/**
+	 * Stop delivery of messages to this connection's consumers.
+	 *
+	 * A handle given out by a managed connection only stops the shared physical connection once none of the managed
+	 * connection's handles is started.
+	 *
+	 * @throws JMSException if the physical connection cannot be stopped
+	 */
 	@Override
 	public void stop() throws JMSException {
-		delegate.stop();
+		if (managedConnection == null) {
+			delegate.stop();
+			return;
+		}
+		checkClosed();
+		started.set(false);
+		managedConnection.handleStopped();
 	}
 
 	@Override
+	@SuppressWarnings("PMD.NcssCount")
 	public void close() throws JMSException {
-		try {
-			if (managedConnection != null) {
-				final ConnectionEvent event = new ConnectionEvent(managedConnection, ConnectionEvent.CONNECTION_CLOSED);
-				event.setConnectionHandle(this);
-
-				for (final ConnectionEventListener cel : listeners) {
-					cel.connectionClosed(event);
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		if (managedConnection == null) {
+			try {
+				delegate.close();
+			}
+			finally {
+				if (clientOwner != null) {
+					clientOwner.clientUserRemoved();
 				}
 			}
 		}
-		finally {
-			delegate.close();
+		else {
+			try {
+				closeSessions();
+				started.set(false);
+				managedConnection.handleStopped();
+			}
+			finally {
+				managedConnection.handleClosed(this);
+			}
 		}
 	}
 
@@ -144,8 +256,10 @@ public class SQSJMSConnection implements QueueConnection {
 
 	@Override
 	public QueueSession createQueueSession(final boolean transacted, final int acknowledgeMode) throws JMSException {
-		final SQSSession sqsSession = (SQSSession) delegate.createQueueSession(transacted, acknowledgeMode);
-		return new SQSJMSSession(sqsSession);
+		checkClosed();
+		final SQSJMSSession session = new SQSJMSSession((SQSSession) delegate.createQueueSession(transacted, acknowledgeMode), this);
+		sessions.add(session);
+		return session;
 	}
 
 	@Override
@@ -156,4 +270,105 @@ public class SQSJMSConnection implements QueueConnection {
 			final int maxMessages) throws JMSException {
 		throw new JMSException(SQSMessagingClientConstants.UNSUPPORTED_METHOD);
 	}
+
+	/**
+	 * Move this handle to another managed connection (see {@link javax.resource.spi.ManagedConnection#associateConnection(Object)}).
+	 *
+	 * The handle is detached from the managed connection that owned it, so that cleaning that one up leaves the handle alone.
+	 * Sessions belong to the physical connection they were created on and cannot move with the handle, so they are closed.
+	 * The handle's client ID, exception listener and started state move with it.
+	 *
+	 * @param managedConnection the managed connection that now owns this handle
+	 * @param delegate the physical connection of that managed connection
+	 * @throws JMSException if a session cannot be closed (the handle is moved anyway), or a physical connection cannot be
+	 *     started or stopped
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage", "PMD.NcssCount"})
+	void associate(final SQSJMSManagedConnection managedConnection, final SQSConnection delegate) throws JMSException {
+		final SQSJMSManagedConnection previousManagedConnection = this.managedConnection;
+		if (previousManagedConnection == managedConnection) {
+			return;
+		}
+		try {
+			closeSessions();
+		}
+		finally {
+			if (previousManagedConnection != null) {
+				previousManagedConnection.handleDetached(this);
+			}
+			this.managedConnection = managedConnection;
+			this.delegate = delegate;
+			this.queueUrlCache = managedConnection.getQueueUrlCache();
+			this.codec = managedConnection.getCodec();
+		}
+		if (previousManagedConnection != null) {
+			previousManagedConnection.handleStopped();
+		}
+		if (started.get()) {
+			managedConnection.handleStarted();
+		}
+	}
+
+	@SuppressWarnings("PMD.DefaultPackage")
+	SQSJMSQueueUrlCache getQueueUrlCache() {
+		return queueUrlCache;
+	}
+
+	@SuppressWarnings("PMD.DefaultPackage")
+	ObjectMessageCodec getCodec() {
+		return codec;
+	}
+
+	@SuppressWarnings("PMD.DefaultPackage")
+	AmazonSQS getAmazonSQSClient() {
+		return delegate.getAmazonSQSClient();
+	}
+
+	/**
+	 * Close this handle's sessions and make it unusable, without notifying the managed connection (which is being cleaned up).
+	 *
+	 * @throws JMSException if a session cannot be closed
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void invalidate() throws JMSException {
+		closed.set(true);
+		closeSessions();
+	}
+
+	@SuppressWarnings("PMD.DefaultPackage")
+	boolean isStarted() {
+		return started.get();
+	}
+
+	/**
+	 * Pass an exception of the physical connection to this handle's exception listener, if it has one.
+	 *
+	 * @param exception the exception
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void exceptionOccurred(final JMSException exception) {
+		final ExceptionListener listener = exceptionListener.get();
+		if (listener != null) {
+			listener.onException(exception);
+		}
+	}
+
+	@SuppressWarnings("PMD.DefaultPackage")
+	void sessionClosed(final SQSJMSSession session) {
+		sessions.remove(session);
+	}
+
+	private void closeSessions() throws JMSException {
+		for (final SQSJMSSession session : sessions) {
+			session.close();
+		}
+		sessions.clear();
+	}
+
+	private void checkClosed() throws IllegalStateException {
+		if (closed.get()) {
+			throw new IllegalStateException("Connection is closed");
+		}
+		delegate.checkClosed();
+	}
 }
@@ -22,12 +22,6 @@ import javax.jms.QueueConnectionFactory;
 import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionManager;
 
-import com.amazon.sqs.javamessaging.ProviderConfiguration;
-import com.amazon.sqs.javamessaging.SQSConnectionFactory;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
-import com.amazonaws.util.StringUtils;
-
 /**
  * JCA adapter for SQS to {@link QueueConnectionFactory}.
  *
@@ -48,7 +42,7 @@ public class SQSJMSConnectionFactory implements QueueConnectionFactory {
 	public QueueConnection createConnection() throws JMSException {
 		try {
 			if (connectionManager == null) {
-				return new SQSJMSConnection(getSQSConnectionFactory().createConnection());
+				return sqsJMSManagedConnectionFactory.createUnmanagedConnection(null);
 			}
 			else {
 				return (QueueConnection) connectionManager.allocateConnection(sqsJMSManagedConnectionFactory, null);
@@ -61,23 +55,19 @@ public class SQSJMSConnectionFactory implements QueueConnectionFactory {
 
 	@Override
 	public QueueConnection createConnection(final String userName, final String password) throws JMSException {
-		return getSQSConnectionFactory().createConnection(userName, password);
-	}
-
-	private SQSConnectionFactory getSQSConnectionFactory() {
-		final String region = sqsJMSManagedConnectionFactory.getAwsRegionProvider().getRegion();
-		if (region == null) {
-			throw new IllegalStateException("No region set. Please set a region or provide one using a method supported by com.amazonaws.regions.DefaultAwsRegionProviderChain");
+		try {
+			if (connectionManager == null) {
+				return sqsJMSManagedConnectionFactory.createUnmanagedConnection(new SQSJMSConnectionRequestInfo(userName, password));
+			}
+			else {
+				return (QueueConnection) connectionManager.allocateConnection(
+						sqsJMSManagedConnectionFactory,
+						new SQSJMSConnectionRequestInfo(userName, password));
+			}
 		}
-		if (StringUtils.isNullOrEmpty(region)) {
-			throw new IllegalStateException("region must be set");
+		catch (final ResourceException e) {
+			throw new RuntimeException(e); //NOPMD
 		}
-		return new SQSConnectionFactory(
-			new ProviderConfiguration(),
-			AmazonSQSClientBuilder.standard()
-				.withRegion(Regions.fromName(region))
-				.withCredentials(sqsJMSManagedConnectionFactory.getAwsCredentialsProvider())
-			);
 	}
 
 	@Override
@@ -87,7 +77,7 @@ public class SQSJMSConnectionFactory implements QueueConnectionFactory {
 
 	@Override
 	public QueueConnection createQueueConnection(final String userName, final String password) throws JMSException {
-		return createQueueConnection(userName, password);
+		return createConnection(userName, password);
 	}
 
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of one {@link SQSJMSManagedConnectionFactory}, registered as an MBean once the factory is first used.
+ *
+ * Sends are recorded by the factory's {@link SQSJMSClientDecorator}s. With send batching, a send's latency includes the
+ * time it waited for its batch to fill, as that is the time the sender was blocked for.
+ *
+ * @author Craig Andrews
+ *
+ */
+public final class SQSJMSConnectionFactoryStats implements SQSJMSConnectionFactoryStatsMBean {
+	private static final double P50 = 0.5;
+	private static final double P99 = 0.99;
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong sendFailures = new AtomicLong();
+	private final SQSJMSLatencyHistogram sendLatency = new SQSJMSLatencyHistogram();
+
+	SQSJMSConnectionFactoryStats() {
+		super();
+	}
+
+	/**
+	 * Record a send request.
+	 *
+	 * @param count number of messages sent
+	 * @param failures number of messages that could not be sent
+	 * @param nanos how long the request took
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void sendFinished(final int count, final int failures, final long nanos) {
+		sendLatency.record(nanos);
+		sent.addAndGet(count);
+		sendFailures.addAndGet(failures);
+	}
+
+	@Override
+	public long getMessagesSent() {
+		return sent.get();
+	}
+
+	@Override
+	public long getSendFailures() {
+		return sendFailures.get();
+	}
+
+	@Override
+	public double getSendLatencyP50Millis() {
+		return sendLatency.percentileMillis(P50);
+	}
+
+	@Override
+	public double getSendLatencyP99Millis() {
+		return sendLatency.percentileMillis(P99);
+	}
+
+	@Override
+	public double getSendLatencyMaxMillis() {
+		return sendLatency.maxMillis();
+	}
+}
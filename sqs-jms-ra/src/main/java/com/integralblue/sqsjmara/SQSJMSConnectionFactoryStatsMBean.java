@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+/**
+ * Management interface for the statistics of one {@link SQSJMSManagedConnectionFactory}: the messages sent by producers of the
+ * connections it makes.
+ *
+ * Latencies are reported in milliseconds, as the upper bound of a power-of-two bucket (see {@link SQSJMSLatencyHistogram}).
+ *
+ * @author Craig Andrews
+ *
+ */
+public interface SQSJMSConnectionFactoryStatsMBean {
+	/**
+	 * Messages sent successfully.
+	 *
+	 * @return the count
+	 */
+	long getMessagesSent();
+
+	/**
+	 * Messages that could not be sent.
+	 *
+	 * @return the count
+	 */
+	long getSendFailures();
+
+	double getSendLatencyP50Millis();
+
+	double getSendLatencyP99Millis();
+
+	double getSendLatencyMaxMillis();
+}
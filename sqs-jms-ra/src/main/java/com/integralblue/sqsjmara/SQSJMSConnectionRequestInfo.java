@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.Objects;
+
+import javax.resource.spi.ConnectionRequestInfo;
+
+/**
+ * {@link ConnectionRequestInfo} carrying the credentials passed to
+ * {@link javax.jms.QueueConnectionFactory#createQueueConnection(String, String)}.
+ *
+ * @author Craig Andrews
+ *
+ */
+public final class SQSJMSConnectionRequestInfo implements ConnectionRequestInfo {
+	private final String userName;
+	private final String password;
+
+	public SQSJMSConnectionRequestInfo(final String userName, final String password) {
+		this.userName = userName;
+		this.password = password;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(userName, password);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof SQSJMSConnectionRequestInfo)) {
+			return false;
+		}
+		final SQSJMSConnectionRequestInfo other = (SQSJMSConnectionRequestInfo) obj;
+		return Objects.equals(userName, other.userName) && Objects.equals(password, other.password);
+	}
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Enumeration;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
+import javax.jms.ObjectMessage;
+
+import com.amazon.sqs.javamessaging.message.SQSObjectMessage;
+import com.amazonaws.util.Base64;
+
+/**
+ * Received object message whose object was encoded with an {@link ObjectMessageCodec}.
+ *
+ * The message was built by the SQS JMS library (or the receive loop) as if its body were Java serialized, so this message delegates
+ * everything to it except the object, which it decodes with the codec on the first {@link #getObject()} (resolving classes with the
+ * thread context class loader, the endpoint's) and keeps for later calls.
+ * Once the body is cleared or a new object set, the object is the one set on the delegate.
+ *
+ * As the SQS JMS library only sends its own messages, producers send the message returned by {@link #forSending()} instead.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings({"PMD.DefaultPackage", "PMD.TooManyMethods", "PMD.ExcessivePublicCount"})
+final class SQSJMSDecodedObjectMessage implements ObjectMessage {
+	private final SQSObjectMessage delegate;
+	private final String codecId;
+	private final ObjectMessageCodec codec;
+	private boolean encoded = true;
+	private boolean decoded;
+	private Serializable object;
+
+	SQSJMSDecodedObjectMessage(final SQSObjectMessage delegate, final String codecId, final ObjectMessageCodec codec) {
+		this.delegate = delegate;
+		this.codecId = codecId;
+		this.codec = codec;
+	}
+
+	@Override
+	public Serializable getObject() throws JMSException {
+		if (!encoded) {
+			return delegate.getObject();
+		}
+		if (!decoded) {
+			object = decode();
+			decoded = true;
+		}
+		return object;
+	}
+
+	@Override
+	public void setObject(final Serializable payload) throws JMSException {
+		delegate.setObject(payload);
+		bodyReplaced();
+	}
+
+	@Override
+	public void clearBody() throws JMSException {
+		delegate.clearBody();
+		bodyReplaced();
+	}
+
+	@Override
+	public String getJMSMessageID() throws JMSException {
+		return delegate.getJMSMessageID();
+	}
+
+	@Override
+	public void setJMSMessageID(final String id) throws JMSException {
+		delegate.setJMSMessageID(id);
+	}
+
+	@Override
+	public long getJMSTimestamp() throws JMSException {
+		return delegate.getJMSTimestamp();
+	}
+
+	@Override
+	public void setJMSTimestamp(final long timestamp) throws JMSException {
+		delegate.setJMSTimestamp(timestamp);
+	}
+
+	@Override
+	public byte[] getJMSCorrelationIDAsBytes() throws JMSException {
+		return delegate.getJMSCorrelationIDAsBytes();
+	}
+
+	@Override
+	public void setJMSCorrelationIDAsBytes(final byte[] correlationID) throws JMSException {
+		delegate.setJMSCorrelationIDAsBytes(correlationID);
+	}
+
+	@Override
+	public void setJMSCorrelationID(final String correlationID) throws JMSException {
+		delegate.setJMSCorrelationID(correlationID);
+	}
+
+	@Override
+	public String getJMSCorrelationID() throws JMSException {
+		return delegate.getJMSCorrelationID();
+	}
+
+	@Override
+	public Destination getJMSReplyTo() throws JMSException {
+		return delegate.getJMSReplyTo();
+	}
+
+	@Override
+	public void setJMSReplyTo(final Destination replyTo) throws JMSException {
+		delegate.setJMSReplyTo(replyTo);
+	}
+
+	@Override
+	public Destination getJMSDestination() throws JMSException {
+		return delegate.getJMSDestination();
+	}
+
+	@Override
+	public void setJMSDestination(final Destination destination) throws JMSException {
+		delegate.setJMSDestination(destination);
+	}
+
+	@Override
+	public int getJMSDeliveryMode() throws JMSException {
+		return delegate.getJMSDeliveryMode();
+	}
+
+	@Override
+	public void setJMSDeliveryMode(final int deliveryMode) throws JMSException {
+		delegate.setJMSDeliveryMode(deliveryMode);
+	}
+
+	@Override
+	public boolean getJMSRedelivered() throws JMSException {
+		return delegate.getJMSRedelivered();
+	}
+
+	@Override
+	public void setJMSRedelivered(final boolean redelivered) throws JMSException {
+		delegate.setJMSRedelivered(redelivered);
+	}
+
+	@Override
+	public String getJMSType() throws JMSException {
+		return delegate.getJMSType();
+	}
+
+	@Override
+	public void setJMSType(final String type) throws JMSException {
+		delegate.setJMSType(type);
+	}
+
+	@Override
+	public long getJMSExpiration() throws JMSException {
+		return delegate.getJMSExpiration();
+	}
+
+	@Override
+	public void setJMSExpiration(final long expiration) throws JMSException {
+		delegate.setJMSExpiration(expiration);
+	}
+
+	@Override
+	public int getJMSPriority() throws JMSException {
+		return delegate.getJMSPriority();
+	}
+
+	@Override
+	public void setJMSPriority(final int priority) throws JMSException {
+		delegate.setJMSPriority(priority);
+	}
+
+	@Override
+	public void clearProperties() throws JMSException {
+		delegate.clearProperties();
+	}
+
+	@Override
+	public boolean propertyExists(final String name) throws JMSException {
+		return delegate.propertyExists(name);
+	}
+
+	@Override
+	public boolean getBooleanProperty(final String name) throws JMSException {
+		return delegate.getBooleanProperty(name);
+	}
+
+	@Override
+	public byte getByteProperty(final String name) throws JMSException {
+		return delegate.getByteProperty(name);
+	}
+
+	@Override
+	@SuppressWarnings("PMD.AvoidUsingShortType")
+	public short getShortProperty(final String name) throws JMSException {
+		return delegate.getShortProperty(name);
+	}
+
+	@Override
+	public int getIntProperty(final String name) throws JMSException {
+		return delegate.getIntProperty(name);
+	}
+
+	@Override
+	public long getLongProperty(final String name) throws JMSException {
+		return delegate.getLongProperty(name);
+	}
+
+	@Override
+	public float getFloatProperty(final String name) throws JMSException {
+		return delegate.getFloatProperty(name);
+	}
+
+	@Override
+	public double getDoubleProperty(final String name) throws JMSException {
+		return delegate.getDoubleProperty(name);
+	}
+
+	@Override
+	public String getStringProperty(final String name) throws JMSException {
+		return delegate.getStringProperty(name);
+	}
+
+	@Override
+	public Object getObjectProperty(final String name) throws JMSException {
+		return delegate.getObjectProperty(name);
+	}
+
+	@Override
+	public Enumeration<String> getPropertyNames() throws JMSException {
+		return delegate.getPropertyNames();
+	}
+
+	@Override
+	public void setBooleanProperty(final String name, final boolean value) throws JMSException {
+		delegate.setBooleanProperty(name, value);
+	}
+
+	@Override
+	public void setByteProperty(final String name, final byte value) throws JMSException {
+		delegate.setByteProperty(name, value);
+	}
+
+	@Override
+	@SuppressWarnings("PMD.AvoidUsingShortType")
+	public void setShortProperty(final String name, final short value) throws JMSException {
+		delegate.setShortProperty(name, value);
+	}
+
+	@Override
+	public void setIntProperty(final String name, final int value) throws JMSException {
+		delegate.setIntProperty(name, value);
+	}
+
+	@Override
+	public void setLongProperty(final String name, final long value) throws JMSException {
+		delegate.setLongProperty(name, value);
+	}
+
+	@Override
+	public void setFloatProperty(final String name, final float value) throws JMSException {
+		delegate.setFloatProperty(name, value);
+	}
+
+	@Override
+	public void setDoubleProperty(final String name, final double value) throws JMSException {
+		delegate.setDoubleProperty(name, value);
+	}
+
+	@Override
+	public void setStringProperty(final String name, final String value) throws JMSException {
+		delegate.setStringProperty(name, value);
+	}
+
+	@Override
+	public void setObjectProperty(final String name, final Object value) throws JMSException {
+		delegate.setObjectProperty(name, value);
+	}
+
+	@Override
+	public void acknowledge() throws JMSException {
+		delegate.acknowledge();
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+
+	/**
+	 * The message to give the SQS JMS library to send in place of this one, which is not a message the library can send.
+	 *
+	 * While the body is the one received, that is the received message: its body is still encoded, and it names the codec.
+	 * Once the body has been replaced, it is a copy whose object is encoded with the same codec (or Java serialized if the codec is not
+	 * configured for this endpoint).
+	 *
+	 * @return the message to send
+	 * @throws JMSException if the object cannot be encoded, or the message's properties cannot be read
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	SQSObjectMessage forSending() throws JMSException {
+		if (encoded) {
+			return delegate;
+		}
+		final SQSObjectMessage copy = codec == null ? new SQSObjectMessage() : new SQSJMSEncodedObjectMessage(codec);
+		copy.setObject(delegate.getObject());
+		copy.setJMSCorrelationID(delegate.getJMSCorrelationID());
+		copy.setJMSType(delegate.getJMSType());
+		copy.setJMSReplyTo(delegate.getJMSReplyTo());
+		final Enumeration<String> names = delegate.getPropertyNames();
+		while (names.hasMoreElements()) {
+			final String name = names.nextElement();
+			if (!SQSJMSObjectMessageCodecs.CODEC_PROPERTY.equals(name)) {
+				copy.setObjectProperty(name, delegate.getObjectProperty(name));
+			}
+		}
+		return copy;
+	}
+
+	@SuppressWarnings("PMD.NullAssignment")
+	private void bodyReplaced() {
+		encoded = false;
+		decoded = false;
+		object = null;
+	}
+
+	private Serializable decode() throws JMSException {
+		if (codec == null) {
+			throw new MessageFormatException("Message " + delegate.getSQSMessageId() + " was encoded with the " + codecId
+					+ " codec, which is not configured for this endpoint");
+		}
+		final String body = delegate.getMessageBody();
+		if (body == null) {
+			return null;
+		}
+		try {
+			return codec.decode(Base64.decode(body), Thread.currentThread().getContextClassLoader());
+		}
+		catch (final IOException | ClassNotFoundException | IllegalArgumentException e) {
+			throw SQSJMSObjectMessageCodecs.messageFormatException("Failed to decode message " + delegate.getSQSMessageId() + " with the " + codecId + " codec", e);
+		}
+	}
+}
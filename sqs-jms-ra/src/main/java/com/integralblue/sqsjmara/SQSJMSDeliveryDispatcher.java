@@ -0,0 +1,302 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkAdapter;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkListener;
+import javax.resource.spi.work.WorkManager;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazon.sqs.javamessaging.message.SQSMessage;
+
+/**
+ * Schedules deliveries with the {@link WorkManager}, either each as its own {@link Work} or on a fixed number of stripes,
+ * each of which runs the deliveries given to it one at a time, in order.
+ *
+ * A delivery is given to the stripe chosen by its key, so deliveries with the same key never run concurrently and are run in the
+ * order they were dispatched, while deliveries on different stripes run in parallel. A stripe is scheduled as one {@link Work}
+ * while it has deliveries waiting, so it only takes up a thread while it has something to do. Each stripe holds a bounded number
+ * of waiting deliveries; dispatching to a full stripe waits until it has room.
+ * If the dispatcher is ordered and a delivery fails, the stripe rejects the deliveries with the same key waiting behind it,
+ * as running them would break the order, and goes on rejecting deliveries with that key dispatched from the same poll
+ * (see {@link #startPoll()}): those were received along with the failed one and come after it.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSDeliveryDispatcher {
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSDeliveryDispatcher.class.getName());
+
+	private final WorkManager workManager;
+	private final String keyProperty;
+	private final int stripeQueueSize;
+	private final boolean ordered;
+	private final Stripe[] stripes;
+
+	/**
+	 * Create a dispatcher.
+	 *
+	 * Deliveries from a FIFO queue are striped by message group, and ordered; those from a standard queue are striped by the
+	 * {@code affinityKey} property if the spec has one, and otherwise each scheduled as its own {@link Work}.
+	 *
+	 * @param workManager work manager to schedule deliveries with
+	 * @param spec the activation spec
+	 * @param fifo whether the deliveries are from a FIFO queue
+	 */
+	SQSJMSDeliveryDispatcher(final WorkManager workManager, final SQSJMSActivationSpec spec, final boolean fifo) {
+		this.workManager = workManager;
+		this.keyProperty = fifo ? SQSMessagingClientConstants.JMSX_GROUP_ID : spec.getAffinityKey();
+		this.stripeQueueSize = spec.getStripeQueueSize();
+		this.ordered = fifo;
+		this.stripes = new Stripe[keyProperty == null ? 0 : spec.getDispatchStripes()];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Schedule a delivery, or queue it on the stripe for its key (waiting for the stripe to have room).
+	 * If the delivery cannot be scheduled, or the wait is interrupted, the delivery is rejected.
+	 *
+	 * @param delivery the delivery
+	 */
+	void dispatch(final Delivery delivery) {
+		if (stripes.length > 0) {
+			stripes[(delivery.getKey().hashCode() & Integer.MAX_VALUE) % stripes.length].submit(delivery);
+			return;
+		}
+		try {
+			workManager.scheduleWork(delivery, WorkManager.INDEFINITE, null, delivery);
+		}
+		catch (final WorkException e) {
+			delivery.reject(e);
+		}
+	}
+
+	/**
+	 * Start dispatching the messages of another poll, forgetting the keys of failed deliveries.
+	 *
+	 * While a FIFO message is being delivered, SQS returns no more messages of its group, so a later poll holds messages of a
+	 * group that failed only once the rejected ones have been returned; these are delivered again from the failed one on.
+	 */
+	void startPoll() {
+		for (final Stripe stripe : stripes) {
+			stripe.clearFailures();
+		}
+	}
+
+	/**
+	 * The deliveries waiting on each stripe, not counting the one each stripe is running.
+	 *
+	 * @return the depth of each stripe; empty if deliveries are not striped
+	 */
+	int[] getStripeDepths() {
+		final int[] depths = new int[stripes.length];
+		for (int i = 0; i < stripes.length; i++) {
+			depths[i] = stripes[i].depth();
+		}
+		return depths;
+	}
+
+	/**
+	 * The key of a message: the value of the key property (SQS message attributes are received as properties,
+	 * and a FIFO queue's message group as the {@code JMSXGroupID} property).
+	 *
+	 * @param message the message
+	 * @return the property's value as a string, or an empty string if the message does not have the property or deliveries
+	 *         are not striped
+	 */
+	String key(final SQSMessage message) {
+		if (keyProperty == null) {
+			return "";
+		}
+		try {
+			final Object value = message.getObjectProperty(keyProperty);
+			return value == null ? "" : value.toString();
+		}
+		catch (final JMSException e) {
+			LOGGER.log(Level.WARNING, "Failed to get property " + keyProperty + " of message " + message.getSQSMessageId(), e);
+			return "";
+		}
+	}
+
+	/**
+	 * A delivery to schedule; as a {@link WorkListener}, it is told if the work manager rejects it.
+	 */
+	interface Delivery extends Work, WorkListener {
+		/**
+		 * The key that chooses the stripe; deliveries with equal keys are run in order.
+		 *
+		 * @return the key
+		 */
+		String getKey();
+
+		/**
+		 * Whether the delivery succeeded; only meaningful once {@link #run()} has returned.
+		 *
+		 * @return true if the delivery succeeded
+		 */
+		boolean isDelivered();
+
+		/**
+		 * Give up on the delivery without running it.
+		 *
+		 * @param cause why the delivery could not be scheduled, or null if it was rejected for following a failed one
+		 */
+		void reject(Exception cause);
+	}
+
+	/**
+	 * Runs the work given to it one at a time, in order.
+	 */
+	private final class Stripe extends WorkAdapter implements Work {
+		private final Deque<Delivery> waiting = new ArrayDeque<>();
+		private final Set<String> failedKeys = new HashSet<>();
+		private boolean scheduled;
+
+		Stripe() {
+			super();
+		}
+
+		@SuppressWarnings("PMD.NcssCount")
+		void submit(final Delivery delivery) {
+			boolean follows = false;
+			synchronized (this) {
+				try {
+					while (waiting.size() >= stripeQueueSize) {
+						wait();
+					}
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					delivery.reject(e);
+					return;
+				}
+				if (failedKeys.contains(delivery.getKey())) {
+					// follows a failed delivery of the same poll
+					follows = true;
+				}
+				else {
+					waiting.add(delivery);
+					if (scheduled) {
+						return;
+					}
+					scheduled = true;
+				}
+			}
+			if (follows) {
+				delivery.reject(null);
+				return;
+			}
+			try {
+				workManager.scheduleWork(this, WorkManager.INDEFINITE, null, this);
+			}
+			catch (final WorkException e) {
+				rejectWaiting(null, e);
+			}
+		}
+
+		@Override
+		public void run() {
+			for (Delivery delivery = next(); delivery != null; delivery = next()) {
+				delivery.run();
+				if (ordered && !delivery.isDelivered()) {
+					rejectWaiting(delivery.getKey(), null);
+				}
+			}
+		}
+
+		/**
+		 * Take the next waiting delivery, or stop the stripe if there is none.
+		 *
+		 * @return the delivery, or null if there is none
+		 */
+		private synchronized Delivery next() {
+			final Delivery delivery = waiting.poll();
+			if (delivery == null) {
+				scheduled = false;
+			}
+			else {
+				notifyAll();
+			}
+			return delivery;
+		}
+
+		synchronized int depth() {
+			return waiting.size();
+		}
+
+		synchronized void clearFailures() {
+			failedKeys.clear();
+		}
+
+		@Override
+		public void release() {
+			// deliveries finish on their own; nothing to interrupt
+		}
+
+		@Override
+		public void workRejected(final WorkEvent e) {
+			rejectWaiting(null, e.getException());
+		}
+
+		/**
+		 * Reject waiting work.
+		 *
+		 * @param key key of the deliveries to reject (and of those dispatched later from the same poll), or null to reject
+		 *     all of them (and stop the stripe)
+		 * @param cause why the work manager rejected the stripe, or null
+		 */
+		@SuppressWarnings("PMD.NcssCount")
+		private void rejectWaiting(final String key, final Exception cause) {
+			final Deque<Delivery> rejected = new ArrayDeque<>();
+			synchronized (this) {
+				final Iterator<Delivery> iterator = waiting.iterator();
+				while (iterator.hasNext()) {
+					final Delivery delivery = iterator.next();
+					if (key == null || key.equals(delivery.getKey())) {
+						iterator.remove();
+						rejected.add(delivery);
+					}
+				}
+				if (key == null) {
+					scheduled = false;
+				}
+				else {
+					failedKeys.add(key);
+				}
+				notifyAll();
+			}
+			for (final Delivery delivery : rejected) {
+				delivery.reject(cause);
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Suppresses duplicate deliveries of messages that were already delivered successfully.
+ *
+ * Only a 64 bit fingerprint of each delivered message's key is remembered, in open addressed tables of primitive longs:
+ * the fingerprints are kept in two generations, and once the current generation holds half the capacity, or half the window
+ * has passed since it was started, the older generation is dropped and a new one is started. So a key is remembered for between
+ * half the window and the whole window (less under heavy load, when the capacity is reached first), and memory use is fixed at
+ * no more than 32 bytes per message of capacity.
+ *
+ * Messages are remembered once their delivery has succeeded, so a message whose delivery failed is delivered again, but
+ * duplicates that arrive while the first copy is still being delivered are not suppressed.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSDuplicateFilter {
+	/**
+	 * Key that identifies a message by its SQS message id.
+	 */
+	static final String MESSAGE_ID_KEY = "JMSMessageID";
+
+	/**
+	 * Key that identifies a message by its correlation id.
+	 */
+	static final String CORRELATION_ID_KEY = "JMSCorrelationID";
+
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSDuplicateFilter.class.getName());
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final String key;
+	private final SQSJMSActivationStats stats;
+	private final int generationCapacity;
+	private final long generationNanos;
+
+	private long[] current;
+	private long[] previous;
+	private int currentSize;
+	private long currentStarted;
+
+	/**
+	 * Create a filter.
+	 *
+	 * @param key {@value #MESSAGE_ID_KEY}, {@value #CORRELATION_ID_KEY} or the name of the message property that identifies a message
+	 * @param capacity most messages to remember
+	 * @param windowSeconds longest time to remember a message for
+	 * @param stats statistics to count duplicates (hits) and other messages (misses) in
+	 */
+	SQSJMSDuplicateFilter(final String key, final int capacity, final int windowSeconds, final SQSJMSActivationStats stats) {
+		this.key = key;
+		this.stats = stats;
+		this.generationCapacity = Math.max(1, capacity / 2);
+		this.generationNanos = TimeUnit.SECONDS.toNanos(windowSeconds) / 2;
+		// at most half full, so that probe sequences stay short
+		final int tableSize = Integer.highestOneBit(generationCapacity) << 2;
+		this.current = new long[tableSize];
+		this.previous = new long[tableSize];
+		this.currentStarted = System.nanoTime();
+	}
+
+	/**
+	 * Whether a message was already delivered successfully.
+	 *
+	 * @param message the message
+	 * @return true if the message is a duplicate
+	 */
+	boolean isDuplicate(final Message message) {
+		final long fingerprint = fingerprint(message);
+		final boolean duplicate;
+		synchronized (this) {
+			duplicate = fingerprint != 0 && (contains(current, fingerprint) || contains(previous, fingerprint));
+		}
+		stats.duplicateChecked(duplicate);
+		return duplicate;
+	}
+
+	/**
+	 * The messages that were not already delivered successfully.
+	 *
+	 * @param messages the messages
+	 * @return the messages that are not duplicates, in order
+	 */
+	List<Message> withoutDuplicates(final List<Message> messages) {
+		final List<Message> fresh = new ArrayList<>(messages.size());
+		for (final Message message : messages) {
+			if (!isDuplicate(message)) {
+				fresh.add(message);
+			}
+		}
+		return fresh;
+	}
+
+	/**
+	 * Remember messages that were delivered successfully.
+	 *
+	 * @param messages the messages
+	 */
+	void delivered(final List<Message> messages) {
+		for (final Message message : messages) {
+			final long fingerprint = fingerprint(message);
+			if (fingerprint != 0) {
+				add(fingerprint);
+			}
+		}
+	}
+
+	private synchronized void add(final long fingerprint) {
+		final long now = System.nanoTime();
+		if (currentSize >= generationCapacity || now - currentStarted >= generationNanos) {
+			rotate(now);
+		}
+		final int slot = slot(current, fingerprint);
+		if (current[slot] == 0) {
+			current[slot] = fingerprint;
+			currentSize++;
+		}
+	}
+
+	/**
+	 * Drop the previous generation and start a new one.
+	 *
+	 * @param now when the new generation starts
+	 */
+	private void rotate(final long now) {
+		final long[] dropped = previous;
+		previous = current;
+		Arrays.fill(dropped, 0);
+		current = dropped;
+		currentSize = 0;
+		currentStarted = now;
+	}
+
+	private static boolean contains(final long[] table, final long fingerprint) {
+		return table[slot(table, fingerprint)] != 0;
+	}
+
+	/**
+	 * Find a fingerprint in a table, probing linearly from the slot its low bits pick.
+	 *
+	 * @param table the table
+	 * @param fingerprint the fingerprint
+	 * @return the slot holding the fingerprint, or the empty slot where it would be added
+	 */
+	private static int slot(final long[] table, final long fingerprint) {
+		final int mask = table.length - 1;
+		int slot = (int) fingerprint & mask;
+		while (table[slot] != 0 && table[slot] != fingerprint) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * The fingerprint of a message's key.
+	 *
+	 * @param message the message
+	 * @return a 64 bit hash of the key that is never 0, or 0 if the message does not have the key
+	 */
+	private long fingerprint(final Message message) {
+		final String value;
+		try {
+			value = keyOf(message);
+		}
+		catch (final JMSException e) {
+			LOGGER.log(Level.WARNING, "Failed to get the " + key + " of a received message", e);
+			return 0;
+		}
+		return value == null ? 0 : hash(value);
+	}
+
+	/**
+	 * A 64 bit hash of a string: FNV-1a, then the MurmurHash3 finalizer so that the low bits used to pick a slot are well mixed.
+	 *
+	 * @param value the string
+	 * @return the hash, never 0
+	 */
+	private static long hash(final String value) {
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+		}
+		hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+		hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash == 0 ? 1 : hash;
+	}
+
+	private String keyOf(final Message message) throws JMSException {
+		if (MESSAGE_ID_KEY.equals(key)) {
+			return message.getJMSMessageID();
+		}
+		if (CORRELATION_ID_KEY.equals(key)) {
+			return message.getJMSCorrelationID();
+		}
+		final Object value = message.getObjectProperty(key);
+		return value == null ? null : value.toString();
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import javax.jms.JMSException;
+
+import com.amazon.sqs.javamessaging.message.SQSObjectMessage;
+import com.amazonaws.util.Base64;
+
+/**
+ * Object message to be sent, whose object is encoded with an {@link ObjectMessageCodec} instead of Java serialization.
+ *
+ * The object is encoded when it is set, as Java serialization would be, and the codec's id is set as the
+ * {@value SQSJMSObjectMessageCodecs#CODEC_PROPERTY} property, which {@link #clearProperties()} keeps.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings({"PMD.DefaultPackage", "serial"})
+final class SQSJMSEncodedObjectMessage extends SQSObjectMessage {
+	private final ObjectMessageCodec codec;
+	private String body;
+
+	SQSJMSEncodedObjectMessage(final ObjectMessageCodec codec) throws JMSException {
+		super();
+		this.codec = codec;
+		setStringProperty(SQSJMSObjectMessageCodecs.CODEC_PROPERTY, codec.getId());
+	}
+
+	@Override
+	@SuppressWarnings("PMD.NullAssignment")
+	public void setObject(final Serializable payload) throws JMSException {
+		checkBodyWritePermissions();
+		if (payload == null) {
+			body = null;
+			return;
+		}
+		try {
+			body = Base64.encodeAsString(codec.encode(payload));
+		}
+		catch (final IOException e) {
+			throw SQSJMSObjectMessageCodecs.messageFormatException("Failed to encode the object with the " + codec.getId() + " codec", e);
+		}
+	}
+
+	@Override
+	public Serializable getObject() throws JMSException {
+		if (body == null) {
+			return null;
+		}
+		try {
+			return codec.decode(Base64.decode(body), Thread.currentThread().getContextClassLoader());
+		}
+		catch (final IOException | ClassNotFoundException e) {
+			throw SQSJMSObjectMessageCodecs.messageFormatException("Failed to decode the object with the " + codec.getId() + " codec", e);
+		}
+	}
+
+	@Override
+	public String getMessageBody() {
+		return body;
+	}
+
+	@Override
+	@SuppressWarnings("PMD.NullAssignment")
+	public void clearBody() throws JMSException {
+		super.clearBody();
+		body = null;
+	}
+
+	@Override
+	public void clearProperties() throws JMSException {
+		super.clearProperties();
+		setStringProperty(SQSJMSObjectMessageCodecs.CODEC_PROPERTY, codec.getId());
+	}
+}
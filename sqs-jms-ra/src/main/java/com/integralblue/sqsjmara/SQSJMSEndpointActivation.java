@@ -0,0 +1,533 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.management.ObjectName;
+import javax.resource.ResourceException;
+import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.resource.spi.work.WorkManager;
+
+import com.amazon.sqs.javamessaging.ProviderConfiguration;
+import com.amazon.sqs.javamessaging.SQSConnection;
+import com.amazon.sqs.javamessaging.SQSConnectionFactory;
+import com.amazon.sqs.javamessaging.SQSQueueDestination;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+
+/**
+ * Consumes messages from one queue (or, with a {@link SQSJMSReceiveLoop}, several) on behalf of a single {@link MessageEndpointFactory}.
+ *
+ * In the {@code session} dispatch mode, starts with {@link SQSJMSActivationSpec#getMinSessions()} sessions, each with its own consumer,
+ * and opens another (up to {@link SQSJMSActivationSpec#getMaxSessions()}) once every session has been busy delivering for
+ * {@link SQSJMSActivationSpec#getSessionGrowthDelayMillis()}; sessions beyond the minimum are closed again once they have been idle
+ * for {@link SQSJMSActivationSpec#getSessionIdleTimeoutSeconds()}.
+ * In the {@code workManager} dispatch mode, a {@link SQSJMSReceiveLoop} receives messages and delivers each one as {@link javax.resource.spi.work.Work}.
+ * {@link BatchMessageListener} endpoints are always served by a {@link SQSJMSReceiveLoop}, which delivers batches of messages.
+ * With {@link SQSJMSActivationSpec#getVisibilityHeartbeat()}, a {@link SQSJMSVisibilityExtender} keeps messages invisible while they are being delivered.
+ * With receive watermarks, a {@link SQSJMSFlowControl} pauses every receive made for the activation (by the SQS JMS library's
+ * consumers, including their prefetching, or by the receive loop) while too many messages are waiting for or undergoing delivery.
+ * With a duplicate suppression window, a {@link SQSJMSDuplicateFilter} keeps messages already delivered from being delivered again.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings({"PMD.DefaultPackage", "PMD.TooManyMethods", "PMD.TooManyFields"})
+final class SQSJMSEndpointActivation {
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSEndpointActivation.class.getName());
+
+	private final MessageEndpointFactory endpointFactory;
+	private final SQSJMSActivationSpec spec;
+	private final AmazonSQS amazonSQS;
+	private final Timer timer;
+	private final WorkManager workManager;
+	private final SQSJMSActivationStats stats;
+	private final ObjectMessageCodec codec;
+	private final SQSJMSDuplicateFilter duplicateFilter;
+	private final List<SessionConsumer> sessions = new ArrayList<>();
+	private int busySessions;
+	private boolean allSessionsBusy;
+	private long allSessionsBusySince;
+
+	private SQSConnection connection;
+	private SQSJMSAcknowledgementBatcher acknowledgementBatcher;
+	private List<SQSQueueDestination> queues;
+	private SQSJMSPeriodicWork sessionScaling;
+	private SQSJMSReceiveLoop receiveLoop;
+	private SQSJMSEndpointInvoker endpointInvoker;
+	private SQSJMSVisibilityExtender visibilityExtender;
+	private SQSJMSFlowControl flowControl;
+	private ObjectName statsObjectName;
+
+	SQSJMSEndpointActivation(
+			final MessageEndpointFactory endpointFactory,
+			final SQSJMSActivationSpec spec,
+			final AmazonSQS amazonSQS,
+			final Timer timer,
+			final WorkManager workManager) {
+		this.endpointFactory = endpointFactory;
+		this.spec = spec;
+		this.amazonSQS = amazonSQS;
+		this.timer = timer;
+		this.workManager = workManager;
+		this.stats = new SQSJMSActivationStats(spec.getDestination());
+		this.codec = SQSJMSObjectMessageCodecs.create(spec.getObjectMessageCodec());
+		this.duplicateFilter = createDuplicateFilter(spec, stats);
+	}
+
+	/**
+	 * The duplicate filter for an activation, if it suppresses duplicates.
+	 *
+	 * @param spec the activation spec
+	 * @param stats statistics of the activation
+	 * @return the filter, or null if duplicates are not suppressed
+	 */
+	@SuppressWarnings("PMD.NullAssignment")
+	private static SQSJMSDuplicateFilter createDuplicateFilter(final SQSJMSActivationSpec spec, final SQSJMSActivationStats stats) {
+		// in client-acknowledge mode, a message that is not delivered is not acknowledged either, so it would keep coming back
+		if (spec.getDuplicateSuppressionWindowSeconds() == null
+				|| SQSJMSResourceAdapter.acknowledgeModeStringToInt(spec.getAcknowledgeMode()) == Session.CLIENT_ACKNOWLEDGE) {
+			return null;
+		}
+		return new SQSJMSDuplicateFilter(
+				spec.getDuplicateSuppressionKey(),
+				spec.getDuplicateSuppressionCapacity(),
+				spec.getDuplicateSuppressionWindowSeconds(),
+				stats);
+	}
+
+	/**
+	 * Open the connection and initial sessions and start receiving.
+	 *
+	 * @param sqsjmsQueues queues from which messages are consumed; more than one only with a {@link SQSJMSReceiveLoop}
+	 * @throws ResourceException if a queue does not exist, the queues cannot be consumed together or a session cannot be created
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	void start(final List<SQSJMSQueue> sqsjmsQueues) throws ResourceException {
+		statsObjectName = SQSJMSManagement.register(stats, "Activation", spec.getDestination());
+		endpointInvoker = new SQSJMSEndpointInvoker(endpointFactory);
+		try {
+			openConnection();
+			final QueueSession session = createSession();
+			queues = createQueues(session, sqsjmsQueues);
+			if (spec.getVisibilityHeartbeat()) {
+				startVisibilityExtender();
+			}
+			if (endpointInvoker.isBatchListener() || SQSJMSActivationSpec.DISPATCH_MODE_WORK_MANAGER.equalsIgnoreCase(spec.getDispatchMode())) {
+				startReceiveLoop(session);
+			}
+			else if (queues.size() > 1) {
+				throw new ResourceException("Consuming more than one queue requires the workManager dispatch mode");
+			}
+			else {
+				startSessions(session);
+			}
+		}
+		catch (final JMSException e) {
+			throw new ResourceException(e);
+		}
+	}
+
+	/**
+	 * Close the connection, and with it every session and consumer, then send any acknowledgements still batched.
+	 *
+	 * @throws JMSException if the connection cannot be closed
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	void stop() throws JMSException {
+		if (receiveLoop != null) {
+			receiveLoop.stop();
+		}
+		if (sessionScaling != null) {
+			sessionScaling.cancel();
+		}
+		try {
+			if (connection != null) {
+				connection.close();
+			}
+		}
+		finally {
+			synchronized (sessions) {
+				sessions.clear();
+			}
+			if (endpointInvoker != null) {
+				endpointInvoker.release();
+			}
+			if (visibilityExtender != null) {
+				visibilityExtender.close();
+			}
+			SQSJMSManagement.unregister(statsObjectName);
+			if (acknowledgementBatcher != null) {
+				acknowledgementBatcher.close();
+			}
+		}
+	}
+
+	/**
+	 * The client this activation was given by the {@link SQSJMSClientRegistry}.
+	 *
+	 * @return the client
+	 */
+	AmazonSQS getAmazonSQSClient() {
+		return amazonSQS;
+	}
+
+	@SuppressWarnings("PMD.NcssCount")
+	private void openConnection() throws JMSException {
+		final SQSJMSClientDecorator client = new SQSJMSClientDecorator(amazonSQS).withActivationStats(stats);
+		if (spec.getBatchAcknowledgements()
+				&& SQSJMSResourceAdapter.acknowledgeModeStringToInt(spec.getAcknowledgeMode()) != Session.CLIENT_ACKNOWLEDGE) {
+			// the batcher sends with a client of its own, so that acknowledgements are timed by the deletes actually sent
+			acknowledgementBatcher = new SQSJMSAcknowledgementBatcher(
+					new SQSJMSClientDecorator(amazonSQS).withActivationStats(stats), timer, workManager, spec.getAcknowledgementBatchWindowMillis());
+			client.withAcknowledgementBatcher(acknowledgementBatcher);
+		}
+		if (spec.getReceiveHighWatermark() != null) {
+			flowControl = new SQSJMSFlowControl(spec.getReceiveHighWatermark(), spec.getReceiveLowWatermark());
+		}
+		connection = new SQSConnectionFactory(
+				new ProviderConfiguration().withNumberOfMessagesToPrefetch(spec.getNumberOfMessagesToPrefetch()),
+				client
+					.withCompression(null, spec.getDecompressBodies())
+					.withReceiveTuning(spec.getReceiveWaitTimeSeconds(), spec.getVisibilityTimeoutSeconds(), flowControl))
+			.createConnection();
+	}
+
+	private static List<SQSQueueDestination> createQueues(final QueueSession session, final List<SQSJMSQueue> sqsjmsQueues) throws ResourceException, JMSException {
+		final List<SQSQueueDestination> created = new ArrayList<>(sqsjmsQueues.size());
+		for (final SQSJMSQueue sqsjmsQueue : sqsjmsQueues) {
+			try {
+				created.add((SQSQueueDestination) session.createQueue(sqsjmsQueue.getQueueName()));
+			}
+			catch (final InvalidDestinationException | QueueDoesNotExistException e) {
+				throw new ResourceException("Queue with name '" + sqsjmsQueue.getQueueName() + "' does not exist", e);
+			}
+			// deliveries are striped by message group for FIFO queues only, and a stripe cannot tell the queues apart
+			if (created.get(0).isFifo() != created.get(created.size() - 1).isFifo()) {
+				throw new ResourceException("The queues of an activation must be either all FIFO queues or all standard queues");
+			}
+		}
+		return created;
+	}
+
+	private void startReceiveLoop(final QueueSession session) throws ResourceException, JMSException {
+		if (workManager == null) {
+			throw new ResourceException("The workManager dispatch mode and batch listeners require the resource adapter to have been started with a BootstrapContext");
+		}
+		final SQSJMSDeliveryDispatcher dispatcher = new SQSJMSDeliveryDispatcher(workManager, spec, queues.get(0).isFifo());
+		stats.setDispatcher(dispatcher);
+		receiveLoop = new SQSJMSReceiveLoop(
+				this,
+				dispatcher,
+				connection.getAmazonSQSClient(),
+				session,
+				queues,
+				session.getAcknowledgeMode() != Session.CLIENT_ACKNOWLEDGE,
+				spec,
+				flowControl);
+		workManager.scheduleWork(receiveLoop);
+	}
+
+	private void startVisibilityExtender() throws ResourceException {
+		int visibilityTimeoutSeconds;
+		if (spec.getVisibilityTimeoutSeconds() == null) {
+			// with several queues, extend often enough for the one with the shortest visibility timeout
+			visibilityTimeoutSeconds = Integer.MAX_VALUE;
+			for (final SQSQueueDestination destination : queues) {
+				visibilityTimeoutSeconds = Math.min(visibilityTimeoutSeconds, getVisibilityTimeoutSeconds(destination.getQueueUrl()));
+			}
+		}
+		else {
+			visibilityTimeoutSeconds = spec.getVisibilityTimeoutSeconds();
+		}
+		if (visibilityTimeoutSeconds > 0) {
+			visibilityExtender = new SQSJMSVisibilityExtender(
+					new SQSJMSClientDecorator(amazonSQS).withActivationStats(stats), timer, workManager, visibilityTimeoutSeconds, spec.getMaxVisibilityLeaseSeconds());
+		}
+	}
+
+	private int getVisibilityTimeoutSeconds(final String queueUrl) throws ResourceException {
+		try {
+			return Integer.parseInt(amazonSQS.getQueueAttributes(
+					new GetQueueAttributesRequest(queueUrl).withAttributeNames(QueueAttributeName.VisibilityTimeout))
+				.getAttributes().get(QueueAttributeName.VisibilityTimeout.toString()));
+		}
+		catch (final AmazonClientException | NumberFormatException e) {
+			throw new ResourceException("Failed to get the visibility timeout of " + queueUrl, e);
+		}
+	}
+
+	private QueueSession createSession() throws JMSException {
+		return connection.createQueueSession(false, SQSJMSResourceAdapter.acknowledgeModeStringToInt(spec.getAcknowledgeMode()));
+	}
+
+	private void addSession(final QueueSession session) throws JMSException {
+		final SessionConsumer sessionConsumer = new SessionConsumer(session);
+		final MessageConsumer messageConsumer = session.createConsumer(queues.get(0));
+		messageConsumer.setMessageListener(sessionConsumer);
+		synchronized (sessions) {
+			sessions.add(sessionConsumer);
+			allSessionsBusyChanged(System.nanoTime());
+		}
+	}
+
+	private void startSessions(final QueueSession session) throws JMSException {
+		addSession(session);
+		for (int i = 1; i < spec.getMinSessions(); i++) {
+			addSession(createSession());
+		}
+		connection.start();
+		if (spec.getMaxSessions() > spec.getMinSessions()) {
+			startSessionScaling();
+		}
+	}
+
+	private void startSessionScaling() {
+		sessionScaling = new SQSJMSPeriodicWork(
+				"SQS session scaling for " + spec.getDestination(),
+				new Runnable() {
+					@Override
+					public void run() {
+						scaleSessions();
+					}
+				},
+				timer,
+				workManager,
+				spec.getSessionGrowthDelayMillis());
+	}
+
+	/**
+	 * Open another session if every session has been busy for the growth delay, or else close the sessions beyond the minimum
+	 * that have been idle for the idle timeout.
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	private void scaleSessions() {
+		final List<SessionConsumer> idle = new ArrayList<>();
+		final boolean grow;
+		synchronized (sessions) {
+			final long now = System.nanoTime();
+			grow = allSessionsBusy
+					&& now - allSessionsBusySince >= TimeUnit.MILLISECONDS.toNanos(spec.getSessionGrowthDelayMillis())
+					&& sessions.size() < spec.getMaxSessions();
+			if (!grow) {
+				final long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(spec.getSessionIdleTimeoutSeconds());
+				for (int i = sessions.size() - 1; i >= spec.getMinSessions(); i--) {
+					final SessionConsumer sessionConsumer = sessions.get(i);
+					if (!sessionConsumer.busy && now - sessionConsumer.idleSince >= idleTimeoutNanos) {
+						sessions.remove(i);
+						idle.add(sessionConsumer);
+					}
+				}
+				allSessionsBusyChanged(now);
+			}
+		}
+		if (grow) {
+			try {
+				addSession(createSession());
+			}
+			catch (final JMSException e) {
+				LOGGER.log(Level.WARNING, "Failed to open an additional session for " + spec.getDestination(), e);
+			}
+		}
+		for (final SessionConsumer sessionConsumer : idle) {
+			try {
+				sessionConsumer.session.close();
+			}
+			catch (final JMSException e) {
+				LOGGER.log(Level.WARNING, "Failed to close an idle session for " + spec.getDestination(), e);
+			}
+		}
+	}
+
+	/**
+	 * Note when every session became busy, or that one is not. Called holding the lock on {@link #sessions}.
+	 *
+	 * @param now the time
+	 */
+	private void allSessionsBusyChanged(final long now) {
+		if (busySessions < sessions.size()) {
+			allSessionsBusy = false;
+		}
+		else if (!allSessionsBusy) {
+			allSessionsBusy = true;
+			allSessionsBusySince = now;
+		}
+	}
+
+	/**
+	 * The sessions delivering messages.
+	 *
+	 * @return the number of open sessions
+	 */
+	int getSessionCount() {
+		synchronized (sessions) {
+			return sessions.size();
+		}
+	}
+
+	/**
+	 * Deliver a message to the endpoint.
+	 * A duplicate of a message already delivered is not delivered again, and so is acknowledged once this returns.
+	 *
+	 * @param message the message to deliver
+	 * @throws RuntimeException if the endpoint could not be created or the delivery failed
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	void deliver(final Message message) {
+		if (duplicateFilter != null && duplicateFilter.isDuplicate(message)) {
+			stats.discarded(1);
+			return;
+		}
+		final List<Message> messages = Collections.singletonList(message);
+		beforeDelivery(messages);
+		final long start = System.nanoTime();
+		boolean success = false;
+		try {
+			endpointInvoker.deliver(SQSJMSObjectMessageCodecs.decoding(message, codec));
+			success = true;
+		}
+		catch (final JMSException e) {
+			throw new IllegalStateException("Failed to read the properties of a received message", e);
+		}
+		finally {
+			afterDelivery(messages, start, success);
+		}
+	}
+
+	/**
+	 * Deliver a batch of messages to a {@link BatchMessageListener} endpoint.
+	 * Duplicates of messages already delivered are left out of the batch, and so are acknowledged with it.
+	 *
+	 * @param batch the messages to deliver
+	 * @throws RuntimeException if the endpoint could not be created or the delivery failed
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	void deliver(final List<Message> batch) {
+		final List<Message> messages = duplicateFilter == null ? batch : duplicateFilter.withoutDuplicates(batch);
+		if (messages.size() < batch.size()) {
+			stats.discarded(batch.size() - messages.size());
+			if (messages.isEmpty()) {
+				return;
+			}
+		}
+		beforeDelivery(messages);
+		final long start = System.nanoTime();
+		boolean success = false;
+		try {
+			endpointInvoker.deliver(SQSJMSObjectMessageCodecs.decoding(messages, codec));
+			success = true;
+		}
+		catch (final JMSException e) {
+			throw new IllegalStateException("Failed to read the properties of a received message", e);
+		}
+		finally {
+			afterDelivery(messages, start, success);
+		}
+	}
+
+	private void beforeDelivery(final List<Message> messages) {
+		stats.deliveryStarted(messages.size());
+		if (visibilityExtender != null) {
+			for (final Message message : messages) {
+				visibilityExtender.track(message);
+			}
+		}
+	}
+
+	private void afterDelivery(final List<Message> messages, final long start, final boolean success) {
+		stats.deliveryFinished(messages.size(), System.nanoTime() - start, success);
+		if (success && duplicateFilter != null) {
+			duplicateFilter.delivered(messages);
+		}
+		if (visibilityExtender != null) {
+			for (final Message message : messages) {
+				visibilityExtender.untrack(message);
+			}
+		}
+	}
+
+	/**
+	 * Statistics of this activation.
+	 *
+	 * @return the statistics
+	 */
+	SQSJMSActivationStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Whether the endpoint takes batches of messages.
+	 *
+	 * @return true for {@link BatchMessageListener} endpoints
+	 */
+	boolean isBatchListener() {
+		return endpointInvoker.isBatchListener();
+	}
+
+	/**
+	 * Delivers the messages of one session's consumer, keeping track of whether the session is busy.
+	 */
+	private final class SessionConsumer implements MessageListener {
+		private final QueueSession session;
+		private boolean busy;
+		private long idleSince = System.nanoTime();
+
+		SessionConsumer(final QueueSession session) {
+			this.session = session;
+		}
+
+		@Override
+		public void onMessage(final Message message) {
+			setBusy(true);
+			try {
+				deliver(message);
+			}
+			finally {
+				setBusy(false);
+				if (flowControl != null) {
+					flowControl.finished(1);
+				}
+			}
+		}
+
+		private void setBusy(final boolean busy) {
+			synchronized (sessions) {
+				this.busy = busy;
+				busySessions += busy ? 1 : -1;
+				idleSince = System.nanoTime();
+				allSessionsBusyChanged(idleSince);
+			}
+		}
+	}
+}
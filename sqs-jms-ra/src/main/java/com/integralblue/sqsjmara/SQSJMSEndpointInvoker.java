@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.resource.ResourceException;
+import javax.resource.spi.UnavailableException;
+import javax.resource.spi.endpoint.MessageEndpoint;
+import javax.resource.spi.endpoint.MessageEndpointFactory;
+
+/**
+ * Delivers messages to the endpoints of one {@link MessageEndpointFactory}.
+ *
+ * Endpoints implement either {@link MessageListener} or {@link BatchMessageListener}. Which one is found without creating an
+ * endpoint (which a container may refuse before the activation has finished): from the factory's endpoint class if it has one
+ * (JCA 1.7), and otherwise by which listener method {@link MessageEndpointFactory#isDeliveryTransacted(Method)} does not reject
+ * as unknown; a factory that rejects neither is taken to be a {@link MessageListener}'s.
+ * If delivery is not transacted, endpoints are created on first use and kept in a pool to be reused for later messages (each is
+ * used by one thread at a time), and the messages are given straight to the listener method. Otherwise a new endpoint is created
+ * for each delivery and {@link MessageEndpoint#beforeDelivery(Method)} and {@link MessageEndpoint#afterDelivery()} are called
+ * around it, as the container needs them to run the delivery in a transaction.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSEndpointInvoker {
+	private static final Method ON_MESSAGE_METHOD;
+	private static final Method ON_MESSAGES_METHOD;
+
+	static {
+			try {
+				ON_MESSAGE_METHOD = MessageListener.class.getMethod("onMessage", Message.class);
+				ON_MESSAGES_METHOD = BatchMessageListener.class.getMethod("onMessages", List.class);
+			}
+			catch (final NoSuchMethodException | SecurityException e) {
+				// this should never happen
+				throw new ExceptionInInitializerError(e);
+			}
+	}
+
+	private final MessageEndpointFactory endpointFactory;
+	private final boolean batchListener;
+	private final boolean deliveryTransacted;
+	private final ConcurrentLinkedQueue<MessageEndpoint> idleEndpoints = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean released = new AtomicBoolean();
+
+	SQSJMSEndpointInvoker(final MessageEndpointFactory endpointFactory) throws ResourceException {
+		this.endpointFactory = endpointFactory;
+		this.batchListener = isBatchListener(endpointFactory);
+		try {
+			this.deliveryTransacted = endpointFactory.isDeliveryTransacted(batchListener ? ON_MESSAGES_METHOD : ON_MESSAGE_METHOD);
+		}
+		catch (final NoSuchMethodException e) {
+			throw new ResourceException(e);
+		}
+	}
+
+	private static boolean isBatchListener(final MessageEndpointFactory endpointFactory) {
+		final Class<?> endpointClass = getEndpointClass(endpointFactory);
+		if (endpointClass != null) {
+			return BatchMessageListener.class.isAssignableFrom(endpointClass);
+		}
+		return isListenerMethod(endpointFactory, ON_MESSAGES_METHOD) && !isListenerMethod(endpointFactory, ON_MESSAGE_METHOD);
+	}
+
+	/**
+	 * The class of the factory's endpoints, found with {@code MessageEndpointFactory.getEndpointClass()}, which the API of
+	 * containers older than JCA 1.7 does not have.
+	 *
+	 * @param endpointFactory the factory
+	 * @return the endpoint class, or null if the factory does not tell
+	 */
+	private static Class<?> getEndpointClass(final MessageEndpointFactory endpointFactory) {
+		try {
+			return (Class<?>) MessageEndpointFactory.class.getMethod("getEndpointClass").invoke(endpointFactory);
+		}
+		catch (final NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			return null;
+		}
+	}
+
+	private static boolean isListenerMethod(final MessageEndpointFactory endpointFactory, final Method method) {
+		try {
+			endpointFactory.isDeliveryTransacted(method);
+			return true;
+		}
+		catch (final NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Whether the endpoints implement {@link BatchMessageListener}, and so must be given messages with {@link #deliver(List)}.
+	 *
+	 * @return true for batch endpoints
+	 */
+	boolean isBatchListener() {
+		return batchListener;
+	}
+
+	/**
+	 * Deliver a message to a {@link MessageListener} endpoint.
+	 *
+	 * @param message the message to deliver
+	 * @throws RuntimeException if the endpoint could not be created or the delivery failed
+	 */
+	void deliver(final Message message) {
+		deliver(ON_MESSAGE_METHOD, message, null);
+	}
+
+	/**
+	 * Deliver a batch of messages to a {@link BatchMessageListener} endpoint.
+	 *
+	 * @param messages the messages to deliver
+	 * @throws RuntimeException if the endpoint could not be created or the delivery failed
+	 */
+	void deliver(final List<Message> messages) {
+		deliver(ON_MESSAGES_METHOD, null, messages);
+	}
+
+	@SuppressWarnings("PMD.NcssCount")
+	private void deliver(final Method method, final Message message, final List<Message> messages) {
+		if (deliveryTransacted) {
+			deliverTransacted(method, message, messages);
+			return;
+		}
+		MessageEndpoint messageEndpoint = idleEndpoints.poll();
+		if (messageEndpoint == null) {
+			messageEndpoint = createEndpoint();
+		}
+		boolean reusable = false;
+		try {
+			invoke(messageEndpoint, message, messages);
+			reusable = true;
+		}
+		finally {
+			// an endpoint that threw may be unusable, so it is not reused
+			if (reusable && !released.get()) {
+				idleEndpoints.offer(messageEndpoint);
+				if (released.get()) {
+					// release() may have drained the pool before the offer
+					releaseIdleEndpoints();
+				}
+			}
+			else {
+				messageEndpoint.release();
+			}
+		}
+	}
+	/**
+	 * Release the pooled endpoints. Endpoints in use are released when their delivery completes.
+	 */
+	void release() {
+		released.set(true);
+		releaseIdleEndpoints();
+	}
+
+	private void releaseIdleEndpoints() {
+		MessageEndpoint messageEndpoint = idleEndpoints.poll();
+		while (messageEndpoint != null) {
+			messageEndpoint.release();
+			messageEndpoint = idleEndpoints.poll();
+		}
+	}
+
+	private void deliverTransacted(final Method method, final Message message, final List<Message> messages) {
+		final MessageEndpoint messageEndpoint = createEndpoint();
+		try {
+			messageEndpoint.beforeDelivery(method);
+			invoke(messageEndpoint, message, messages);
+			messageEndpoint.afterDelivery();
+		}
+		catch (final NoSuchMethodException | ResourceException e) {
+			throw new RuntimeException("Exception delivering message", e); //NOPMD
+		}
+		finally {
+			messageEndpoint.release();
+		}
+	}
+
+	private static void invoke(final MessageEndpoint messageEndpoint, final Message message, final List<Message> messages) {
+		if (messages == null) {
+			((MessageListener) messageEndpoint).onMessage(message);
+		}
+		else {
+			((BatchMessageListener) messageEndpoint).onMessages(messages);
+		}
+	}
+
+	private MessageEndpoint createEndpoint() {
+		try {
+			return endpointFactory.createEndpoint(null);
+		}
+		catch (final UnavailableException e) {
+			throw new RuntimeException("Exception delivering message", e); //NOPMD
+		}
+	}
+}
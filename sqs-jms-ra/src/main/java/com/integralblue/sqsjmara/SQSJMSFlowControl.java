@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receive flow control for one endpoint activation.
+ *
+ * Counts the messages that have been received but whose delivery has not finished (whether still buffered or being delivered).
+ * Once that count reaches the high watermark receiving is paused, and it resumes when the count falls to the low watermark,
+ * so that messages are not left to use up their visibility timeout in local buffers while every endpoint is busy.
+ *
+ * Receives already under way when the high watermark is reached still complete, so the count may go above it by up to one
+ * receive per consumer.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSFlowControl {
+	private final int highWatermark;
+	private final int lowWatermark;
+
+	private int outstanding;
+	private boolean paused;
+
+	SQSJMSFlowControl(final int highWatermark, final int lowWatermark) {
+		this.highWatermark = highWatermark;
+		this.lowWatermark = lowWatermark;
+	}
+
+	/**
+	 * Wait (for a bounded time) until receiving may continue.
+	 *
+	 * @param timeoutMillis longest time to wait
+	 * @return the most messages that should be received now, or 0 if receiving is still paused
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized int awaitCapacity(final long timeoutMillis) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while (paused) {
+			final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remainingMillis <= 0) {
+				return 0;
+			}
+			wait(remainingMillis);
+		}
+		return highWatermark - outstanding;
+	}
+
+	/**
+	 * Count received messages.
+	 *
+	 * @param count number of messages received
+	 */
+	synchronized void received(final int count) {
+		outstanding += count;
+		if (outstanding >= highWatermark) {
+			paused = true;
+		}
+	}
+
+	/**
+	 * Count messages whose delivery has finished, or that were discarded without being delivered.
+	 *
+	 * @param count number of messages
+	 */
+	synchronized void finished(final int count) {
+		outstanding -= count;
+		if (paused && outstanding <= lowWatermark) {
+			paused = false;
+			notifyAll();
+		}
+	}
+}
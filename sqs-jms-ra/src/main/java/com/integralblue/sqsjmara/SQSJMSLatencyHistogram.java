@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram.
+ *
+ * Latencies are counted in power-of-two buckets of microseconds, so recording is one atomic increment (plus a compare-and-set
+ * while the maximum grows) and percentiles are reported as the upper bound of their bucket: within a factor of two of the exact value.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSLatencyHistogram {
+	private static final int BUCKETS = Long.SIZE + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Record a latency.
+	 *
+	 * @param nanos the latency in nanoseconds
+	 */
+	void record(final long nanos) {
+		final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+		// bucket i holds latencies of less than 2^i microseconds (and at least 2^(i-1))
+		counts.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(micros));
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * The latency below which the given fraction of the recorded latencies fall.
+	 *
+	 * @param fraction between 0 and 1, such as 0.99 for the 99th percentile
+	 * @return the latency in milliseconds, or 0 if nothing has been recorded
+	 */
+	@SuppressWarnings({"PMD.NcssCount", "PMD.AvoidArrayLoops"})
+	double percentileMillis(final double fraction) {
+		final long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		final long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min(Math.scalb(1.0, i) / 1000.0, maxMillis());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * The longest recorded latency.
+	 *
+	 * @return the latency in milliseconds, or 0 if nothing has been recorded
+	 */
+	double maxMillis() {
+		return maxNanos.get() / 1_000_000.0;
+	}
+}
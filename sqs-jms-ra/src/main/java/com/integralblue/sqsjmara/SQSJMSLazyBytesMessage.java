@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import javax.jms.JMSException;
+
+import com.amazon.sqs.javamessaging.acknowledge.Acknowledger;
+import com.amazon.sqs.javamessaging.message.SQSBytesMessage;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.util.Base64;
+
+/**
+ * Received bytes message whose body is decoded on first use.
+ *
+ * {@link SQSBytesMessage} base64 decodes the body as soon as it is received; this message keeps the body as received until
+ * a method reading the body is called, so endpoints that only look at headers and properties never pay for decoding it.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings({"PMD.DefaultPackage", "PMD.TooManyMethods", "serial"})
+final class SQSJMSLazyBytesMessage extends SQSBytesMessage {
+	private String encodedBody;
+
+	SQSJMSLazyBytesMessage(final Acknowledger acknowledger, final String queueUrl, final Message sqsMessage) throws JMSException {
+		super(acknowledger, queueUrl, sqsMessage.clone().withBody(""));
+		this.encodedBody = sqsMessage.getBody();
+	}
+
+	@Override
+	public long getBodyLength() throws JMSException {
+		decode();
+		return super.getBodyLength();
+	}
+
+	@Override
+	public boolean readBoolean() throws JMSException {
+		decode();
+		return super.readBoolean();
+	}
+
+	@Override
+	public byte readByte() throws JMSException {
+		decode();
+		return super.readByte();
+	}
+
+	@Override
+	public int readUnsignedByte() throws JMSException {
+		decode();
+		return super.readUnsignedByte();
+	}
+
+	@Override
+	@SuppressWarnings("PMD.AvoidUsingShortType")
+	public short readShort() throws JMSException {
+		decode();
+		return super.readShort();
+	}
+
+	@Override
+	public int readUnsignedShort() throws JMSException {
+		decode();
+		return super.readUnsignedShort();
+	}
+
+	@Override
+	public char readChar() throws JMSException {
+		decode();
+		return super.readChar();
+	}
+
+	@Override
+	public int readInt() throws JMSException {
+		decode();
+		return super.readInt();
+	}
+
+	@Override
+	public long readLong() throws JMSException {
+		decode();
+		return super.readLong();
+	}
+
+	@Override
+	public float readFloat() throws JMSException {
+		decode();
+		return super.readFloat();
+	}
+
+	@Override
+	public double readDouble() throws JMSException {
+		decode();
+		return super.readDouble();
+	}
+
+	@Override
+	public String readUTF() throws JMSException {
+		decode();
+		return super.readUTF();
+	}
+
+	@Override
+	public int readBytes(final byte[] value) throws JMSException {
+		decode();
+		return super.readBytes(value);
+	}
+
+	@Override
+	public int readBytes(final byte[] value, final int length) throws JMSException {
+		decode();
+		return super.readBytes(value, length);
+	}
+
+	@Override
+	public void reset() throws JMSException {
+		decode();
+		super.reset();
+	}
+
+	@Override
+	public byte[] getBodyAsBytes() throws JMSException {
+		decode();
+		return super.getBodyAsBytes();
+	}
+
+	@Override
+	@SuppressWarnings("PMD.NullAssignment")
+	public void clearBody() throws JMSException {
+		encodedBody = null;
+		super.clearBody();
+	}
+
+	/**
+	 * Replace the empty body the message was created with by the decoded body, leaving the message read-only as received.
+	 *
+	 * @throws JMSException if the body cannot be decoded
+	 */
+	@SuppressWarnings({"PMD.NullAssignment", "PMD.NcssCount"})
+	private void decode() throws JMSException {
+		if (encodedBody == null) {
+			return;
+		}
+		final String body = encodedBody;
+		encodedBody = null;
+		try {
+			super.clearBody();
+			super.writeBytes(Base64.decode(body));
+			super.reset();
+		}
+		catch (final IllegalArgumentException e) {
+			throw convertExceptionToJMSException(e);
+		}
+		finally {
+			setBodyWritePermissions(false);
+		}
+	}
+}
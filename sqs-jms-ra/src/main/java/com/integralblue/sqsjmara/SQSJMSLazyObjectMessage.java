@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+import javax.jms.JMSException;
+
+import com.amazon.sqs.javamessaging.acknowledge.Acknowledger;
+import com.amazon.sqs.javamessaging.message.SQSObjectMessage;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.util.Base64;
+
+/**
+ * Received object message whose body is base64 decoded at most once.
+ *
+ * {@link SQSObjectMessage} keeps the body as received, and decodes and deserializes it again on every {@link #getObject()}.
+ * This message keeps the bytes decoded by the first call, but still deserializes them on every call, so that, as JMS requires,
+ * each call returns an independent copy of the object which the endpoint may change.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings({"PMD.DefaultPackage", "serial"})
+final class SQSJMSLazyObjectMessage extends SQSObjectMessage {
+	private byte[] serialized;
+
+	SQSJMSLazyObjectMessage(final Acknowledger acknowledger, final String queueUrl, final Message sqsMessage) throws JMSException {
+		super(acknowledger, queueUrl, sqsMessage);
+	}
+
+	@Override
+	public Serializable getObject() throws JMSException {
+		if (serialized == null) {
+			if (getMessageBody() == null) {
+				return null;
+			}
+			serialized = Base64.decode(getMessageBody());
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			return (Serializable) in.readObject();
+		}
+		catch (final IOException | ClassNotFoundException | ClassCastException e) {
+			throw SQSJMSObjectMessageCodecs.messageFormatException("Failed to deserialize the object of message " + getSQSMessageId(), e);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("PMD.NullAssignment")
+	public void setObject(final Serializable payload) throws JMSException {
+		super.setObject(payload);
+		serialized = null;
+	}
+
+	@Override
+	@SuppressWarnings("PMD.NullAssignment")
+	public void clearBody() throws JMSException {
+		super.clearBody();
+		serialized = null;
+	}
+}
@@ -17,12 +17,18 @@
 package com.integralblue.sqsjmara;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.jms.ExceptionListener;
 import javax.jms.JMSException;
 import javax.resource.NotSupportedException;
 import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionEvent;
 import javax.resource.spi.ConnectionEventListener;
 import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.LocalTransaction;
@@ -31,62 +37,126 @@ import javax.resource.spi.ManagedConnectionMetaData;
 import javax.security.auth.Subject;
 import javax.transaction.xa.XAResource;
 
+import com.amazon.sqs.javamessaging.SQSConnection;
+
 /**
  * JCA adapter for SQS to {@link ManagedConnection}.
  *
+ * Owns one physical {@link SQSConnection} for its whole life and hands out {@link SQSJMSConnection} handles over it,
+ * so that a pooled managed connection can be reused without setting up a new connection. The handles share the physical
+ * connection: it is started while any of them is started, and passes its exceptions to the handles' own listeners.
+ *
  * @author Craig Andrews
  *
  */
 public class SQSJMSManagedConnection implements ManagedConnection {
 	private final SQSJMSManagedConnectionFactory sqsjmsManagedConnectionFactory;
-	private final List<ConnectionEventListener> listeners = new ArrayList<>();
+	private final SQSJMSConnectionRequestInfo connectionRequestInfo;
+	private final SQSConnection physicalConnection;
+	private final ObjectMessageCodec codec;
+	private final List<ConnectionEventListener> listeners = new CopyOnWriteArrayList<>();
+	private final Set<SQSJMSConnection> handles = new CopyOnWriteArraySet<>();
+	private final int clientGeneration;
+	private final AtomicBoolean destroyed = new AtomicBoolean();
+	private final ExceptionListener exceptionListener = new HandleExceptionListener();
+	private final Object startLock = new Object();
 	private PrintWriter logWriter;
 
-	private SQSJMSConnection connection;
-
-	public SQSJMSManagedConnection(final SQSJMSManagedConnectionFactory sqsjmsManagedConnectionFactory) {
+	@SuppressWarnings("PMD.NcssCount")
+	public SQSJMSManagedConnection(
+			final SQSJMSManagedConnectionFactory sqsjmsManagedConnectionFactory,
+			final SQSJMSConnectionRequestInfo connectionRequestInfo) throws ResourceException {
 		this.sqsjmsManagedConnectionFactory = sqsjmsManagedConnectionFactory;
+		this.connectionRequestInfo = connectionRequestInfo;
+		this.codec = sqsjmsManagedConnectionFactory.getCodec();
+		this.clientGeneration = sqsjmsManagedConnectionFactory.clientUserAdded();
+		boolean created = false;
+		try {
+			physicalConnection = sqsjmsManagedConnectionFactory.getSQSConnectionFactory(connectionRequestInfo).createConnection();
+			physicalConnection.setExceptionListener(exceptionListener);
+			created = true;
+		}
+		catch (final JMSException e) {
+			throw new ResourceException(e);
+		}
+		finally {
+			if (!created) {
+				sqsjmsManagedConnectionFactory.clientUserRemoved();
+			}
+		}
 	}
 
 	@Override
 	public SQSJMSConnection getConnection(final Subject subject, final ConnectionRequestInfo cxRequestInfo) throws ResourceException {
-		try {
-			connection = (SQSJMSConnection) sqsjmsManagedConnectionFactory.createConnectionFactory().createQueueConnection();
-			return connection;
-		}
-		catch (JMSException e) {
-			throw new RuntimeException(e); //NOPMD
-		}
+		final SQSJMSConnection handle = new SQSJMSConnection(this, physicalConnection);
+		handles.add(handle);
+		return handle;
 	}
 
+	/**
+	 * Close the physical connection, and give up this managed connection's use of the factory's client.
+	 */
 	@Override
+	@SuppressWarnings("PMD.NcssCount")
 	public void destroy() throws ResourceException {
-		if (connection != null) {
-			try {
-				connection.stop();
-			}
-			catch (final JMSException e) {
-				throw new ResourceException(e);
-			}
+		if (!destroyed.compareAndSet(false, true)) {
+			return;
+		}
+		ResourceException cleanupException = null;
+		try {
+			cleanup();
+		}
+		catch (final ResourceException e) {
+			cleanupException = e;
+		}
+		try {
+			physicalConnection.close();
+		}
+		catch (final JMSException e) {
+			throw new ResourceException(e);
+		}
+		finally {
+			sqsjmsManagedConnectionFactory.clientUserRemoved();
+		}
+		if (cleanupException != null) {
+			throw cleanupException;
 		}
 	}
 
+	/**
+	 * Invalidate every handle (closing the sessions they created), stop the physical connection and reset its exception
+	 * listener, leaving it ready to be handed out again.
+	 */
 	@Override
 	public void cleanup() throws ResourceException {
-		if (connection != null) {
-			try {
-				connection.stop();
+		try {
+			for (final SQSJMSConnection handle : handles) {
+				handle.invalidate();
 			}
-			catch (JMSException e) {
-				throw new ResourceException(e);
+			synchronized (startLock) {
+				physicalConnection.stop();
 			}
+			physicalConnection.setExceptionListener(exceptionListener);
+		}
+		catch (final JMSException e) {
+			throw new ResourceException(e);
+		}
+		finally {
+			handles.clear();
 		}
 	}
 
 	@Override
 	public void associateConnection(final Object connection) throws ResourceException {
 		if (connection instanceof SQSJMSConnection) {
-			this.connection = (SQSJMSConnection) connection;
+			final SQSJMSConnection handle = (SQSJMSConnection) connection;
+			handles.add(handle);
+			try {
+				handle.associate(this, physicalConnection);
+			}
+			catch (final JMSException e) {
+				throw new ResourceException(e);
+			}
 		}
 		else {
 			throw new ResourceException("Not supported : associating connection instance of " + connection.getClass().getName());
@@ -134,4 +204,94 @@ public class SQSJMSManagedConnection implements ManagedConnection {
 		return logWriter;
 	}
 
+	/**
+	 * Whether this managed connection can satisfy a request from the given factory with the given request info.
+	 *
+	 * @param managedConnectionFactory factory making the request
+	 * @param requestInfo request info of the request; may be null
+	 * @return true if this managed connection matches; never if its client has since been released (for example because the
+	 *     resource adapter was restarted)
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	boolean matches(final SQSJMSManagedConnectionFactory managedConnectionFactory, final SQSJMSConnectionRequestInfo requestInfo) {
+		return sqsjmsManagedConnectionFactory.equals(managedConnectionFactory)
+				&& Objects.equals(connectionRequestInfo, requestInfo)
+				&& clientGeneration == sqsjmsManagedConnectionFactory.getClientGeneration();
+	}
+
+	/**
+	 * Called by a handle when it is started: start the physical connection.
+	 *
+	 * @throws JMSException if the physical connection cannot be started
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void handleStarted() throws JMSException {
+		synchronized (startLock) {
+			physicalConnection.start();
+		}
+	}
+
+	/**
+	 * Called by a handle when it is stopped or closed: stop the physical connection unless another handle is still started.
+	 *
+	 * @throws JMSException if the physical connection cannot be stopped
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void handleStopped() throws JMSException {
+		synchronized (startLock) {
+			for (final SQSJMSConnection handle : handles) {
+				if (handle.isStarted()) {
+					return;
+				}
+			}
+			physicalConnection.stop();
+		}
+	}
+
+	/**
+	 * Called by a handle when it is moved to another managed connection, which now owns it.
+	 *
+	 * @param handle the moved handle
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void handleDetached(final SQSJMSConnection handle) {
+		handles.remove(handle);
+	}
+
+	@SuppressWarnings("PMD.DefaultPackage")
+	SQSJMSQueueUrlCache getQueueUrlCache() {
+		return sqsjmsManagedConnectionFactory.getQueueUrlCache();
+	}
+
+	@SuppressWarnings("PMD.DefaultPackage")
+	ObjectMessageCodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Called by a handle when the application closes it.
+	 *
+	 * @param handle the closed handle
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void handleClosed(final SQSJMSConnection handle) {
+		handles.remove(handle);
+		final ConnectionEvent event = new ConnectionEvent(this, ConnectionEvent.CONNECTION_CLOSED);
+		event.setConnectionHandle(handle);
+		for (final ConnectionEventListener listener : listeners) {
+			listener.connectionClosed(event);
+		}
+	}
+
+	/**
+	 * Passes the physical connection's exceptions to the handles using it.
+	 */
+	private final class HandleExceptionListener implements ExceptionListener {
+		@Override
+		public void onException(final JMSException exception) {
+			for (final SQSJMSConnection handle : handles) {
+				handle.exceptionOccurred(exception);
+			}
+		}
+	}
 }
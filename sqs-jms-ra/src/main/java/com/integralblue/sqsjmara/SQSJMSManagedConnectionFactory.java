@@ -17,10 +17,20 @@
 package com.integralblue.sqsjmara;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.jms.JMSException;
 import javax.jms.QueueConnection;
 import javax.jms.QueueConnectionFactory;
+import javax.jms.Session;
+import javax.management.ObjectName;
 import javax.resource.ResourceException;
 import javax.resource.spi.ConfigProperty;
 import javax.resource.spi.ConnectionDefinition;
@@ -28,18 +38,26 @@ import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ResourceAdapter;
+import javax.resource.spi.ResourceAdapterAssociation;
 import javax.security.auth.Subject;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 
+import com.amazon.sqs.javamessaging.ProviderConfiguration;
 import com.amazon.sqs.javamessaging.SQSConnection;
+import com.amazon.sqs.javamessaging.SQSConnectionFactory;
 import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSCredentialsProviderChain;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.regions.AwsRegionProvider;
 import com.amazonaws.regions.AwsRegionProviderChain;
 import com.amazonaws.regions.DefaultAwsRegionProviderChain;
+import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.util.StringUtils;
 
 /**
@@ -48,16 +66,40 @@ import com.amazonaws.util.StringUtils;
  * @author Craig Andrews
  *
  */
-@SuppressWarnings("serial")
+@SuppressWarnings({"serial", "PMD.TooManyFields", "PMD.TooManyMethods"})
 @ConnectionDefinition(
 	connection = QueueConnection.class,
 	connectionFactory = QueueConnectionFactory.class,
 	connectionFactoryImpl = SQSJMSConnectionFactory.class,
-	connectionImpl = SQSConnection.class
+	connectionImpl = SQSJMSConnection.class
 )
-public class SQSJMSManagedConnectionFactory implements ManagedConnectionFactory {
+public class SQSJMSManagedConnectionFactory implements ManagedConnectionFactory, ResourceAdapterAssociation {
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSManagedConnectionFactory.class.getName());
+
+	private static final long QUEUE_URL_CACHE_TTL_MILLIS = 300_000L;
+	private static final long QUEUE_URL_NEGATIVE_CACHE_TTL_MILLIS = 10_000L;
+	private static final long DEFAULT_SEND_BATCH_LINGER_MILLIS = 10L;
 	private PrintWriter logger;
 
+	private ResourceAdapter resourceAdapter;
+
+	private transient SQSJMSClientRegistry standaloneClientRegistry;
+
+	private transient SQSJMSQueueUrlCache standaloneQueueUrlCache;
+
+	private transient ObjectMessageCodec codec;
+
+	private transient Map<SQSJMSConnectionRequestInfo, SQSConnectionFactory> sqsConnectionFactories;
+
+	private transient List<AmazonSQS> acquiredClients;
+
+	private transient int clientUsers;
+
+	private transient int clientGeneration;
+
+	private transient SQSJMSConnectionFactoryStats stats;
+
+	private transient ObjectName statsObjectName;
 	@ConfigProperty(description = "AWS Access Key. If not set, defers to com.amazonaws.auth.DefaultAWSCredentialsProviderChain")
 	private String awsAccessKeyId;
 
@@ -67,6 +109,34 @@ public class SQSJMSManagedConnectionFactory implements ManagedConnectionFactory
 	@ConfigProperty(description = "Region of the SQS queue. If not set, defers to com.amazonaws.regions.DefaultAwsRegionProviderChain.DefaultAwsRegionProviderChain().")
 	private String region;
 
+	@ConfigProperty(description = "Collect messages sent to the same queue into SendMessageBatch calls (of up to 10 messages and 256KB). Each send still blocks until its own message has been sent, and fails only if its own entry failed.", defaultValue = "false")
+	private Boolean sendBatching = false;
+
+	@ConfigProperty(description = "When sendBatching is enabled, the longest time in milliseconds a send waits for its batch to fill before the batch is sent. A send blocks until its batch is sent, so a producer sending one message at a time waits this long for each message; 0 sends batches of only the messages sent at the same time.", defaultValue = "10")
+	@Min(0)
+	private Long sendBatchLingerMillis = DEFAULT_SEND_BATCH_LINGER_MILLIS;
+
+	@ConfigProperty(description = "Number of messages each consumer receives ahead of the application asking for them. 0 disables prefetching.", defaultValue = "1")
+	@Min(0)
+	private Integer numberOfMessagesToPrefetch = 1;
+
+	@ConfigProperty(description = "Longest time in seconds a ReceiveMessage request made for a consumer waits (long-polls) for messages to arrive. 0 polls without waiting.", defaultValue = "20")
+	@Min(0)
+	@Max(SQSJMSReceiveTuning.MAX_WAIT_TIME_SECONDS)
+	private Integer receiveWaitTimeSeconds = SQSJMSReceiveTuning.MAX_WAIT_TIME_SECONDS;
+
+	@ConfigProperty(description = "Visibility timeout in seconds for messages received by consumers. If not set, the queue's visibility timeout is used.")
+	@Min(0)
+	@Max(SQSJMSReceiveTuning.MAX_VISIBILITY_TIMEOUT_SECONDS)
+	private Integer visibilityTimeoutSeconds;
+
+	@ConfigProperty(description = "Compress (deflate) the bodies of sent messages of at least this many bytes (as UTF-8, as SQS counts them), when that makes them smaller. Received compressed bodies are always decompressed. If not set, nothing is compressed.")
+	@Min(0)
+	private Integer compressionThresholdBytes;
+
+	@ConfigProperty(description = "Codec that encodes the objects of object messages created by sessions: 'compact' for the built-in compact codec, or the fully qualified name of a class implementing com.integralblue.sqsjmara.ObjectMessageCodec with a public no-argument constructor. The codec's id is sent with each message so that endpoints decode it with the same codec. If not set, objects are Java serialized.")
+	private String objectMessageCodec;
+
 	private final AWSCredentials awsCredentials = new AWSCredentials() {
 		@Override
 		public String getAWSAccessKeyId() {
@@ -107,7 +177,7 @@ public class SQSJMSManagedConnectionFactory implements ManagedConnectionFactory
 	@Override
 	public ManagedConnection createManagedConnection(final Subject subject, final ConnectionRequestInfo cxRequestInfo)
 			throws ResourceException {
-		return new SQSJMSManagedConnection(this);
+		return new SQSJMSManagedConnection(this, toSQSJMSConnectionRequestInfo(cxRequestInfo));
 	}
 
 	@Override
@@ -115,7 +185,20 @@ public class SQSJMSManagedConnectionFactory implements ManagedConnectionFactory
 			final @SuppressWarnings("rawtypes") Set connectionSet,
 			final Subject subject,
 			final ConnectionRequestInfo cxRequestInfo) throws ResourceException {
-		return (ManagedConnection) connectionSet.toArray()[0];
+		final SQSJMSConnectionRequestInfo requestInfo = toSQSJMSConnectionRequestInfo(cxRequestInfo);
+		for (final Object connection : connectionSet) {
+			if (connection instanceof SQSJMSManagedConnection && ((SQSJMSManagedConnection) connection).matches(this, requestInfo)) {
+				return (ManagedConnection) connection;
+			}
+		}
+		return null;
+	}
+
+	private static SQSJMSConnectionRequestInfo toSQSJMSConnectionRequestInfo(final ConnectionRequestInfo cxRequestInfo) throws ResourceException {
+		if (cxRequestInfo == null || cxRequestInfo instanceof SQSJMSConnectionRequestInfo) {
+			return (SQSJMSConnectionRequestInfo) cxRequestInfo;
+		}
+		throw new ResourceException("ConnectionRequestInfo is not of type: " + SQSJMSConnectionRequestInfo.class.getName());
 	}
 
 	@Override
@@ -128,6 +211,263 @@ public class SQSJMSManagedConnectionFactory implements ManagedConnectionFactory
 		return logger;
 	}
 
+	@Override
+	public ResourceAdapter getResourceAdapter() {
+		return resourceAdapter;
+	}
+
+	@Override
+	public void setResourceAdapter(final ResourceAdapter resourceAdapter) throws ResourceException {
+		if (!(resourceAdapter instanceof SQSJMSResourceAdapter)) {
+			throw new ResourceException("ResourceAdapter is not of type: " + SQSJMSResourceAdapter.class.getName());
+		}
+		this.resourceAdapter = resourceAdapter;
+	}
+
+	/**
+	 * The SQS connection factory (and so the client) used for every connection made through this managed connection factory
+	 * with the given request info.
+	 *
+	 * The client comes from the resource adapter's {@link SQSJMSClientRegistry}, so it is shared with other factories and
+	 * activations using the same region, credentials and send batching. It is held until {@link #releaseClients()}, and
+	 * acquired again when next needed.
+	 *
+	 * @param requestInfo credentials requested by the application, or null to use the configured credentials
+	 * @return the SQS connection factory
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage", "PMD.NcssCount"})
+	synchronized SQSConnectionFactory getSQSConnectionFactory(final SQSJMSConnectionRequestInfo requestInfo) {
+		if (stats == null) {
+			registerStats();
+		}
+		if (sqsConnectionFactories == null) {
+			sqsConnectionFactories = new HashMap<>();
+			acquiredClients = new ArrayList<>();
+		}
+		SQSConnectionFactory sqsConnectionFactory = sqsConnectionFactories.get(requestInfo);
+		if (sqsConnectionFactory == null) {
+			final AmazonSQS client = acquireClient(requestInfo);
+			acquiredClients.add(client);
+			final AmazonSQS wrapper = new SQSJMSClientDecorator(client)
+				.withConnectionFactoryStats(stats)
+				.withCompression(compressionThresholdBytes, true)
+				.withReceiveTuning(receiveWaitTimeSeconds, visibilityTimeoutSeconds, null);
+			getQueueUrlCache().share(wrapper, client);
+			sqsConnectionFactory = new SQSConnectionFactory(
+					new ProviderConfiguration().withNumberOfMessagesToPrefetch(numberOfMessagesToPrefetch == null ? 1 : numberOfMessagesToPrefetch),
+					wrapper);
+			sqsConnectionFactories.put(requestInfo, sqsConnectionFactory);
+			resolveAdministeredQueues(sqsConnectionFactory);
+		}
+		return sqsConnectionFactory;
+	}
+
+	private void registerStats() {
+		stats = new SQSJMSConnectionFactoryStats();
+		statsObjectName = SQSJMSManagement.register(stats, "ConnectionFactory", getAwsRegionProvider().getRegion());
+		if (resourceAdapter != null) {
+			((SQSJMSResourceAdapter) resourceAdapter).addManagedConnectionFactory(this);
+		}
+	}
+
+	private AmazonSQS acquireClient(final SQSJMSConnectionRequestInfo requestInfo) {
+		if (requestInfo == null) {
+			return getClientRegistry().acquire(
+					getAwsRegionProvider().getRegion(),
+					awsAccessKeyId,
+					awsSecretKey,
+					awsCredentialsProvider,
+					getSendBatchOpenMillis());
+		}
+		// batched sends go out with the client's credentials, so the requested credentials must be the client's own
+		return getClientRegistry().acquire(
+				getAwsRegionProvider().getRegion(),
+				requestInfo.getUserName(),
+				requestInfo.getPassword(),
+				new AWSStaticCredentialsProvider(new BasicAWSCredentials(requestInfo.getUserName(), requestInfo.getPassword())),
+				getSendBatchOpenMillis());
+	}
+
+	@SuppressWarnings("PMD.NullAssignment")
+	private Long getSendBatchOpenMillis() {
+		if (sendBatching == null || !sendBatching) {
+			return null;
+		}
+		if (sendBatchLingerMillis == null || sendBatchLingerMillis < 0) {
+			throw new IllegalArgumentException("sendBatchLingerMillis must be 0 or more, but is " + sendBatchLingerMillis);
+		}
+		return sendBatchLingerMillis;
+	}
+
+	/**
+	 * Make a connection that is not managed by a connection manager, for use outside of a container.
+	 *
+	 * @param requestInfo credentials requested by the application, or null to use the configured credentials
+	 * @return the connection, which gives up its use of the client when closed
+	 * @throws JMSException if the connection cannot be created
+	 * @throws ResourceException if the configured codec cannot be created
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage", "PMD.NcssCount"})
+	SQSJMSConnection createUnmanagedConnection(final SQSJMSConnectionRequestInfo requestInfo) throws JMSException, ResourceException {
+		clientUserAdded();
+		boolean created = false;
+		try {
+			final SQSJMSConnection connection = new SQSJMSConnection(
+					getSQSConnectionFactory(requestInfo).createConnection(), getQueueUrlCache(), getCodec(), this);
+			created = true;
+			return connection;
+		}
+		finally {
+			if (!created) {
+				clientUserRemoved();
+			}
+		}
+	}
+
+	/**
+	 * Count a new user (managed connection, or connection made without a connection manager) of this factory's clients.
+	 *
+	 * @return the generation of the clients, which changes each time they are released
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	synchronized int clientUserAdded() {
+		clientUsers++;
+		return clientGeneration;
+	}
+
+	/**
+	 * Count a user of this factory's clients going away. Once none is left, the clients are released: the container has
+	 * destroyed every managed connection of this factory (as it does when discarding the factory), and a new one
+	 * acquires them again.
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	synchronized void clientUserRemoved() {
+		clientUsers--;
+		if (clientUsers <= 0) {
+			clientUsers = 0;
+			releaseClients();
+		}
+	}
+
+	/**
+	 * The generation of this factory's clients: connections made with an older generation use clients that were released,
+	 * and may have been shut down.
+	 *
+	 * @return the generation
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	synchronized int getClientGeneration() {
+		return clientGeneration;
+	}
+
+	/**
+	 * Give every client this factory acquired back to the {@link SQSJMSClientRegistry} it came from, and forget the SQS
+	 * connection factories using them, so that the clients are acquired again when next needed.
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage", "PMD.NullAssignment"})
+	synchronized void releaseClients() {
+		if (sqsConnectionFactories == null) {
+			return;
+		}
+		final SQSJMSClientRegistry clientRegistry = getClientRegistry();
+		for (final AmazonSQS client : acquiredClients) {
+			clientRegistry.release(client);
+		}
+		acquiredClients = null;
+		sqsConnectionFactories = null;
+		clientGeneration++;
+	}
+
+	/**
+	 * Release the clients and unregister the statistics MBean, because the resource adapter is stopping.
+	 * A factory used again afterwards starts over.
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage", "PMD.NullAssignment"})
+	synchronized void stop() {
+		releaseClients();
+		SQSJMSManagement.unregister(statsObjectName);
+		statsObjectName = null;
+		stats = null;
+	}
+	/**
+	 * Queue URL resolutions for connections made through this managed connection factory.
+	 *
+	 * @return the resource adapter's cache, or a cache of this factory's own if there is no resource adapter
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	synchronized SQSJMSQueueUrlCache getQueueUrlCache() {
+		if (resourceAdapter != null) {
+			return ((SQSJMSResourceAdapter) resourceAdapter).getQueueUrlCache();
+		}
+		if (standaloneQueueUrlCache == null) {
+			standaloneQueueUrlCache = new SQSJMSQueueUrlCache(QUEUE_URL_CACHE_TTL_MILLIS, QUEUE_URL_NEGATIVE_CACHE_TTL_MILLIS);
+		}
+		return standaloneQueueUrlCache;
+	}
+
+	/**
+	 * Codec for the object messages created by sessions of connections made through this managed connection factory.
+	 *
+	 * @return the codec, or null if objects are Java serialized
+	 * @throws ResourceException if the configured codec cannot be created
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	synchronized ObjectMessageCodec getCodec() throws ResourceException {
+		if (codec == null) {
+			try {
+				codec = SQSJMSObjectMessageCodecs.create(objectMessageCodec);
+			}
+			catch (final IllegalArgumentException e) {
+				throw new ResourceException(e.getMessage(), e);
+			}
+		}
+		return codec;
+	}
+
+	/**
+	 * Fill the queue URL cache for a new client with the queues configured as administered objects,
+	 * so that the first connections made with it do not have to look them up.
+	 *
+	 * @param sqsConnectionFactory factory using the new client
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	private void resolveAdministeredQueues(final SQSConnectionFactory sqsConnectionFactory) {
+		if (resourceAdapter == null || ((SQSJMSResourceAdapter) resourceAdapter).getAdministeredQueueNames().isEmpty()) {
+			return;
+		}
+		try {
+			final SQSConnection connection = sqsConnectionFactory.createConnection();
+			try {
+				final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+				for (final String queueName : ((SQSJMSResourceAdapter) resourceAdapter).getAdministeredQueueNames()) {
+					try {
+						getQueueUrlCache().resolve(connection.getAmazonSQSClient(), session, queueName);
+					}
+					catch (final JMSException e) {
+						LOGGER.log(Level.FINE, "Failed to resolve queue " + queueName, e);
+					}
+				}
+			}
+			finally {
+				connection.close();
+			}
+		}
+		catch (final JMSException e) {
+			LOGGER.log(Level.WARNING, "Failed to resolve administered queues", e);
+		}
+	}
+
+	private SQSJMSClientRegistry getClientRegistry() {
+		if (resourceAdapter != null) {
+			return ((SQSJMSResourceAdapter) resourceAdapter).getClientRegistry();
+		}
+		// used outside of a container, without a resource adapter
+		if (standaloneClientRegistry == null) {
+			standaloneClientRegistry = new SQSJMSClientRegistry();
+		}
+		return standaloneClientRegistry;
+	}
+
 	public AWSCredentialsProvider getAwsCredentialsProvider() {
 		return awsCredentialsProvider;
 	}
@@ -148,6 +488,62 @@ public class SQSJMSManagedConnectionFactory implements ManagedConnectionFactory
 		return region;
 	}
 
+	public Boolean getSendBatching() {
+		return sendBatching;
+	}
+
+	public void setSendBatching(final Boolean sendBatching) {
+		this.sendBatching = sendBatching;
+	}
+
+	public Long getSendBatchLingerMillis() {
+		return sendBatchLingerMillis;
+	}
+
+	public void setSendBatchLingerMillis(final Long sendBatchLingerMillis) {
+		this.sendBatchLingerMillis = sendBatchLingerMillis;
+	}
+
+	public Integer getNumberOfMessagesToPrefetch() {
+		return numberOfMessagesToPrefetch;
+	}
+
+	public void setNumberOfMessagesToPrefetch(final Integer numberOfMessagesToPrefetch) {
+		this.numberOfMessagesToPrefetch = numberOfMessagesToPrefetch;
+	}
+
+	public Integer getReceiveWaitTimeSeconds() {
+		return receiveWaitTimeSeconds;
+	}
+
+	public void setReceiveWaitTimeSeconds(final Integer receiveWaitTimeSeconds) {
+		this.receiveWaitTimeSeconds = receiveWaitTimeSeconds;
+	}
+
+	public Integer getVisibilityTimeoutSeconds() {
+		return visibilityTimeoutSeconds;
+	}
+
+	public void setVisibilityTimeoutSeconds(final Integer visibilityTimeoutSeconds) {
+		this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+	}
+
+	public Integer getCompressionThresholdBytes() {
+		return compressionThresholdBytes;
+	}
+
+	public void setCompressionThresholdBytes(final Integer compressionThresholdBytes) {
+		this.compressionThresholdBytes = compressionThresholdBytes;
+	}
+
+	public String getObjectMessageCodec() {
+		return objectMessageCodec;
+	}
+
+	public void setObjectMessageCodec(final String objectMessageCodec) {
+		this.objectMessageCodec = objectMessageCodec;
+	}
+
 	@SuppressWarnings("PMD.NullAssignment")
 	public AwsRegionProvider getAwsRegionProvider() {
 		return new AwsRegionProviderChain(
@@ -160,4 +556,33 @@ public class SQSJMSManagedConnectionFactory implements ManagedConnectionFactory
 				new DefaultAwsRegionProviderChain());
 	}
 
+	/**
+	 * Factories are equal if they are configured with the same region, credentials, send batching, receive, compression and codec settings, and so produce interchangeable connections.
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash(awsAccessKeyId, awsSecretKey, region, sendBatching, sendBatchLingerMillis,
+				numberOfMessagesToPrefetch, receiveWaitTimeSeconds, visibilityTimeoutSeconds, compressionThresholdBytes, objectMessageCodec);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof SQSJMSManagedConnectionFactory)) {
+			return false;
+		}
+		final SQSJMSManagedConnectionFactory other = (SQSJMSManagedConnectionFactory) obj;
+		return Objects.equals(awsAccessKeyId, other.awsAccessKeyId)
+				&& Objects.equals(awsSecretKey, other.awsSecretKey)
+				&& Objects.equals(region, other.region)
+				&& Objects.equals(sendBatching, other.sendBatching)
+				&& Objects.equals(sendBatchLingerMillis, other.sendBatchLingerMillis)
+				&& Objects.equals(numberOfMessagesToPrefetch, other.numberOfMessagesToPrefetch)
+				&& Objects.equals(receiveWaitTimeSeconds, other.receiveWaitTimeSeconds)
+				&& Objects.equals(visibilityTimeoutSeconds, other.visibilityTimeoutSeconds)
+				&& Objects.equals(compressionThresholdBytes, other.compressionThresholdBytes)
+				&& Objects.equals(objectMessageCodec, other.objectMessageCodec);
+	}
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers the adapter's statistics MBeans with the platform MBean server, under the {@value #DOMAIN} domain.
+ *
+ * Failing to register or unregister an MBean is logged, and never stops the adapter from working.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSManagement {
+	static final String DOMAIN = "com.integralblue.sqsjmara";
+
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSManagement.class.getName());
+
+	private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+	private SQSJMSManagement() {
+	}
+
+	/**
+	 * Register an MBean as {@code com.integralblue.sqsjmara:type=<type>,name=<name>}. If that name is taken (for example by
+	 * another activation of the same destination), an {@code instance} key is added to make it unique.
+	 *
+	 * @param mbean the MBean
+	 * @param type value of the {@code type} key
+	 * @param name value of the {@code name} key
+	 * @return the name the MBean was registered under, or null if it could not be registered
+	 */
+	static ObjectName register(final Object mbean, final String type, final String name) {
+		return register(mbean, type, name, null, null);
+	}
+
+	/**
+	 * Register an MBean as {@code com.integralblue.sqsjmara:type=<type>,name=<name>,<key>=<value>}, making the name unique
+	 * in the same way as {@link #register(Object, String, String)}.
+	 *
+	 * @param mbean the MBean
+	 * @param type value of the {@code type} key
+	 * @param name value of the {@code name} key
+	 * @param key an additional key, or null for none
+	 * @param value value of the additional key
+	 * @return the name the MBean was registered under, or null if it could not be registered
+	 */
+	@SuppressWarnings({"PMD.NcssCount", "PMD.UseObjectForClearerAPI"})
+	static ObjectName register(final Object mbean, final String type, final String name, final String key, final String value) {
+		final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		final String baseName = DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(String.valueOf(name))
+				+ (key == null ? "" : "," + key + "=" + ObjectName.quote(String.valueOf(value)));
+		try {
+			try {
+				return mbeanServer.registerMBean(mbean, new ObjectName(baseName)).getObjectName();
+			}
+			catch (final InstanceAlreadyExistsException e) {
+				return mbeanServer.registerMBean(mbean, new ObjectName(baseName + ",instance=" + INSTANCES.incrementAndGet())).getObjectName();
+			}
+		}
+		catch (final JMException | SecurityException e) {
+			LOGGER.log(Level.WARNING, "Failed to register MBean " + baseName, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Unregister an MBean registered by {@link #register(Object, String, String)}.
+	 *
+	 * @param objectName the name returned by register; null is ignored
+	 */
+	static void unregister(final ObjectName objectName) {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		}
+		catch (final InstanceNotFoundException e) {
+			LOGGER.log(Level.FINE, "MBean " + objectName + " was already unregistered", e);
+		}
+		catch (final JMException | SecurityException e) {
+			LOGGER.log(Level.WARNING, "Failed to unregister MBean " + objectName, e);
+		}
+	}
+}
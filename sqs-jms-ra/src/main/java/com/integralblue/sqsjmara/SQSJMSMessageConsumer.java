@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.QueueReceiver;
+
+import com.amazon.sqs.javamessaging.SQSMessageConsumer;
+
+/**
+ * JCA adapter for {@link SQSMessageConsumer}.
+ *
+ * Object messages encoded with an {@link ObjectMessageCodec} are received (and given to the message listener) decoding their
+ * object with it, as they are delivered to message driven beans; see {@link SQSJMSObjectMessageCodecs#decoding(Message, ObjectMessageCodec)}.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSMessageConsumer implements QueueReceiver {
+	private final QueueReceiver delegate;
+	private final ObjectMessageCodec codec;
+	private MessageListener messageListener;
+
+	SQSJMSMessageConsumer(final QueueReceiver delegate, final ObjectMessageCodec codec) {
+		this.delegate = delegate;
+		this.codec = codec;
+	}
+
+	@Override
+	public String getMessageSelector() throws JMSException {
+		return delegate.getMessageSelector();
+	}
+
+	@Override
+	public MessageListener getMessageListener() throws JMSException {
+		return messageListener;
+	}
+
+	@Override
+	public void setMessageListener(final MessageListener listener) throws JMSException {
+		delegate.setMessageListener(listener == null ? null : new MessageListener() {
+			@Override
+			public void onMessage(final Message message) {
+				try {
+					listener.onMessage(SQSJMSObjectMessageCodecs.decoding(message, codec));
+				}
+				catch (final JMSException e) {
+					throw new IllegalStateException("Failed to read the properties of a received message", e);
+				}
+			}
+		});
+		messageListener = listener;
+	}
+
+	@Override
+	public Message receive() throws JMSException {
+		return decoding(delegate.receive());
+	}
+
+	@Override
+	public Message receive(final long timeout) throws JMSException {
+		return decoding(delegate.receive(timeout));
+	}
+
+	@Override
+	public Message receiveNoWait() throws JMSException {
+		return decoding(delegate.receiveNoWait());
+	}
+
+	@Override
+	public void close() throws JMSException {
+		delegate.close();
+	}
+
+	@Override
+	public Queue getQueue() throws JMSException {
+		return delegate.getQueue();
+	}
+
+	private Message decoding(final Message message) throws JMSException {
+		return message == null ? null : SQSJMSObjectMessageCodecs.decoding(message, codec);
+	}
+}
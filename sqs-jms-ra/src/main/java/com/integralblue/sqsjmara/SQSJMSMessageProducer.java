@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import javax.jms.Destination;
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.QueueSender;
+
+import com.amazon.sqs.javamessaging.SQSMessageProducer;
+
+/**
+ * JCA adapter for {@link SQSMessageProducer}.
+ *
+ * Accepts {@link SQSJMSQueue} destinations, gives messages sent to FIFO queues the message group and deduplication ids the session
+ * supplies, and forgets the cached resolution of a queue that turns out not to exist any more. Received object messages decoding
+ * their object with a codec are sent as the SQS JMS library's own messages (see {@link SQSJMSObjectMessageCodecs#forSending(Message)}).
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings({"PMD.TooManyMethods"})
+public class SQSJMSMessageProducer implements QueueSender {
+	private final QueueSender delegate;
+	private final SQSJMSSession session;
+
+	SQSJMSMessageProducer(final QueueSender delegate, final SQSJMSSession session) {
+		this.delegate = delegate;
+		this.session = session;
+	}
+
+	@Override
+	public void setDisableMessageID(final boolean value) throws JMSException {
+		delegate.setDisableMessageID(value);
+	}
+
+	@Override
+	public boolean getDisableMessageID() throws JMSException {
+		return delegate.getDisableMessageID();
+	}
+
+	@Override
+	public void setDisableMessageTimestamp(final boolean value) throws JMSException {
+		delegate.setDisableMessageTimestamp(value);
+	}
+
+	@Override
+	public boolean getDisableMessageTimestamp() throws JMSException {
+		return delegate.getDisableMessageTimestamp();
+	}
+
+	@Override
+	public void setDeliveryMode(final int deliveryMode) throws JMSException {
+		delegate.setDeliveryMode(deliveryMode);
+	}
+
+	@Override
+	public int getDeliveryMode() throws JMSException {
+		return delegate.getDeliveryMode();
+	}
+
+	@Override
+	public void setPriority(final int defaultPriority) throws JMSException {
+		delegate.setPriority(defaultPriority);
+	}
+
+	@Override
+	public int getPriority() throws JMSException {
+		return delegate.getPriority();
+	}
+
+	@Override
+	public void setTimeToLive(final long timeToLive) throws JMSException {
+		delegate.setTimeToLive(timeToLive);
+	}
+
+	@Override
+	public long getTimeToLive() throws JMSException {
+		return delegate.getTimeToLive();
+	}
+
+	@Override
+	public Destination getDestination() throws JMSException {
+		return delegate.getDestination();
+	}
+
+	@Override
+	public Queue getQueue() throws JMSException {
+		return delegate.getQueue();
+	}
+
+	@Override
+	public void close() throws JMSException {
+		delegate.close();
+	}
+
+	@Override
+	public void send(final Message message) throws JMSException {
+		final Message sending = SQSJMSObjectMessageCodecs.forSending(message);
+		session.prepareForSend(delegate.getQueue(), sending);
+		try {
+			delegate.send(sending);
+		}
+		catch (final InvalidDestinationException e) {
+			session.queueDoesNotExist(delegate.getQueue());
+			throw e;
+		}
+		SQSJMSObjectMessageCodecs.sent(message, sending);
+	}
+
+	@Override
+	public void send(final Message message, final int deliveryMode, final int priority, final long timeToLive) throws JMSException {
+		final Message sending = SQSJMSObjectMessageCodecs.forSending(message);
+		session.prepareForSend(delegate.getQueue(), sending);
+		try {
+			delegate.send(sending, deliveryMode, priority, timeToLive);
+		}
+		catch (final InvalidDestinationException e) {
+			session.queueDoesNotExist(delegate.getQueue());
+			throw e;
+		}
+		SQSJMSObjectMessageCodecs.sent(message, sending);
+	}
+
+	@Override
+	public void send(final Destination destination, final Message message) throws JMSException {
+		send(session.toSQSQueueDestination(destination), message);
+	}
+
+	@Override
+	public void send(final Destination destination, final Message message, final int deliveryMode, final int priority, final long timeToLive)
+			throws JMSException {
+		send(session.toSQSQueueDestination(destination), message, deliveryMode, priority, timeToLive);
+	}
+
+	@Override
+	public void send(final Queue queue, final Message message) throws JMSException {
+		final Queue sqsQueue = session.toSQSQueueDestination(queue);
+		final Message sending = SQSJMSObjectMessageCodecs.forSending(message);
+		session.prepareForSend(sqsQueue, sending);
+		try {
+			delegate.send(sqsQueue, sending);
+		}
+		catch (final InvalidDestinationException e) {
+			session.queueDoesNotExist(sqsQueue);
+			throw e;
+		}
+		SQSJMSObjectMessageCodecs.sent(message, sending);
+	}
+
+	@Override
+	public void send(final Queue queue, final Message message, final int deliveryMode, final int priority, final long timeToLive)
+			throws JMSException {
+		final Queue sqsQueue = session.toSQSQueueDestination(queue);
+		final Message sending = SQSJMSObjectMessageCodecs.forSending(message);
+		session.prepareForSend(sqsQueue, sending);
+		try {
+			delegate.send(sqsQueue, sending, deliveryMode, priority, timeToLive);
+		}
+		catch (final InvalidDestinationException e) {
+			session.queueDoesNotExist(sqsQueue);
+			throw e;
+		}
+		SQSJMSObjectMessageCodecs.sent(message, sending);
+	}
+}
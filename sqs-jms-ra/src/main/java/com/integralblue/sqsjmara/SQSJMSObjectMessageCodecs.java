@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+
+import com.amazon.sqs.javamessaging.message.SQSObjectMessage;
+import com.amazonaws.util.StringUtils;
+
+/**
+ * Finds {@link ObjectMessageCodec}s, and prepares received object messages to be decoded with them.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSObjectMessageCodecs {
+	/**
+	 * Property (and so message attribute) holding the id of the codec that encoded an object message.
+	 */
+	static final String CODEC_PROPERTY = "SQSJMS_ObjectCodec";
+
+	private static final ObjectMessageCodec COMPACT = new CompactObjectMessageCodec();
+
+	private SQSJMSObjectMessageCodecs() {
+	}
+
+	/**
+	 * Create the codec configured by name.
+	 *
+	 * @param name {@value CompactObjectMessageCodec#ID} for the built-in compact codec, or the fully qualified name of a class
+	 *     implementing {@link ObjectMessageCodec} with a public no-argument constructor
+	 * @return the codec, or null if no name is given
+	 * @throws IllegalArgumentException if the codec cannot be created
+	 */
+	static ObjectMessageCodec create(final String name) {
+		if (StringUtils.isNullOrEmpty(name)) {
+			return null;
+		}
+		if (CompactObjectMessageCodec.ID.equals(name)) {
+			return COMPACT;
+		}
+		try {
+			return Class.forName(name, true, SQSJMSObjectMessageCodecs.class.getClassLoader())
+					.asSubclass(ObjectMessageCodec.class)
+					.newInstance();
+		}
+		catch (final ReflectiveOperationException | ClassCastException e) {
+			throw new IllegalArgumentException("Failed to create the object message codec " + name, e);
+		}
+	}
+
+	/**
+	 * Prepare a received message for an endpoint: object messages encoded with a codec are given a body that decodes with it.
+	 *
+	 * Classes are resolved with the thread context class loader when the endpoint gets the object, which the container sets to
+	 * the endpoint's class loader while it handles the message.
+	 *
+	 * @param message the received message
+	 * @param codec codec configured for the endpoint, or null if only the built-in codecs are
+	 * @return the message itself if it was not encoded with a codec, otherwise a message decoding its body with the codec
+	 * @throws JMSException if the message's properties cannot be read
+	 */
+	static Message decoding(final Message message, final ObjectMessageCodec codec) throws JMSException {
+		if (!(message instanceof SQSObjectMessage)) {
+			return message;
+		}
+		final String id = message.getStringProperty(CODEC_PROPERTY);
+		if (id == null) {
+			return message;
+		}
+		return new SQSJMSDecodedObjectMessage((SQSObjectMessage) message, id, find(id, codec));
+	}
+
+	@SuppressWarnings("PMD.NullAssignment")
+	private static ObjectMessageCodec find(final String id, final ObjectMessageCodec codec) {
+		if (codec != null && id.equals(codec.getId())) {
+			return codec;
+		}
+		return CompactObjectMessageCodec.ID.equals(id) ? COMPACT : null;
+	}
+
+	/**
+	 * Prepare received messages for a batch endpoint, as {@link #decoding(Message, ObjectMessageCodec)} does.
+	 *
+	 * @param messages the received messages
+	 * @param codec codec configured for the endpoint, or null if only the built-in codecs are
+	 * @return the messages themselves if none was encoded with a codec, otherwise a copy with those that were replaced
+	 * @throws JMSException if the messages' properties cannot be read
+	 */
+	static List<Message> decoding(final List<Message> messages, final ObjectMessageCodec codec) throws JMSException {
+		List<Message> decoding = messages;
+		for (int i = 0; i < messages.size(); i++) {
+			final Message message = decoding(messages.get(i), codec);
+			if (message != messages.get(i)) {
+				if (decoding == messages) {
+					decoding = new ArrayList<>(messages);
+				}
+				decoding.set(i, message);
+			}
+		}
+		return decoding;
+	}
+
+	/**
+	 * Prepare a message to be sent: a received message decoding its object with a codec, which the SQS JMS library cannot send, is
+	 * replaced by one it can send (see {@link SQSJMSDecodedObjectMessage#forSending()}).
+	 *
+	 * @param message the message given to a producer
+	 * @return the message to give the SQS JMS library
+	 * @throws JMSException if the message cannot be prepared
+	 */
+	static Message forSending(final Message message) throws JMSException {
+		return message instanceof SQSJMSDecodedObjectMessage ? ((SQSJMSDecodedObjectMessage) message).forSending() : message;
+	}
+
+	/**
+	 * After a message was sent, give the message given to the producer the message id of the one sent in its place.
+	 *
+	 * @param message the message given to the producer
+	 * @param sent the message returned by {@link #forSending(Message)}
+	 * @throws JMSException if the message id cannot be set
+	 */
+	static void sent(final Message message, final Message sent) throws JMSException {
+		if (sent != message) {
+			message.setJMSMessageID(sent.getJMSMessageID());
+		}
+	}
+
+	/**
+	 * Wrap a failure of a codec.
+	 *
+	 * @param message what failed
+	 * @param cause the failure
+	 * @return an exception to throw
+	 */
+	static MessageFormatException messageFormatException(final String message, final Exception cause) {
+		final MessageFormatException exception = new MessageFormatException(message + ": " + cause.getMessage());
+		exception.setLinkedException(cause);
+		exception.initCause(cause);
+		return exception;
+	}
+}
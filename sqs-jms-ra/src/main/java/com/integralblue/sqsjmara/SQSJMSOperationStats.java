@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+
+/**
+ * Statistics of one SQS API operation made by one client, collected by {@link SQSJMSRequestMetrics}.
+ *
+ * @author Craig Andrews
+ *
+ */
+public final class SQSJMSOperationStats implements SQSJMSOperationStatsMBean {
+	private static final double P50 = 0.5;
+	private static final double P99 = 0.99;
+
+	private final String region;
+	private final String operation;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failedRequests = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong throttlingErrors = new AtomicLong();
+	private final AtomicLong emptyReceives = new AtomicLong();
+	private final SQSJMSLatencyHistogram latency = new SQSJMSLatencyHistogram();
+
+	SQSJMSOperationStats(final String region, final String operation) {
+		this.region = region;
+		this.operation = operation;
+	}
+
+	/**
+	 * Record an attempt that was throttled.
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void throttled() {
+		throttlingErrors.incrementAndGet();
+	}
+
+	/**
+	 * Record a completed request.
+	 *
+	 * @param nanos how long the request took, including retries, or a negative value if unknown
+	 * @param attempts number of attempts made
+	 * @param response the response, or null if the request failed
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void completed(final long nanos, final int attempts, final Object response) {
+		requests.incrementAndGet();
+		if (attempts > 1) {
+			retries.addAndGet(attempts - 1);
+		}
+		if (nanos >= 0) {
+			latency.record(nanos);
+		}
+		if (response == null) {
+			failedRequests.incrementAndGet();
+		}
+		else if (response instanceof ReceiveMessageResult && ((ReceiveMessageResult) response).getMessages().isEmpty()) {
+			emptyReceives.incrementAndGet();
+		}
+	}
+
+	@Override
+	public String getRegion() {
+		return region;
+	}
+
+	@Override
+	public String getOperation() {
+		return operation;
+	}
+
+	@Override
+	public long getRequests() {
+		return requests.get();
+	}
+
+	@Override
+	public long getFailedRequests() {
+		return failedRequests.get();
+	}
+
+	@Override
+	public long getRetries() {
+		return retries.get();
+	}
+
+	@Override
+	public long getThrottlingErrors() {
+		return throttlingErrors.get();
+	}
+
+	@Override
+	public long getEmptyReceives() {
+		return emptyReceives.get();
+	}
+
+	@Override
+	public double getEmptyReceiveRatio() {
+		final long successful = requests.get() - failedRequests.get();
+		return successful <= 0 ? 0 : (double) emptyReceives.get() / successful;
+	}
+
+	@Override
+	public double getLatencyP50Millis() {
+		return latency.percentileMillis(P50);
+	}
+
+	@Override
+	public double getLatencyP99Millis() {
+		return latency.percentileMillis(P99);
+	}
+
+	@Override
+	public double getLatencyMaxMillis() {
+		return latency.maxMillis();
+	}
+}
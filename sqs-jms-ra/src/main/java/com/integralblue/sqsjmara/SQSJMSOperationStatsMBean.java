@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+/**
+ * Management interface for the statistics of one SQS API operation (such as {@code ReceiveMessage}) made by one client.
+ *
+ * Latencies cover every attempt of a request, including the back-off between retries, and are reported in milliseconds as the
+ * upper bound of a power-of-two bucket (see {@link SQSJMSLatencyHistogram}).
+ *
+ * @author Craig Andrews
+ *
+ */
+public interface SQSJMSOperationStatsMBean {
+	/**
+	 * Region of the client making the requests.
+	 *
+	 * @return the region
+	 */
+	String getRegion();
+
+	/**
+	 * Name of the SQS API operation.
+	 *
+	 * @return the operation, such as {@code ReceiveMessage}
+	 */
+	String getOperation();
+
+	/**
+	 * Requests that have completed, successfully or not. Retries of a request are not counted as separate requests.
+	 *
+	 * @return the count
+	 */
+	long getRequests();
+
+	/**
+	 * Requests that failed, after any retries.
+	 *
+	 * @return the count
+	 */
+	long getFailedRequests();
+
+	/**
+	 * Attempts beyond the first made for requests.
+	 *
+	 * @return the count
+	 */
+	long getRetries();
+
+	/**
+	 * Attempts that SQS rejected because requests were being throttled.
+	 *
+	 * @return the count
+	 */
+	long getThrottlingErrors();
+
+	/**
+	 * {@code ReceiveMessage} requests that returned no messages; always 0 for other operations.
+	 *
+	 * @return the count
+	 */
+	long getEmptyReceives();
+
+	/**
+	 * Fraction of the successful requests that were empty receives; always 0 for operations other than {@code ReceiveMessage}.
+	 *
+	 * @return the ratio, between 0 and 1
+	 */
+	double getEmptyReceiveRatio();
+
+	double getLatencyP50Millis();
+
+	double getLatencyP99Millis();
+
+	double getLatencyMaxMillis();
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.resource.spi.BootstrapContext;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkAdapter;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkManager;
+
+/**
+ * Runs a task periodically without running it on the resource adapter's shared {@link Timer}.
+ *
+ * The timer only keeps time: each tick schedules the task as {@link Work} with the {@link WorkManager}, so a task blocked on SQS calls
+ * delays neither the other tasks sharing the timer nor their next ticks. A tick that comes while the task is still running is skipped.
+ * Whatever the task throws is logged, as an exception thrown from a {@link TimerTask} would cancel the timer for every activation.
+ *
+ * A resource adapter started without a {@link BootstrapContext} has no work manager; the task then runs on a thread of its own.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSPeriodicWork extends WorkAdapter implements Work {
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSPeriodicWork.class.getName());
+
+	private final String name;
+	private final Runnable task;
+	private final WorkManager workManager;
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final TimerTask tickTask = new TimerTask() {
+		@Override
+		public void run() {
+			tick();
+		}
+	};
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Start running a task periodically.
+	 *
+	 * @param name what the task does, for logging and thread names
+	 * @param task the task
+	 * @param timer timer to keep time with
+	 * @param workManager work manager to run the task with, or null to run it on a thread of its own
+	 * @param periodMillis time between runs
+	 */
+	SQSJMSPeriodicWork(final String name, final Runnable task, final Timer timer, final WorkManager workManager, final long periodMillis) {
+		super();
+		this.name = name;
+		this.task = task;
+		this.workManager = workManager;
+		if (workManager == null) {
+			executor = createExecutor(name);
+			executor.scheduleWithFixedDelay(this, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+		}
+		else {
+			executor = null;
+			timer.schedule(tickTask, periodMillis, periodMillis);
+		}
+	}
+
+	private static ScheduledExecutorService createExecutor(final String name) {
+		return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Stop running the task. A run already in progress finishes.
+	 */
+	void cancel() {
+		if (executor == null) {
+			tickTask.cancel();
+		}
+		else {
+			executor.shutdown();
+		}
+	}
+
+	@SuppressWarnings({"PMD.AvoidCatchingGenericException", "PMD.NcssCount"})
+	private void tick() {
+		if (!running.compareAndSet(false, true)) {
+			// still running since the last tick
+			return;
+		}
+		try {
+			workManager.scheduleWork(this, WorkManager.INDEFINITE, null, this);
+		}
+		catch (final WorkException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Failed to schedule " + name + "; trying again at the next tick", e);
+			running.set(false);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("PMD.AvoidCatchingThrowable")
+	public void run() {
+		try {
+			task.run();
+		}
+		catch (final Throwable t) {
+			LOGGER.log(Level.SEVERE, name + " failed", t);
+		}
+		finally {
+			running.set(false);
+		}
+	}
+
+	@Override
+	public void release() {
+		// runs are short; nothing to interrupt
+	}
+
+	@Override
+	public void workRejected(final WorkEvent e) {
+		LOGGER.log(Level.WARNING, "The work manager rejected " + name + "; trying again at the next tick", e.getException());
+		running.set(false);
+	}
+}
@@ -19,8 +19,11 @@ package com.integralblue.sqsjmara;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Queue;
+import javax.resource.ResourceException;
 import javax.resource.spi.AdministeredObject;
 import javax.resource.spi.ConfigProperty;
+import javax.resource.spi.ResourceAdapter;
+import javax.resource.spi.ResourceAdapterAssociation;
 
 import com.amazon.sqs.javamessaging.SQSQueueDestination;
 
@@ -33,10 +36,13 @@ import com.amazon.sqs.javamessaging.SQSQueueDestination;
  *
  */
 @AdministeredObject(adminObjectInterfaces = {Queue.class, Destination.class})
-public class SQSJMSQueue implements Queue {
+public class SQSJMSQueue implements Queue, ResourceAdapterAssociation {
 	@ConfigProperty
 	private String queueName;
 
+	// an association with the deployed adapter, which is not part of the queue's state
+	private transient ResourceAdapter resourceAdapter;
+
 	public SQSJMSQueue() {
 
 	}
@@ -50,4 +56,40 @@ public class SQSJMSQueue implements Queue {
 		return queueName;
 	}
 
+	/**
+	 * Set the name of the queue, which the associated resource adapter, if any, resolves ahead of first use.
+	 *
+	 * @param queueName name of the queue
+	 */
+	public void setQueueName(final String queueName) {
+		this.queueName = queueName;
+		register();
+	}
+
+	@Override
+	public ResourceAdapter getResourceAdapter() {
+		return resourceAdapter;
+	}
+
+	/**
+	 * Associate this queue with the resource adapter, which resolves it ahead of first use.
+	 */
+	@Override
+	public void setResourceAdapter(final ResourceAdapter resourceAdapter) throws ResourceException {
+		if (!(resourceAdapter instanceof SQSJMSResourceAdapter)) {
+			throw new ResourceException("ResourceAdapter is not of type: " + SQSJMSResourceAdapter.class.getName());
+		}
+		this.resourceAdapter = resourceAdapter;
+		register();
+	}
+
+	/**
+	 * Register the queue name with the resource adapter, whichever of the two the container sets last.
+	 */
+	private void register() {
+		if (resourceAdapter != null && queueName != null) {
+			((SQSJMSResourceAdapter) resourceAdapter).addAdministeredQueueName(queueName);
+		}
+	}
+
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazon.sqs.javamessaging.SQSQueueDestination;
+import com.amazon.sqs.javamessaging.util.ExponentialBackoffStrategy;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+
+/**
+ * Chooses which of the queues of a {@link SQSJMSReceiveLoop} each receive is made from.
+ *
+ * In the {@code weighted} polling mode, queues are chosen by smooth weighted round robin, each weighted by a moving average of the
+ * messages its receives return (but never less than one), so busy queues get more receives. A queue whose receive returns nothing
+ * backs off: it is not chosen again for a time that doubles with each empty receive in a row (from a quarter of a second up to
+ * ten seconds), unless every queue is backing off.
+ *
+ * In the {@code priority} polling mode, the first queue (in the order they were given) that is not backing off is chosen, so
+ * a queue is only received from while every queue before it is empty. Queues back off for no more than a second (starting from
+ * 50 milliseconds), so that a higher priority queue is checked again soon after it was found empty. With a
+ * {@code priorityStarvationLimit}, a queue that has been passed over for higher priority queues that many times in a row while it
+ * was not backing off is chosen once instead.
+ *
+ * A receive answered without asking SQS, because flow control has paused receiving, changes neither the weight nor the backoff
+ * of the queue.
+ *
+ * With more than one queue, receives wait no more than {@value #SHARED_WAIT_TIME_SECONDS} second for messages, so that a long
+ * poll of an empty queue does not hold back the others.
+ *
+ * Only used by the loop's own thread, so it is not thread safe.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSQueuePoller {
+	/**
+	 * Longest time a receive waits for messages when there is more than one queue.
+	 */
+	static final int SHARED_WAIT_TIME_SECONDS = 1;
+
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSQueuePoller.class.getName());
+
+	private static final String ALL = "All";
+
+	private static final double MIN_WEIGHT = 1;
+	private static final double WEIGHT_SMOOTHING = 0.5;
+
+	private final AmazonSQS amazonSQS;
+	private final Source[] sources;
+	private final boolean priority;
+	private final int starvationLimit;
+	private final ExponentialBackoffStrategy idleBackoffStrategy;
+
+	/**
+	 * Create a poller.
+	 *
+	 * @param amazonSQS client to receive with
+	 * @param destinations the queues to receive from, in order of priority; at least one
+	 * @param spec the activation spec, for the polling mode
+	 */
+	SQSJMSQueuePoller(final AmazonSQS amazonSQS, final List<SQSQueueDestination> destinations, final SQSJMSActivationSpec spec) {
+		this.amazonSQS = amazonSQS;
+		this.priority = SQSJMSActivationSpec.POLLING_MODE_PRIORITY.equalsIgnoreCase(spec.getPollingMode());
+		this.starvationLimit = spec.getPriorityStarvationLimit() == null ? 0 : spec.getPriorityStarvationLimit();
+		this.idleBackoffStrategy = priority ? new ExponentialBackoffStrategy(50, 50, 1000) : new ExponentialBackoffStrategy(250, 250, 10_000);
+		this.sources = new Source[destinations.size()];
+		final long now = System.nanoTime();
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = new Source(destinations.get(i), now);
+		}
+	}
+
+	/**
+	 * Receive messages from the next queue.
+	 *
+	 * @param maxNumberOfMessages most messages to receive
+	 * @param waitTimeSeconds longest time to wait for messages
+	 * @return the queue and the messages received from it
+	 * @throws AmazonClientException if the receive failed; the queue backs off as if it were empty
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	Poll receive(final int maxNumberOfMessages, final int waitTimeSeconds) {
+		final Source source = priority ? nextByPriority(System.nanoTime()) : next(System.nanoTime());
+		final String queueUrl = source.destination.getQueueUrl();
+		final ReceiveMessageResult result;
+		try {
+			result = amazonSQS.receiveMessage(new ReceiveMessageRequest(queueUrl)
+					.withMaxNumberOfMessages(maxNumberOfMessages)
+					.withAttributeNames(ALL)
+					.withMessageAttributeNames(ALL)
+					.withWaitTimeSeconds(sources.length == 1 ? waitTimeSeconds : Math.min(waitTimeSeconds, SHARED_WAIT_TIME_SECONDS)));
+		}
+		catch (final AmazonClientException e) {
+			LOGGER.log(Level.WARNING, "Failed to receive messages from " + queueUrl, e);
+			source.received(0, System.nanoTime());
+			throw e;
+		}
+		// the queue was not asked for messages, so it says nothing about how busy the queue is
+		if (!SQSJMSReceiveTuning.isPaused(result)) {
+			source.received(result.getMessages().size(), System.nanoTime());
+		}
+		return new Poll(source.destination, result.getMessages());
+	}
+
+	/**
+	 * The queues polled, for messages.
+	 *
+	 * @return the URL of the only queue, or the number of queues
+	 */
+	String describe() {
+		return sources.length == 1 ? sources[0].destination.getQueueUrl() : sources.length + " queues";
+	}
+
+	/**
+	 * Choose the queue to receive from: the one furthest ahead by smooth weighted round robin, among those not backing off.
+	 *
+	 * @param now the current {@link System#nanoTime()}
+	 * @return the queue
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	private Source next(final long now) {
+		boolean anyReady = false;
+		for (final Source source : sources) {
+			anyReady |= source.isReady(now);
+		}
+		Source chosen = null;
+		double totalWeight = 0;
+		for (final Source source : sources) {
+			if (anyReady && !source.isReady(now)) {
+				continue;
+			}
+			source.current += source.weight;
+			totalWeight += source.weight;
+			if (chosen == null || source.current > chosen.current) {
+				chosen = source;
+			}
+		}
+		chosen.current -= totalWeight;
+		return chosen;
+	}
+
+	/**
+	 * Choose the queue to receive from: the first that is not backing off, unless a later one has been passed over too often.
+	 *
+	 * @param now the current {@link System#nanoTime()}
+	 * @return the queue
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	private Source nextByPriority(final long now) {
+		Source chosen = null;
+		for (final Source source : sources) {
+			if (!source.isReady(now)) {
+				continue;
+			}
+			if (chosen == null) {
+				chosen = source;
+			}
+			else if (starvationLimit > 0) {
+				source.passedOver++;
+				if (source.passedOver > starvationLimit) {
+					chosen = source;
+					break;
+				}
+			}
+		}
+		if (chosen == null) {
+			// every queue is backing off: wait on the highest priority one
+			chosen = sources[0];
+		}
+		chosen.passedOver = 0;
+		return chosen;
+	}
+
+	/**
+	 * Messages received from one queue.
+	 */
+	static final class Poll {
+		private final SQSQueueDestination destination;
+		private final List<Message> messages;
+
+		Poll(final SQSQueueDestination destination, final List<Message> messages) {
+			this.destination = destination;
+			this.messages = Collections.unmodifiableList(messages);
+		}
+
+		SQSQueueDestination getDestination() {
+			return destination;
+		}
+
+		List<Message> getMessages() {
+			return messages;
+		}
+	}
+
+	/**
+	 * A queue and how it has been polled.
+	 */
+	private final class Source {
+		private final SQSQueueDestination destination;
+		private double weight = MIN_WEIGHT;
+		private double current;
+		private int emptyReceives;
+		private long readyAt;
+		private int passedOver;
+
+		Source(final SQSQueueDestination destination, final long now) {
+			this.destination = destination;
+			this.readyAt = now;
+		}
+
+		boolean isReady(final long now) {
+			return now - readyAt >= 0;
+		}
+
+		void received(final int count, final long now) {
+			weight = Math.max(MIN_WEIGHT, weight + WEIGHT_SMOOTHING * (count - weight));
+			if (count == 0) {
+				emptyReceives++;
+				readyAt = now + TimeUnit.MILLISECONDS.toNanos(idleBackoffStrategy.delayBeforeNextRetry(emptyReceives));
+			}
+			else {
+				emptyReceives = 0;
+				readyAt = now;
+			}
+		}
+	}
+}
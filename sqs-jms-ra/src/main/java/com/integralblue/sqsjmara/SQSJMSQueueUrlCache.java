@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import com.amazon.sqs.javamessaging.SQSQueueDestination;
+import com.amazonaws.services.sqs.AmazonSQS;
+
+/**
+ * Caches the result of resolving a queue name to its {@link SQSQueueDestination} (a {@code GetQueueUrl} call).
+ *
+ * Names are resolved relative to a client, so entries are kept per client of the {@link SQSJMSClientRegistry}, which shares a
+ * client between everything using the same region, credentials and send batching; a queue name is unique within the region and
+ * account, so everything using one of those clients can share its resolutions. Connection factories give sessions their own
+ * wrappers of the registry's client, so each factory declares its wrapper with {@link #share(AmazonSQS, AmazonSQS)}, and names
+ * resolved with the wrapper are cached for the registry's client. Entries of a client go away once it is no longer used.
+ * Queues found not to exist are remembered too, for a shorter time.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSQueueUrlCache {
+	private final long ttlNanos;
+	private final long negativeTtlNanos;
+	private final Map<AmazonSQS, Map<String, Entry>> entries = new WeakHashMap<>();
+	private final Map<AmazonSQS, AmazonSQS> sharedClients = new WeakHashMap<>();
+
+	SQSJMSQueueUrlCache(final long ttlMillis, final long negativeTtlMillis) {
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+	}
+
+	/**
+	 * Cache the names resolved with a client for the client it wraps, so that they are shared with everything else using it.
+	 *
+	 * @param wrapper client given to sessions
+	 * @param client the registry's client the wrapper sends requests with
+	 */
+	synchronized void share(final AmazonSQS wrapper, final AmazonSQS client) {
+		sharedClients.put(wrapper, client);
+	}
+
+	/**
+	 * Resolve a queue name, using the cache if possible.
+	 *
+	 * @param amazonSQS client the session uses
+	 * @param session session used to resolve the name if it is not cached
+	 * @param queueName name of the queue
+	 * @return the destination
+	 * @throws InvalidDestinationException if the queue does not exist
+	 * @throws JMSException if the name cannot be resolved
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	SQSQueueDestination resolve(final AmazonSQS amazonSQS, final Session session, final String queueName) throws JMSException {
+		final long now = System.nanoTime();
+		final Entry cached = get(amazonSQS, queueName);
+		if (cached != null && now - cached.expires < 0) {
+			if (cached.destination == null) {
+				throw new InvalidDestinationException("Queue with name '" + queueName + "' does not exist");
+			}
+			return cached.destination;
+		}
+		final SQSQueueDestination destination;
+		try {
+			destination = (SQSQueueDestination) session.createQueue(queueName);
+		}
+		catch (final InvalidDestinationException e) {
+			put(amazonSQS, queueName, new Entry(null, now + negativeTtlNanos));
+			throw e;
+		}
+		put(amazonSQS, queueName, new Entry(destination, now + ttlNanos));
+		return destination;
+	}
+
+	/**
+	 * Forget a queue name, for example because the queue it resolved to has been deleted.
+	 *
+	 * @param amazonSQS client the name was resolved with
+	 * @param queueName name of the queue
+	 */
+	synchronized void invalidate(final AmazonSQS amazonSQS, final String queueName) {
+		final Map<String, Entry> clientEntries = entries.get(sharedClient(amazonSQS));
+		if (clientEntries != null) {
+			clientEntries.remove(queueName);
+		}
+	}
+
+	private AmazonSQS sharedClient(final AmazonSQS amazonSQS) {
+		final AmazonSQS client = sharedClients.get(amazonSQS);
+		return client == null ? amazonSQS : client;
+	}
+
+	private synchronized Entry get(final AmazonSQS amazonSQS, final String queueName) {
+		final Map<String, Entry> clientEntries = entries.get(sharedClient(amazonSQS));
+		return clientEntries == null ? null : clientEntries.get(queueName);
+	}
+
+	private synchronized void put(final AmazonSQS amazonSQS, final String queueName, final Entry entry) {
+		final AmazonSQS client = sharedClient(amazonSQS);
+		Map<String, Entry> clientEntries = entries.get(client);
+		if (clientEntries == null) {
+			clientEntries = new HashMap<>();
+			entries.put(client, clientEntries);
+		}
+		clientEntries.put(queueName, entry);
+	}
+
+	/**
+	 * A resolved destination, or null if the queue does not exist, and when that stops being trusted.
+	 */
+	private static final class Entry {
+		private final SQSQueueDestination destination;
+		private final long expires;
+
+		Entry(final SQSQueueDestination destination, final long expires) {
+			this.destination = destination;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.QueueSession;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkAdapter;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkManager;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazon.sqs.javamessaging.SQSQueueDestination;
+import com.amazon.sqs.javamessaging.message.SQSBytesMessage;
+import com.amazon.sqs.javamessaging.message.SQSMessage;
+import com.amazon.sqs.javamessaging.message.SQSObjectMessage;
+import com.amazon.sqs.javamessaging.message.SQSTextMessage;
+import com.amazon.sqs.javamessaging.util.ExponentialBackoffStrategy;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+
+/**
+ * Receive loop that hands each received message to the {@link WorkManager} as its own {@link Work}.
+ * It receives from one or more queues, choosing which to receive from next with a {@link SQSJMSQueuePoller}.
+ *
+ * For {@link BatchMessageListener} endpoints, messages are instead collected into batches of up to {@code maxBatchSize}
+ * and each batch is delivered as one {@link Work}. A batch is delivered once it is full, once {@code maxBatchWaitMillis} has
+ * passed since its first message was received (straight away if that is 0), or once no more messages can be received.
+ *
+ * At most {@code workQueueSize} messages are outstanding (collected, scheduled or being delivered) at any time;
+ * once that many are outstanding the loop stops receiving until a delivery completes.
+ * With {@code adaptivePrefetch}, that limit moves between 1 and {@code workQueueSize}: before each receive it goes up by one
+ * if every scheduled delivery has started (the endpoint is draining the buffer), and down by one if some are still waiting for
+ * the work manager (messages are sitting in the buffer, using up their visibility timeout).
+ * A {@link SQSJMSFlowControl}, if there is one, is told when messages leave the loop; the client the loop receives with
+ * holds receives back while the flow control has paused receiving.
+ *
+ * Deliveries from a FIFO queue go through {@code dispatchStripes} stripes of a {@link SQSJMSDeliveryDispatcher} instead, chosen
+ * by message group (batches all go through one stripe, as they mix groups), so the messages of a group are delivered in order,
+ * each acknowledged before the next is delivered, while groups on different stripes are delivered in parallel. If a delivery
+ * fails, the messages of the same group waiting behind it, and those of the same poll not yet dispatched, are returned, as
+ * delivering them would break the group's order; SQS delivers them again after the failed one.
+ * Deliveries from a standard queue are striped the same way, by the value of the {@code affinityKey} message property, if one is
+ * configured: messages with the same key are never delivered concurrently, though, the queue being unordered, failures do not
+ * return the messages behind them.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings({"PMD.DefaultPackage", "PMD.TooManyMethods", "PMD.TooManyFields"})
+final class SQSJMSReceiveLoop implements Work {
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSReceiveLoop.class.getName());
+
+	private static final int WAIT_TIME_SECONDS = 20;
+
+	private static final String JMS_SQS_MESSAGE_TYPE = "JMS_SQSMessageType";
+	private static final String BYTE_MESSAGE_TYPE = "byte";
+	private static final String OBJECT_MESSAGE_TYPE = "object";
+	private static final String TEXT_MESSAGE_TYPE = "text";
+	private static final String JMS_SQS_REPLY_TO_QUEUE_NAME = "JMS_SQSReplyToQueueName";
+
+	private static final long STOP_TIMEOUT_SECONDS = 30;
+
+	private final SQSJMSEndpointActivation activation;
+	private final QueueSession session;
+	private final SQSJMSQueuePoller poller;
+	private final SQSJMSAcknowledger acknowledger;
+	private final boolean acknowledgeOnDelivery;
+	private final int workQueueSize;
+	private final boolean batchDelivery;
+	private final int maxBatchSize;
+	private final long maxBatchWaitNanos;
+	private final boolean adaptivePrefetch;
+	private int prefetchLimit;
+	private final boolean lazyBodyDecoding;
+	private final SQSJMSDeliveryDispatcher dispatcher;
+	private final AtomicInteger waitingDeliveries = new AtomicInteger();
+	private final SQSJMSFlowControl flowControl;
+	private final List<SQSMessage> pendingBatch = new ArrayList<>();
+	private long pendingBatchDeadline;
+	private final Set<String> acknowledgedReceiptHandles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Semaphore outstanding;
+	private final ExponentialBackoffStrategy backoffStrategy = new ExponentialBackoffStrategy(25, 25, 2000);
+
+	private final AtomicBoolean running = new AtomicBoolean(true);
+
+	@SuppressWarnings("PMD.NcssCount")
+	SQSJMSReceiveLoop(
+			final SQSJMSEndpointActivation activation,
+			final SQSJMSDeliveryDispatcher dispatcher,
+			final AmazonSQS amazonSQS,
+			final QueueSession session,
+			final List<SQSQueueDestination> destinations,
+			final boolean acknowledgeOnDelivery,
+			final SQSJMSActivationSpec spec,
+			final SQSJMSFlowControl flowControl) {
+		this.activation = activation;
+		this.dispatcher = dispatcher;
+		this.session = session;
+		this.poller = new SQSJMSQueuePoller(amazonSQS, destinations, spec);
+		this.batchDelivery = activation.isBatchListener();
+		this.acknowledger = batchDelivery ? new SQSJMSAcknowledger(amazonSQS) {
+			@Override
+			public void acknowledge(final SQSMessage message) throws JMSException {
+				super.acknowledge(message);
+				// remembered so that a failed batch does not return messages the listener acknowledged
+				acknowledgedReceiptHandles.add(message.getReceiptHandle());
+			}
+		} : new SQSJMSAcknowledger(amazonSQS);
+		this.acknowledgeOnDelivery = acknowledgeOnDelivery;
+		this.workQueueSize = spec.getWorkQueueSize();
+		this.maxBatchSize = spec.getMaxBatchSize();
+		this.maxBatchWaitNanos = TimeUnit.MILLISECONDS.toNanos(spec.getMaxBatchWaitMillis());
+		this.adaptivePrefetch = spec.getAdaptivePrefetch();
+		this.lazyBodyDecoding = spec.getLazyBodyDecoding();
+		this.prefetchLimit = workQueueSize;
+		this.outstanding = new Semaphore(workQueueSize);
+		this.flowControl = flowControl;
+	}
+
+	@Override
+	@SuppressWarnings({"PMD.NcssCount", "PMD.AvoidCatchingGenericException"})
+	public void run() {
+		int retriesAttempted = 0;
+		while (running.get()) {
+			try {
+				if (!pendingBatch.isEmpty() && outstanding.availablePermits() == 0) {
+					// nothing more can be received until deliveries complete
+					dispatchPendingBatch();
+				}
+				adaptPrefetchLimit();
+				final int permits = acquirePermits();
+				if (permits == 0) {
+					continue;
+				}
+				final int waitTimeSeconds = waitTimeSeconds();
+				final SQSJMSQueuePoller.Poll poll = receive(permits, waitTimeSeconds);
+				retriesAttempted = 0;
+				dispatch(poll, waitTimeSeconds);
+			}
+			catch (final AmazonClientException e) {
+				// logged by the poller
+				backOff(retriesAttempted++);
+			}
+			catch (final RuntimeException e) {
+				// keep receiving: ending the loop would leave the activation up but never delivering again
+				LOGGER.log(Level.WARNING, "Unexpected failure receiving from " + poller.describe(), e);
+				backOff(retriesAttempted++);
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running.set(false);
+			}
+		}
+		returnPendingBatch();
+		// give back the permits held back by adaptPrefetchLimit so that stop() can account for every slot
+		outstanding.release(workQueueSize - prefetchLimit);
+		prefetchLimit = workQueueSize;
+	}
+
+	/**
+	 * Raise or lower the number of messages that may be outstanding, by releasing or holding back a permit.
+	 * Only called from the loop's own thread.
+	 */
+	private void adaptPrefetchLimit() {
+		if (!adaptivePrefetch) {
+			return;
+		}
+		if (waitingDeliveries.get() == 0) {
+			if (prefetchLimit < workQueueSize) {
+				prefetchLimit++;
+				outstanding.release();
+			}
+		}
+		else if (prefetchLimit > 1 && outstanding.tryAcquire()) {
+			prefetchLimit--;
+		}
+	}
+
+	private SQSJMSQueuePoller.Poll receive(final int permits, final int waitTimeSeconds) {
+		SQSJMSQueuePoller.Poll poll = null;
+		try {
+			poll = poller.receive(permits, waitTimeSeconds);
+		}
+		finally {
+			// keep one permit per received message; give the rest back
+			outstanding.release(permits - (poll == null ? 0 : poll.getMessages().size()));
+		}
+		return poll;
+	}
+
+	private void returnPendingBatch() {
+		for (final SQSMessage message : pendingBatch) {
+			negativeAcknowledge(message);
+		}
+		activation.getStats().discarded(pendingBatch.size());
+		done(pendingBatch.size());
+		pendingBatch.clear();
+	}
+
+	private void backOff(final int retriesAttempted) {
+		try {
+			Thread.sleep(backoffStrategy.delayBeforeNextRetry(retriesAttempted));
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			running.set(false);
+		}
+	}
+
+	@Override
+	public void release() {
+		running.set(false);
+	}
+
+	/**
+	 * Stop receiving and wait (for a bounded time) for outstanding deliveries to complete.
+	 */
+	void stop() {
+		release();
+		try {
+			if (outstanding.tryAcquire(workQueueSize, STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				outstanding.release(workQueueSize);
+			}
+			else {
+				LOGGER.warning("Deliveries from " + poller.describe() + " still outstanding after " + STOP_TIMEOUT_SECONDS + " seconds");
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private int acquirePermits() throws InterruptedException {
+		if (!outstanding.tryAcquire(1, TimeUnit.SECONDS)) {
+			return 0;
+		}
+		final int additional = Math.min(outstanding.availablePermits(), SQSMessagingClientConstants.MAX_BATCH - 1);
+		if (additional > 0 && outstanding.tryAcquire(additional)) {
+			return additional + 1;
+		}
+		return 1;
+	}
+
+	/**
+	 * Free the slots of messages that have been delivered or discarded.
+	 *
+	 * @param count number of messages
+	 */
+	private void done(final int count) {
+		outstanding.release(count);
+		if (flowControl != null) {
+			flowControl.finished(count);
+		}
+	}
+
+	private int waitTimeSeconds() {
+		if (pendingBatch.isEmpty()) {
+			return WAIT_TIME_SECONDS;
+		}
+		// wait no longer than the pending batch may; under a second, only messages already available are received
+		final long remainingNanos = pendingBatchDeadline - System.nanoTime();
+		return (int) Math.max(0, Math.min(WAIT_TIME_SECONDS, TimeUnit.NANOSECONDS.toSeconds(remainingNanos)));
+	}
+
+	private void dispatch(final SQSJMSQueuePoller.Poll poll, final int waitTimeSeconds) {
+		dispatcher.startPoll();
+		if (batchDelivery) {
+			addToBatch(poll, waitTimeSeconds);
+			return;
+		}
+		for (final Message message : poll.getMessages()) {
+			final SQSMessage jmsMessage = convert(message, poll.getDestination());
+			if (jmsMessage != null) {
+				schedule(Collections.singletonList(jmsMessage));
+			}
+		}
+	}
+
+	@SuppressWarnings("PMD.NcssCount")
+	private void addToBatch(final SQSJMSQueuePoller.Poll poll, final int waitTimeSeconds) {
+		for (final Message message : poll.getMessages()) {
+			final SQSMessage jmsMessage = convert(message, poll.getDestination());
+			if (jmsMessage == null) {
+				continue;
+			}
+			if (pendingBatch.isEmpty()) {
+				pendingBatchDeadline = System.nanoTime() + maxBatchWaitNanos;
+			}
+			pendingBatch.add(jmsMessage);
+			if (pendingBatch.size() >= maxBatchSize) {
+				dispatchPendingBatch();
+			}
+		}
+		if (!pendingBatch.isEmpty()
+				&& (pendingBatchDeadline - System.nanoTime() <= 0 || poll.getMessages().isEmpty() && waitTimeSeconds == 0)) {
+			dispatchPendingBatch();
+		}
+	}
+
+	private void dispatchPendingBatch() {
+		final List<SQSMessage> batch = new ArrayList<>(pendingBatch);
+		pendingBatch.clear();
+		schedule(batch);
+	}
+
+	private SQSMessage convert(final Message message, final SQSQueueDestination destination) {
+		try {
+			return convertToJMSMessage(message, destination);
+		}
+		catch (final JMSException e) {
+			LOGGER.log(Level.WARNING, "Failed to convert message " + message.getMessageId() + " received from " + destination.getQueueUrl(), e);
+			activation.getStats().discarded(1);
+			done(1);
+			return null;
+		}
+	}
+
+	private void schedule(final List<SQSMessage> messages) {
+		final DeliveryWork work = new DeliveryWork(messages);
+		if (!running.get()) {
+			work.finish(false);
+			return;
+		}
+		dispatcher.dispatch(work);
+	}
+
+	private SQSMessage convertToJMSMessage(final Message message, final SQSQueueDestination destination) throws JMSException {
+		final Map<String, MessageAttributeValue> attributes = message.getMessageAttributes();
+		final SQSMessage jmsMessage = createJMSMessage(message, attributes.get(JMS_SQS_MESSAGE_TYPE), destination.getQueueUrl());
+		jmsMessage.setJMSDestination(destination);
+		final MessageAttributeValue replyToQueueName = attributes.get(JMS_SQS_REPLY_TO_QUEUE_NAME);
+		if (replyToQueueName != null) {
+			jmsMessage.setJMSReplyTo(session.createQueue(replyToQueueName.getStringValue()));
+		}
+		return jmsMessage;
+	}
+
+	@SuppressWarnings("PMD.CyclomaticComplexity")
+	private SQSMessage createJMSMessage(final Message message, final MessageAttributeValue messageType, final String queueUrl) throws JMSException {
+		if (messageType == null || TEXT_MESSAGE_TYPE.equals(messageType.getStringValue())) {
+			return new SQSTextMessage(acknowledger, queueUrl, message);
+		}
+		if (BYTE_MESSAGE_TYPE.equals(messageType.getStringValue())) {
+			return lazyBodyDecoding
+					? new SQSJMSLazyBytesMessage(acknowledger, queueUrl, message)
+					: new SQSBytesMessage(acknowledger, queueUrl, message);
+		}
+		if (OBJECT_MESSAGE_TYPE.equals(messageType.getStringValue())) {
+			return lazyBodyDecoding
+					? new SQSJMSLazyObjectMessage(acknowledger, queueUrl, message)
+					: new SQSObjectMessage(acknowledger, queueUrl, message);
+		}
+		throw new JMSException("Not a supported JMS message type");
+	}
+
+	private void negativeAcknowledge(final SQSMessage message) {
+		try {
+			acknowledger.negativeAcknowledge(message);
+		}
+		catch (final JMSException e) {
+			LOGGER.log(Level.WARNING, "Failed to return message " + message.getSQSMessageId() + " to " + message.getQueueUrl(), e);
+		}
+	}
+
+	/**
+	 * Delivers one message, or one batch, to the endpoint, then acknowledges the messages (or makes them visible again on failure).
+	 */
+	private final class DeliveryWork extends WorkAdapter implements SQSJMSDeliveryDispatcher.Delivery {
+		private final List<SQSMessage> messages;
+		private final AtomicBoolean started = new AtomicBoolean();
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private boolean delivered;
+
+		DeliveryWork(final List<SQSMessage> messages) {
+			super();
+			this.messages = messages;
+			waitingDeliveries.incrementAndGet();
+		}
+
+		@Override
+		@SuppressWarnings({"PMD.AvoidCatchingGenericException", "PMD.NcssCount"})
+		public void run() {
+			start();
+			try {
+				if (batchDelivery) {
+					activation.deliver(Collections.<javax.jms.Message>unmodifiableList(messages));
+				}
+				else {
+					activation.deliver(messages.get(0));
+				}
+				delivered = true;
+			}
+			catch (final RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Failed to deliver " + describe(), e);
+			}
+			finally {
+				finish(delivered);
+			}
+		}
+
+		@Override
+		public void release() {
+			// deliveries are short lived; nothing to interrupt
+		}
+
+		@Override
+		public void workRejected(final WorkEvent e) {
+			reject(e.getException());
+		}
+
+		/**
+		 * Acknowledge (or return) the messages and free their slots. Only the first call has any effect,
+		 * as a work manager may both throw from scheduleWork and notify its listener of the rejection.
+		 * Messages the listener acknowledged itself are left alone.
+		 *
+		 * @param delivered true if the endpoint processed the messages successfully
+		 */
+		@SuppressWarnings("PMD.NcssCount")
+		void finish(final boolean delivered) {
+			if (!finished.compareAndSet(false, true)) {
+				return;
+			}
+			if (start()) {
+				// never run: rejected by the work manager, or the loop is stopping
+				activation.getStats().discarded(messages.size());
+			}
+			try {
+				final List<SQSMessage> unacknowledged = unacknowledged();
+				if (!delivered) {
+					for (final SQSMessage message : unacknowledged) {
+						negativeAcknowledge(message);
+					}
+				}
+				else if (acknowledgeOnDelivery && !unacknowledged.isEmpty()) {
+					acknowledger.acknowledge(unacknowledged);
+				}
+			}
+			catch (final JMSException e) {
+				LOGGER.log(Level.WARNING, "Failed to acknowledge " + describe(), e);
+			}
+			finally {
+				done(messages.size());
+			}
+		}
+
+		@Override
+		public String getKey() {
+			// batches mix keys, so they all go through one stripe
+			return batchDelivery ? "" : dispatcher.key(messages.get(0));
+		}
+
+		@Override
+		public boolean isDelivered() {
+			return delivered;
+		}
+
+		@Override
+		public void reject(final Exception cause) {
+			if (cause != null) {
+				LOGGER.log(Level.WARNING, "Failed to schedule delivery of " + describe(), cause);
+			}
+			finish(false);
+		}
+
+		/**
+		 * The messages the listener did not acknowledge itself, forgetting those it did.
+		 *
+		 * @return the unacknowledged messages
+		 */
+		private List<SQSMessage> unacknowledged() {
+			final List<SQSMessage> unacknowledged = new ArrayList<>(messages.size());
+			for (final SQSMessage message : messages) {
+				if (!acknowledgedReceiptHandles.remove(message.getReceiptHandle())) {
+					unacknowledged.add(message);
+				}
+			}
+			return unacknowledged;
+		}
+
+		private boolean start() {
+			if (started.compareAndSet(false, true)) {
+				waitingDeliveries.decrementAndGet();
+				return true;
+			}
+			return false;
+		}
+
+		private String describe() {
+			return messages.size() == 1 ? "message " + messages.get(0).getSQSMessageId() : messages.size() + " messages";
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+
+/**
+ * Applies the configured long-poll wait time, visibility timeout and flow control to {@code ReceiveMessage} requests.
+ *
+ * The SQS JMS library always long-polls for 20 seconds and leaves the visibility timeout to the queue's default, so the settings
+ * are applied by the {@link SQSJMSClientDecorator} given to it: a request's wait time is lowered to the configured one (a shorter
+ * wait asked for by the caller is kept), and the visibility timeout is set if the request does not have one.
+ * With a {@link SQSJMSFlowControl}, a receive first waits for receiving to be resumed (answering with no messages if it is not
+ * resumed within the request's wait time), and asks for no more messages than the flow control allows. An answer given because
+ * receiving was paused can be told from an empty receive with {@link #isPaused(ReceiveMessageResult)}.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSReceiveTuning {
+	/**
+	 * Longest wait time SQS allows, and what the SQS JMS library uses.
+	 */
+	static final int MAX_WAIT_TIME_SECONDS = 20;
+
+	/**
+	 * Longest visibility timeout SQS allows (12 hours).
+	 */
+	static final int MAX_VISIBILITY_TIMEOUT_SECONDS = 43_200;
+
+	private SQSJMSReceiveTuning() {
+	}
+
+	/**
+	 * Whether a receive returned no messages because receiving was paused by flow control, rather than because the queue was empty.
+	 *
+	 * @param result the result of a receive through a client with flow control
+	 * @return true if no request was sent to SQS
+	 */
+	static boolean isPaused(final ReceiveMessageResult result) {
+		return result instanceof PausedReceiveMessageResult;
+	}
+
+	/**
+	 * The answer to a receive made while receiving is paused.
+	 *
+	 * @return a result with no messages, which {@link #isPaused(ReceiveMessageResult)} tells apart from an empty receive
+	 */
+	static ReceiveMessageResult paused() {
+		return new PausedReceiveMessageResult();
+	}
+
+	/**
+	 * Apply the settings to a request.
+	 *
+	 * @param request the caller's request, which is left unchanged
+	 * @param waitTimeSeconds longest time a receive waits for messages, or null for no limit beyond the caller's
+	 * @param visibilityTimeoutSeconds visibility timeout for received messages, or null to use the queue's
+	 * @return a copy of the request with the settings applied
+	 */
+	static ReceiveMessageRequest tune(final ReceiveMessageRequest request, final Integer waitTimeSeconds, final Integer visibilityTimeoutSeconds) {
+		final ReceiveMessageRequest tuned = request.clone();
+		if (waitTimeSeconds != null && (tuned.getWaitTimeSeconds() == null || tuned.getWaitTimeSeconds() > waitTimeSeconds)) {
+			tuned.setWaitTimeSeconds(waitTimeSeconds);
+		}
+		if (visibilityTimeoutSeconds != null && tuned.getVisibilityTimeout() == null) {
+			tuned.setVisibilityTimeout(visibilityTimeoutSeconds);
+		}
+		return tuned;
+	}
+
+	/**
+	 * Wait until flow control lets a receive be sent, and limit the number of messages it asks for to what flow control allows.
+	 *
+	 * @param flowControl the flow control
+	 * @param request the request, already a copy made by {@link #tune(ReceiveMessageRequest, Integer, Integer)}
+	 * @return true if the request is to be sent, false if receiving stayed paused for the request's wait time
+	 */
+	static boolean awaitCapacity(final SQSJMSFlowControl flowControl, final ReceiveMessageRequest request) {
+		final int capacity;
+		try {
+			// wait at least a second, so that short polling callers do not spin while receiving is paused
+			capacity = flowControl.awaitCapacity(TimeUnit.SECONDS.toMillis(Math.max(1, request.getWaitTimeSeconds() == null ? 0 : request.getWaitTimeSeconds())));
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		if (capacity <= 0) {
+			return false;
+		}
+		if (request.getMaxNumberOfMessages() == null || request.getMaxNumberOfMessages() > capacity) {
+			request.setMaxNumberOfMessages(capacity);
+		}
+		return true;
+	}
+
+	/**
+	 * The answer to a receive made while receiving was paused.
+	 */
+	private static final class PausedReceiveMessageResult extends ReceiveMessageResult {
+		private static final long serialVersionUID = 1L;
+
+		PausedReceiveMessageResult() {
+			super();
+		}
+	}
+}
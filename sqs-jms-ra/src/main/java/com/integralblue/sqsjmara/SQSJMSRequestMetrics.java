@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.ObjectName;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+
+/**
+ * Request handler that records, per SQS API operation, what the SDK actually sends: requests, their latency, retries, throttling
+ * errors and empty receives.
+ *
+ * One instance is attached to each client built by {@link SQSJMSClientRegistry}, so the figures cover everything the resource
+ * adapter sends, from activations and managed connection factories alike. The statistics of an operation are registered as an
+ * MBean ({@code type=Request,name=<region>,operation=<operation>}) the first time the client uses it, and unregistered by
+ * {@link #close()}.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSRequestMetrics extends RequestHandler2 {
+	private static final HandlerContextKey<Long> STARTED = new HandlerContextKey<>(SQSJMSRequestMetrics.class.getName() + ".started");
+	private static final HandlerContextKey<Integer> ATTEMPTS = new HandlerContextKey<>(SQSJMSRequestMetrics.class.getName() + ".attempts");
+	private static final String REQUEST_SUFFIX = "Request";
+
+	private final String region;
+	private final ConcurrentMap<String, SQSJMSOperationStats> operations = new ConcurrentHashMap<>();
+	private final List<ObjectName> mbeanNames = new CopyOnWriteArrayList<>();
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	SQSJMSRequestMetrics(final String region) {
+		super();
+		this.region = region;
+	}
+
+	@Override
+	public void beforeRequest(final Request<?> request) {
+		request.addHandlerContext(STARTED, System.nanoTime());
+		request.addHandlerContext(ATTEMPTS, 0);
+	}
+
+	@Override
+	public void beforeAttempt(final HandlerBeforeAttemptContext context) {
+		final Integer attempts = context.getRequest().getHandlerContext(ATTEMPTS);
+		context.getRequest().addHandlerContext(ATTEMPTS, attempts == null ? 1 : attempts + 1);
+	}
+
+	@Override
+	public void afterAttempt(final HandlerAfterAttemptContext context) {
+		if (context.getException() instanceof AmazonServiceException
+				&& RetryUtils.isThrottlingException((AmazonServiceException) context.getException())) {
+			operation(context.getRequest()).throttled();
+		}
+	}
+
+	@Override
+	public void afterResponse(final Request<?> request, final Response<?> response) {
+		completed(request, response.getAwsResponse());
+	}
+
+	@Override
+	public void afterError(final Request<?> request, final Response<?> response, final Exception e) {
+		completed(request, null);
+	}
+
+	/**
+	 * Unregister the MBeans. Called when the client is shut down.
+	 */
+	void close() {
+		closed.set(true);
+		for (final ObjectName mbeanName : mbeanNames) {
+			SQSJMSManagement.unregister(mbeanName);
+		}
+		mbeanNames.clear();
+	}
+
+	private void completed(final Request<?> request, final Object response) {
+		final Long started = request.getHandlerContext(STARTED);
+		final Integer attempts = request.getHandlerContext(ATTEMPTS);
+		operation(request).completed(
+				started == null ? -1 : System.nanoTime() - started,
+				attempts == null ? 1 : attempts,
+				response);
+	}
+
+	private SQSJMSOperationStats operation(final Request<?> request) {
+		final String name = operationName(request);
+		SQSJMSOperationStats stats = operations.get(name);
+		if (stats == null) {
+			final SQSJMSOperationStats created = new SQSJMSOperationStats(region, name);
+			stats = operations.putIfAbsent(name, created);
+			if (stats == null) {
+				stats = created;
+				register(created);
+			}
+		}
+		return stats;
+	}
+
+	private void register(final SQSJMSOperationStats stats) {
+		if (closed.get()) {
+			return;
+		}
+		final ObjectName mbeanName = SQSJMSManagement.register(stats, "Request", region, "operation", stats.getOperation());
+		if (mbeanName != null) {
+			mbeanNames.add(mbeanName);
+			if (closed.get()) {
+				// lost a race with close()
+				close();
+			}
+		}
+	}
+
+	private static String operationName(final Request<?> request) {
+		final String name = request.getOriginalRequest().getClass().getSimpleName();
+		return name.endsWith(REQUEST_SUFFIX) ? name.substring(0, name.length() - REQUEST_SUFFIX.length()) : name;
+	}
+}
@@ -17,20 +17,18 @@
 package com.integralblue.sqsjmara;
 
 import java.io.Serializable;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.jms.InvalidDestinationException;
 import javax.jms.JMSException;
-import javax.jms.Message;
-import javax.jms.MessageConsumer;
-import javax.jms.MessageListener;
-import javax.jms.Queue;
-import javax.jms.QueueSession;
 import javax.jms.Session;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -38,19 +36,16 @@ import javax.resource.NotSupportedException;
 import javax.resource.ResourceException;
 import javax.resource.spi.ActivationSpec;
 import javax.resource.spi.BootstrapContext;
+import javax.resource.spi.ConfigProperty;
 import javax.resource.spi.Connector;
 import javax.resource.spi.ResourceAdapter;
 import javax.resource.spi.ResourceAdapterInternalException;
-import javax.resource.spi.endpoint.MessageEndpoint;
 import javax.resource.spi.endpoint.MessageEndpointFactory;
 import javax.transaction.xa.XAResource;
 
-import com.amazon.sqs.javamessaging.ProviderConfiguration;
-import com.amazon.sqs.javamessaging.SQSConnection;
-import com.amazon.sqs.javamessaging.SQSConnectionFactory;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
-import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.util.StringUtils;
 
 /**
  * {@link ResourceAdapter} for SQS.
@@ -61,57 +56,263 @@ import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
 @Connector(
 		displayName = "Amazon SQS JMS Resource Adapter"
 		)
-@SuppressWarnings("serial")
+@SuppressWarnings({"serial", "PMD.TooManyMethods"})
 public class SQSJMSResourceAdapter implements ResourceAdapter, Serializable {
 	private static final Logger LOGGER = Logger.getLogger(SQSJMSResourceAdapter.class.getName());
 
-	private final Map<MessageEndpointFactory, SQSConnection> registeredConnections = new ConcurrentHashMap<>();
+	private static final String QUEUE_NAME_PREFIX_WILDCARD = "*";
 
-	private static final Method ON_MESSAGE_METHOD;
+	private final Map<MessageEndpointFactory, SQSJMSEndpointActivation> registeredActivations = new ConcurrentHashMap<>();
 
-	static {
-			try {
-				ON_MESSAGE_METHOD = MessageListener.class.getMethod("onMessage", Message.class);
-			}
-			catch (final NoSuchMethodException | SecurityException e) {
-				// this should never happen
-				throw new ExceptionInInitializerError(e);
-			}
-	}
+	private final Set<String> administeredQueueNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// compared by identity, as factories that are configured alike are equal
+	private final transient Set<SQSJMSManagedConnectionFactory> managedConnectionFactories = Collections.synchronizedSet(
+			Collections.newSetFromMap(new IdentityHashMap<SQSJMSManagedConnectionFactory, Boolean>()));
+
+	@ConfigProperty(description = "How long in milliseconds the URL a queue name resolves to is remembered.", defaultValue = "300000")
+	private Long queueUrlCacheTtlMillis = 300_000L;
+
+	@ConfigProperty(description = "How long in milliseconds a queue name found not to exist is remembered.", defaultValue = "10000")
+	private Long queueUrlNegativeCacheTtlMillis = 10_000L;
+
+	@ConfigProperty(description = "Fully qualified name of a class implementing com.integralblue.sqsjmara.AmazonSQSClientFactory, with a public no-argument constructor, that builds the SQS clients used by the resource adapter. If not set, clients are built with the AWS SDK's client builders.")
+	private String amazonSQSClientFactory;
+
+	private final transient SQSJMSClientRegistry clientRegistry = new SQSJMSClientRegistry();
+
+	private transient BootstrapContext bootstrapContext;
+
+	private transient Timer timer;
+
+	private transient SQSJMSQueueUrlCache queueUrlCache;
 
 	@Override
 	public void start(final BootstrapContext ctx) throws ResourceAdapterInternalException {
+		this.bootstrapContext = ctx;
+		if (!StringUtils.isNullOrEmpty(amazonSQSClientFactory)) {
+			clientRegistry.setClientFactory(createClientFactory(amazonSQSClientFactory));
+		}
 		LOGGER.info("Amazon SQS Resource Adapter Started...");
 	}
 
 	@Override
+	@SuppressWarnings({"PMD.NullAssignment", "PMD.NcssCount"})
 	public void stop() {
 		LOGGER.info("Amazon SQS Resource Adapter Stopped");
 		// go through all the registered factories and stop
-		for (final SQSConnection value : registeredConnections.values()) {
+		for (final SQSJMSEndpointActivation value : registeredActivations.values()) {
 			try {
-				value.close();
+				stop(value);
 			}
 			catch (JMSException e) {
 				LOGGER.log(Level.SEVERE, "Failed to close connection", e);
 			}
 		}
-		registeredConnections.clear();
+		registeredActivations.clear();
+		stopManagedConnectionFactories();
+		clientRegistry.shutdown();
+		cancelTimer();
+		bootstrapContext = null;
+	}
+
+	private static AmazonSQSClientFactory createClientFactory(final String className) throws ResourceAdapterInternalException {
+		try {
+			return Class.forName(className, true, SQSJMSResourceAdapter.class.getClassLoader())
+					.asSubclass(AmazonSQSClientFactory.class)
+					.newInstance();
+		}
+		catch (final ReflectiveOperationException | ClassCastException e) {
+			throw new ResourceAdapterInternalException("Failed to create the Amazon SQS client factory " + className, e);
+		}
+	}
+
+	private void stopManagedConnectionFactories() {
+		final List<SQSJMSManagedConnectionFactory> stopping;
+		synchronized (managedConnectionFactories) {
+			stopping = new ArrayList<>(managedConnectionFactories);
+			managedConnectionFactories.clear();
+		}
+		for (final SQSJMSManagedConnectionFactory managedConnectionFactory : stopping) {
+			managedConnectionFactory.stop();
+		}
+	}
+
+	@SuppressWarnings("PMD.NullAssignment")
+	private synchronized void cancelTimer() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Clients shared by the activations and managed connection factories of this resource adapter.
+	 *
+	 * @return the client registry
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage"})
+	SQSJMSClientRegistry getClientRegistry() {
+		return clientRegistry;
+	}
+
+	/**
+	 * Queue URL resolutions shared by the managed connection factories of this resource adapter.
+	 *
+	 * @return the queue URL cache
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage"})
+	synchronized SQSJMSQueueUrlCache getQueueUrlCache() {
+		if (queueUrlCache == null) {
+			queueUrlCache = new SQSJMSQueueUrlCache(queueUrlCacheTtlMillis, queueUrlNegativeCacheTtlMillis);
+		}
+		return queueUrlCache;
+	}
+
+	/**
+	 * Remember the name of a queue configured as an administered object, so that it can be resolved before it is first used.
+	 *
+	 * @param queueName name of the queue
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage"})
+	void addAdministeredQueueName(final String queueName) {
+		administeredQueueNames.add(queueName);
+	}
+
+	/**
+	 * Names of the queues configured as administered objects.
+	 *
+	 * @return the queue names
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage"})
+	Set<String> getAdministeredQueueNames() {
+		return Collections.unmodifiableSet(administeredQueueNames);
+	}
+
+	/**
+	 * Remember a managed connection factory that has started using this resource adapter, so that it releases its clients
+	 * and unregisters its MBean when the resource adapter stops.
+	 *
+	 * @param managedConnectionFactory the managed connection factory
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage"})
+	void addManagedConnectionFactory(final SQSJMSManagedConnectionFactory managedConnectionFactory) {
+		managedConnectionFactories.add(managedConnectionFactory);
+	}
+
+	public Long getQueueUrlCacheTtlMillis() {
+		return queueUrlCacheTtlMillis;
+	}
+
+	public void setQueueUrlCacheTtlMillis(final Long queueUrlCacheTtlMillis) {
+		this.queueUrlCacheTtlMillis = queueUrlCacheTtlMillis;
+	}
+
+	public Long getQueueUrlNegativeCacheTtlMillis() {
+		return queueUrlNegativeCacheTtlMillis;
+	}
+
+	public void setQueueUrlNegativeCacheTtlMillis(final Long queueUrlNegativeCacheTtlMillis) {
+		this.queueUrlNegativeCacheTtlMillis = queueUrlNegativeCacheTtlMillis;
+	}
+
+	public String getAmazonSQSClientFactory() {
+		return amazonSQSClientFactory;
+	}
+
+	public void setAmazonSQSClientFactory(final String amazonSQSClientFactory) {
+		this.amazonSQSClientFactory = amazonSQSClientFactory;
+	}
+
+	/**
+	 * Timer shared by the activations of this resource adapter for short periodic tasks.
+	 * Work that calls SQS is scheduled from it with a {@link SQSJMSPeriodicWork} rather than run on it.
+	 *
+	 * @return the timer, from the {@link BootstrapContext} if the resource adapter was started with one
+	 * @throws ResourceException if the container cannot provide a timer
+	 */
+	@SuppressWarnings({"PMD.DefaultPackage"})
+	synchronized Timer getTimer() throws ResourceException {
+		if (timer == null) {
+			timer = bootstrapContext == null ? new Timer("SQS JMS Resource Adapter", true) : bootstrapContext.createTimer();
+		}
+		return timer;
+	}
+
+	private void stop(final SQSJMSEndpointActivation activation) throws JMSException {
+		try {
+			activation.stop();
+		}
+		finally {
+			clientRegistry.release(activation.getAmazonSQSClient());
+		}
+	}
+
+	/**
+	 * The queues an activation consumes from: each comma separated entry of its destination is either a prefix, ending
+	 * in {@code *}, that every queue whose name starts with it matches, or, as for a single destination, a JNDI name or queue name.
+	 *
+	 * @param sqsSpec the activation spec
+	 * @param amazonSQS client to list queues with
+	 * @return the queues
+	 * @throws ResourceException if a JNDI lookup fails or a prefix matches no queue
+	 */
+	@SuppressWarnings("PMD.NcssCount")
+	private List<SQSJMSQueue> getSQSJMSQueues(final SQSJMSActivationSpec sqsSpec, final AmazonSQS amazonSQS) throws ResourceException {
+		final List<SQSJMSQueue> sqsjmsQueues = new ArrayList<>();
+		for (final String entry : sqsSpec.getDestination().split(",")) {
+			final String destination = entry.trim();
+			if (destination.isEmpty()) {
+				continue;
+			}
+			if (destination.endsWith(QUEUE_NAME_PREFIX_WILDCARD)) {
+				sqsjmsQueues.addAll(listSQSJMSQueues(destination.substring(0, destination.length() - 1), amazonSQS));
+			}
+			else {
+				sqsjmsQueues.add(getSQSJMSQueue(destination, sqsSpec.getUseJndi()));
+			}
+		}
+		return sqsjmsQueues;
 	}
 
-	private SQSJMSQueue getSQSJMSQueue(final SQSJMSActivationSpec sqsSpec) throws ResourceException {
+	@SuppressWarnings("PMD.NcssCount")
+	private static List<SQSJMSQueue> listSQSJMSQueues(final String queueNamePrefix, final AmazonSQS amazonSQS) throws ResourceException {
+		final List<String> queueUrls;
+		try {
+			queueUrls = amazonSQS.listQueues(queueNamePrefix).getQueueUrls();
+		}
+		catch (final AmazonClientException e) {
+			throw new ResourceException("Failed to list the queues with names starting with '" + queueNamePrefix + "'", e);
+		}
+		if (queueUrls.isEmpty()) {
+			throw new ResourceException("No queue has a name starting with '" + queueNamePrefix + "'");
+		}
+		// in order of name, as the order of the queues is their priority in the priority polling mode
+		final List<String> queueNames = new ArrayList<>(queueUrls.size());
+		for (final String queueUrl : queueUrls) {
+			queueNames.add(queueUrl.substring(queueUrl.lastIndexOf('/') + 1));
+		}
+		Collections.sort(queueNames);
+		final List<SQSJMSQueue> sqsjmsQueues = new ArrayList<>(queueNames.size());
+		for (final String queueName : queueNames) {
+			sqsjmsQueues.add(new SQSJMSQueue(queueName));
+		}
+		return sqsjmsQueues;
+	}
+
+	private static SQSJMSQueue getSQSJMSQueue(final String destination, final boolean useJndi) throws ResourceException {
 		final SQSJMSQueue sqsjmsQueue;
-		if (sqsSpec.getUseJndi()) {
+		if (useJndi) {
 			try {
-				sqsjmsQueue = (SQSJMSQueue) InitialContext.doLookup(sqsSpec.getDestination());
+				sqsjmsQueue = (SQSJMSQueue) InitialContext.doLookup(destination);
 			}
 			catch (final NamingException e) {
 				throw new ResourceException("JNDI lookup failed for "
-						+ sqsSpec.getDestination(), e);
+						+ destination, e);
 			}
 		}
 		else {
-			sqsjmsQueue = new SQSJMSQueue(sqsSpec.getDestination());
+			sqsjmsQueue = new SQSJMSQueue(destination);
 		}
 		return sqsjmsQueue;
 	}
@@ -127,57 +328,33 @@ public class SQSJMSResourceAdapter implements ResourceAdapter, Serializable {
 
 		final SQSJMSActivationSpec sqsSpec = (SQSJMSActivationSpec) spec;
 
-		final String region = sqsSpec.getAwsRegionProvider().getRegion();
-		if (region == null) {
-			throw new IllegalStateException("No region set. Please set a region or provide one using a method supported by com.amazonaws.regions.DefaultAwsRegionProviderChain");
-		}
-		final SQSConnectionFactory connectionFactory = new SQSConnectionFactory(
-			new ProviderConfiguration(),
-			AmazonSQSClientBuilder.standard()
-			.withRegion(Regions.fromName(region))
-			.withCredentials(sqsSpec)
-			);
+		final Timer activationTimer = getTimer();
+		final AmazonSQS amazonSQS = clientRegistry.acquire(
+				sqsSpec.getAwsRegionProvider().getRegion(),
+				sqsSpec.getAwsAccessKeyId(),
+				sqsSpec.getAwsSecretKey(),
+				sqsSpec,
+				null);
 
+		final SQSJMSEndpointActivation activation = new SQSJMSEndpointActivation(
+				endpointFactory,
+				sqsSpec,
+				amazonSQS,
+				activationTimer,
+				bootstrapContext == null ? null : bootstrapContext.getWorkManager());
+		registeredActivations.put(endpointFactory, activation);
 		try {
-			final SQSJMSQueue sqsjmsQueue = getSQSJMSQueue(sqsSpec);
-
-			final SQSConnection connection = connectionFactory.createConnection();
-			registeredConnections.put(endpointFactory, connection);
-			final QueueSession session = connection.createQueueSession(false, acknowledgeModeStringToInt(sqsSpec.getAcknowledgeMode()));
-
-			final Queue queue;
+			activation.start(getSQSJMSQueues(sqsSpec, amazonSQS));
+		}
+		catch (final ResourceException e) {
+			registeredActivations.remove(endpointFactory);
 			try {
-				queue = session.createQueue(sqsjmsQueue.getQueueName());
+				stop(activation);
 			}
-			catch (final InvalidDestinationException | QueueDoesNotExistException e) {
-				throw new ResourceException("Queue with name '" + sqsjmsQueue.getQueueName() + "' does not exist", e);
+			catch (final JMSException closeException) {
+				LOGGER.log(Level.SEVERE, "Failed to close connection", closeException);
 			}
-
-			final MessageConsumer messageConsumer = session.createConsumer(queue);
-			messageConsumer.setMessageListener(new MessageListener() {
-				@Override
-				public void onMessage(final Message message) {
-					MessageEndpoint messageEndpoint = null;
-					try {
-						messageEndpoint = endpointFactory.createEndpoint(null);
-						messageEndpoint.beforeDelivery(ON_MESSAGE_METHOD);
-						ON_MESSAGE_METHOD.invoke(messageEndpoint, message);
-						messageEndpoint.afterDelivery();
-					}
-					catch (final NoSuchMethodException | ResourceException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-						throw new RuntimeException("Exception delivering message", e); //NOPMD
-					}
-					finally {
-						if (messageEndpoint != null) {
-							messageEndpoint.release();
-						}
-					}
-				}
-			});
-			connection.start();
-		}
-		catch (final JMSException e) {
-			throw new ResourceException(e);
+			throw e;
 		}
 	}
 
@@ -199,9 +376,12 @@ public class SQSJMSResourceAdapter implements ResourceAdapter, Serializable {
 
 	@Override
 	public void endpointDeactivation(final MessageEndpointFactory endpointFactory, final ActivationSpec spec) {
-		final SQSConnection connection = registeredConnections.get(endpointFactory);
+		final SQSJMSEndpointActivation activation = registeredActivations.remove(endpointFactory);
+		if (activation == null) {
+			return;
+		}
 		try {
-			connection.close();
+			stop(activation);
 		}
 		catch (final JMSException e) {
 			throw new RuntimeException(e); //NOPMD
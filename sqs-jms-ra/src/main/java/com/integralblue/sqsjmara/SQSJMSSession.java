@@ -17,6 +17,9 @@
 package com.integralblue.sqsjmara;
 
 import java.io.Serializable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
 
 import javax.jms.BytesMessage;
 import javax.jms.Destination;
@@ -40,21 +43,49 @@ import javax.jms.TextMessage;
 import javax.jms.Topic;
 import javax.jms.TopicSubscriber;
 
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
 import com.amazon.sqs.javamessaging.SQSQueueDestination;
 import com.amazon.sqs.javamessaging.SQSSession;
+import com.amazonaws.services.sqs.AmazonSQS;
 
 /**
  * JCA adapter for {@link SQSSession}.
  *
+ * Messages sent to FIFO queues need a message group id (the {@code JMSXGroupID} property) and, unless the queue has content-based
+ * deduplication, a deduplication id (the {@code JMS_SQS_DeduplicationId} property). A session can supply both for messages that do
+ * not set them: see {@link #setMessageGroupId(String)} and {@link #setGenerateDeduplicationIds(boolean)}.
+ *
  * @author Craig Andrews
  *
  */
 @SuppressWarnings({"PMD.TooManyMethods"})
 public class SQSJMSSession implements Session, QueueSession {
 	private final SQSSession delegate;
-
+	private final SQSJMSConnection connection;
+	private final SQSJMSQueueUrlCache queueUrlCache;
+	private final AmazonSQS amazonSQS;
+	private final ObjectMessageCodec codec;
+	private String messageGroupId;
+	private boolean generateDeduplicationIds;
+	// the values this session set on messages, so that they are replaced (not kept) when a message is sent again
+	private final Map<Message, String> givenMessageGroupIds = new WeakHashMap<>();
+	private final Map<Message, String> givenDeduplicationIds = new WeakHashMap<>();
+
+	@SuppressWarnings("PMD.NullAssignment")
 	public SQSJMSSession(final SQSSession delegate) {
 		this.delegate = delegate;
+		this.connection = null;
+		this.queueUrlCache = null;
+		this.amazonSQS = null;
+		this.codec = null;
+	}
+
+	SQSJMSSession(final SQSSession delegate, final SQSJMSConnection connection) {
+		this.delegate = delegate;
+		this.connection = connection;
+		this.queueUrlCache = connection.getQueueUrlCache();
+		this.amazonSQS = connection.getAmazonSQSClient();
+		this.codec = connection.getCodec();
 	}
 
 	@Override
@@ -74,12 +105,21 @@ public class SQSJMSSession implements Session, QueueSession {
 
 	@Override
 	public ObjectMessage createObjectMessage() throws JMSException {
-		return delegate.createObjectMessage();
+		if (codec == null) {
+			return delegate.createObjectMessage();
+		}
+		delegate.checkClosed();
+		return new SQSJMSEncodedObjectMessage(codec);
 	}
 
 	@Override
 	public ObjectMessage createObjectMessage(final Serializable object) throws JMSException {
-		return delegate.createObjectMessage(object);
+		if (codec == null) {
+			return delegate.createObjectMessage(object);
+		}
+		final ObjectMessage message = createObjectMessage();
+		message.setObject(object);
+		return message;
 	}
 
 	@Override
@@ -120,6 +160,9 @@ public class SQSJMSSession implements Session, QueueSession {
 	@Override
 	public void close() throws JMSException {
 		delegate.close();
+		if (connection != null) {
+			connection.sessionClosed(this);
+		}
 	}
 
 	@Override
@@ -144,23 +187,27 @@ public class SQSJMSSession implements Session, QueueSession {
 
 	@Override
 	public MessageProducer createProducer(final Destination destination) throws JMSException {
-		return delegate.createProducer(toSQSQueueDestination(destination));
+		return new SQSJMSMessageProducer(
+				(QueueSender) delegate.createProducer(destination == null ? null : toSQSQueueDestination(destination)),
+				this);
 	}
 
 	@Override
 	public MessageConsumer createConsumer(final Destination destination) throws JMSException {
-		return delegate.createConsumer(toSQSQueueDestination(destination));
+		return new SQSJMSMessageConsumer((QueueReceiver) delegate.createConsumer(toSQSQueueDestination(destination)), codec);
 	}
 
 	@Override
 	public MessageConsumer createConsumer(final Destination destination, final String messageSelector) throws JMSException {
-		return delegate.createConsumer(toSQSQueueDestination(destination), messageSelector);
+		return new SQSJMSMessageConsumer((QueueReceiver) delegate.createConsumer(toSQSQueueDestination(destination), messageSelector), codec);
 	}
 
 	@Override
 	public MessageConsumer createConsumer(final Destination destination, final String messageSelector, final boolean noLocal)
 			throws JMSException {
-		return delegate.createConsumer(toSQSQueueDestination(destination), messageSelector, noLocal);
+		return new SQSJMSMessageConsumer(
+				(QueueReceiver) delegate.createConsumer(toSQSQueueDestination(destination), messageSelector, noLocal),
+				codec);
 	}
 
 	@Override
@@ -211,24 +258,109 @@ public class SQSJMSSession implements Session, QueueSession {
 
 	@Override
 	public QueueReceiver createReceiver(final Queue queue) throws JMSException {
-		return delegate.createReceiver(toSQSQueueDestination(queue));
+		return new SQSJMSMessageConsumer(delegate.createReceiver(toSQSQueueDestination(queue)), codec);
 	}
 
 	@Override
 	public QueueReceiver createReceiver(final Queue queue, final String messageSelector) throws JMSException {
-		return delegate.createReceiver(toSQSQueueDestination(queue), messageSelector);
+		return new SQSJMSMessageConsumer(delegate.createReceiver(toSQSQueueDestination(queue), messageSelector), codec);
 	}
 
 	@Override
 	public QueueSender createSender(final Queue queue) throws JMSException {
-		return delegate.createSender(toSQSQueueDestination(queue));
+		return new SQSJMSMessageProducer(delegate.createSender(queue == null ? null : toSQSQueueDestination(queue)), this);
+	}
+
+	public String getMessageGroupId() {
+		return messageGroupId;
+	}
+
+	/**
+	 * Set the message group of messages sent to FIFO queues by this session's producers that do not set their own.
+	 *
+	 * @param messageGroupId the message group id, or null to leave messages without one
+	 */
+	public void setMessageGroupId(final String messageGroupId) {
+		this.messageGroupId = messageGroupId;
+	}
+
+	public boolean isGenerateDeduplicationIds() {
+		return generateDeduplicationIds;
 	}
 
-	private SQSQueueDestination toSQSQueueDestination(final Destination queue) throws JMSException {
+	/**
+	 * Give messages sent to FIFO queues by this session's producers that do not set their own deduplication id a random one,
+	 * for queues without content-based deduplication. SQS then discards only retries of the same send, which the AWS SDK makes
+	 * with the same id.
+	 *
+	 * @param generateDeduplicationIds true to generate deduplication ids
+	 */
+	public void setGenerateDeduplicationIds(final boolean generateDeduplicationIds) {
+		this.generateDeduplicationIds = generateDeduplicationIds;
+	}
+
+	/**
+	 * Give a message about to be sent the message group and deduplication ids this session supplies, if it is sent to a FIFO queue.
+	 *
+	 * @param queue queue the message is sent to
+	 * @param message the message
+	 * @throws JMSException if the message's properties cannot be set
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void prepareForSend(final Queue queue, final Message message) throws JMSException {
+		if (!(queue instanceof SQSQueueDestination) || !((SQSQueueDestination) queue).isFifo()) {
+			return;
+		}
+		if (messageGroupId != null) {
+			give(message, SQSMessagingClientConstants.JMSX_GROUP_ID, messageGroupId, givenMessageGroupIds);
+		}
+		if (generateDeduplicationIds) {
+			give(message, SQSMessagingClientConstants.JMS_SQS_DEDUPLICATION_ID, UUID.randomUUID().toString(), givenDeduplicationIds);
+		}
+	}
+
+	private static void give(final Message message, final String property, final String value, final Map<Message, String> given) throws JMSException {
+		final String current = message.getStringProperty(property);
+		if (current == null || current.equals(given.get(message))) {
+			message.setStringProperty(property, value);
+			given.put(message, value);
+		}
+	}
+
+	/**
+	 * Resolve a destination (which must be a {@link SQSJMSQueue}) to the {@link SQSQueueDestination} the SQS JMS library needs,
+	 * using the resource adapter's queue URL cache if there is one.
+	 *
+	 * @param queue destination to resolve
+	 * @return the resolved destination
+	 * @throws JMSException if the destination is of the wrong type or cannot be resolved
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	SQSQueueDestination toSQSQueueDestination(final Destination queue) throws JMSException {
+		if (queue instanceof SQSQueueDestination) {
+			return (SQSQueueDestination) queue;
+		}
 		if (!(queue instanceof SQSJMSQueue)) {
 			throw new JMSException("Actual type of Destination/Queue has to be " + SQSJMSQueue.class.getName());
 		}
-		return (SQSQueueDestination) delegate.createQueue(((SQSJMSQueue) queue).getQueueName());
+		final String queueName = ((SQSJMSQueue) queue).getQueueName();
+		if (queueUrlCache == null) {
+			return (SQSQueueDestination) delegate.createQueue(queueName);
+		}
+		return queueUrlCache.resolve(amazonSQS, delegate, queueName);
+	}
+
+	/**
+	 * Called when SQS reports that a queue does not exist, so that its cached resolution is not used again.
+	 *
+	 * @param queue queue that does not exist
+	 * @throws JMSException if the queue name cannot be determined
+	 */
+	@SuppressWarnings("PMD.DefaultPackage")
+	void queueDoesNotExist(final Queue queue) throws JMSException {
+		if (queueUrlCache != null && queue != null) {
+			queueUrlCache.invalidate(amazonSQS, queue.getQueueName());
+		}
 	}
 
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.Message;
+import javax.resource.spi.work.WorkManager;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazon.sqs.javamessaging.message.SQSMessage;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+
+/**
+ * Keeps messages invisible while the endpoint is still processing them.
+ *
+ * Messages are tracked from the start to the end of their delivery. Every third of the visibility timeout, the visibility timeout
+ * of every tracked message is reset with {@code ChangeMessageVisibilityBatch} calls (one per queue and
+ * {@value SQSMessagingClientConstants#MAX_BATCH} messages), until the message has been tracked for the maximum lease; after that
+ * it is left to become visible again and be redelivered. The heartbeat is a {@link SQSJMSPeriodicWork} of its own, so it is not
+ * held up by acknowledgement batches being sent.
+ * A message is untracked under the same lock the heartbeat holds while it extends, so once {@link #untrack(Message)} returns
+ * no heartbeat extends the message: a failed message returned to the queue straight after is not made invisible again.
+ *
+ * @author Craig Andrews
+ *
+ */
+@SuppressWarnings("PMD.DefaultPackage")
+final class SQSJMSVisibilityExtender {
+	private static final Logger LOGGER = Logger.getLogger(SQSJMSVisibilityExtender.class.getName());
+
+	private final AmazonSQS amazonSQS;
+	private final int visibilityTimeoutSeconds;
+	private final long maxLeaseNanos;
+	private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+	private final SQSJMSPeriodicWork heartbeatWork;
+	private final Object heartbeatLock = new Object();
+
+	@SuppressWarnings("PMD.NcssCount")
+	SQSJMSVisibilityExtender(
+			final AmazonSQS amazonSQS,
+			final Timer timer,
+			final WorkManager workManager,
+			final int visibilityTimeoutSeconds,
+			final long maxLeaseSeconds) {
+		this.amazonSQS = amazonSQS;
+		this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+		this.maxLeaseNanos = TimeUnit.SECONDS.toNanos(maxLeaseSeconds);
+		// a third of the timeout, however short, so that each message is extended well before it becomes visible
+		final long periodMillis = Math.max(1L, TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) / 3);
+		heartbeatWork = new SQSJMSPeriodicWork(
+				"SQS visibility timeout heartbeat",
+				new Runnable() {
+					@Override
+					public void run() {
+						extend();
+					}
+				},
+				timer,
+				workManager,
+				periodMillis);
+	}
+
+	/**
+	 * Start keeping a message invisible.
+	 *
+	 * @param message a message whose delivery is starting
+	 */
+	void track(final Message message) {
+		if (message instanceof SQSMessage) {
+			final SQSMessage sqsMessage = (SQSMessage) message;
+			leases.put(sqsMessage.getReceiptHandle(), new Lease(sqsMessage.getQueueUrl(), System.nanoTime()));
+		}
+	}
+
+	/**
+	 * Stop keeping a message invisible, waiting for a heartbeat that is extending it to finish.
+	 * Called before a failed message is returned to the queue.
+	 *
+	 * @param message a message whose delivery has finished
+	 */
+	void untrack(final Message message) {
+		if (message instanceof SQSMessage) {
+			synchronized (heartbeatLock) {
+				leases.remove(((SQSMessage) message).getReceiptHandle());
+			}
+		}
+	}
+
+	/**
+	 * Stop the heartbeat. Tracked messages keep whatever visibility timeout they were last given.
+	 */
+	void close() {
+		heartbeatWork.cancel();
+		leases.clear();
+	}
+
+	private void extend() {
+		synchronized (heartbeatLock) {
+			extendTracked();
+		}
+	}
+
+	@SuppressWarnings("PMD.NcssCount")
+	private void extendTracked() {
+		final long now = System.nanoTime();
+		final Map<String, List<String>> receiptHandlesByQueueUrl = new HashMap<>();
+		for (final Map.Entry<String, Lease> lease : leases.entrySet()) {
+			if (now - lease.getValue().started >= maxLeaseNanos) {
+				// held as long as allowed; let it be redelivered
+				leases.remove(lease.getKey());
+				continue;
+			}
+			List<String> receiptHandles = receiptHandlesByQueueUrl.get(lease.getValue().queueUrl);
+			if (receiptHandles == null) {
+				receiptHandles = new ArrayList<>();
+				receiptHandlesByQueueUrl.put(lease.getValue().queueUrl, receiptHandles);
+			}
+			receiptHandles.add(lease.getKey());
+		}
+		for (final Map.Entry<String, List<String>> receiptHandles : receiptHandlesByQueueUrl.entrySet()) {
+			final List<String> all = receiptHandles.getValue();
+			for (int start = 0; start < all.size(); start += SQSMessagingClientConstants.MAX_BATCH) {
+				changeMessageVisibilityBatch(receiptHandles.getKey(), all.subList(start, Math.min(start + SQSMessagingClientConstants.MAX_BATCH, all.size())));
+			}
+		}
+	}
+
+	private void changeMessageVisibilityBatch(final String queueUrl, final List<String> receiptHandles) {
+		final List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(receiptHandles.size());
+		for (int i = 0; i < receiptHandles.size(); i++) {
+			entries.add(new ChangeMessageVisibilityBatchRequestEntry(Integer.toString(i), receiptHandles.get(i))
+					.withVisibilityTimeout(visibilityTimeoutSeconds));
+		}
+		try {
+			final ChangeMessageVisibilityBatchResult result = amazonSQS.changeMessageVisibilityBatch(
+					new ChangeMessageVisibilityBatchRequest(queueUrl, entries));
+			for (final BatchResultErrorEntry failed : result.getFailed()) {
+				// usually a message whose delivery finished (and which was deleted) since the heartbeat started
+				LOGGER.fine("Failed to extend the visibility timeout of a message from " + queueUrl + ": " + failed.getMessage());
+			}
+		}
+		catch (final AmazonClientException e) {
+			LOGGER.log(Level.WARNING, "Failed to extend the visibility timeout of " + receiptHandles.size() + " messages from " + queueUrl, e);
+		}
+	}
+
+	/**
+	 * Where a tracked message came from, and when its delivery started.
+	 */
+	private static final class Lease {
+		private final String queueUrl;
+		private final long started;
+
+		Lease(final String queueUrl, final long started) {
+			this.queueUrl = queueUrl;
+			this.started = started;
+		}
+	}
+}
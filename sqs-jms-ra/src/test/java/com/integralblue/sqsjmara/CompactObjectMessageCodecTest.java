@@ -0,0 +1,221 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of encoding objects with compact class descriptors.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class CompactObjectMessageCodecTest {
+	private final CompactObjectMessageCodec codec = new CompactObjectMessageCodec();
+
+	private Serializable roundTrip(final Serializable object) throws IOException, ClassNotFoundException {
+		return codec.decode(codec.encode(object), getClass().getClassLoader());
+	}
+
+	private static byte[] javaSerialize(final Serializable object) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Order order(final int lineItems) {
+		final Order order = new Order("order-1", Status.SHIPPED);
+		for (int i = 0; i < lineItems; i++) {
+			order.lineItems.add(new LineItem("sku-" + i, i + 1));
+		}
+		return order;
+	}
+
+	@Test
+	public void testDomainObjectRoundTrip() throws IOException, ClassNotFoundException {
+		assertThat(roundTrip(order(20)), equalTo((Serializable) order(20)));
+	}
+
+	@Test
+	public void testJdkTypesRoundTrip() throws IOException, ClassNotFoundException {
+		final Map<String, Serializable> map = new HashMap<>();
+		map.put("string", "value");
+		map.put("long", Long.MAX_VALUE);
+		map.put("list", new ArrayList<>(Arrays.asList(1, 2, 3)));
+		map.put("unit", TimeUnit.SECONDS);
+		map.put("null", null);
+		assertThat(roundTrip((Serializable) map), equalTo((Serializable) map));
+		assertArrayEquals(new int[] {1, 2, 3}, (int[]) roundTrip(new int[] {1, 2, 3}));
+		assertThat(roundTrip(int.class), equalTo((Serializable) int.class));
+	}
+
+	@Test
+	public void testCustomSerializationRoundTrip() throws IOException, ClassNotFoundException {
+		final Custom custom = (Custom) roundTrip(new Custom("value"));
+		assertThat(custom.value, equalTo("value"));
+		assertThat(custom.read, equalTo(true));
+	}
+
+	@Test
+	public void testSharedReferencesKept() throws IOException, ClassNotFoundException {
+		final LineItem lineItem = new LineItem("sku", 1);
+		final List<LineItem> decoded = ((Pair) roundTrip(new Pair(lineItem, lineItem))).items();
+		assertTrue(decoded.get(0) == decoded.get(1));
+	}
+
+	@Test
+	public void testNullFields() throws IOException, ClassNotFoundException {
+		final Order order = new Order(null, null);
+		final Order decoded = (Order) roundTrip(order);
+		assertThat(decoded.orderId, nullValue());
+		assertThat(decoded.status, nullValue());
+	}
+
+	@Test
+	public void testSmallerThanJavaSerialization() throws IOException {
+		for (final int lineItems : new int[] {1, 20}) {
+			final Order order = order(lineItems);
+			assertTrue(codec.encode(order).length < javaSerialize(order).length);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testJavaSerializationRejected() throws IOException, ClassNotFoundException {
+		codec.decode(javaSerialize(order(1)), getClass().getClassLoader());
+	}
+
+	/**
+	 * Status of an order.
+	 */
+	enum Status {
+		NEW, SHIPPED
+	}
+
+	/**
+	 * A small domain object.
+	 */
+	static final class Order implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String orderId;
+		private final Status status;
+		private final List<LineItem> lineItems = new ArrayList<>();
+
+		Order(final String orderId, final Status status) {
+			this.orderId = orderId;
+			this.status = status;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Order)) {
+				return false;
+			}
+			final Order other = (Order) obj;
+			return orderId.equals(other.orderId) && status == other.status && lineItems.equals(other.lineItems);
+		}
+
+		@Override
+		public int hashCode() {
+			return orderId.hashCode();
+		}
+	}
+
+	/**
+	 * A line of an {@link Order}.
+	 */
+	static final class LineItem implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String sku;
+		private final int quantity;
+
+		LineItem(final String sku, final int quantity) {
+			this.sku = sku;
+			this.quantity = quantity;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof LineItem && sku.equals(((LineItem) obj).sku) && quantity == ((LineItem) obj).quantity;
+		}
+
+		@Override
+		public int hashCode() {
+			return sku.hashCode();
+		}
+	}
+
+	/**
+	 * Two references to what may be the same object.
+	 */
+	static final class Pair implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final LineItem first;
+		private final LineItem second;
+
+		Pair(final LineItem first, final LineItem second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		List<LineItem> items() {
+			return Arrays.asList(first, second);
+		}
+	}
+
+	/**
+	 * An object with custom serialization.
+	 */
+	static final class Custom implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String value;
+		private transient boolean read;
+
+		Custom(final String value) {
+			this.value = value;
+		}
+
+		private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+			in.defaultReadObject();
+			read = true;
+		}
+	}
+}
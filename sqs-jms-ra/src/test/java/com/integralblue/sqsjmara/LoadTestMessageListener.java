@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import javax.ejb.EJB;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * Message driven bean of the load test.
+ *
+ * It is declared once for each scenario in the ejb-jar.xml built by {@link ResourceAdapterLoadTest}, with that scenario's
+ * activation config properties, rather than with annotations.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class LoadTestMessageListener implements MessageListener {
+	@EJB
+	private LoadTestRecorder loadTestRecorder;
+
+	@Override
+	public void onMessage(final Message message) {
+		try {
+			loadTestRecorder.delivered(
+					message.getStringProperty(ResourceAdapterLoadTest.SCENARIO_PROPERTY),
+					message.getStringProperty(ResourceAdapterLoadTest.ID_PROPERTY),
+					message.getLongProperty(ResourceAdapterLoadTest.SCHEDULED_NANOS_PROPERTY));
+		}
+		catch (final JMSException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
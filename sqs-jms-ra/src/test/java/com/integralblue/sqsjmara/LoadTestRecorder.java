@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+/**
+ * Records the messages delivered to the load test's message driven beans.
+ *
+ * @author Craig Andrews
+ *
+ */
+public interface LoadTestRecorder {
+
+	/**
+	 * Forget everything recorded for a scenario, and start timing it.
+	 *
+	 * @param scenario name of the scenario
+	 */
+	void start(String scenario);
+
+	/**
+	 * Record a delivered message.
+	 *
+	 * @param scenario name of the scenario the message was sent for
+	 * @param id id of the message, unique within the scenario
+	 * @param scheduledNanos {@link System#nanoTime()} at which the message was scheduled to be sent
+	 */
+	void delivered(String scenario, String id, long scheduledNanos);
+
+	/**
+	 * The number of distinct messages delivered for a scenario.
+	 *
+	 * @param scenario name of the scenario
+	 * @return number of messages, not counting redeliveries
+	 */
+	int getDelivered(String scenario);
+
+	/**
+	 * Summarize what has been recorded for a scenario.
+	 *
+	 * @param scenario name of the scenario
+	 * @param sent number of messages sent
+	 * @param sendFailures number of sends that failed
+	 * @return the summary
+	 */
+	LoadTestResult getResult(String scenario, int sent, int sendFailures);
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+/**
+ * Keeps, for each scenario, the ids of the delivered messages (to count redeliveries) and the end-to-end latency of each
+ * message's first delivery.
+ *
+ * @author Craig Andrews
+ *
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class LoadTestRecorderImpl implements LoadTestRecorder {
+	private final ConcurrentMap<String, Recording> recordings = new ConcurrentHashMap<>();
+
+	@Override
+	public void start(final String scenario) {
+		recordings.put(scenario, new Recording());
+	}
+
+	@Override
+	public void delivered(final String scenario, final String id, final long scheduledNanos) {
+		final long now = System.nanoTime();
+		final Recording recording = recordings.get(scenario);
+		if (recording == null) {
+			// left over from an earlier scenario or run
+			return;
+		}
+		if (recording.ids.add(id)) {
+			recording.latenciesNanos.add(now - scheduledNanos);
+			recording.lastDeliveredNanos.set(now);
+		}
+		else {
+			recording.duplicates.incrementAndGet();
+		}
+	}
+
+	@Override
+	public int getDelivered(final String scenario) {
+		final Recording recording = recordings.get(scenario);
+		return recording == null ? 0 : recording.ids.size();
+	}
+
+	@Override
+	public LoadTestResult getResult(final String scenario, final int sent, final int sendFailures) {
+		final Recording recording = recordings.get(scenario);
+		final long[] latencies = new long[recording.latenciesNanos.size()];
+		int i = 0;
+		for (final Long latency : recording.latenciesNanos) {
+			if (i == latencies.length) {
+				break;
+			}
+			latencies[i++] = latency;
+		}
+		Arrays.sort(latencies, 0, i);
+		final double seconds = Math.max(1, recording.lastDeliveredNanos.get() - recording.startNanos) / 1e9;
+		return new LoadTestResult(
+				scenario,
+				sent,
+				sendFailures,
+				i,
+				recording.duplicates.get(),
+				i / seconds,
+				percentileMillis(latencies, i, 0.5),
+				percentileMillis(latencies, i, 0.99),
+				percentileMillis(latencies, i, 0.999));
+	}
+
+	private static double percentileMillis(final long[] sortedLatencies, final int count, final double fraction) {
+		if (count == 0) {
+			return 0;
+		}
+		final int rank = (int) Math.ceil(fraction * count);
+		return sortedLatencies[Math.max(0, rank - 1)] / 1e6;
+	}
+
+	private static final class Recording {
+		private final long startNanos = System.nanoTime();
+		private final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private final ConcurrentLinkedQueue<Long> latenciesNanos = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger duplicates = new AtomicInteger();
+		private final AtomicLong lastDeliveredNanos = new AtomicLong(startNanos);
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Outcome of one load test scenario.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class LoadTestResult {
+	static final String MESSAGES_PER_SECOND = "messagesPerSecond";
+	static final String P50_MILLIS = "p50Millis";
+	static final String P99_MILLIS = "p99Millis";
+	static final String P999_MILLIS = "p999Millis";
+	static final String DUPLICATES = "duplicates";
+
+	private final String scenario;
+	private final int sent;
+	private final int sendFailures;
+	private final int delivered;
+	private final int duplicates;
+	private final double messagesPerSecond;
+	private final double p50Millis;
+	private final double p99Millis;
+	private final double p999Millis;
+
+	public LoadTestResult(
+			final String scenario,
+			final int sent,
+			final int sendFailures,
+			final int delivered,
+			final int duplicates,
+			final double messagesPerSecond,
+			final double p50Millis,
+			final double p99Millis,
+			final double p999Millis) {
+		this.scenario = scenario;
+		this.sent = sent;
+		this.sendFailures = sendFailures;
+		this.delivered = delivered;
+		this.duplicates = duplicates;
+		this.messagesPerSecond = messagesPerSecond;
+		this.p50Millis = p50Millis;
+		this.p99Millis = p99Millis;
+		this.p999Millis = p999Millis;
+	}
+
+	public String getScenario() {
+		return scenario;
+	}
+
+	public int getSent() {
+		return sent;
+	}
+
+	public int getSendFailures() {
+		return sendFailures;
+	}
+
+	/**
+	 * The number of distinct messages delivered.
+	 *
+	 * @return number of messages, not counting redeliveries
+	 */
+	public int getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * The number of deliveries of messages that had already been delivered.
+	 *
+	 * @return number of redeliveries
+	 */
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Sustained throughput: distinct messages delivered per second, from the start of the scenario to the last first delivery.
+	 *
+	 * @return messages per second
+	 */
+	public double getMessagesPerSecond() {
+		return messagesPerSecond;
+	}
+
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public double getP999Millis() {
+		return p999Millis;
+	}
+
+	/**
+	 * Add the measurements of this result to properties, with keys prefixed by the scenario name.
+	 *
+	 * @param properties properties to add to
+	 */
+	public void store(final Properties properties) {
+		properties.setProperty(scenario + "." + MESSAGES_PER_SECOND, format(messagesPerSecond));
+		properties.setProperty(scenario + "." + P50_MILLIS, format(p50Millis));
+		properties.setProperty(scenario + "." + P99_MILLIS, format(p99Millis));
+		properties.setProperty(scenario + "." + P999_MILLIS, format(p999Millis));
+		properties.setProperty(scenario + "." + DUPLICATES, Integer.toString(duplicates));
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "%-30s sent=%d (failed=%d) delivered=%d duplicates=%d %.1f msgs/sec p50=%.2fms p99=%.2fms p999=%.2fms",
+				scenario, sent, sendFailures, delivered, duplicates, messagesPerSecond, p50Millis, p99Millis, p999Millis);
+	}
+
+	private static String format(final double value) {
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.jboss.shrinkwrap.api.spec.EnterpriseArchive;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * End-to-end load test: producers send through the resource adapter's connection factory, at a controlled rate, to message driven
+ * beans activated by the resource adapter, and the sustained throughput, end-to-end latency percentiles and number of
+ * redeliveries are reported for each scenario.
+ *
+ * A scenario is one acknowledge mode with one number of sessions; each has its own queue and message driven bean (declared
+ * in a generated ejb-jar.xml). Latency is measured from the time each message was scheduled to be sent, so producers that fall
+ * behind show up as latency instead of as a lower send rate.
+ *
+ * This test is not part of the normal build: run it with the {@code loadtest} profile, which uses the in-memory SQS of
+ * sqs-jms-ra-testkit. It is configured with the {@code sqsjmara.loadtest.*} system properties read below. The measurements are
+ * written to {@code target/loadtest-results.properties}, and the test fails when throughput falls, or p99 latency rises, by more
+ * than the tolerance, or when there are more redeliveries than in the baseline. It also fails, before running anything, when the
+ * baseline has no values for a scenario, so that a missing baseline cannot pass for one without regressions.
+ * {@code -Dsqsjmara.loadtest.recordBaseline=true} stores the measurements as the new baseline instead.
+ *
+ * @author Craig Andrews
+ *
+ */
+@RunWith(Arquillian.class)
+public class ResourceAdapterLoadTest {
+	static final String SCENARIO_PROPERTY = "loadTestScenario";
+	static final String ID_PROPERTY = "loadTestId";
+	static final String SCHEDULED_NANOS_PROPERTY = "loadTestScheduledNanos";
+
+	private static final Logger LOGGER = Logger.getLogger(ResourceAdapterLoadTest.class.getName());
+
+	private static final String[] ACKNOWLEDGE_MODES = System.getProperty("sqsjmara.loadtest.acknowledgeModes", "Auto-acknowledge,Dups-ok-acknowledge,Client-acknowledge").split(",");
+	private static final String[] SESSIONS = System.getProperty("sqsjmara.loadtest.sessions", "1,4").split(",");
+	private static final int PRODUCERS = Integer.getInteger("sqsjmara.loadtest.producers", 4);
+	private static final int MESSAGES_PER_SECOND = Integer.getInteger("sqsjmara.loadtest.messagesPerSecond", 200);
+	private static final int DURATION_SECONDS = Integer.getInteger("sqsjmara.loadtest.durationSeconds", 10);
+	private static final int DRAIN_SECONDS = Integer.getInteger("sqsjmara.loadtest.drainSeconds", 60);
+	private static final int SETTLE_SECONDS = Integer.getInteger("sqsjmara.loadtest.settleSeconds", 2);
+	private static final String BASELINE = System.getProperty("sqsjmara.loadtest.baseline");
+	private static final double TOLERANCE = Double.parseDouble(System.getProperty("sqsjmara.loadtest.tolerance", "0.2"));
+	private static final boolean RECORD_BASELINE = Boolean.getBoolean("sqsjmara.loadtest.recordBaseline");
+	private static final String RESULTS = System.getProperty("sqsjmara.loadtest.results", "target/loadtest-results.properties");
+
+	@Deployment
+	public static EnterpriseArchive deployEar() throws Exception {
+	    final WebArchive war = ShrinkWrap.create(WebArchive.class, "loadtestweb.war")
+		        .addClasses(
+		        		LoadTestMessageListener.class,
+		        		LoadTestRecorder.class,
+		        		LoadTestRecorderImpl.class,
+		        		LoadTestResult.class,
+		        		ResourceAdapterLoadTest.class
+		        		)
+		        .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
+		        .addAsWebInfResource(new StringAsset(ejbJarXml()), "ejb-jar.xml")
+		        .addAsWebInfResource("glassfish-resources.xml")
+		        .addAsWebInfResource("glassfish-web.xml")
+		        .addAsWebInfResource("resources.xml");
+
+	    return ShrinkWrap.create(EnterpriseArchive.class, "testear.ear")
+	    		.addAsModule(ResourceAdapterTest.createResourceAdapterArchive())
+	    		.addAsModule(war)
+	    		.addAsLibrary(ResourceAdapterTest.createTestkitLibrary());
+	}
+
+	@EJB
+	private LoadTestRecorder loadTestRecorder;
+
+	@Resource(name = "TestConnectionFactory")
+	private ConnectionFactory connectionFactory;
+
+	@Test
+	public void testLoad() throws Exception {
+		final Properties baseline = load(BASELINE);
+		if (!RECORD_BASELINE) {
+			final List<String> missing = missingFromBaseline(baseline);
+			assertTrue("No baseline in " + BASELINE + " for " + missing
+					+ "; record one on this machine with -Dsqsjmara.loadtest.recordBaseline=true", missing.isEmpty());
+		}
+		final Properties results = new Properties();
+		final List<String> failures = new ArrayList<>();
+		for (final String acknowledgeMode : ACKNOWLEDGE_MODES) {
+			for (final String sessions : SESSIONS) {
+				final LoadTestResult result = run(scenario(acknowledgeMode, sessions));
+				LOGGER.info(result.toString());
+				result.store(results);
+				if (result.getDelivered() != result.getSent()) {
+					failures.add(result.getScenario() + ": " + (result.getSent() - result.getDelivered()) + " messages were not delivered");
+				}
+				failures.addAll(compareToBaseline(result, baseline));
+			}
+		}
+		store(results, RESULTS);
+		if (RECORD_BASELINE && BASELINE != null) {
+			store(results, BASELINE);
+			LOGGER.info("Recorded the baseline in " + BASELINE);
+		}
+		else {
+			assertTrue(failures.toString(), failures.isEmpty());
+		}
+	}
+
+	private LoadTestResult run(final String scenario) throws InterruptedException, ExecutionException {
+		loadTestRecorder.start(scenario);
+		final int[] sent = produce(scenario);
+		final long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+		while (loadTestRecorder.getDelivered(scenario) < sent[0] && System.nanoTime() < drainDeadline) {
+			TimeUnit.MILLISECONDS.sleep(100);
+		}
+		// give redeliveries a chance to show up
+		TimeUnit.SECONDS.sleep(SETTLE_SECONDS);
+		return loadTestRecorder.getResult(scenario, sent[0], sent[1]);
+	}
+
+	private int[] produce(final String scenario) throws InterruptedException, ExecutionException {
+		final long intervalNanos = TimeUnit.SECONDS.toNanos(1) * PRODUCERS / MESSAGES_PER_SECOND;
+		final int messagesPerProducer = MESSAGES_PER_SECOND * DURATION_SECONDS / PRODUCERS;
+		final long startNanos = System.nanoTime();
+		final ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+		try {
+			final List<Future<int[]>> futures = new ArrayList<>(PRODUCERS);
+			for (int i = 0; i < PRODUCERS; i++) {
+				// stagger the producers so that together they send at an even rate
+				futures.add(executor.submit(new Producer(scenario, i, messagesPerProducer, startNanos + intervalNanos * i / PRODUCERS, intervalNanos)));
+			}
+			final int[] sent = new int[2];
+			for (final Future<int[]> future : futures) {
+				final int[] producerSent = future.get();
+				sent[0] += producerSent[0];
+				sent[1] += producerSent[1];
+			}
+			return sent;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static List<String> missingFromBaseline(final Properties baseline) {
+		final List<String> missing = new ArrayList<>();
+		for (final String acknowledgeMode : ACKNOWLEDGE_MODES) {
+			for (final String sessions : SESSIONS) {
+				final String prefix = scenario(acknowledgeMode, sessions) + ".";
+				for (final String key : new String[] {LoadTestResult.MESSAGES_PER_SECOND, LoadTestResult.P99_MILLIS, LoadTestResult.DUPLICATES}) {
+					if (baseline.getProperty(prefix + key) == null) {
+						missing.add(prefix + key);
+					}
+				}
+			}
+		}
+		return missing;
+	}
+
+	private static List<String> compareToBaseline(final LoadTestResult result, final Properties baseline) {
+		final List<String> regressions = new ArrayList<>();
+		final String prefix = result.getScenario() + ".";
+		final String messagesPerSecond = baseline.getProperty(prefix + LoadTestResult.MESSAGES_PER_SECOND);
+		if (messagesPerSecond != null && result.getMessagesPerSecond() < Double.parseDouble(messagesPerSecond) * (1 - TOLERANCE)) {
+			regressions.add(result.getScenario() + ": throughput " + result.getMessagesPerSecond() + " msgs/sec is below the baseline of " + messagesPerSecond);
+		}
+		final String p99Millis = baseline.getProperty(prefix + LoadTestResult.P99_MILLIS);
+		if (p99Millis != null && result.getP99Millis() > Double.parseDouble(p99Millis) * (1 + TOLERANCE)) {
+			regressions.add(result.getScenario() + ": p99 latency " + result.getP99Millis() + "ms is above the baseline of " + p99Millis + "ms");
+		}
+		final String duplicates = baseline.getProperty(prefix + LoadTestResult.DUPLICATES);
+		if (duplicates != null && result.getDuplicates() > Integer.parseInt(duplicates)) {
+			regressions.add(result.getScenario() + ": " + result.getDuplicates() + " redeliveries, more than the baseline of " + duplicates);
+		}
+		return regressions;
+	}
+
+	private static Properties load(final String file) throws IOException {
+		final Properties properties = new Properties();
+		if (file != null && new File(file).isFile()) {
+			try (InputStream in = new FileInputStream(file)) {
+				properties.load(in);
+			}
+		}
+		return properties;
+	}
+
+	private static void store(final Properties properties, final String file) throws IOException {
+		final File parent = new File(file).getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create " + parent);
+		}
+		try (OutputStream out = new FileOutputStream(file)) {
+			properties.store(out, "Load test: " + PRODUCERS + " producers sending " + MESSAGES_PER_SECOND + " msgs/sec for " + DURATION_SECONDS + " seconds");
+		}
+	}
+
+	private static String scenario(final String acknowledgeMode, final String sessions) {
+		return acknowledgeMode.trim().toLowerCase(Locale.ROOT) + "-" + sessions.trim();
+	}
+
+	private static String queueName(final String scenario) {
+		return "sqs-jms-ra-loadtest-" + scenario;
+	}
+
+	private static String ejbJarXml() {
+		final StringBuilder xml = new StringBuilder(1024)
+				.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+				.append("<ejb-jar xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\" version=\"3.2\">\n")
+				.append("\t<enterprise-beans>\n");
+		for (final String acknowledgeMode : ACKNOWLEDGE_MODES) {
+			for (final String sessions : SESSIONS) {
+				final String scenario = scenario(acknowledgeMode, sessions);
+				xml.append("\t\t<message-driven>\n")
+					.append("\t\t\t<ejb-name>LoadTest-").append(scenario).append("</ejb-name>\n")
+					.append("\t\t\t<ejb-class>").append(LoadTestMessageListener.class.getName()).append("</ejb-class>\n")
+					.append("\t\t\t<messaging-type>javax.jms.MessageListener</messaging-type>\n")
+					.append("\t\t\t<activation-config>\n");
+				appendActivationConfigProperty(xml, "acknowledgeMode", acknowledgeMode.trim());
+				appendActivationConfigProperty(xml, "useJndi", "false");
+				appendActivationConfigProperty(xml, "destination", queueName(scenario));
+				appendActivationConfigProperty(xml, "minSessions", sessions.trim());
+				appendActivationConfigProperty(xml, "maxSessions", sessions.trim());
+				xml.append("\t\t\t</activation-config>\n")
+					.append("\t\t</message-driven>\n");
+			}
+		}
+		return xml.append("\t</enterprise-beans>\n")
+				.append("</ejb-jar>\n")
+				.toString();
+	}
+
+	private static void appendActivationConfigProperty(final StringBuilder xml, final String name, final String value) {
+		xml.append("\t\t\t\t<activation-config-property>\n")
+			.append("\t\t\t\t\t<activation-config-property-name>").append(name).append("</activation-config-property-name>\n")
+			.append("\t\t\t\t\t<activation-config-property-value>").append(value).append("</activation-config-property-value>\n")
+			.append("\t\t\t\t</activation-config-property>\n");
+	}
+
+	/**
+	 * Sends messages on a fixed schedule, without waiting for a late send before scheduling the next one.
+	 */
+	private final class Producer implements Callable<int[]> {
+		private final String scenario;
+		private final int producer;
+		private final int messages;
+		private final long firstNanos;
+		private final long intervalNanos;
+
+		Producer(final String scenario, final int producer, final int messages, final long firstNanos, final long intervalNanos) {
+			this.scenario = scenario;
+			this.producer = producer;
+			this.messages = messages;
+			this.firstNanos = firstNanos;
+			this.intervalNanos = intervalNanos;
+		}
+
+		@Override
+		public int[] call() throws JMSException, InterruptedException {
+			int sent = 0;
+			int failed = 0;
+			final Connection connection = connectionFactory.createConnection();
+			try {
+				final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+				final MessageProducer messageProducer = session.createProducer(session.createQueue(queueName(scenario)));
+				for (int i = 0; i < messages; i++) {
+					final long scheduledNanos = firstNanos + intervalNanos * i;
+					final long delayNanos = scheduledNanos - System.nanoTime();
+					if (delayNanos > 0) {
+						TimeUnit.NANOSECONDS.sleep(delayNanos);
+					}
+					final TextMessage message = session.createTextMessage("Load test message " + i + " of producer " + producer);
+					message.setStringProperty(SCENARIO_PROPERTY, scenario);
+					message.setStringProperty(ID_PROPERTY, producer + "-" + i);
+					message.setLongProperty(SCHEDULED_NANOS_PROPERTY, scheduledNanos);
+					try {
+						messageProducer.send(message);
+						sent++;
+					}
+					catch (final JMSException e) {
+						failed++;
+					}
+				}
+				session.close();
+			}
+			finally {
+				connection.close();
+			}
+			return new int[] {sent, failed};
+		}
+	}
+}
@@ -20,6 +20,8 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertThat;
 
+import java.io.File;
+import java.net.URISyntaxException;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -37,6 +39,8 @@ import javax.jms.TextMessage;
 
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.ArchivePath;
+import org.jboss.shrinkwrap.api.Filter;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
 import org.jboss.shrinkwrap.api.spec.EnterpriseArchive;
@@ -47,6 +51,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+
 /**
  * Test that the Resource Adapter loads.
  * 
@@ -70,22 +76,6 @@ public class ResourceAdapterTest {
 
 	@Deployment
 	public static EnterpriseArchive deployEar() throws Exception {
-	    final JavaArchive rarlib = ShrinkWrap.create(JavaArchive.class, "rarlib.jar")
-		        .addClasses(
-		        		SQSJMSActivationSpec.class,
-		        		SQSJMSConnection.class,
-		        		SQSJMSConnectionFactory.class,
-		        		SQSJMSManagedConnection.class,
-		        		SQSJMSManagedConnectionFactory.class,
-		        		SQSJMSManagedConnectionMetaData.class,
-		        		SQSJMSQueue.class,
-		        		SQSJMSResourceAdapter.class,
-		        		SQSJMSSession.class
-		        		);
-
-	    final ResourceAdapterArchive rar = ShrinkWrap.create(ResourceAdapterArchive.class, "testra.rar")
-	        .addAsLibrary(rarlib);
-	    
 	    final WebArchive war = ShrinkWrap.create(WebArchive.class, "testweb.war")
 		        .addClasses(
 		        		ResourceAdapterTest.class,
@@ -99,12 +89,45 @@ public class ResourceAdapterTest {
 		        .addAsWebInfResource("resources.xml");
 
 	    final EnterpriseArchive ear = ShrinkWrap.create(EnterpriseArchive.class, "testear.ear")
-    		.addAsModule(rar)
-	    	.addAsModule(war);
+    		.addAsModule(createResourceAdapterArchive())
+	    	.addAsModule(war)
+	    	.addAsLibrary(createTestkitLibrary());
 
        return ear;
 	}
 	
+	/**
+	 * The resource adapter under test: the main classes of its package (the test classes, which share the package, are left out)
+	 * and the client factory the tests configure it with.
+	 *
+	 * @return the resource adapter archive
+	 * @throws URISyntaxException if the location of the test classes cannot be found
+	 */
+	static ResourceAdapterArchive createResourceAdapterArchive() throws URISyntaxException {
+	    final File testClasses = new File(ResourceAdapterTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+	    final JavaArchive rarlib = ShrinkWrap.create(JavaArchive.class, "rarlib.jar")
+		        .addPackages(false, new Filter<ArchivePath>() {
+		        	@Override
+		        	public boolean include(final ArchivePath path) {
+		        		return !new File(testClasses, path.get()).exists();
+		        	}
+		        }, SQSJMSResourceAdapter.class.getPackage())
+		        .addClass(TestAmazonSQSClientFactory.class);
+
+	    return ShrinkWrap.create(ResourceAdapterArchive.class, "testra.rar")
+	        .addAsLibrary(rarlib);
+	}
+
+	/**
+	 * The in-memory SQS of the testkit, deployed as a library of the enterprise archive rather than inside the resource adapter.
+	 *
+	 * @return the testkit library
+	 */
+	static JavaArchive createTestkitLibrary() {
+	    return ShrinkWrap.create(JavaArchive.class, "testkit.jar")
+	        .addPackage(InMemoryAmazonSQS.class.getPackage());
+	}
+
 	@EJB
 	private TestMessageBlockingQueue testMessageBlockingQueue;
 	
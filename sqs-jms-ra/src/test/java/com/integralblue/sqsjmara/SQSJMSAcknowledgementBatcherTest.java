@@ -0,0 +1,280 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.spi.work.ExecutionContext;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageResult;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of coalescing acknowledgements into batch deletes.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSAcknowledgementBatcherTest {
+	private static final long LONG_WINDOW_MILLIS = 600_000L;
+	private static final long SHORT_WINDOW_MILLIS = 20L;
+	private static final long WAIT_MILLIS = 10_000L;
+	private static final long FIFO_WINDOW_MILLIS = 200L;
+
+	private final AtomicInteger batches = new AtomicInteger();
+	private final AtomicInteger batchesToFail = new AtomicInteger();
+	private final AtomicInteger entriesToFail = new AtomicInteger();
+	private InMemoryAmazonSQS amazonSQS;
+	private String queueUrl;
+	private String fifoQueueUrl;
+	private Timer timer;
+	private TestWorkManager workManager;
+
+	@Before
+	public void before() {
+		amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true)) {
+			@Override
+			public DeleteMessageBatchResult deleteMessageBatch(final DeleteMessageBatchRequest request) {
+				batches.incrementAndGet();
+				if (batchesToFail.getAndDecrement() > 0) {
+					throw new AmazonServiceException("failing batch");
+				}
+				// report the first entries as failed without deleting them
+				final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(request.getEntries());
+				final List<BatchResultErrorEntry> failed = new ArrayList<>();
+				while (!entries.isEmpty() && entriesToFail.getAndDecrement() > 0) {
+					failed.add(new BatchResultErrorEntry().withId(entries.remove(0).getId()).withCode("InternalError"));
+				}
+				return super.deleteMessageBatch(request.clone().withEntries(entries)).withFailed(failed);
+			}
+		};
+		queueUrl = amazonSQS.getQueueUrl("acknowledgement-batcher-test").getQueueUrl();
+		fifoQueueUrl = amazonSQS.getQueueUrl("acknowledgement-batcher-test.fifo").getQueueUrl();
+		timer = new Timer("SQSJMSAcknowledgementBatcherTest", true);
+		workManager = new TestWorkManager();
+	}
+
+	@After
+	public void after() throws InterruptedException {
+		timer.cancel();
+		workManager.shutdown();
+	}
+
+	private List<Message> receive(final int count) {
+		final List<Message> messages = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			amazonSQS.sendMessage(queueUrl, "message " + i);
+		}
+		while (messages.size() < count) {
+			messages.addAll(amazonSQS.receiveMessage(new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(10)).getMessages());
+		}
+		return messages;
+	}
+
+	private void acknowledge(final SQSJMSAcknowledgementBatcher batcher, final List<Message> messages) {
+		for (final Message message : messages) {
+			batcher.add(new DeleteMessageRequest(queueUrl, message.getReceiptHandle()));
+		}
+	}
+
+	private int countInFlight() {
+		return Integer.parseInt(amazonSQS.getQueueAttributes(
+				new GetQueueAttributesRequest(queueUrl).withAttributeNames(QueueAttributeName.ApproximateNumberOfMessagesNotVisible))
+			.getAttributes().get(QueueAttributeName.ApproximateNumberOfMessagesNotVisible.toString()));
+	}
+
+	private void awaitNoneInFlight() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		while (countInFlight() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(countInFlight(), equalTo(0));
+	}
+
+	@Test
+	public void testFullBatchSentAtOnceAndRestOnClose() {
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(amazonSQS, timer, workManager, LONG_WINDOW_MILLIS);
+		acknowledge(batcher, receive(13));
+		assertThat(batches.get(), equalTo(1));
+		assertThat(countInFlight(), equalTo(3));
+		batcher.close();
+		assertThat(batches.get(), equalTo(2));
+		assertThat(countInFlight(), equalTo(0));
+	}
+
+	@Test
+	public void testFlushedWhenWindowElapses() throws InterruptedException {
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(amazonSQS, timer, workManager, SHORT_WINDOW_MILLIS);
+		acknowledge(batcher, receive(3));
+		awaitNoneInFlight();
+		assertThat(batches.get(), equalTo(1));
+		batcher.close();
+	}
+
+	@Test
+	public void testFailedEntriesRetriedOneAtATime() {
+		entriesToFail.set(2);
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(amazonSQS, timer, workManager, LONG_WINDOW_MILLIS);
+		acknowledge(batcher, receive(5));
+		batcher.close();
+		assertThat(batches.get(), equalTo(1));
+		assertThat(countInFlight(), equalTo(0));
+	}
+
+	@Test
+	public void testFailedBatchRetriedOneAtATime() {
+		batchesToFail.set(1);
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(amazonSQS, timer, workManager, LONG_WINDOW_MILLIS);
+		acknowledge(batcher, receive(5));
+		batcher.close();
+		assertThat(countInFlight(), equalTo(0));
+	}
+
+	@Test
+	public void testFlushFailureDoesNotStopLaterFlushes() throws InterruptedException {
+		final CountDownLatch failed = new CountDownLatch(1);
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(new InMemoryAmazonSQS() {
+			@Override
+			public DeleteMessageBatchResult deleteMessageBatch(final DeleteMessageBatchRequest request) {
+				if (failed.getCount() > 0) {
+					failed.countDown();
+					throw new IllegalStateException("not a client exception");
+				}
+				return amazonSQS.deleteMessageBatch(request);
+			}
+		}, timer, workManager, SHORT_WINDOW_MILLIS);
+		// the first flush fails, and those messages will be redelivered
+		acknowledge(batcher, receive(2));
+		assertTrue(failed.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+		acknowledge(batcher, receive(2));
+		final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		while (countInFlight() > 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(countInFlight(), equalTo(2));
+		batcher.close();
+	}
+
+	private Message receiveFifo() {
+		amazonSQS.sendMessage(fifoQueueUrl, "fifo message");
+		List<Message> messages = amazonSQS.receiveMessage(fifoQueueUrl).getMessages();
+		while (messages.isEmpty()) {
+			messages = amazonSQS.receiveMessage(fifoQueueUrl).getMessages();
+		}
+		return messages.get(0);
+	}
+
+	private boolean isDeleted(final Message message) {
+		try {
+			amazonSQS.changeMessageVisibility(fifoQueueUrl, message.getReceiptHandle(), 0);
+			return false;
+		}
+		catch (final AmazonServiceException e) {
+			return true;
+		}
+	}
+
+	@Test
+	public void testFifoDeleteWaitsForBatch() {
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(amazonSQS, timer, workManager, FIFO_WINDOW_MILLIS);
+		final Message message = receiveFifo();
+		final long start = System.nanoTime();
+		batcher.add(new DeleteMessageRequest(fifoQueueUrl, message.getReceiptHandle()));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= FIFO_WINDOW_MILLIS / 2);
+		assertThat(batches.get(), equalTo(1));
+		assertTrue(isDeleted(message));
+		batcher.close();
+	}
+
+	@Test
+	public void testFifoDeleteSendsBatchWhenFlushCannotRun() {
+		// a work manager that accepts the flush but never runs it, as when all of its threads are waiting for deletes
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(amazonSQS, timer, new TestWorkManager() {
+			@Override
+			public void scheduleWork(final Work work, final long startTimeout, final ExecutionContext execContext, final WorkListener workListener) {
+				// never run
+			}
+		}, FIFO_WINDOW_MILLIS);
+		final Message message = receiveFifo();
+		batcher.add(new DeleteMessageRequest(fifoQueueUrl, message.getReceiptHandle()));
+		assertTrue(isDeleted(message));
+		batcher.close();
+	}
+
+	@Test
+	public void testFifoDeleteFailureThrown() {
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(new InMemoryAmazonSQS() {
+			@Override
+			public DeleteMessageBatchResult deleteMessageBatch(final DeleteMessageBatchRequest request) {
+				throw new AmazonServiceException("failing batch");
+			}
+
+			@Override
+			public DeleteMessageResult deleteMessage(final DeleteMessageRequest request) {
+				throw new AmazonServiceException("failing delete");
+			}
+		}, timer, workManager, FIFO_WINDOW_MILLIS);
+		final Message message = receiveFifo();
+		try {
+			batcher.add(new DeleteMessageRequest(fifoQueueUrl, message.getReceiptHandle()));
+			fail("the failed delete should be reported");
+		}
+		catch (final AmazonClientException e) {
+			assertThat(e.getMessage().startsWith("failing delete"), equalTo(true));
+		}
+		assertThat(isDeleted(message), equalTo(false));
+		batcher.close();
+	}
+
+	@Test
+	public void testStandardDeleteDoesNotWait() {
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(amazonSQS, timer, workManager, LONG_WINDOW_MILLIS);
+		acknowledge(batcher, receive(1));
+		assertThat(batches.get(), equalTo(0));
+		batcher.close();
+		assertThat(countInFlight(), equalTo(0));
+	}
+}
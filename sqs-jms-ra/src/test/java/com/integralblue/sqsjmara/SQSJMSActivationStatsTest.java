@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Timer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of the statistics recorded for an activation.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSActivationStatsTest {
+	private static final long LATENCY_MILLIS = 50;
+
+	private InMemoryAmazonSQS amazonSQS;
+	private String queueUrl;
+	private SQSJMSActivationStats stats;
+	private Timer timer;
+
+	@Before
+	public void before() {
+		amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true));
+		queueUrl = amazonSQS.getQueueUrl("activation-stats-test").getQueueUrl();
+		stats = new SQSJMSActivationStats("activation-stats-test");
+		timer = new Timer("SQSJMSActivationStatsTest", true);
+	}
+
+	@After
+	public void after() {
+		timer.cancel();
+	}
+
+	@Test
+	public void testReceivesAndRequestsCounted() {
+		final AmazonSQS instrumented = new SQSJMSClientDecorator(amazonSQS).withActivationStats(stats);
+		amazonSQS.sendMessage(queueUrl, "one");
+		amazonSQS.sendMessage(queueUrl, "two");
+		final List<Message> messages = instrumented.receiveMessage(new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(10)).getMessages();
+		instrumented.receiveMessage(new ReceiveMessageRequest(queueUrl));
+		for (final Message message : messages) {
+			instrumented.deleteMessage(new DeleteMessageRequest(queueUrl, message.getReceiptHandle()));
+		}
+		assertThat(stats.getMessagesReceived(), equalTo(2L));
+		assertThat(stats.getEmptyReceives(), equalTo(1L));
+		assertThat(stats.getRequests(), equalTo(4L));
+	}
+
+	@Test
+	public void testBatchedAcknowledgementsTimedBySentDeletes() {
+		final InMemoryAmazonSQS slowAmazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withLatencyMillis(LATENCY_MILLIS));
+		final String slowQueueUrl = slowAmazonSQS.createQueue("activation-stats-test").getQueueUrl();
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(
+				new SQSJMSClientDecorator(slowAmazonSQS).withActivationStats(stats), timer, null, Long.MAX_VALUE / 2);
+		final AmazonSQS batching = new SQSJMSClientDecorator(slowAmazonSQS).withActivationStats(stats).withAcknowledgementBatcher(batcher);
+		slowAmazonSQS.sendMessage(slowQueueUrl, "one");
+		slowAmazonSQS.sendMessage(slowQueueUrl, "two");
+		for (final Message message : slowAmazonSQS.receiveMessage(
+				new ReceiveMessageRequest(slowQueueUrl).withMaxNumberOfMessages(10)).getMessages()) {
+			batching.deleteMessage(new DeleteMessageRequest(slowQueueUrl, message.getReceiptHandle()));
+		}
+		// queued, not yet sent
+		assertThat(stats.getAcknowledgeLatencyMaxMillis(), equalTo(0.0));
+		batcher.close();
+		assertTrue(stats.getAcknowledgeLatencyMaxMillis() >= LATENCY_MILLIS);
+		assertThat(stats.getRequests(), equalTo(1L));
+	}
+}
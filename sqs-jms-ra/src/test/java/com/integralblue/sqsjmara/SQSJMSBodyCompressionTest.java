@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazon.sqs.javamessaging.message.SQSMessage;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.util.Base64;
+import com.amazonaws.util.StringUtils;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+
+/**
+ * Tests of compressing sent bodies and decompressing received ones.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSBodyCompressionTest {
+	private static final int THRESHOLD_BYTES = 100;
+	private static final String MULTIBYTE_TEXT = "\u00e9t\u00e9 \u20ac \ud83d\ude00 ";
+
+	private InMemoryAmazonSQS amazonSQS;
+	private String queueUrl;
+
+	@Before
+	public void before() {
+		amazonSQS = new InMemoryAmazonSQS();
+		queueUrl = amazonSQS.createQueue("body-compression-test").getQueueUrl();
+	}
+
+	private static String repeat(final String text, final int times) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			builder.append(text);
+		}
+		return builder.toString();
+	}
+
+	private static MessageAttributeValue stringAttribute(final String value) {
+		return new MessageAttributeValue().withDataType(SQSMessagingClientConstants.STRING).withStringValue(value);
+	}
+
+	private Message receiveRaw() {
+		return amazonSQS.receiveMessage(new ReceiveMessageRequest(queueUrl).withMessageAttributeNames("All")).getMessages().get(0);
+	}
+
+	private static boolean isCompressed(final Message message) {
+		return message.getMessageAttributes().containsKey(SQSJMSBodyCompression.CONTENT_ENCODING_ATTRIBUTE);
+	}
+
+	@Test
+	public void testTextRoundTrip() throws DataFormatException {
+		final String body = repeat(MULTIBYTE_TEXT, 50);
+		final String compressed = SQSJMSBodyCompression.compress(body, SQSMessage.TEXT_MESSAGE_TYPE);
+		assertTrue(compressed.length() < body.getBytes(StringUtils.UTF8).length);
+		assertThat(SQSJMSBodyCompression.decompress(compressed, SQSMessage.TEXT_MESSAGE_TYPE), equalTo(body));
+	}
+
+	@Test
+	public void testBytesRoundTrip() throws DataFormatException {
+		final String body = Base64.encodeAsString(new byte[1000]);
+		final String compressed = SQSJMSBodyCompression.compress(body, SQSMessage.BYTE_MESSAGE_TYPE);
+		assertTrue(compressed.length() < body.length());
+		assertThat(SQSJMSBodyCompression.decompress(compressed, SQSMessage.BYTE_MESSAGE_TYPE), equalTo(body));
+	}
+
+	@Test
+	public void testOversizedBodyDeliveredStillMarked() {
+		// a small body of zeros that decompresses to more than the limit
+		final String body = SQSJMSBodyCompression.compress(
+				Base64.encodeAsString(new byte[SQSJMSBodyCompression.MAX_DECOMPRESSED_BYTES + 1]), SQSMessage.BYTE_MESSAGE_TYPE);
+		assertTrue(body.length() < SQSJMSBodyCompression.MAX_DECOMPRESSED_BYTES / 100);
+		final Message message = new Message().withMessageId("oversized").withBody(body)
+			.addMessageAttributesEntry(SQSJMSBodyCompression.CONTENT_ENCODING_ATTRIBUTE, stringAttribute(SQSJMSBodyCompression.DEFLATE))
+			.addMessageAttributesEntry(SQSMessage.JMS_SQS_MESSAGE_TYPE, stringAttribute(SQSMessage.BYTE_MESSAGE_TYPE));
+		SQSJMSBodyCompression.decompress(message);
+		assertThat(message.getBody(), equalTo(body));
+		assertTrue(isCompressed(message));
+	}
+
+	@Test
+	public void testIncompressibleBodyNotCompressed() {
+		final byte[] bytes = new byte[1000];
+		new Random(0).nextBytes(bytes);
+		assertThat(SQSJMSBodyCompression.compress(Base64.encodeAsString(bytes), SQSMessage.BYTE_MESSAGE_TYPE), nullValue());
+	}
+
+	@Test
+	public void testUtf8Length() {
+		for (final String body : new String[] {"", "ascii", MULTIBYTE_TEXT, repeat(MULTIBYTE_TEXT, 3)}) {
+			assertThat(SQSJMSBodyCompression.utf8Length(body), equalTo(body.getBytes(StringUtils.UTF8).length));
+		}
+	}
+
+	@Test
+	public void testSentAndReceivedThroughWrappedClient() {
+		final AmazonSQS wrapped = new SQSJMSClientDecorator(amazonSQS).withCompression(THRESHOLD_BYTES, true);
+		final String body = repeat("compressible ", 20);
+		wrapped.sendMessage(new SendMessageRequest(queueUrl, body)
+				.addMessageAttributesEntry(SQSMessage.JMS_SQS_MESSAGE_TYPE, stringAttribute(SQSMessage.TEXT_MESSAGE_TYPE)));
+		final Message raw = receiveRaw();
+		assertTrue(isCompressed(raw));
+		assertThat(raw.getBody(), not(equalTo(body)));
+		amazonSQS.changeMessageVisibility(queueUrl, raw.getReceiptHandle(), 0);
+
+		final Message received = wrapped.receiveMessage(new ReceiveMessageRequest(queueUrl).withMessageAttributeNames("All")).getMessages().get(0);
+		assertThat(received.getBody(), equalTo(body));
+		assertThat(isCompressed(received), equalTo(false));
+	}
+
+	@Test
+	public void testThresholdCountsUtf8Bytes() {
+		final AmazonSQS wrapped = new SQSJMSClientDecorator(amazonSQS).withCompression(THRESHOLD_BYTES, false);
+		// fewer characters than the threshold, but more bytes
+		final String body = repeat("\u20ac", THRESHOLD_BYTES / 2);
+		wrapped.sendMessage(new SendMessageRequest(queueUrl, body)
+				.addMessageAttributesEntry(SQSMessage.JMS_SQS_MESSAGE_TYPE, stringAttribute(SQSMessage.TEXT_MESSAGE_TYPE)));
+		assertTrue(isCompressed(receiveRaw()));
+	}
+
+	@Test
+	public void testBodyBelowThresholdNotCompressed() {
+		final AmazonSQS wrapped = new SQSJMSClientDecorator(amazonSQS).withCompression(THRESHOLD_BYTES, false);
+		final String body = repeat("a", THRESHOLD_BYTES - 1);
+		wrapped.sendMessageBatch(new SendMessageBatchRequest(queueUrl).withEntries(new SendMessageBatchRequestEntry("1", body)));
+		final Message raw = receiveRaw();
+		assertThat(isCompressed(raw), equalTo(false));
+		assertThat(raw.getBody(), equalTo(body));
+	}
+
+	@Test
+	public void testBatchEntriesCompressed() {
+		final AmazonSQS wrapped = new SQSJMSClientDecorator(amazonSQS).withCompression(THRESHOLD_BYTES, true);
+		final String body = repeat("a", THRESHOLD_BYTES * 10);
+		wrapped.sendMessageBatch(new SendMessageBatchRequest(queueUrl).withEntries(new SendMessageBatchRequestEntry("1", body)));
+		final Message raw = receiveRaw();
+		assertTrue(isCompressed(raw));
+		assertTrue(raw.getBody().length() < body.length());
+	}
+}
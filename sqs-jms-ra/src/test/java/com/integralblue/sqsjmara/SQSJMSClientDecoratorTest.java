@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Timer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+
+/**
+ * Tests of applying tuning, compression, batching and statistics together with one client.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSClientDecoratorTest {
+	private static final int THRESHOLD_BYTES = 100;
+
+	private InMemoryAmazonSQS amazonSQS;
+	private String queueUrl;
+	private Timer timer;
+
+	@Before
+	public void before() {
+		amazonSQS = new InMemoryAmazonSQS();
+		queueUrl = amazonSQS.createQueue("client-decorator-test").getQueueUrl();
+		timer = new Timer("SQSJMSClientDecoratorTest", true);
+	}
+
+	@After
+	public void after() {
+		timer.cancel();
+	}
+
+	private static String repeat(final String text, final int times) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			builder.append(text);
+		}
+		return builder.toString();
+	}
+
+	@Test
+	public void testCompressedSendsRecorded() {
+		final SQSJMSConnectionFactoryStats stats = new SQSJMSConnectionFactoryStats();
+		final SQSJMSClientDecorator client = new SQSJMSClientDecorator(amazonSQS)
+			.withConnectionFactoryStats(stats)
+			.withCompression(THRESHOLD_BYTES, true);
+		final String body = repeat("compressible ", 20);
+		client.sendMessage(new SendMessageRequest(queueUrl, body));
+		client.sendMessageBatch(new SendMessageBatchRequest(queueUrl).withEntries(
+				new SendMessageBatchRequestEntry("1", body), new SendMessageBatchRequestEntry("2", "small")));
+		assertThat(stats.getMessagesSent(), equalTo(3L));
+		assertThat(stats.getSendFailures(), equalTo(0L));
+		final List<Message> messages = client.receiveMessage(
+				new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(10).withMessageAttributeNames("All")).getMessages();
+		assertThat(messages.size(), equalTo(3));
+		int decompressed = 0;
+		for (final Message message : messages) {
+			assertTrue(body.equals(message.getBody()) || "small".equals(message.getBody()));
+			if (body.equals(message.getBody())) {
+				decompressed++;
+			}
+		}
+		assertThat(decompressed, equalTo(2));
+	}
+
+	@Test
+	public void testQueuedDeletesCountedWhenSent() {
+		final SQSJMSActivationStats stats = new SQSJMSActivationStats("client-decorator-test");
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(
+				new SQSJMSClientDecorator(amazonSQS).withActivationStats(stats), timer, null, Long.MAX_VALUE / 2);
+		final SQSJMSClientDecorator client = new SQSJMSClientDecorator(amazonSQS)
+			.withActivationStats(stats)
+			.withAcknowledgementBatcher(batcher)
+			.withReceiveTuning(0, null, null);
+		amazonSQS.sendMessage(queueUrl, "one");
+		amazonSQS.sendMessage(queueUrl, "two");
+		final List<Message> messages = client.receiveMessage(new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(10)).getMessages();
+		assertThat(messages.size(), equalTo(2));
+		for (final Message message : messages) {
+			client.deleteMessage(new DeleteMessageRequest(queueUrl, message.getReceiptHandle()));
+		}
+		assertThat(stats.getMessagesReceived(), equalTo(2L));
+		assertThat(stats.getRequests(), equalTo(1L));
+		batcher.close();
+		assertThat(stats.getRequests(), equalTo(2L));
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.buffered.AmazonSQSBufferedAsyncClient;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of sharing reference counted clients.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSClientRegistryTest {
+	private static final AWSCredentialsProvider CREDENTIALS = DefaultAWSCredentialsProviderChain.getInstance();
+
+	private TestInMemoryClientFactory clientFactory;
+	private SQSJMSClientRegistry clientRegistry;
+
+	@Before
+	public void before() {
+		clientFactory = new TestInMemoryClientFactory(new InMemoryAmazonSQS());
+		clientRegistry = new SQSJMSClientRegistry();
+		clientRegistry.setClientFactory(clientFactory);
+	}
+
+	@Test
+	public void testSameRegionAndCredentialsShareClient() {
+		final AmazonSQS first = clientRegistry.acquire(TestResourceAdapters.REGION, null, null, CREDENTIALS, null);
+		final AmazonSQS second = clientRegistry.acquire(TestResourceAdapters.REGION, "", "", CREDENTIALS, null);
+		assertThat(second, sameInstance(first));
+		assertThat(clientFactory.getCreated(), equalTo(1));
+	}
+
+	@Test
+	public void testDifferentCredentialsOrBatchingDoNotShareClient() {
+		final AmazonSQS defaultCredentials = clientRegistry.acquire(TestResourceAdapters.REGION, null, null, CREDENTIALS, null);
+		final AmazonSQS otherCredentials = clientRegistry.acquire(TestResourceAdapters.REGION, "key", "secret", CREDENTIALS, null);
+		final AmazonSQS batching = clientRegistry.acquire(TestResourceAdapters.REGION, null, null, CREDENTIALS, 100L);
+		assertThat(otherCredentials, not(sameInstance(defaultCredentials)));
+		assertThat(batching, not(sameInstance(defaultCredentials)));
+		assertThat(batching instanceof AmazonSQSBufferedAsyncClient, equalTo(true));
+		assertThat(clientFactory.getCreated(), equalTo(3));
+	}
+
+	@Test
+	public void testClientShutDownWhenLastReferenceReleased() {
+		final AmazonSQS first = clientRegistry.acquire(TestResourceAdapters.REGION, null, null, CREDENTIALS, null);
+		clientRegistry.acquire(TestResourceAdapters.REGION, null, null, CREDENTIALS, null);
+		clientRegistry.release(first);
+		assertThat(clientFactory.getShutDown(), equalTo(0));
+		clientRegistry.release(first);
+		assertThat(clientFactory.getShutDown(), equalTo(1));
+
+		// a client is created again for the next user
+		final AmazonSQS again = clientRegistry.acquire(TestResourceAdapters.REGION, null, null, CREDENTIALS, null);
+		assertThat(again, not(sameInstance(first)));
+		assertThat(clientFactory.getCreated(), equalTo(2));
+	}
+
+	@Test
+	public void testShutdownShutsDownClientsInUse() {
+		final AmazonSQS client = clientRegistry.acquire(TestResourceAdapters.REGION, null, null, CREDENTIALS, null);
+		clientRegistry.acquire(TestResourceAdapters.REGION, "key", "secret", CREDENTIALS, null);
+		clientRegistry.shutdown();
+		assertThat(clientFactory.getOpen(), equalTo(0));
+		// releasing a client that was shut down with the registry is harmless
+		clientRegistry.release(client);
+		assertThat(clientFactory.getShutDown(), equalTo(2));
+	}
+
+	@Test
+	public void testReleasingBufferedClientFlushesSendsAndShutsDownRealClient() throws InterruptedException, ExecutionException {
+		final InMemoryAmazonSQS amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true));
+		clientFactory = new TestInMemoryClientFactory(amazonSQS);
+		clientRegistry.setClientFactory(clientFactory);
+		final String queueUrl = amazonSQS.getQueueUrl("buffered").getQueueUrl();
+		final AmazonSQSAsync client = (AmazonSQSAsync) clientRegistry.acquire(TestResourceAdapters.REGION, null, null, CREDENTIALS, 500L);
+		final Future<SendMessageResult> sent = client.sendMessageAsync(new SendMessageRequest(queueUrl, "buffered"));
+		// release waits for the open batch to be sent before shutting the clients down
+		clientRegistry.release(client);
+		assertThat(sent.isDone(), equalTo(true));
+		assertThat(sent.get().getMessageId(), notNullValue());
+		assertThat(amazonSQS.receiveMessage(queueUrl).getMessages().size(), equalTo(1));
+		assertThat(clientFactory.getOpen(), equalTo(0));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRegionRequired() {
+		clientRegistry.acquire(null, null, null, CREDENTIALS, null);
+	}
+}
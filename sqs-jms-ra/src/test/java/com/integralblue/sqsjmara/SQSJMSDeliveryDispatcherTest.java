@@ -0,0 +1,340 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkRejectedException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazon.sqs.javamessaging.message.SQSTextMessage;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+
+/**
+ * Tests of scheduling deliveries, striped by key and in order for FIFO queues.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSDeliveryDispatcherTest {
+	private static final long WAIT_SECONDS = 10;
+	private static final int DELIVERIES_PER_KEY = 50;
+
+	private TestWorkManager workManager;
+
+	@Before
+	public void before() {
+		workManager = new TestWorkManager();
+	}
+
+	@After
+	public void after() throws InterruptedException {
+		workManager.shutdown();
+	}
+
+	private static SQSJMSActivationSpec spec(final int stripes, final int stripeQueueSize, final String affinityKey) {
+		final SQSJMSActivationSpec spec = new SQSJMSActivationSpec();
+		spec.setDispatchStripes(stripes);
+		spec.setStripeQueueSize(stripeQueueSize);
+		spec.setAffinityKey(affinityKey);
+		return spec;
+	}
+
+	private static void await(final CountDownLatch latch) {
+		try {
+			assertTrue("timed out", latch.await(WAIT_SECONDS, TimeUnit.SECONDS));
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void testFifoDeliveriesOfAGroupRunInOrder() {
+		final SQSJMSDeliveryDispatcher dispatcher = new SQSJMSDeliveryDispatcher(workManager, spec(3, 2, null), true);
+		final List<String> keys = Arrays.asList("a", "b", "c", "d", "e");
+		final List<TestDelivery> deliveries = new ArrayList<>();
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch finished = new CountDownLatch(keys.size() * DELIVERIES_PER_KEY);
+		for (int i = 0; i < DELIVERIES_PER_KEY; i++) {
+			for (final String key : keys) {
+				final TestDelivery delivery = new TestDelivery(key, deliveries.size(), order, finished);
+				deliveries.add(delivery);
+				dispatcher.dispatch(delivery);
+			}
+		}
+		await(finished);
+		assertThat(order.size(), equalTo(deliveries.size()));
+		for (final String key : keys) {
+			int previous = -1;
+			for (final Integer index : order) {
+				if (deliveries.get(index).getKey().equals(key)) {
+					assertTrue("delivery " + index + " of " + key + " ran after " + previous, index > previous);
+					previous = index;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFifoFailureRejectsWaitingDeliveriesOfTheGroup() {
+		final SQSJMSDeliveryDispatcher dispatcher = new SQSJMSDeliveryDispatcher(workManager, spec(1, 10, null), true);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch finished = new CountDownLatch(3);
+		final TestDelivery failing = new TestDelivery("a", 0, order, finished).failing().blocking();
+		final TestDelivery sameGroup = new TestDelivery("a", 1, order, finished);
+		final TestDelivery otherGroup = new TestDelivery("b", 2, order, finished);
+		dispatcher.dispatch(failing);
+		await(failing.started);
+		dispatcher.dispatch(sameGroup);
+		dispatcher.dispatch(otherGroup);
+		assertThat(dispatcher.getStripeDepths()[0], equalTo(2));
+		failing.release.countDown();
+		await(finished);
+		assertThat(order, equalTo(Arrays.asList(0, 2)));
+		assertThat(sameGroup.rejected.get(), equalTo(1));
+		assertThat(sameGroup.cause, nullValue());
+		assertThat(otherGroup.rejected.get(), equalTo(0));
+		assertThat(dispatcher.getStripeDepths()[0], equalTo(0));
+	}
+
+	@Test
+	public void testFifoFailureRejectsLaterDeliveriesOfTheGroupFromTheSamePoll() {
+		final SQSJMSDeliveryDispatcher dispatcher = new SQSJMSDeliveryDispatcher(workManager, spec(1, 10, null), true);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch finished = new CountDownLatch(4);
+		// two messages of a group in one poll, the first failing before the second is dispatched
+		dispatcher.startPoll();
+		final TestDelivery failing = new TestDelivery("a", 0, order, finished).failing();
+		final TestDelivery otherGroup = new TestDelivery("b", 1, order, finished);
+		dispatcher.dispatch(failing);
+		dispatcher.dispatch(otherGroup);
+		await(otherGroup.started);
+		final TestDelivery sameGroup = new TestDelivery("a", 2, order, finished);
+		dispatcher.dispatch(sameGroup);
+		assertThat(sameGroup.rejected.get(), equalTo(1));
+		assertThat(sameGroup.cause, nullValue());
+
+		// the next poll holds the returned messages, delivered again
+		dispatcher.startPoll();
+		final TestDelivery redelivered = new TestDelivery("a", 3, order, finished);
+		dispatcher.dispatch(redelivered);
+		await(finished);
+		assertThat(order, equalTo(Arrays.asList(0, 1, 3)));
+		assertThat(redelivered.rejected.get(), equalTo(0));
+	}
+
+	@Test
+	public void testAffinityKeyFailureDoesNotRejectWaitingDeliveries() {
+		final SQSJMSDeliveryDispatcher dispatcher = new SQSJMSDeliveryDispatcher(workManager, spec(1, 10, "customer"), false);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch finished = new CountDownLatch(2);
+		final TestDelivery failing = new TestDelivery("a", 0, order, finished).failing().blocking();
+		final TestDelivery sameKey = new TestDelivery("a", 1, order, finished);
+		dispatcher.dispatch(failing);
+		await(failing.started);
+		dispatcher.dispatch(sameKey);
+		failing.release.countDown();
+		await(finished);
+		assertThat(order, equalTo(Arrays.asList(0, 1)));
+		assertThat(sameKey.rejected.get(), equalTo(0));
+	}
+
+	@Test
+	public void testUnstripedDeliveriesEachScheduled() {
+		final SQSJMSDeliveryDispatcher dispatcher = new SQSJMSDeliveryDispatcher(workManager, spec(1, 1, null), false);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch finished = new CountDownLatch(2);
+		final TestDelivery blocked = new TestDelivery("", 0, order, finished).blocking();
+		final TestDelivery other = new TestDelivery("", 1, order, finished);
+		dispatcher.dispatch(blocked);
+		dispatcher.dispatch(other);
+		// the second delivery runs while the first is still running
+		await(other.started);
+		blocked.release.countDown();
+		await(finished);
+		assertThat(workManager.getScheduled(), equalTo(2));
+		assertThat(dispatcher.getStripeDepths().length, equalTo(0));
+	}
+
+	@Test
+	public void testDispatchToFullStripeWaits() throws InterruptedException {
+		final SQSJMSDeliveryDispatcher dispatcher = new SQSJMSDeliveryDispatcher(workManager, spec(1, 1, null), true);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch finished = new CountDownLatch(3);
+		final TestDelivery blocked = new TestDelivery("a", 0, order, finished).blocking();
+		dispatcher.dispatch(blocked);
+		await(blocked.started);
+		dispatcher.dispatch(new TestDelivery("a", 1, order, finished));
+		final CountDownLatch dispatched = new CountDownLatch(1);
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatcher.dispatch(new TestDelivery("a", 2, order, finished));
+				dispatched.countDown();
+			}
+		});
+		thread.start();
+		assertThat(dispatched.await(100, TimeUnit.MILLISECONDS), equalTo(false));
+		blocked.release.countDown();
+		await(dispatched);
+		await(finished);
+		assertThat(order, equalTo(Arrays.asList(0, 1, 2)));
+	}
+
+	@Test
+	public void testRejectedByWorkManager() throws InterruptedException {
+		workManager.shutdown();
+		final SQSJMSDeliveryDispatcher striped = new SQSJMSDeliveryDispatcher(workManager, spec(1, 1, null), true);
+		final SQSJMSDeliveryDispatcher unstriped = new SQSJMSDeliveryDispatcher(workManager, spec(1, 1, null), false);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch finished = new CountDownLatch(0);
+		final TestDelivery first = new TestDelivery("a", 0, order, finished);
+		final TestDelivery second = new TestDelivery("", 1, order, finished);
+		striped.dispatch(first);
+		unstriped.dispatch(second);
+		assertThat(first.rejected.get(), equalTo(1));
+		assertThat(first.cause, instanceOf(WorkRejectedException.class));
+		// told by both the listener and the exception; deliveries only act on the first
+		assertTrue(second.rejected.get() > 0);
+		assertThat(second.cause, instanceOf(WorkRejectedException.class));
+		assertTrue(order.isEmpty());
+		// the stripe can be scheduled again
+		assertThat(striped.getStripeDepths()[0], equalTo(0));
+	}
+
+	@Test
+	public void testKey() throws JMSException {
+		final SQSJMSDeliveryDispatcher fifo = new SQSJMSDeliveryDispatcher(workManager, spec(1, 1, null), true);
+		final SQSJMSDeliveryDispatcher affinity = new SQSJMSDeliveryDispatcher(workManager, spec(1, 1, "customer"), false);
+		final SQSJMSDeliveryDispatcher unstriped = new SQSJMSDeliveryDispatcher(workManager, spec(1, 1, null), false);
+		final SQSTextMessage message = new SQSTextMessage(null, "queue",
+				new Message().withMessageId("id").withReceiptHandle("handle").withBody("body")
+						.addAttributesEntry(SQSMessagingClientConstants.MESSAGE_GROUP_ID, "group")
+						.addAttributesEntry(SQSMessagingClientConstants.APPROXIMATE_RECEIVE_COUNT, "1")
+						.addMessageAttributesEntry("customer", new MessageAttributeValue().withDataType("Number.int").withStringValue("42")));
+		assertThat(fifo.key(message), equalTo("group"));
+		assertThat(affinity.key(message), equalTo("42"));
+		assertThat(unstriped.key(message), equalTo(""));
+		assertThat(affinity.key(new SQSTextMessage("no properties")), equalTo(""));
+	}
+
+	/**
+	 * Records the order deliveries ran in, and optionally fails or waits to be released.
+	 */
+	private static final class TestDelivery implements SQSJMSDeliveryDispatcher.Delivery {
+		private final String key;
+		private final int index;
+		private final List<Integer> order;
+		private final CountDownLatch finished;
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final AtomicInteger rejected = new AtomicInteger();
+		private boolean fail;
+		private boolean block;
+		private volatile Exception cause;
+
+		TestDelivery(final String key, final int index, final List<Integer> order, final CountDownLatch finished) {
+			this.key = key;
+			this.index = index;
+			this.order = order;
+			this.finished = finished;
+		}
+
+		TestDelivery failing() {
+			fail = true;
+			return this;
+		}
+
+		TestDelivery blocking() {
+			block = true;
+			return this;
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public boolean isDelivered() {
+			return !fail;
+		}
+
+		@Override
+		public void reject(final Exception rejectCause) {
+			cause = rejectCause;
+			rejected.incrementAndGet();
+			finished.countDown();
+		}
+
+		@Override
+		public void run() {
+			started.countDown();
+			if (block) {
+				await(release);
+			}
+			order.add(index);
+			finished.countDown();
+		}
+
+		@Override
+		public void release() {
+			// nothing to interrupt
+		}
+
+		@Override
+		public void workAccepted(final WorkEvent e) {
+			// not needed
+		}
+
+		@Override
+		public void workRejected(final WorkEvent e) {
+			reject(e.getException());
+		}
+
+		@Override
+		public void workStarted(final WorkEvent e) {
+			// not needed
+		}
+
+		@Override
+		public void workCompleted(final WorkEvent e) {
+			// not needed
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazon.sqs.javamessaging.message.SQSTextMessage;
+
+/**
+ * Tests of suppressing duplicate deliveries.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSDuplicateFilterTest {
+	private static final int WINDOW_SECONDS = 300;
+	private static final int MESSAGES = 1000;
+
+	private SQSJMSActivationStats stats;
+
+	@Before
+	public void before() {
+		stats = new SQSJMSActivationStats("duplicate-filter-test");
+	}
+
+	private static Message message(final String id) throws JMSException {
+		final SQSTextMessage message = new SQSTextMessage("duplicate filter test");
+		message.setJMSMessageID(id);
+		return message;
+	}
+
+	private static List<Message> messages(final int count) throws JMSException {
+		final List<Message> messages = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			messages.add(message("ID:" + i));
+		}
+		return messages;
+	}
+
+	private static void delivered(final SQSJMSDuplicateFilter filter, final Message message) {
+		filter.delivered(Collections.singletonList(message));
+	}
+
+	@Test
+	public void testDeliveredMessageIsDuplicate() throws JMSException {
+		final SQSJMSDuplicateFilter filter = new SQSJMSDuplicateFilter(SQSJMSDuplicateFilter.MESSAGE_ID_KEY, 10, WINDOW_SECONDS, stats);
+		final Message message = message("ID:1");
+		assertThat(filter.isDuplicate(message), equalTo(false));
+		// not remembered until delivered, so a failed delivery is retried
+		assertThat(filter.isDuplicate(message), equalTo(false));
+		delivered(filter, message);
+		assertThat(filter.isDuplicate(message("ID:1")), equalTo(true));
+		assertThat(filter.isDuplicate(message("ID:2")), equalTo(false));
+		assertThat(stats.getDuplicateHits(), equalTo(1L));
+		assertThat(stats.getDuplicateMisses(), equalTo(3L));
+	}
+
+	@Test
+	public void testWithoutDuplicates() throws JMSException {
+		final SQSJMSDuplicateFilter filter = new SQSJMSDuplicateFilter(SQSJMSDuplicateFilter.MESSAGE_ID_KEY, 10, WINDOW_SECONDS, stats);
+		final List<Message> messages = messages(4);
+		filter.delivered(Arrays.asList(messages.get(1), messages.get(3)));
+		assertThat(filter.withoutDuplicates(messages), equalTo(Arrays.asList(messages.get(0), messages.get(2))));
+	}
+
+	@Test
+	public void testAllRememberedUpToHalfCapacity() throws JMSException {
+		final SQSJMSDuplicateFilter filter = new SQSJMSDuplicateFilter(SQSJMSDuplicateFilter.MESSAGE_ID_KEY, MESSAGES * 2, WINDOW_SECONDS, stats);
+		final List<Message> messages = messages(MESSAGES);
+		filter.delivered(messages);
+		assertThat(filter.withoutDuplicates(messages).size(), equalTo(0));
+		assertThat(filter.withoutDuplicates(messages(MESSAGES * 2)).size(), equalTo(MESSAGES));
+	}
+
+	@Test
+	public void testGenerationsRotateAtCapacity() throws JMSException {
+		// each generation holds half the capacity: 2 messages
+		final SQSJMSDuplicateFilter filter = new SQSJMSDuplicateFilter(SQSJMSDuplicateFilter.MESSAGE_ID_KEY, 4, WINDOW_SECONDS, stats);
+		final List<Message> messages = messages(5);
+		filter.delivered(messages.subList(0, 3));
+		// the first two moved to the previous generation, and are still remembered
+		assertThat(filter.withoutDuplicates(messages.subList(0, 3)).size(), equalTo(0));
+		filter.delivered(messages.subList(3, 5));
+		// the generation holding the first two was dropped
+		assertThat(filter.withoutDuplicates(messages), equalTo(messages.subList(0, 2)));
+	}
+
+	@Test
+	public void testGenerationsRotateAfterHalfTheWindow() throws JMSException, InterruptedException {
+		// each generation lasts half a second
+		final SQSJMSDuplicateFilter filter = new SQSJMSDuplicateFilter(SQSJMSDuplicateFilter.MESSAGE_ID_KEY, 10, 1, stats);
+		final List<Message> messages = messages(3);
+		delivered(filter, messages.get(0));
+		Thread.sleep(600);
+		delivered(filter, messages.get(1));
+		assertThat(filter.isDuplicate(messages.get(0)), equalTo(true));
+		Thread.sleep(600);
+		delivered(filter, messages.get(2));
+		assertThat(filter.isDuplicate(messages.get(0)), equalTo(false));
+		assertThat(filter.isDuplicate(messages.get(1)), equalTo(true));
+		assertThat(filter.isDuplicate(messages.get(2)), equalTo(true));
+	}
+
+	@Test
+	public void testCorrelationIdKey() throws JMSException {
+		final SQSJMSDuplicateFilter filter = new SQSJMSDuplicateFilter(SQSJMSDuplicateFilter.CORRELATION_ID_KEY, 10, WINDOW_SECONDS, stats);
+		final Message first = message("ID:1");
+		first.setJMSCorrelationID("order-1");
+		final Message resent = message("ID:2");
+		resent.setJMSCorrelationID("order-1");
+		final Message uncorrelated = message("ID:3");
+		delivered(filter, first);
+		delivered(filter, uncorrelated);
+		assertThat(filter.isDuplicate(resent), equalTo(true));
+		// messages without the key are never duplicates
+		assertThat(filter.isDuplicate(uncorrelated), equalTo(false));
+	}
+
+	@Test
+	public void testPropertyKey() throws JMSException {
+		final SQSJMSDuplicateFilter filter = new SQSJMSDuplicateFilter("orderNumber", 10, WINDOW_SECONDS, stats);
+		final Message first = message("ID:1");
+		first.setIntProperty("orderNumber", 42);
+		final Message resent = message("ID:2");
+		resent.setStringProperty("orderNumber", "42");
+		final Message other = message("ID:1");
+		other.setIntProperty("orderNumber", 43);
+		delivered(filter, first);
+		assertThat(filter.isDuplicate(resent), equalTo(true));
+		assertThat(filter.isDuplicate(other), equalTo(false));
+	}
+}
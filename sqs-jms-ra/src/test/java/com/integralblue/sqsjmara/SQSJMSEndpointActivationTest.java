@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Timer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.jms.MessageListener;
+import javax.resource.ResourceException;
+import javax.resource.spi.endpoint.MessageEndpoint;
+import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.transaction.xa.XAResource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of delivering messages concurrently on the sessions of the session dispatch mode.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSEndpointActivationTest {
+	private static final String QUEUE_NAME = "endpoint-activation-test";
+	private static final long WAIT_MILLIS = 10_000L;
+	private static final int MESSAGES = 6;
+	private static final long GROWTH_DELAY_MILLIS = 100L;
+
+	private InMemoryAmazonSQS amazonSQS;
+	private String queueUrl;
+	private Timer timer;
+	private SQSJMSEndpointActivation activation;
+
+	@Before
+	public void before() {
+		amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true));
+		queueUrl = amazonSQS.getQueueUrl(QUEUE_NAME).getQueueUrl();
+		timer = new Timer("SQSJMSEndpointActivationTest", true);
+	}
+
+	@After
+	public void after() throws JMSException {
+		if (activation != null) {
+			activation.stop();
+		}
+		timer.cancel();
+	}
+
+	private static SQSJMSActivationSpec spec(final int minSessions, final int maxSessions) {
+		final SQSJMSActivationSpec spec = new SQSJMSActivationSpec();
+		spec.setDestination(QUEUE_NAME);
+		spec.setUseJndi(false);
+		spec.setAcknowledgeMode("auto-acknowledge");
+		spec.setMinSessions(minSessions);
+		spec.setMaxSessions(maxSessions);
+		spec.setSessionGrowthDelayMillis(GROWTH_DELAY_MILLIS);
+		// poll briefly, so that stopping does not wait out a long poll
+		spec.setReceiveWaitTimeSeconds(1);
+		return spec;
+	}
+
+	private BlockingEndpointFactory start(final SQSJMSActivationSpec spec) throws ResourceException {
+		final BlockingEndpointFactory endpointFactory = new BlockingEndpointFactory();
+		activation = new SQSJMSEndpointActivation(endpointFactory, spec, amazonSQS, timer, null);
+		activation.start(Collections.singletonList(new SQSJMSQueue(QUEUE_NAME)));
+		for (int i = 0; i < MESSAGES; i++) {
+			amazonSQS.sendMessage(queueUrl, "message " + i);
+		}
+		return endpointFactory;
+	}
+
+	private static void awaitConcurrency(final BlockingEndpointFactory endpointFactory, final int concurrency) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		while (endpointFactory.concurrent.get() < concurrency && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		// give more sessions the chance to open than may
+		Thread.sleep(GROWTH_DELAY_MILLIS * 5);
+	}
+
+	@Test
+	public void testSessionsGrowToMaxSessionsWhenBusy() throws ResourceException, InterruptedException {
+		final BlockingEndpointFactory endpointFactory = start(spec(1, 3));
+		awaitConcurrency(endpointFactory, 3);
+		assertThat(endpointFactory.concurrent.get(), equalTo(3));
+		assertThat(activation.getSessionCount(), equalTo(3));
+		endpointFactory.blocked.countDown();
+		assertTrue("timed out", endpointFactory.delivered.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+		assertThat(endpointFactory.mostConcurrent.get(), equalTo(3));
+	}
+
+	@Test
+	public void testSessionsGrowOnlyOnceBusyForTheGrowthDelay() throws ResourceException, InterruptedException {
+		final SQSJMSActivationSpec spec = spec(1, 3);
+		spec.setSessionGrowthDelayMillis(60_000L);
+		final BlockingEndpointFactory endpointFactory = start(spec);
+		awaitConcurrency(endpointFactory, 1);
+		// one delivery in flight on the one session is not reason enough to open more
+		assertThat(endpointFactory.concurrent.get(), equalTo(1));
+		assertThat(activation.getSessionCount(), equalTo(1));
+		endpointFactory.blocked.countDown();
+		assertTrue("timed out", endpointFactory.delivered.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testIdleSessionsClosedDownToMinSessions() throws ResourceException, InterruptedException {
+		final SQSJMSActivationSpec spec = spec(1, 3);
+		spec.setSessionIdleTimeoutSeconds(1);
+		final BlockingEndpointFactory endpointFactory = start(spec);
+		awaitConcurrency(endpointFactory, 3);
+		endpointFactory.blocked.countDown();
+		assertTrue("timed out", endpointFactory.delivered.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+		final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		while (activation.getSessionCount() > 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(activation.getSessionCount(), equalTo(1));
+	}
+
+	@Test
+	public void testOneSessionDeliversOneAtATime() throws ResourceException, InterruptedException {
+		final BlockingEndpointFactory endpointFactory = start(spec(1, 1));
+		awaitConcurrency(endpointFactory, 1);
+		assertThat(endpointFactory.concurrent.get(), equalTo(1));
+		endpointFactory.blocked.countDown();
+		assertTrue("timed out", endpointFactory.delivered.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+		assertThat(endpointFactory.mostConcurrent.get(), equalTo(1));
+	}
+
+	/**
+	 * Creates proxy endpoints whose deliveries wait until released, and records how many run at once.
+	 */
+	private static final class BlockingEndpointFactory implements MessageEndpointFactory {
+		private final CountDownLatch blocked = new CountDownLatch(1);
+		private final CountDownLatch delivered = new CountDownLatch(MESSAGES);
+		private final AtomicInteger concurrent = new AtomicInteger();
+		private final AtomicInteger mostConcurrent = new AtomicInteger();
+
+		@Override
+		public MessageEndpoint createEndpoint(final XAResource xaResource) {
+			return (MessageEndpoint) Proxy.newProxyInstance(
+					SQSJMSEndpointActivationTest.class.getClassLoader(),
+					new Class<?>[] {MessageEndpoint.class, MessageListener.class},
+					new InvocationHandler() {
+						@Override
+						public Object invoke(final Object proxy, final Method method, final Object[] args) throws InterruptedException {
+							if ("onMessage".equals(method.getName())) {
+								onMessage();
+							}
+							return null;
+						}
+					});
+		}
+
+		private void onMessage() throws InterruptedException {
+			final int now = concurrent.incrementAndGet();
+			synchronized (mostConcurrent) {
+				mostConcurrent.set(Math.max(mostConcurrent.get(), now));
+			}
+			try {
+				blocked.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			finally {
+				concurrent.decrementAndGet();
+				delivered.countDown();
+			}
+		}
+
+		@Override
+		public MessageEndpoint createEndpoint(final XAResource xaResource, final long timeout) {
+			return createEndpoint(xaResource);
+		}
+
+		@Override
+		public boolean isDeliveryTransacted(final Method method) {
+			return false;
+		}
+
+		@Override
+		public String getActivationName() {
+			return SQSJMSEndpointActivationTest.class.getSimpleName();
+		}
+
+		@Override
+		public Class<?> getEndpointClass() {
+			return MessageListener.class;
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.resource.ResourceException;
+import javax.resource.spi.endpoint.MessageEndpoint;
+import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.transaction.xa.XAResource;
+
+import org.junit.Test;
+
+import com.amazon.sqs.javamessaging.message.SQSTextMessage;
+
+/**
+ * Tests of delivering messages to pooled and transacted endpoints.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSEndpointInvokerTest {
+	private static final String FAIL = "fail";
+
+	private static Message message(final String text) throws JMSException {
+		return new SQSTextMessage(text);
+	}
+
+	@Test
+	public void testEndpointsReused() throws ResourceException, JMSException {
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(false, false);
+		final SQSJMSEndpointInvoker invoker = new SQSJMSEndpointInvoker(endpointFactory);
+		for (int i = 0; i < 10; i++) {
+			invoker.deliver(message("message " + i));
+		}
+		assertThat(endpointFactory.created.get(), equalTo(1));
+		assertThat(endpointFactory.released.get(), equalTo(0));
+		assertThat(endpointFactory.delivered.size(), equalTo(10));
+		assertThat(endpointFactory.beforeDeliveries.get(), equalTo(0));
+		invoker.release();
+		assertThat(endpointFactory.released.get(), equalTo(1));
+	}
+
+	@Test
+	public void testEndpointThatThrewNotReused() throws ResourceException, JMSException {
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(false, false);
+		final SQSJMSEndpointInvoker invoker = new SQSJMSEndpointInvoker(endpointFactory);
+		try {
+			invoker.deliver(message(FAIL));
+			fail("the endpoint's exception should be thrown");
+		}
+		catch (final IllegalStateException e) {
+			assertThat(e.getMessage(), equalTo(FAIL));
+		}
+		assertThat(endpointFactory.released.get(), equalTo(1));
+		invoker.deliver(message("after failure"));
+		assertThat(endpointFactory.created.get(), equalTo(2));
+	}
+
+	@Test
+	public void testTransactedDeliveryUsesEndpointPerMessage() throws ResourceException, JMSException {
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(true, false);
+		final SQSJMSEndpointInvoker invoker = new SQSJMSEndpointInvoker(endpointFactory);
+		invoker.deliver(message("first"));
+		invoker.deliver(message("second"));
+		assertThat(endpointFactory.created.get(), equalTo(2));
+		assertThat(endpointFactory.released.get(), equalTo(2));
+		assertThat(endpointFactory.beforeDeliveries.get(), equalTo(2));
+		assertThat(endpointFactory.afterDeliveries.get(), equalTo(2));
+	}
+
+	@Test
+	public void testBatchDelivery() throws ResourceException, JMSException {
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(false, true);
+		final SQSJMSEndpointInvoker invoker = new SQSJMSEndpointInvoker(endpointFactory);
+		assertThat(invoker.isBatchListener(), equalTo(true));
+		invoker.deliver(Arrays.asList(message("first"), message("second")));
+		assertThat(endpointFactory.delivered.size(), equalTo(2));
+		assertThat(endpointFactory.created.get(), equalTo(1));
+	}
+
+	@Test
+	public void testListenerTypeFoundWithoutCreatingEndpoint() throws ResourceException {
+		for (final boolean endpointClassKnown : new boolean[] {true, false}) {
+			for (final boolean batch : new boolean[] {true, false}) {
+				final TestEndpointFactory endpointFactory = new TestEndpointFactory(false, batch);
+				endpointFactory.endpointClassKnown = endpointClassKnown;
+				final SQSJMSEndpointInvoker invoker = new SQSJMSEndpointInvoker(endpointFactory);
+				assertThat(invoker.isBatchListener(), equalTo(batch));
+				assertThat(endpointFactory.created.get(), equalTo(0));
+			}
+		}
+	}
+
+	@Test
+	public void testEndpointInUseReleasedAfterDelivery() throws Exception {
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(false, false);
+		final SQSJMSEndpointInvoker invoker = new SQSJMSEndpointInvoker(endpointFactory);
+		endpointFactory.blocked = new CountDownLatch(1);
+		final Thread delivery = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					invoker.deliver(message("blocked"));
+				}
+				catch (final JMSException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		delivery.start();
+		endpointFactory.delivering.await(5, TimeUnit.SECONDS);
+		invoker.release();
+		assertThat(endpointFactory.released.get(), equalTo(0));
+		endpointFactory.blocked.countDown();
+		delivery.join(TimeUnit.SECONDS.toMillis(5));
+		assertThat(endpointFactory.released.get(), equalTo(1));
+	}
+
+	/**
+	 * Creates proxy endpoints, as application servers do, and counts what is done with them.
+	 * Like a container's factory, it rejects the other listener interface's method as unknown.
+	 */
+	private static final class TestEndpointFactory implements MessageEndpointFactory {
+		private final boolean deliveryTransacted;
+		private final boolean batch;
+		private final AtomicInteger created = new AtomicInteger();
+		private final AtomicInteger released = new AtomicInteger();
+		private final AtomicInteger beforeDeliveries = new AtomicInteger();
+		private final AtomicInteger afterDeliveries = new AtomicInteger();
+		private final List<Message> delivered = new CopyOnWriteArrayList<>();
+		private final CountDownLatch delivering = new CountDownLatch(1);
+		private volatile CountDownLatch blocked;
+		private boolean endpointClassKnown = true;
+
+		TestEndpointFactory(final boolean deliveryTransacted, final boolean batch) {
+			this.deliveryTransacted = deliveryTransacted;
+			this.batch = batch;
+		}
+
+		@Override
+		public MessageEndpoint createEndpoint(final XAResource xaResource) {
+			created.incrementAndGet();
+			return (MessageEndpoint) Proxy.newProxyInstance(
+					SQSJMSEndpointInvokerTest.class.getClassLoader(),
+					new Class<?>[] {MessageEndpoint.class, getListenerClass()},
+					new InvocationHandler() {
+						@Override
+						@SuppressWarnings("unchecked")
+						public Object invoke(final Object proxy, final Method method, final Object[] args) throws Exception {
+							switch (method.getName()) {
+							case "release":
+								released.incrementAndGet();
+								break;
+							case "beforeDelivery":
+								beforeDeliveries.incrementAndGet();
+								break;
+							case "afterDelivery":
+								afterDeliveries.incrementAndGet();
+								break;
+							case "onMessages":
+								delivered.addAll((List<Message>) args[0]);
+								break;
+							case "onMessage":
+								onMessage((Message) args[0]);
+								break;
+							default:
+								break;
+							}
+							return null;
+						}
+					});
+		}
+
+		private void onMessage(final Message message) throws JMSException, InterruptedException {
+			delivering.countDown();
+			if (blocked != null) {
+				blocked.await(5, TimeUnit.SECONDS);
+			}
+			if (FAIL.equals(((SQSTextMessage) message).getText())) {
+				throw new IllegalStateException(FAIL);
+			}
+			delivered.add(message);
+		}
+
+		@Override
+		public MessageEndpoint createEndpoint(final XAResource xaResource, final long timeout) {
+			return createEndpoint(xaResource);
+		}
+
+		@Override
+		public boolean isDeliveryTransacted(final Method method) throws NoSuchMethodException {
+			if (!method.getDeclaringClass().isAssignableFrom(getListenerClass())) {
+				throw new NoSuchMethodException(method.toString());
+			}
+			return deliveryTransacted;
+		}
+
+		@Override
+		public String getActivationName() {
+			return SQSJMSEndpointInvokerTest.class.getSimpleName();
+		}
+
+		@Override
+		public Class<?> getEndpointClass() {
+			return endpointClassKnown ? getListenerClass() : null;
+		}
+
+		private Class<?> getListenerClass() {
+			return batch ? BatchMessageListener.class : MessageListener.class;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of pausing and resuming receives between the watermarks.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSFlowControlTest {
+	private static final int HIGH_WATERMARK = 5;
+	private static final int LOW_WATERMARK = 2;
+
+	private final AtomicInteger receives = new AtomicInteger();
+	private InMemoryAmazonSQS amazonSQS;
+	private String queueUrl;
+	private SQSJMSFlowControl flowControl;
+
+	@Before
+	public void before() {
+		amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true)) {
+			@Override
+			public ReceiveMessageResult receiveMessage(final ReceiveMessageRequest request) {
+				receives.incrementAndGet();
+				return super.receiveMessage(request);
+			}
+		};
+		queueUrl = amazonSQS.getQueueUrl("flow-control-test").getQueueUrl();
+		for (int i = 0; i < 20; i++) {
+			amazonSQS.sendMessage(queueUrl, "message " + i);
+		}
+		flowControl = new SQSJMSFlowControl(HIGH_WATERMARK, LOW_WATERMARK);
+	}
+
+	@Test
+	public void testPausedAtHighWatermarkUntilLowWatermark() throws InterruptedException {
+		assertThat(flowControl.awaitCapacity(0), equalTo(HIGH_WATERMARK));
+		flowControl.received(3);
+		assertThat(flowControl.awaitCapacity(0), equalTo(2));
+		flowControl.received(2);
+		assertThat(flowControl.awaitCapacity(0), equalTo(0));
+		// above the low watermark, still paused
+		flowControl.finished(2);
+		assertThat(flowControl.awaitCapacity(0), equalTo(0));
+		flowControl.finished(1);
+		assertThat(flowControl.awaitCapacity(0), equalTo(HIGH_WATERMARK - LOW_WATERMARK));
+	}
+
+	@Test
+	public void testWaitingReceiveResumedByFinishedDeliveries() throws InterruptedException {
+		flowControl.received(HIGH_WATERMARK);
+		final CountDownLatch resumed = new CountDownLatch(1);
+		final Thread waiting = new Thread() {
+			@Override
+			public void run() {
+				try {
+					if (flowControl.awaitCapacity(TimeUnit.SECONDS.toMillis(10)) > 0) {
+						resumed.countDown();
+					}
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		waiting.start();
+		flowControl.finished(HIGH_WATERMARK);
+		assertTrue(resumed.await(10, TimeUnit.SECONDS));
+		waiting.join();
+	}
+
+	@Test
+	public void testReceivesLimitedToCapacity() throws InterruptedException {
+		final AmazonSQS tuned = new SQSJMSClientDecorator(amazonSQS).withReceiveTuning(null, null, flowControl);
+		flowControl.received(HIGH_WATERMARK - 3);
+		final ReceiveMessageResult result = tuned.receiveMessage(new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(10));
+		assertThat(result.getMessages().size(), equalTo(3));
+		assertThat(SQSJMSReceiveTuning.isPaused(result), equalTo(false));
+		assertThat(flowControl.awaitCapacity(0), equalTo(0));
+	}
+
+	@Test
+	public void testPausedReceiveToldApartFromEmptyReceive() {
+		final AmazonSQS tuned = new SQSJMSClientDecorator(amazonSQS).withReceiveTuning(null, null, flowControl);
+		flowControl.received(HIGH_WATERMARK);
+		final ReceiveMessageResult paused = tuned.receiveMessage(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(0));
+		assertThat(paused.getMessages().size(), equalTo(0));
+		assertThat(SQSJMSReceiveTuning.isPaused(paused), equalTo(true));
+		assertThat(receives.get(), equalTo(0));
+
+		final String emptyQueueUrl = amazonSQS.getQueueUrl("flow-control-test-empty").getQueueUrl();
+		flowControl.finished(HIGH_WATERMARK);
+		final ReceiveMessageResult empty = tuned.receiveMessage(new ReceiveMessageRequest(emptyQueueUrl).withWaitTimeSeconds(0));
+		assertThat(empty.getMessages().size(), equalTo(0));
+		assertThat(SQSJMSReceiveTuning.isPaused(empty), equalTo(false));
+		assertThat(receives.get(), equalTo(1));
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of the latency histogram's percentiles.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSLatencyHistogramTest {
+	private static void assertWithinFactorOfTwo(final double actualMillis, final double expectedMillis) {
+		assertTrue(actualMillis + " is not within a factor of two of " + expectedMillis,
+				actualMillis >= expectedMillis / 2 && actualMillis <= expectedMillis * 2);
+	}
+
+	@Test
+	public void testEmpty() {
+		final SQSJMSLatencyHistogram histogram = new SQSJMSLatencyHistogram();
+		assertThat(histogram.percentileMillis(0.5), equalTo(0.0));
+		assertThat(histogram.maxMillis(), equalTo(0.0));
+	}
+
+	@Test
+	public void testPercentiles() {
+		final SQSJMSLatencyHistogram histogram = new SQSJMSLatencyHistogram();
+		for (int i = 0; i < 98; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(200));
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(1000));
+		assertWithinFactorOfTwo(histogram.percentileMillis(0.5), 10);
+		assertWithinFactorOfTwo(histogram.percentileMillis(0.99), 200);
+		// never above the largest latency recorded
+		assertThat(histogram.percentileMillis(1), equalTo(1000.0));
+		assertThat(histogram.maxMillis(), equalTo(1000.0));
+	}
+
+	@Test
+	public void testNegativeAndZeroLatencies() {
+		final SQSJMSLatencyHistogram histogram = new SQSJMSLatencyHistogram();
+		histogram.record(0);
+		histogram.record(-1);
+		assertThat(histogram.percentileMillis(0.99), equalTo(0.0));
+		assertThat(histogram.maxMillis(), equalTo(0.0));
+	}
+}
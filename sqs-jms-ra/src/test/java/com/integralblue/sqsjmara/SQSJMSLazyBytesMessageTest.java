@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import javax.jms.JMSException;
+import javax.jms.MessageNotWriteableException;
+
+import org.junit.Test;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.util.Base64;
+
+/**
+ * Tests of received bytes messages whose body is decoded on first use.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSLazyBytesMessageTest {
+	private static final String QUEUE_URL = "http://localhost/queue/lazy-bytes-message-test";
+
+	private static byte[] body() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(42);
+			out.writeUTF("hello");
+			out.writeLong(Long.MAX_VALUE);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static SQSJMSLazyBytesMessage received(final String encodedBody) throws JMSException {
+		return new SQSJMSLazyBytesMessage(null, QUEUE_URL, new Message()
+				.withMessageId("id")
+				.withReceiptHandle("handle")
+				.withBody(encodedBody)
+				.addAttributesEntry(SQSMessagingClientConstants.APPROXIMATE_RECEIVE_COUNT, "1")
+				.addMessageAttributesEntry("customer", new MessageAttributeValue().withDataType("String").withStringValue("acme")));
+	}
+
+	@Test
+	public void testBodyRead() throws IOException, JMSException {
+		final byte[] body = body();
+		final SQSJMSLazyBytesMessage message = received(Base64.encodeAsString(body));
+		assertThat(message.getBodyLength(), equalTo((long) body.length));
+		assertThat(message.readInt(), equalTo(42));
+		assertThat(message.readUTF(), equalTo("hello"));
+		assertThat(message.readLong(), equalTo(Long.MAX_VALUE));
+		message.reset();
+		assertThat(message.readInt(), equalTo(42));
+		assertThat(message.getBodyAsBytes(), equalTo(body));
+	}
+
+	@Test
+	public void testBodyNotDecodedUntilRead() throws JMSException {
+		final SQSJMSLazyBytesMessage message = received("not base64!");
+		assertThat(message.getStringProperty("customer"), equalTo("acme"));
+		assertThat(message.getJMSMessageID(), equalTo("ID:id"));
+		try {
+			message.readByte();
+			fail("the body cannot be decoded");
+		}
+		catch (final JMSException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testReadOnlyAsReceived() throws IOException, JMSException {
+		final SQSJMSLazyBytesMessage message = received(Base64.encodeAsString(body()));
+		assertNotWriteable(message);
+		message.readInt();
+		assertNotWriteable(message);
+	}
+
+	@Test
+	public void testClearBody() throws IOException, JMSException {
+		final SQSJMSLazyBytesMessage message = received(Base64.encodeAsString(body()));
+		message.clearBody();
+		message.writeInt(7);
+		message.reset();
+		assertThat(message.getBodyLength(), equalTo(4L));
+		assertThat(message.readInt(), equalTo(7));
+	}
+
+	private static void assertNotWriteable(final SQSJMSLazyBytesMessage message) throws JMSException {
+		try {
+			message.writeInt(1);
+			fail("a received message is read-only");
+		}
+		catch (final MessageNotWriteableException e) {
+			// expected
+		}
+	}
+}
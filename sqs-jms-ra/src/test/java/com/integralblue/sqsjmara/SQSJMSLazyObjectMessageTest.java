@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.jms.JMSException;
+
+import org.junit.Test;
+
+import com.amazon.sqs.javamessaging.SQSMessagingClientConstants;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.util.Base64;
+
+/**
+ * Tests of received object messages whose body is decoded at most once.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSLazyObjectMessageTest {
+	private static final String QUEUE_URL = "http://localhost/queue/lazy-object-message-test";
+
+	private static SQSJMSLazyObjectMessage received(final Serializable object) throws IOException, JMSException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return new SQSJMSLazyObjectMessage(null, QUEUE_URL, new Message()
+				.withMessageId("id")
+				.withReceiptHandle("handle")
+				.withBody(Base64.encodeAsString(bytes.toByteArray()))
+				.addAttributesEntry(SQSMessagingClientConstants.APPROXIMATE_RECEIVE_COUNT, "1"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testEachCallReturnsIndependentCopy() throws IOException, JMSException {
+		final ArrayList<String> object = new ArrayList<>(Arrays.asList("one", "two"));
+		final SQSJMSLazyObjectMessage message = received(object);
+		final Serializable first = message.getObject();
+		assertThat(first, equalTo((Serializable) object));
+		((ArrayList<String>) first).add("changed by the endpoint");
+		final Serializable second = message.getObject();
+		assertThat(second, not(sameInstance(first)));
+		assertThat(second, equalTo((Serializable) object));
+	}
+
+	@Test
+	public void testSetObject() throws IOException, JMSException {
+		final SQSJMSLazyObjectMessage message = received("received");
+		assertThat(message.getObject(), equalTo((Serializable) "received"));
+		message.clearBody();
+		assertThat(message.getObject(), nullValue());
+		message.setObject("replaced");
+		assertThat(message.getObject(), equalTo((Serializable) "replaced"));
+	}
+}
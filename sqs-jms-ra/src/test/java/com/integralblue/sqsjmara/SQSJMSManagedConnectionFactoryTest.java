@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.Session;
+import javax.resource.ResourceException;
+import javax.resource.spi.ManagedConnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of how a managed connection factory holds on to the resource adapter's clients.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSManagedConnectionFactoryTest {
+	private static final String QUEUE_NAME = "managed-connection-factory-test";
+
+	private InMemoryAmazonSQS amazonSQS;
+	private TestInMemoryClientFactory clientFactory;
+	private SQSJMSResourceAdapter resourceAdapter;
+	private SQSJMSManagedConnectionFactory managedConnectionFactory;
+
+	@Before
+	public void before() throws ResourceException {
+		amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true));
+		clientFactory = new TestInMemoryClientFactory(amazonSQS);
+		resourceAdapter = TestResourceAdapters.start(clientFactory, null);
+		managedConnectionFactory = TestResourceAdapters.createManagedConnectionFactory(resourceAdapter);
+	}
+
+	@After
+	public void after() {
+		resourceAdapter.stop();
+	}
+
+	private static void send(final QueueConnection connection, final String text) throws JMSException {
+		final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		final Queue queue = session.createQueue(QUEUE_NAME);
+		final MessageProducer producer = session.createProducer(queue);
+		producer.send(session.createTextMessage(text));
+		session.close();
+	}
+
+	private int countMessages() {
+		return amazonSQS.receiveMessage(amazonSQS.getQueueUrl(QUEUE_NAME).getQueueUrl()).getMessages().size();
+	}
+
+	@Test
+	public void testClientReleasedWithLastManagedConnection() throws ResourceException, JMSException {
+		final ManagedConnection first = managedConnectionFactory.createManagedConnection(null, null);
+		final ManagedConnection second = managedConnectionFactory.createManagedConnection(null, null);
+		assertThat(clientFactory.getCreated(), equalTo(1));
+		first.destroy();
+		assertThat(clientFactory.getOpen(), equalTo(1));
+		second.destroy();
+		assertThat(clientFactory.getOpen(), equalTo(0));
+
+		// acquired again for the next managed connection
+		final ManagedConnection third = managedConnectionFactory.createManagedConnection(null, null);
+		final SQSJMSConnection handle = (SQSJMSConnection) third.getConnection(null, null);
+		send(handle, "third");
+		handle.close();
+		third.destroy();
+		assertThat(clientFactory.getCreated(), equalTo(2));
+		assertThat(clientFactory.getOpen(), equalTo(0));
+		assertThat(countMessages(), equalTo(1));
+	}
+
+	@Test
+	public void testClientsReleasedWhenResourceAdapterStops() throws ResourceException, JMSException {
+		final ManagedConnection managedConnection = managedConnectionFactory.createManagedConnection(null, null);
+		assertThat(clientFactory.getOpen(), equalTo(1));
+		resourceAdapter.stop();
+		assertThat(clientFactory.getOpen(), equalTo(0));
+
+		// after a restart, connections use a new client rather than the one shut down with the resource adapter
+		resourceAdapter.start(null);
+		assertThat(managedConnectionFactory.matchManagedConnections(Collections.singleton(managedConnection), null, null), nullValue());
+		final ManagedConnection restarted = managedConnectionFactory.createManagedConnection(null, null);
+		final SQSJMSConnection handle = (SQSJMSConnection) restarted.getConnection(null, null);
+		send(handle, "after restart");
+		handle.close();
+		assertThat(clientFactory.getOpen(), equalTo(1));
+		assertThat(countMessages(), equalTo(1));
+
+		// destroying a managed connection of before the restart leaves the new client alone
+		managedConnection.destroy();
+		assertThat(clientFactory.getOpen(), equalTo(1));
+		restarted.destroy();
+		assertThat(clientFactory.getOpen(), equalTo(0));
+	}
+
+	@Test
+	public void testUnmanagedConnectionReleasesClientWhenClosed() throws ResourceException, JMSException {
+		final QueueConnection connection = managedConnectionFactory.createConnectionFactory().createQueueConnection();
+		send(connection, "unmanaged");
+		assertThat(clientFactory.getOpen(), equalTo(1));
+		connection.close();
+		assertThat(clientFactory.getOpen(), equalTo(0));
+		assertThat(countMessages(), equalTo(1));
+	}
+
+	@Test
+	public void testNegativeSendBatchLingerRejected() throws ResourceException {
+		managedConnectionFactory.setSendBatching(true);
+		managedConnectionFactory.setSendBatchLingerMillis(-1L);
+		try {
+			managedConnectionFactory.createManagedConnection(null, null);
+			fail("a negative linger would turn send batching off");
+		}
+		catch (final IllegalArgumentException e) {
+			// expected
+		}
+		assertThat(clientFactory.getOpen(), equalTo(0));
+	}
+}
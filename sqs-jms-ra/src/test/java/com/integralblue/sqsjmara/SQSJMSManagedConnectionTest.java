@@ -0,0 +1,280 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jms.ExceptionListener;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
+import javax.resource.spi.ManagedConnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of pooling managed connections, and of the handles they give out.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSManagedConnectionTest {
+	private static final String QUEUE_NAME = "managed-connection-test";
+
+	private InMemoryAmazonSQS amazonSQS;
+	private SQSJMSResourceAdapter resourceAdapter;
+	private SQSJMSManagedConnectionFactory managedConnectionFactory;
+	private final List<ManagedConnection> managedConnections = new ArrayList<>();
+
+	@Before
+	public void before() throws ResourceException {
+		amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true));
+		resourceAdapter = TestResourceAdapters.start(new TestInMemoryClientFactory(amazonSQS), null);
+		managedConnectionFactory = TestResourceAdapters.createManagedConnectionFactory(resourceAdapter);
+	}
+
+	@After
+	public void after() throws ResourceException {
+		for (final ManagedConnection managedConnection : managedConnections) {
+			managedConnection.destroy();
+		}
+		resourceAdapter.stop();
+	}
+
+	private SQSJMSManagedConnection createManagedConnection(final SQSJMSConnectionRequestInfo requestInfo) throws ResourceException {
+		final SQSJMSManagedConnection managedConnection = (SQSJMSManagedConnection) managedConnectionFactory.createManagedConnection(null, requestInfo);
+		managedConnections.add(managedConnection);
+		return managedConnection;
+	}
+
+	private void send(final SQSJMSConnection connection, final String text) throws JMSException {
+		final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		final Queue queue = session.createQueue(QUEUE_NAME);
+		final MessageProducer producer = session.createProducer(queue);
+		producer.send(session.createTextMessage(text));
+		session.close();
+	}
+
+	private List<String> receiveAll() {
+		final String queueUrl = amazonSQS.getQueueUrl(QUEUE_NAME).getQueueUrl();
+		final List<String> bodies = new ArrayList<>();
+		for (final com.amazonaws.services.sqs.model.Message message
+				: amazonSQS.receiveMessage(new ReceiveMessageRequest(queueUrl).withMaxNumberOfMessages(10)).getMessages()) {
+			bodies.add(message.getBody());
+		}
+		Collections.sort(bodies);
+		return bodies;
+	}
+
+	@Test
+	public void testMatchManagedConnections() throws ResourceException {
+		final SQSJMSManagedConnection managedConnection = createManagedConnection(null);
+		final Set<ManagedConnection> pool = new HashSet<>();
+		pool.add(managedConnection);
+		assertThat(managedConnectionFactory.matchManagedConnections(pool, null, null), sameInstance((ManagedConnection) managedConnection));
+		assertThat(managedConnectionFactory.matchManagedConnections(pool, null, new SQSJMSConnectionRequestInfo("user", "password")),
+				nullValue());
+
+		final SQSJMSManagedConnectionFactory otherFactory = TestResourceAdapters.createManagedConnectionFactory(resourceAdapter);
+		otherFactory.setNumberOfMessagesToPrefetch(5);
+		assertThat(otherFactory.matchManagedConnections(pool, null, null), nullValue());
+	}
+
+	@Test
+	public void testHandleCloseNotifiesListenersAndKeepsPhysicalConnection() throws ResourceException, JMSException {
+		final SQSJMSManagedConnection managedConnection = createManagedConnection(null);
+		final List<ConnectionEvent> events = new ArrayList<>();
+		managedConnection.addConnectionEventListener(new RecordingListener(events));
+
+		final SQSJMSConnection first = managedConnection.getConnection(null, null);
+		send(first, "first");
+		first.close();
+		assertThat(events.size(), equalTo(1));
+		assertThat(events.get(0).getId(), equalTo(ConnectionEvent.CONNECTION_CLOSED));
+		assertThat(events.get(0).getConnectionHandle(), sameInstance((Object) first));
+
+		// returned to the pool: cleaned up, then handed out again over the same physical connection
+		managedConnection.cleanup();
+		final SQSJMSConnection second = managedConnection.getConnection(null, null);
+		send(second, "second");
+		second.close();
+		assertThat(receiveAll(), equalTo(Arrays.asList("first", "second")));
+	}
+
+	@Test
+	public void testCleanupInvalidatesHandles() throws ResourceException, JMSException {
+		final SQSJMSManagedConnection managedConnection = createManagedConnection(null);
+		final SQSJMSConnection handle = managedConnection.getConnection(null, null);
+		final Session session = handle.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		managedConnection.cleanup();
+		try {
+			handle.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			fail("handle should have been invalidated");
+		}
+		catch (final IllegalStateException e) {
+			// expected
+		}
+		try {
+			session.createProducer(null);
+			fail("session should have been closed");
+		}
+		catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testAssociatedHandleSurvivesCleanupOfPreviousManagedConnection() throws ResourceException, JMSException {
+		final SQSJMSManagedConnection first = createManagedConnection(null);
+		final SQSJMSManagedConnection second = createManagedConnection(null);
+		final List<ConnectionEvent> firstEvents = new ArrayList<>();
+		first.addConnectionEventListener(new RecordingListener(firstEvents));
+
+		final SQSJMSConnection handle = first.getConnection(null, null);
+		final Session sessionOnFirst = handle.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		second.associateConnection(handle);
+
+		// the sessions of the first physical connection cannot move with the handle
+		try {
+			sessionOnFirst.createProducer(null);
+			fail("session on the previous physical connection should have been closed");
+		}
+		catch (final IllegalStateException e) {
+			// expected
+		}
+
+		first.cleanup();
+		send(handle, "after cleanup");
+		assertThat(receiveAll(), equalTo(Collections.singletonList("after cleanup")));
+		// moving a handle is not closing it
+		assertThat(firstEvents.size(), equalTo(0));
+
+		// the new managed connection owns the handle now
+		second.cleanup();
+		try {
+			handle.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			fail("handle should have been invalidated by its new managed connection");
+		}
+		catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testHandleStateIsNotPassedToTheNextUser() throws ResourceException, JMSException {
+		final SQSJMSManagedConnection managedConnection = createManagedConnection(null);
+		final SQSJMSConnection first = managedConnection.getConnection(null, null);
+		first.setClientID("first");
+		first.setExceptionListener(new ExceptionListener() {
+			@Override
+			public void onException(final JMSException exception) {
+				// not called
+			}
+		});
+		try {
+			first.setClientID("again");
+			fail("client ID can only be set once");
+		}
+		catch (final IllegalStateException e) {
+			// expected
+		}
+		first.close();
+
+		managedConnection.cleanup();
+		final SQSJMSConnection second = managedConnection.getConnection(null, null);
+		assertThat(second.getClientID(), nullValue());
+		assertThat(second.getExceptionListener(), nullValue());
+		second.setClientID("second");
+		assertThat(second.getClientID(), equalTo("second"));
+		second.close();
+	}
+
+	@Test
+	public void testStoppingHandleLeavesOtherHandlesStarted() throws ResourceException, JMSException {
+		final SQSJMSManagedConnection managedConnection = createManagedConnection(null);
+		final SQSJMSConnection first = managedConnection.getConnection(null, null);
+		final SQSJMSConnection second = managedConnection.getConnection(null, null);
+		first.start();
+		second.start();
+		first.stop();
+
+		send(first, "delivered");
+		final Session session = second.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		final MessageConsumer consumer = session.createConsumer(session.createQueue(QUEUE_NAME));
+		assertThat(consumer.receive(10_000), notNullValue());
+		first.close();
+		second.close();
+	}
+
+	private static final class RecordingListener implements ConnectionEventListener {
+		private final List<ConnectionEvent> events;
+
+		RecordingListener(final List<ConnectionEvent> events) {
+			this.events = events;
+		}
+
+		@Override
+		public void connectionClosed(final ConnectionEvent event) {
+			events.add(event);
+		}
+
+		@Override
+		public void localTransactionStarted(final ConnectionEvent event) {
+			events.add(event);
+		}
+
+		@Override
+		public void localTransactionCommitted(final ConnectionEvent event) {
+			events.add(event);
+		}
+
+		@Override
+		public void localTransactionRolledback(final ConnectionEvent event) {
+			events.add(event);
+		}
+
+		@Override
+		public void connectionErrorOccurred(final ConnectionEvent event) {
+			events.add(event);
+		}
+	}
+}
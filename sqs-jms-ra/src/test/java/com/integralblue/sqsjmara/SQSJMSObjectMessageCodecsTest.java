@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.ObjectMessage;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.Session;
+import javax.resource.ResourceException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of sending and receiving object messages with a codec through the connection factory.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSObjectMessageCodecsTest {
+	private static final String QUEUE_NAME = "object-message-codecs-test";
+	private static final String FORWARD_QUEUE_NAME = "object-message-codecs-test-forward";
+	private static final long RECEIVE_TIMEOUT_MILLIS = 5_000;
+
+	private SQSJMSResourceAdapter resourceAdapter;
+	private QueueConnection connection;
+	private Session session;
+
+	@Before
+	public void before() throws ResourceException, JMSException {
+		resourceAdapter = TestResourceAdapters.start(
+				new TestInMemoryClientFactory(new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true))), null);
+		final SQSJMSManagedConnectionFactory managedConnectionFactory = TestResourceAdapters.createManagedConnectionFactory(resourceAdapter);
+		managedConnectionFactory.setObjectMessageCodec(CompactObjectMessageCodec.ID);
+		connection = managedConnectionFactory.createConnectionFactory().createQueueConnection();
+		connection.start();
+		session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+	}
+
+	@After
+	public void after() throws JMSException {
+		connection.close();
+		resourceAdapter.stop();
+	}
+
+	private void send(final String queueName, final Message message) throws JMSException {
+		session.createProducer(session.createQueue(queueName)).send(message);
+	}
+
+	private ObjectMessage receive(final String queueName) throws JMSException {
+		final MessageConsumer consumer = session.createConsumer(session.createQueue(queueName));
+		final ObjectMessage message = (ObjectMessage) consumer.receive(RECEIVE_TIMEOUT_MILLIS);
+		consumer.close();
+		return message;
+	}
+
+	@Test
+	public void testCreate() {
+		assertThat(SQSJMSObjectMessageCodecs.create(null), nullValue());
+		assertThat(SQSJMSObjectMessageCodecs.create(""), nullValue());
+		assertThat(SQSJMSObjectMessageCodecs.create(CompactObjectMessageCodec.ID), sameInstance(SQSJMSObjectMessageCodecs.create(CompactObjectMessageCodec.ID)));
+		assertThat(SQSJMSObjectMessageCodecs.create(CompactObjectMessageCodec.class.getName()), instanceOf(CompactObjectMessageCodec.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreateUnknownCodec() {
+		SQSJMSObjectMessageCodecs.create(String.class.getName());
+	}
+
+	@Test
+	public void testConsumerDecodes() throws JMSException {
+		final ObjectMessage sent = session.createObjectMessage("encoded");
+		assertThat(sent.getStringProperty(SQSJMSObjectMessageCodecs.CODEC_PROPERTY), equalTo(CompactObjectMessageCodec.ID));
+		send(QUEUE_NAME, sent);
+		final ObjectMessage received = receive(QUEUE_NAME);
+		assertThat(received.getObject(), equalTo((Object) "encoded"));
+		assertThat(received.getJMSMessageID(), equalTo(sent.getJMSMessageID()));
+	}
+
+	@Test
+	public void testListenerDecodes() throws JMSException, InterruptedException {
+		final CountDownLatch received = new CountDownLatch(1);
+		final AtomicReference<Object> object = new AtomicReference<>();
+		final Queue queue = session.createQueue(QUEUE_NAME);
+		final MessageConsumer consumer = connection.createSession(false, Session.AUTO_ACKNOWLEDGE).createConsumer(queue);
+		consumer.setMessageListener(new MessageListener() {
+			@Override
+			public void onMessage(final Message message) {
+				try {
+					object.set(((ObjectMessage) message).getObject());
+				}
+				catch (final JMSException e) {
+					object.set(e);
+				}
+				received.countDown();
+			}
+		});
+		send(QUEUE_NAME, session.createObjectMessage("listened"));
+		assertTrue(received.await(RECEIVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertThat(object.get(), equalTo((Object) "listened"));
+		consumer.close();
+	}
+
+	@Test
+	public void testReceivedMessageForwarded() throws JMSException {
+		send(QUEUE_NAME, session.createObjectMessage("forwarded"));
+		final ObjectMessage received = receive(QUEUE_NAME);
+		send(FORWARD_QUEUE_NAME, received);
+		final ObjectMessage forwarded = receive(FORWARD_QUEUE_NAME);
+		assertThat(forwarded.getObject(), equalTo((Object) "forwarded"));
+		assertThat(forwarded.getStringProperty(SQSJMSObjectMessageCodecs.CODEC_PROPERTY), equalTo(CompactObjectMessageCodec.ID));
+	}
+
+	@Test
+	public void testReceivedMessageWithNewBodyForwarded() throws JMSException {
+		final ObjectMessage sent = session.createObjectMessage("original");
+		sent.setStringProperty("kept", "property");
+		send(QUEUE_NAME, sent);
+		final ObjectMessage received = receive(QUEUE_NAME);
+		received.clearBody();
+		received.setObject("replaced");
+		send(FORWARD_QUEUE_NAME, received);
+		assertThat(received.getJMSMessageID(), notNullValue());
+		final ObjectMessage forwarded = receive(FORWARD_QUEUE_NAME);
+		assertThat(forwarded.getObject(), equalTo((Object) "replaced"));
+		assertThat(forwarded.getStringProperty("kept"), equalTo("property"));
+		assertThat(forwarded.getJMSMessageID(), equalTo(received.getJMSMessageID()));
+	}
+}
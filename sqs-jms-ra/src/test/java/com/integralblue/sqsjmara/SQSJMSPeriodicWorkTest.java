@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.spi.work.ExecutionContext;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkListener;
+import javax.resource.spi.work.WorkRejectedException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of running periodic tasks off the shared timer.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSPeriodicWorkTest {
+	private static final long PERIOD_MILLIS = 20;
+
+	private Timer timer;
+	private TestWorkManager workManager;
+
+	@Before
+	public void before() {
+		timer = new Timer("SQSJMSPeriodicWorkTest", true);
+		workManager = new TestWorkManager();
+	}
+
+	@After
+	public void after() throws InterruptedException {
+		timer.cancel();
+		workManager.shutdown();
+	}
+
+	/**
+	 * Count down a latch on every tick of the timer.
+	 *
+	 * @param ticks the latch
+	 */
+	private void scheduleTicks(final CountDownLatch ticks) {
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				ticks.countDown();
+			}
+		}, PERIOD_MILLIS, PERIOD_MILLIS);
+	}
+
+	private static Runnable failing(final CountDownLatch runs) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				runs.countDown();
+				if (runs.getCount() % 2 == 0) {
+					throw new IllegalStateException("failing periodic task");
+				}
+				throw new AssertionError("failing periodic task");
+			}
+		};
+	}
+
+	@Test
+	public void testFailingTaskKeepsRunningAndLeavesTimerAlone() throws InterruptedException {
+		final CountDownLatch runs = new CountDownLatch(4);
+		final SQSJMSPeriodicWork periodicWork = new SQSJMSPeriodicWork("failing", failing(runs), timer, workManager, PERIOD_MILLIS);
+		assertTrue(runs.await(10, TimeUnit.SECONDS));
+		final CountDownLatch ticks = new CountDownLatch(2);
+		scheduleTicks(ticks);
+		assertTrue(ticks.await(10, TimeUnit.SECONDS));
+		periodicWork.cancel();
+	}
+
+	@Test
+	@SuppressWarnings("PMD.NcssCount")
+	public void testBlockedTaskDoesNotDelayTimerAndSkipsTicks() throws InterruptedException {
+		final AtomicInteger started = new AtomicInteger();
+		final CountDownLatch blocking = new CountDownLatch(1);
+		final SQSJMSPeriodicWork periodicWork = new SQSJMSPeriodicWork("blocked", new Runnable() {
+			@Override
+			public void run() {
+				started.incrementAndGet();
+				try {
+					blocking.await();
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, timer, workManager, PERIOD_MILLIS);
+		// other tasks on the timer keep running while the task is blocked
+		final CountDownLatch ticks = new CountDownLatch(5);
+		scheduleTicks(ticks);
+		assertTrue(ticks.await(10, TimeUnit.SECONDS));
+		assertThat(started.get(), equalTo(1));
+		assertThat(workManager.getScheduled(), equalTo(1));
+		blocking.countDown();
+		periodicWork.cancel();
+	}
+
+	@Test
+	public void testRunsOnOwnThreadWithoutWorkManager() throws InterruptedException {
+		final CountDownLatch runs = new CountDownLatch(4);
+		final SQSJMSPeriodicWork periodicWork = new SQSJMSPeriodicWork("failing", failing(runs), timer, null, PERIOD_MILLIS);
+		assertTrue(runs.await(10, TimeUnit.SECONDS));
+		periodicWork.cancel();
+		assertThat(workManager.getScheduled(), equalTo(0));
+	}
+
+	@Test
+	public void testRejectedWorkIsScheduledAgainAtNextTick() throws InterruptedException {
+		workManager.shutdown();
+		final CountDownLatch runs = new CountDownLatch(1);
+		final TestWorkManager laterWorkManager = new TestWorkManager() {
+			private final AtomicInteger attempts = new AtomicInteger();
+
+			@Override
+			public void scheduleWork(
+					final Work work,
+					final long startTimeout,
+					final ExecutionContext execContext,
+					final WorkListener workListener) throws WorkException {
+				if (attempts.incrementAndGet() < 3) {
+					throw new WorkRejectedException("busy");
+				}
+				super.scheduleWork(work, startTimeout, execContext, workListener);
+			}
+		};
+		final SQSJMSPeriodicWork periodicWork = new SQSJMSPeriodicWork("rejected", new Runnable() {
+			@Override
+			public void run() {
+				runs.countDown();
+			}
+		}, timer, laterWorkManager, PERIOD_MILLIS);
+		assertTrue(runs.await(10, TimeUnit.SECONDS));
+		periodicWork.cancel();
+		laterWorkManager.shutdown();
+	}
+}
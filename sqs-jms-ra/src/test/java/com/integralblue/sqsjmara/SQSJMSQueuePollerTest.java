@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.QueueConnection;
+import javax.jms.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazon.sqs.javamessaging.ProviderConfiguration;
+import com.amazon.sqs.javamessaging.SQSConnectionFactory;
+import com.amazon.sqs.javamessaging.SQSQueueDestination;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of choosing the queue each receive is made from.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSQueuePollerTest {
+	private static final String HIGH = "poller-test-high";
+	private static final String LOW = "poller-test-low";
+
+	private InMemoryAmazonSQS amazonSQS;
+	private QueueConnection connection;
+	private List<SQSQueueDestination> destinations;
+
+	@Before
+	public void before() throws JMSException {
+		amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true));
+		connection = new SQSConnectionFactory(new ProviderConfiguration(), (AmazonSQS) amazonSQS).createQueueConnection();
+		final Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+		destinations = new ArrayList<>();
+		destinations.add((SQSQueueDestination) session.createQueue(HIGH));
+		destinations.add((SQSQueueDestination) session.createQueue(LOW));
+	}
+
+	@After
+	public void after() throws JMSException {
+		connection.close();
+	}
+
+	private void send(final String queueName, final int count) {
+		final String queueUrl = amazonSQS.getQueueUrl(queueName).getQueueUrl();
+		for (int i = 0; i < count; i++) {
+			amazonSQS.sendMessage(queueUrl, queueName + " " + i);
+		}
+	}
+
+	private static SQSJMSActivationSpec spec(final String pollingMode, final Integer priorityStarvationLimit) {
+		final SQSJMSActivationSpec spec = new SQSJMSActivationSpec();
+		spec.setPollingMode(pollingMode);
+		spec.setPriorityStarvationLimit(priorityStarvationLimit);
+		return spec;
+	}
+
+	private static String poll(final SQSJMSQueuePoller poller) throws JMSException {
+		return poller.receive(1, 0).getDestination().getQueueName();
+	}
+
+	@Test
+	public void testWeightedFavorsBusyQueue() throws JMSException {
+		send(HIGH, 40);
+		final SQSJMSQueuePoller poller = new SQSJMSQueuePoller(amazonSQS, destinations, spec(SQSJMSActivationSpec.POLLING_MODE_WEIGHTED, null));
+		int busy = 0;
+		for (int i = 0; i < 20; i++) {
+			if (HIGH.equals(poll(poller))) {
+				busy++;
+			}
+		}
+		// the empty queue is polled once, then backs off for longer than the test takes
+		assertThat(busy, equalTo(19));
+	}
+
+	@Test
+	public void testWeightedPollsBackingOffQueuesWhenAllAre() throws JMSException {
+		final SQSJMSQueuePoller poller = new SQSJMSQueuePoller(amazonSQS, destinations, spec(SQSJMSActivationSpec.POLLING_MODE_WEIGHTED, null));
+		for (int i = 0; i < 4; i++) {
+			assertThat(poller.receive(1, 0).getMessages().size(), equalTo(0));
+		}
+	}
+
+	@Test
+	public void testPriorityDrainsHigherQueueFirst() throws JMSException {
+		send(HIGH, 3);
+		send(LOW, 3);
+		final SQSJMSQueuePoller poller = new SQSJMSQueuePoller(amazonSQS, destinations, spec(SQSJMSActivationSpec.POLLING_MODE_PRIORITY, null));
+		for (int i = 0; i < 3; i++) {
+			assertThat(poll(poller), equalTo(HIGH));
+		}
+		// the high priority queue is empty now, and backs off
+		assertThat(poller.receive(1, 0).getMessages().size(), equalTo(0));
+		assertThat(poll(poller), equalTo(LOW));
+	}
+
+	@Test
+	public void testPriorityStarvationLimit() throws JMSException {
+		send(HIGH, 10);
+		send(LOW, 10);
+		final SQSJMSQueuePoller poller = new SQSJMSQueuePoller(amazonSQS, destinations, spec(SQSJMSActivationSpec.POLLING_MODE_PRIORITY, 2));
+		for (int round = 0; round < 3; round++) {
+			assertThat(poll(poller), equalTo(HIGH));
+			assertThat(poll(poller), equalTo(HIGH));
+			assertThat(poll(poller), equalTo(LOW));
+		}
+	}
+
+	@Test
+	public void testPausedReceiveDoesNotBackOff() throws JMSException {
+		send(HIGH, 2);
+		send(LOW, 2);
+		final SQSJMSFlowControl flowControl = new SQSJMSFlowControl(1, 0);
+		final SQSJMSQueuePoller poller = new SQSJMSQueuePoller(
+				new SQSJMSClientDecorator(amazonSQS).withReceiveTuning(null, null, flowControl),
+				destinations,
+				spec(SQSJMSActivationSpec.POLLING_MODE_WEIGHTED, null));
+		flowControl.received(1);
+		final SQSJMSQueuePoller.Poll paused = poller.receive(1, 0);
+		assertThat(paused.getDestination().getQueueName(), equalTo(HIGH));
+		assertTrue(paused.getMessages().isEmpty());
+		flowControl.finished(1);
+		assertThat(poll(poller), equalTo(LOW));
+		// had the paused receive counted as empty, the first queue would be backing off, leaving only the second
+		assertThat(poll(poller), equalTo(HIGH));
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
+import javax.jms.QueueConnection;
+import javax.jms.Session;
+import javax.resource.ResourceException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazon.sqs.javamessaging.ProviderConfiguration;
+import com.amazon.sqs.javamessaging.SQSConnectionFactory;
+import com.amazon.sqs.javamessaging.SQSQueueDestination;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+
+/**
+ * Tests of caching queue URL resolutions.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSQueueUrlCacheTest {
+	private static final String QUEUE_NAME = "queue-url-cache-test";
+	private static final String MISSING_QUEUE_NAME = "queue-url-cache-test-missing";
+	private static final long SHORT_TTL_MILLIS = 500;
+
+	private CountingAmazonSQS amazonSQS;
+	private Session session;
+
+	@Before
+	public void before() throws JMSException {
+		amazonSQS = new CountingAmazonSQS();
+		amazonSQS.createQueue(QUEUE_NAME);
+		session = new SQSConnectionFactory(new ProviderConfiguration(), (AmazonSQS) amazonSQS)
+				.createQueueConnection()
+				.createSession(false, Session.AUTO_ACKNOWLEDGE);
+	}
+
+	@Test
+	public void testResolutionCached() throws JMSException {
+		final SQSJMSQueueUrlCache cache = new SQSJMSQueueUrlCache(TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1));
+		final SQSQueueDestination destination = cache.resolve(amazonSQS, session, QUEUE_NAME);
+		assertThat(destination.getQueueUrl(), equalTo(amazonSQS.getQueueUrl(QUEUE_NAME).getQueueUrl()));
+		assertThat(cache.resolve(amazonSQS, session, QUEUE_NAME), sameInstance(destination));
+		// the second getQueueUrl is the assertion's own
+		assertThat(amazonSQS.getQueueUrlCalls.get(), equalTo(2));
+	}
+
+	@Test
+	public void testResolutionExpires() throws JMSException, InterruptedException {
+		final SQSJMSQueueUrlCache cache = new SQSJMSQueueUrlCache(SHORT_TTL_MILLIS, SHORT_TTL_MILLIS);
+		cache.resolve(amazonSQS, session, QUEUE_NAME);
+		TimeUnit.MILLISECONDS.sleep(SHORT_TTL_MILLIS * 2);
+		cache.resolve(amazonSQS, session, QUEUE_NAME);
+		assertThat(amazonSQS.getQueueUrlCalls.get(), equalTo(2));
+	}
+
+	@Test
+	public void testMissingQueueCached() throws JMSException, InterruptedException {
+		final SQSJMSQueueUrlCache cache = new SQSJMSQueueUrlCache(TimeUnit.MINUTES.toMillis(1), SHORT_TTL_MILLIS);
+		assertMissing(cache);
+		assertMissing(cache);
+		assertThat(amazonSQS.getQueueUrlCalls.get(), equalTo(1));
+
+		// found once created and the negative entry has expired
+		amazonSQS.createQueue(MISSING_QUEUE_NAME);
+		TimeUnit.MILLISECONDS.sleep(SHORT_TTL_MILLIS * 2);
+		assertThat(cache.resolve(amazonSQS, session, MISSING_QUEUE_NAME).getQueueName(), equalTo(MISSING_QUEUE_NAME));
+	}
+
+	@Test
+	public void testAdministeredQueueRegisteredWhicheverIsSetFirst() throws ResourceException {
+		final SQSJMSResourceAdapter resourceAdapter = new SQSJMSResourceAdapter();
+		final SQSJMSQueue nameFirst = new SQSJMSQueue();
+		nameFirst.setQueueName(QUEUE_NAME);
+		nameFirst.setResourceAdapter(resourceAdapter);
+		final SQSJMSQueue resourceAdapterFirst = new SQSJMSQueue();
+		resourceAdapterFirst.setResourceAdapter(resourceAdapter);
+		resourceAdapterFirst.setQueueName(MISSING_QUEUE_NAME);
+		assertThat(resourceAdapter.getAdministeredQueueNames(), equalTo((Set<String>) new HashSet<>(Arrays.asList(QUEUE_NAME, MISSING_QUEUE_NAME))));
+	}
+
+	private void assertMissing(final SQSJMSQueueUrlCache cache) throws JMSException {
+		try {
+			cache.resolve(amazonSQS, session, MISSING_QUEUE_NAME);
+			fail("the queue does not exist");
+		}
+		catch (final InvalidDestinationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testInvalidate() throws JMSException {
+		final SQSJMSQueueUrlCache cache = new SQSJMSQueueUrlCache(TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1));
+		cache.resolve(amazonSQS, session, QUEUE_NAME);
+		cache.invalidate(amazonSQS, QUEUE_NAME);
+		cache.resolve(amazonSQS, session, QUEUE_NAME);
+		assertThat(amazonSQS.getQueueUrlCalls.get(), equalTo(2));
+	}
+
+	@Test
+	public void testSharedBetweenWrappersOfClient() throws JMSException {
+		final SQSJMSQueueUrlCache cache = new SQSJMSQueueUrlCache(TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1));
+		final AmazonSQS first = new SQSJMSClientDecorator(amazonSQS);
+		final AmazonSQS second = new SQSJMSClientDecorator(amazonSQS);
+		cache.share(first, amazonSQS);
+		cache.share(second, amazonSQS);
+		cache.resolve(first, session, QUEUE_NAME);
+		cache.resolve(second, session, QUEUE_NAME);
+		assertThat(amazonSQS.getQueueUrlCalls.get(), equalTo(1));
+		cache.invalidate(second, QUEUE_NAME);
+		cache.resolve(first, session, QUEUE_NAME);
+		assertThat(amazonSQS.getQueueUrlCalls.get(), equalTo(2));
+	}
+
+	@Test
+	public void testSharedBetweenConnectionFactories() throws ResourceException, JMSException {
+		final SQSJMSResourceAdapter resourceAdapter = TestResourceAdapters.start(new TestInMemoryClientFactory(amazonSQS), null);
+		try {
+			// different prefetching, so each factory has its own SQS connection factory, but the same client
+			final SQSJMSManagedConnectionFactory first = TestResourceAdapters.createManagedConnectionFactory(resourceAdapter);
+			final SQSJMSManagedConnectionFactory second = TestResourceAdapters.createManagedConnectionFactory(resourceAdapter);
+			second.setNumberOfMessagesToPrefetch(2);
+			// both connections are kept open, as closing the last connection of the client gives it up
+			final QueueConnection firstConnection = first.createConnectionFactory().createQueueConnection();
+			final QueueConnection secondConnection = second.createConnectionFactory().createQueueConnection();
+			createProducer(firstConnection);
+			createProducer(secondConnection);
+			assertThat(amazonSQS.getQueueUrlCalls.get(), equalTo(1));
+			firstConnection.close();
+			secondConnection.close();
+		}
+		finally {
+			resourceAdapter.stop();
+		}
+	}
+
+	private static void createProducer(final QueueConnection connection) throws JMSException {
+		final Session connectionSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		connectionSession.createProducer(connectionSession.createQueue(QUEUE_NAME)).close();
+	}
+
+	/**
+	 * Counts the {@code GetQueueUrl} calls made to resolve queue names.
+	 */
+	private static final class CountingAmazonSQS extends InMemoryAmazonSQS {
+		private final AtomicInteger getQueueUrlCalls = new AtomicInteger();
+
+		@Override
+		public GetQueueUrlResult getQueueUrl(final GetQueueUrlRequest request) {
+			getQueueUrlCalls.incrementAndGet();
+			return super.getQueueUrl(request);
+		}
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.resource.ResourceException;
+import javax.resource.spi.endpoint.MessageEndpoint;
+import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.transaction.xa.XAResource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazon.sqs.javamessaging.message.SQSTextMessage;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.util.Base64;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of receiving messages and delivering them as work, one at a time or in batches.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSReceiveLoopTest {
+	private static final String QUEUE_NAME = "receive-loop-test";
+	private static final String FAIL = "fail";
+	private static final long WAIT_MILLIS = 10_000L;
+
+	private InMemoryAmazonSQS amazonSQS;
+	private String queueUrl;
+	private Timer timer;
+	private TestWorkManager workManager;
+	private SQSJMSEndpointActivation activation;
+	private final AtomicInteger failingReceives = new AtomicInteger();
+
+	@Before
+	public void before() {
+		amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true)) {
+			@Override
+			public ReceiveMessageResult receiveMessage(final ReceiveMessageRequest request) {
+				if (failingReceives.getAndDecrement() > 0) {
+					throw new IllegalStateException("receive failure");
+				}
+				// poll briefly, so that stopping does not wait out a long poll
+				if (request.getWaitTimeSeconds() != null && request.getWaitTimeSeconds() > 1) {
+					request.setWaitTimeSeconds(1);
+				}
+				return super.receiveMessage(request);
+			}
+		};
+		queueUrl = amazonSQS.getQueueUrl(QUEUE_NAME).getQueueUrl();
+		timer = new Timer("SQSJMSReceiveLoopTest", true);
+		workManager = new TestWorkManager();
+	}
+
+	@After
+	public void after() throws JMSException, InterruptedException {
+		if (activation != null) {
+			activation.stop();
+		}
+		timer.cancel();
+		workManager.shutdown();
+	}
+
+	private static SQSJMSActivationSpec spec() {
+		final SQSJMSActivationSpec spec = new SQSJMSActivationSpec();
+		spec.setDestination(QUEUE_NAME);
+		spec.setUseJndi(false);
+		spec.setAcknowledgeMode("auto-acknowledge");
+		spec.setDispatchMode(SQSJMSActivationSpec.DISPATCH_MODE_WORK_MANAGER);
+		return spec;
+	}
+
+	private void start(final SQSJMSActivationSpec spec, final TestEndpointFactory endpointFactory) throws ResourceException {
+		activation = new SQSJMSEndpointActivation(endpointFactory, spec, amazonSQS, timer, workManager);
+		activation.start(Collections.singletonList(new SQSJMSQueue(QUEUE_NAME)));
+	}
+
+	private void send(final int count) {
+		for (int i = 0; i < count; i++) {
+			amazonSQS.sendMessage(queueUrl, "message " + i);
+		}
+	}
+
+	private int countMessages(final QueueAttributeName attribute) {
+		return Integer.parseInt(amazonSQS.getQueueAttributes(new GetQueueAttributesRequest(queueUrl).withAttributeNames(attribute))
+				.getAttributes().get(attribute.toString()));
+	}
+
+	private void awaitQueueEmpty() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		while ((countMessages(QueueAttributeName.ApproximateNumberOfMessages) > 0
+				|| countMessages(QueueAttributeName.ApproximateNumberOfMessagesNotVisible) > 0)
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(countMessages(QueueAttributeName.ApproximateNumberOfMessages), equalTo(0));
+		assertThat(countMessages(QueueAttributeName.ApproximateNumberOfMessagesNotVisible), equalTo(0));
+	}
+
+	@Test
+	public void testMessagesDeliveredAsWorkAndDeleted() throws ResourceException, InterruptedException {
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(false, 25);
+		start(spec(), endpointFactory);
+		send(25);
+		endpointFactory.await();
+		awaitQueueEmpty();
+		assertThat(endpointFactory.deliveries.get(), equalTo(25));
+		// the loop itself, then one work per message
+		assertTrue(workManager.getScheduled() > 25);
+	}
+
+	@Test
+	public void testFailedDeliveryReturnedAndRedelivered() throws ResourceException, InterruptedException, JMSException {
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(false, 1);
+		start(spec(), endpointFactory);
+		amazonSQS.sendMessage(queueUrl, FAIL);
+		endpointFactory.await();
+		awaitQueueEmpty();
+		// failed once, then delivered again straight away rather than after the visibility timeout
+		assertThat(endpointFactory.deliveries.get(), equalTo(2));
+		assertThat(((SQSTextMessage) endpointFactory.messages.get(0)).getText(), equalTo(FAIL));
+	}
+
+	@Test
+	public void testLoopSurvivesUnexpectedFailures() throws ResourceException, InterruptedException {
+		failingReceives.set(2);
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(false, 5);
+		send(5);
+		start(spec(), endpointFactory);
+		endpointFactory.await();
+		awaitQueueEmpty();
+		assertThat(endpointFactory.deliveries.get(), equalTo(5));
+	}
+
+	@Test
+	public void testOutstandingMessagesBounded() throws ResourceException, InterruptedException {
+		final SQSJMSActivationSpec spec = spec();
+		spec.setWorkQueueSize(3);
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(false, 10);
+		endpointFactory.blocked = new CountDownLatch(1);
+		start(spec, endpointFactory);
+		send(10);
+		final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		while (endpointFactory.delivering.get() < 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		// give the loop the chance to receive more than it may
+		Thread.sleep(200);
+		assertThat(endpointFactory.delivering.get(), equalTo(3));
+		assertThat(countMessages(QueueAttributeName.ApproximateNumberOfMessagesNotVisible), equalTo(3));
+		endpointFactory.blocked.countDown();
+		endpointFactory.await();
+		awaitQueueEmpty();
+	}
+
+	@Test
+	public void testBatchesDelivered() throws ResourceException, InterruptedException {
+		final SQSJMSActivationSpec spec = spec();
+		spec.setMaxBatchSize(4);
+		spec.setMaxBatchWaitMillis(50L);
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(true, 10);
+		send(10);
+		start(spec, endpointFactory);
+		endpointFactory.await();
+		awaitQueueEmpty();
+		assertTrue(endpointFactory.deliveries.get() >= 3);
+		assertThat(endpointFactory.largestBatch.get(), equalTo(4));
+	}
+
+	@Test
+	public void testLazyBodyDecoding() throws ResourceException, InterruptedException, JMSException {
+		final SQSJMSActivationSpec spec = spec();
+		spec.setLazyBodyDecoding(true);
+		final TestEndpointFactory endpointFactory = new TestEndpointFactory(false, 1);
+		start(spec, endpointFactory);
+		amazonSQS.sendMessage(new SendMessageRequest(queueUrl, Base64.encodeAsString(new byte[] {1, 2, 3}))
+				.addMessageAttributesEntry("JMS_SQSMessageType", new MessageAttributeValue().withDataType("String").withStringValue("byte")));
+		endpointFactory.await();
+		final Message message = endpointFactory.messages.get(0);
+		assertThat(message, instanceOf(SQSJMSLazyBytesMessage.class));
+		assertThat(((SQSJMSLazyBytesMessage) message).getBodyAsBytes(), equalTo(new byte[] {1, 2, 3}));
+	}
+
+	@Test
+	public void testWorkManagerRequired() {
+		activation = new SQSJMSEndpointActivation(new TestEndpointFactory(false, 0), spec(), amazonSQS, timer, null);
+		try {
+			activation.start(Collections.singletonList(new SQSJMSQueue(QUEUE_NAME)));
+			fail("the workManager dispatch mode needs a work manager");
+		}
+		catch (final ResourceException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Creates proxy endpoints that record the messages delivered to them, fail messages with the text {@value #FAIL} the first time
+	 * they are delivered, and optionally block until released.
+	 */
+	private static final class TestEndpointFactory implements MessageEndpointFactory {
+		private final boolean batch;
+		private final CountDownLatch delivered;
+		private final AtomicInteger deliveries = new AtomicInteger();
+		private final AtomicInteger delivering = new AtomicInteger();
+		private final AtomicInteger largestBatch = new AtomicInteger();
+		private final List<Message> messages = new CopyOnWriteArrayList<>();
+		private volatile CountDownLatch blocked;
+
+		TestEndpointFactory(final boolean batch, final int messages) {
+			this.batch = batch;
+			this.delivered = new CountDownLatch(messages);
+		}
+
+		void await() throws InterruptedException {
+			assertTrue("timed out", delivered.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+		}
+
+		@Override
+		public MessageEndpoint createEndpoint(final XAResource xaResource) {
+			return (MessageEndpoint) Proxy.newProxyInstance(
+					SQSJMSReceiveLoopTest.class.getClassLoader(),
+					new Class<?>[] {MessageEndpoint.class, batch ? BatchMessageListener.class : MessageListener.class},
+					new InvocationHandler() {
+						@Override
+						@SuppressWarnings("unchecked")
+						public Object invoke(final Object proxy, final Method method, final Object[] args) throws Exception {
+							if ("onMessages".equals(method.getName())) {
+								onMessages((List<Message>) args[0]);
+							}
+							else if ("onMessage".equals(method.getName())) {
+								onMessages(Collections.singletonList((Message) args[0]));
+							}
+							return null;
+						}
+					});
+		}
+
+		private void onMessages(final List<Message> received) throws JMSException, InterruptedException {
+			deliveries.incrementAndGet();
+			delivering.addAndGet(received.size());
+			synchronized (largestBatch) {
+				largestBatch.set(Math.max(largestBatch.get(), received.size()));
+			}
+			if (blocked != null) {
+				blocked.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			for (final Message message : received) {
+				messages.add(message);
+				if (message instanceof SQSTextMessage && FAIL.equals(((SQSTextMessage) message).getText()) && messages.size() == 1) {
+					throw new IllegalStateException(FAIL);
+				}
+				delivered.countDown();
+			}
+		}
+
+		@Override
+		public MessageEndpoint createEndpoint(final XAResource xaResource, final long timeout) {
+			return createEndpoint(xaResource);
+		}
+
+		@Override
+		public boolean isDeliveryTransacted(final Method method) {
+			return false;
+		}
+
+		@Override
+		public String getActivationName() {
+			return SQSJMSReceiveLoopTest.class.getSimpleName();
+		}
+
+		@Override
+		public Class<?> getEndpointClass() {
+			return batch ? BatchMessageListener.class : MessageListener.class;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of applying the configured wait time and visibility timeout to receives.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSReceiveTuningTest {
+	private InMemoryAmazonSQS amazonSQS;
+	private String queueUrl;
+	private final AtomicReference<ReceiveMessageRequest> received = new AtomicReference<>();
+
+	@Before
+	public void before() {
+		amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true)) {
+			@Override
+			public ReceiveMessageResult receiveMessage(final ReceiveMessageRequest request) {
+				received.set(request);
+				return super.receiveMessage(request.clone().withWaitTimeSeconds(0));
+			}
+		};
+		queueUrl = amazonSQS.getQueueUrl("receive-tuning-test").getQueueUrl();
+	}
+
+	@Test
+	public void testUntunedRequestPassedAsIs() {
+		final ReceiveMessageRequest request = new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(20);
+		new SQSJMSClientDecorator(amazonSQS).receiveMessage(request);
+		assertThat(received.get(), sameInstance(request));
+	}
+
+	@Test
+	public void testWaitTimeLowered() {
+		final AmazonSQS tuned = new SQSJMSClientDecorator(amazonSQS).withReceiveTuning(5, null, null);
+		tuned.receiveMessage(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(20));
+		assertThat(received.get().getWaitTimeSeconds(), equalTo(5));
+		tuned.receiveMessage(new ReceiveMessageRequest(queueUrl));
+		assertThat(received.get().getWaitTimeSeconds(), equalTo(5));
+		// a shorter wait asked for by the caller is kept
+		tuned.receiveMessage(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(1));
+		assertThat(received.get().getWaitTimeSeconds(), equalTo(1));
+		assertThat(received.get().getVisibilityTimeout(), nullValue());
+	}
+
+	@Test
+	public void testVisibilityTimeoutSetUnlessGiven() {
+		final AmazonSQS tuned = new SQSJMSClientDecorator(amazonSQS).withReceiveTuning(null, 120, null);
+		tuned.receiveMessage(new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(20));
+		assertThat(received.get().getVisibilityTimeout(), equalTo(120));
+		assertThat(received.get().getWaitTimeSeconds(), equalTo(20));
+		tuned.receiveMessage(new ReceiveMessageRequest(queueUrl).withVisibilityTimeout(30));
+		assertThat(received.get().getVisibilityTimeout(), equalTo(30));
+	}
+
+	@Test
+	public void testCallersRequestNotModified() {
+		final AmazonSQS tuned = new SQSJMSClientDecorator(amazonSQS).withReceiveTuning(5, 120, null);
+		final ReceiveMessageRequest request = new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(20);
+		tuned.receiveMessage(request);
+		assertThat(request.getWaitTimeSeconds(), equalTo(20));
+		assertThat(request.getVisibilityTimeout(), nullValue());
+	}
+
+	@Test
+	public void testOtherCallsPassedThrough() {
+		final AmazonSQS tuned = new SQSJMSClientDecorator(amazonSQS).withReceiveTuning(5, 120, null);
+		assertThat(tuned.getQueueUrl("receive-tuning-test").getQueueUrl(), equalTo(queueUrl));
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+/**
+ * Tests of the request metrics recorded per SQS operation.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSRequestMetricsTest {
+	private static final AtomicInteger TESTS = new AtomicInteger();
+
+	private String region;
+	private SQSJMSRequestMetrics metrics;
+
+	@Before
+	public void before() {
+		// tests run in parallel, so each registers its MBeans under its own name
+		region = "request-metrics-test-" + TESTS.incrementAndGet();
+		metrics = new SQSJMSRequestMetrics(region);
+	}
+
+	@After
+	public void after() {
+		metrics.close();
+	}
+
+	/**
+	 * Run a request through the handler as the SDK does, failing every attempt but the last with the given exception.
+	 *
+	 * @param originalRequest the request
+	 * @param attempts number of attempts
+	 * @param retryCause exception each retried attempt fails with
+	 * @param result the response of the last attempt, or null if it fails too
+	 */
+	private void send(final AmazonWebServiceRequest originalRequest, final int attempts, final AmazonServiceException retryCause, final Object result) {
+		final Request<?> request = new DefaultRequest<>(originalRequest, "AmazonSQS");
+		metrics.beforeRequest(request);
+		for (int attempt = 1; attempt <= attempts; attempt++) {
+			metrics.beforeAttempt(HandlerBeforeAttemptContext.builder().withRequest(request).build());
+			final boolean last = attempt == attempts;
+			metrics.afterAttempt(HandlerAfterAttemptContext.builder()
+					.withRequest(request)
+					.withException(last && result != null ? null : retryCause)
+					.build());
+		}
+		if (result == null) {
+			metrics.afterError(request, null, retryCause);
+		}
+		else {
+			metrics.afterResponse(request, new Response<>(result, null));
+		}
+	}
+
+	private static AmazonServiceException throttling() {
+		final AmazonServiceException e = new AmazonServiceException("slow down");
+		e.setErrorCode("ThrottlingException");
+		return e;
+	}
+
+	private Set<ObjectName> operationMBeans() throws MalformedObjectNameException {
+		return ManagementFactory.getPlatformMBeanServer().queryNames(
+				new ObjectName(SQSJMSManagement.DOMAIN + ":type=Request,name=" + ObjectName.quote(region) + ",*"), null);
+	}
+
+	private Object attribute(final String operation, final String attribute) throws JMException {
+		for (final ObjectName name : operationMBeans()) {
+			if (operation.equals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Operation"))) {
+				return ManagementFactory.getPlatformMBeanServer().getAttribute(name, attribute);
+			}
+		}
+		throw new AssertionError("no MBean for " + operation);
+	}
+
+	@Test
+	public void testRequestsCountedPerOperation() throws JMException {
+		send(new SendMessageRequest("queue", "one"), 1, null, new SendMessageResult());
+		send(new SendMessageRequest("queue", "two"), 1, null, new SendMessageResult());
+		send(new ReceiveMessageRequest("queue"), 1, null, new ReceiveMessageResult());
+		send(new ReceiveMessageRequest("queue"), 1, null, new ReceiveMessageResult().withMessages(new Message()));
+		assertThat(operationMBeans().size(), equalTo(2));
+		assertThat(attribute("SendMessage", "Requests"), equalTo((Object) 2L));
+		assertThat(attribute("ReceiveMessage", "Requests"), equalTo((Object) 2L));
+		assertThat(attribute("ReceiveMessage", "EmptyReceives"), equalTo((Object) 1L));
+		assertThat(attribute("ReceiveMessage", "EmptyReceiveRatio"), equalTo((Object) 0.5));
+		assertTrue((Double) attribute("SendMessage", "LatencyMaxMillis") >= 0);
+	}
+
+	@Test
+	public void testRetriesThrottlingAndFailures() throws JMException {
+		send(new SendMessageRequest("queue", "retried"), 3, throttling(), new SendMessageResult());
+		send(new SendMessageRequest("queue", "failed"), 2, new AmazonServiceException("failed"), null);
+		assertThat(attribute("SendMessage", "Requests"), equalTo((Object) 2L));
+		assertThat(attribute("SendMessage", "Retries"), equalTo((Object) 3L));
+		assertThat(attribute("SendMessage", "ThrottlingErrors"), equalTo((Object) 2L));
+		assertThat(attribute("SendMessage", "FailedRequests"), equalTo((Object) 1L));
+	}
+
+	@Test
+	public void testMBeansUnregisteredOnClose() throws JMException {
+		send(new SendMessageRequest("queue", "one"), 1, null, new SendMessageResult());
+		assertThat(operationMBeans().size(), equalTo(1));
+		metrics.close();
+		assertTrue(operationMBeans().isEmpty());
+		// requests after close are still counted, but not registered
+		send(new SendMessageRequest("queue", "two"), 1, null, new SendMessageResult());
+		assertTrue(operationMBeans().isEmpty());
+	}
+}
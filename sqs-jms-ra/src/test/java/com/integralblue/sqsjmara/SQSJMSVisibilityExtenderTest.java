@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Timer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazon.sqs.javamessaging.message.SQSMessage;
+import com.amazon.sqs.javamessaging.message.SQSTextMessage;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Tests of keeping messages invisible while they are being processed.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class SQSJMSVisibilityExtenderTest {
+	private static final int VISIBILITY_TIMEOUT_SECONDS = 2;
+	private static final long MAX_LEASE_SECONDS = 60;
+	private static final long BEYOND_VISIBILITY_TIMEOUT_MILLIS = 3_500L;
+
+	private final AtomicInteger extensions = new AtomicInteger();
+	private final CountDownLatch deletesBlocked = new CountDownLatch(1);
+	private final CountDownLatch extending = new CountDownLatch(1);
+	private volatile CountDownLatch extensionsBlocked = new CountDownLatch(0);
+	private InMemoryAmazonSQS amazonSQS;
+	private String queueUrl;
+	private Timer timer;
+	private TestWorkManager workManager;
+
+	@Before
+	public void before() {
+		amazonSQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig().withAutoCreateQueues(true)) {
+			@Override
+			public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(final ChangeMessageVisibilityBatchRequest request) {
+				extensions.incrementAndGet();
+				extending.countDown();
+				try {
+					extensionsBlocked.await();
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.changeMessageVisibilityBatch(request);
+			}
+
+			@Override
+			public DeleteMessageBatchResult deleteMessageBatch(final DeleteMessageBatchRequest request) {
+				try {
+					deletesBlocked.await();
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.deleteMessageBatch(request);
+			}
+		};
+		queueUrl = amazonSQS.getQueueUrl("visibility-extender-test").getQueueUrl();
+		timer = new Timer("SQSJMSVisibilityExtenderTest", true);
+		workManager = new TestWorkManager();
+	}
+
+	@After
+	public void after() throws InterruptedException {
+		deletesBlocked.countDown();
+		extensionsBlocked.countDown();
+		timer.cancel();
+		workManager.shutdown();
+	}
+
+	private SQSMessage receive() throws JMSException {
+		return receive(VISIBILITY_TIMEOUT_SECONDS);
+	}
+
+	private SQSMessage receive(final int visibilityTimeoutSeconds) throws JMSException {
+		amazonSQS.sendMessage(queueUrl, "extended");
+		final Message message = amazonSQS.receiveMessage(new ReceiveMessageRequest(queueUrl)
+				.withVisibilityTimeout(visibilityTimeoutSeconds)).getMessages().get(0);
+		return new SQSTextMessage(null, queueUrl, message);
+	}
+
+	private boolean isVisible(final SQSMessage message) throws JMSException {
+		for (final Message visible : amazonSQS.receiveMessage(new ReceiveMessageRequest(queueUrl)
+				.withVisibilityTimeout(0)
+				.withMaxNumberOfMessages(10)).getMessages()) {
+			if (visible.getMessageId().equals(message.getSQSMessageId())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void testTrackedMessageKeptInvisible() throws JMSException, InterruptedException {
+		final SQSJMSVisibilityExtender extender = new SQSJMSVisibilityExtender(
+				amazonSQS, timer, workManager, VISIBILITY_TIMEOUT_SECONDS, MAX_LEASE_SECONDS);
+		final SQSMessage message = receive();
+		extender.track(message);
+		Thread.sleep(BEYOND_VISIBILITY_TIMEOUT_MILLIS);
+		assertThat(isVisible(message), equalTo(false));
+		assertThat(extensions.get() > 0, equalTo(true));
+		extender.untrack(message);
+		extender.close();
+	}
+
+	@Test
+	public void testShortVisibilityTimeoutKeptInvisible() throws JMSException, InterruptedException {
+		final SQSJMSVisibilityExtender extender = new SQSJMSVisibilityExtender(amazonSQS, timer, workManager, 1, MAX_LEASE_SECONDS);
+		final SQSMessage message = receive(1);
+		extender.track(message);
+		Thread.sleep(BEYOND_VISIBILITY_TIMEOUT_MILLIS);
+		assertThat(isVisible(message), equalTo(false));
+		extender.untrack(message);
+		extender.close();
+	}
+
+	@Test
+	public void testUntrackWaitsForRunningHeartbeat() throws JMSException, InterruptedException {
+		extensionsBlocked = new CountDownLatch(1);
+		final SQSJMSVisibilityExtender extender = new SQSJMSVisibilityExtender(
+				amazonSQS, timer, workManager, VISIBILITY_TIMEOUT_SECONDS, MAX_LEASE_SECONDS);
+		final SQSMessage message = receive();
+		extender.track(message);
+		assertThat(extending.await(BEYOND_VISIBILITY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), equalTo(true));
+		final CountDownLatch untracked = new CountDownLatch(1);
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				extender.untrack(message);
+				untracked.countDown();
+			}
+		});
+		thread.start();
+		// the heartbeat extending the message may still change its visibility, so untracking must wait for it
+		assertThat(untracked.await(100, TimeUnit.MILLISECONDS), equalTo(false));
+		extensionsBlocked.countDown();
+		assertThat(untracked.await(BEYOND_VISIBILITY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), equalTo(true));
+		final int extended = extensions.get();
+		Thread.sleep(BEYOND_VISIBILITY_TIMEOUT_MILLIS);
+		assertThat(extensions.get(), equalTo(extended));
+		extender.close();
+	}
+
+	@Test
+	public void testLeaseEndsAfterMaximum() throws JMSException, InterruptedException {
+		final SQSJMSVisibilityExtender extender = new SQSJMSVisibilityExtender(amazonSQS, timer, workManager, VISIBILITY_TIMEOUT_SECONDS, 1);
+		final SQSMessage message = receive();
+		extender.track(message);
+		// extended at most once, by the first heartbeat
+		Thread.sleep(BEYOND_VISIBILITY_TIMEOUT_MILLIS + TimeUnit.SECONDS.toMillis(1));
+		assertThat(extensions.get() <= 1, equalTo(true));
+		assertThat(isVisible(message), equalTo(true));
+		extender.close();
+	}
+
+	@Test
+	public void testHeartbeatNotHeldUpByAcknowledgementBatches() throws JMSException, InterruptedException {
+		final SQSJMSAcknowledgementBatcher batcher = new SQSJMSAcknowledgementBatcher(amazonSQS, timer, workManager, 10);
+		final SQSJMSVisibilityExtender extender = new SQSJMSVisibilityExtender(
+				amazonSQS, timer, workManager, VISIBILITY_TIMEOUT_SECONDS, MAX_LEASE_SECONDS);
+		// the flush of this acknowledgement blocks until the end of the test
+		final SQSMessage acknowledged = receive();
+		batcher.add(new DeleteMessageRequest(queueUrl, acknowledged.getReceiptHandle()));
+		final SQSMessage message = receive();
+		extender.track(message);
+		Thread.sleep(BEYOND_VISIBILITY_TIMEOUT_MILLIS);
+		assertThat(isVisible(message), equalTo(false));
+		extender.close();
+		deletesBlocked.countDown();
+		batcher.close();
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQSConfig;
+
+/**
+ * Client factory for the tests.
+ *
+ * When the {@code sqsjmara.testkit} system property is {@code true} (as set by the {@code testkit} profile) every client is the
+ * same {@link InMemoryAmazonSQS}, so the tests run without AWS; otherwise clients are built as usual.
+ * The in-memory SQS creates queues on first use, and takes the latency and fault rates to inject from the
+ * {@code sqsjmara.testkit.latencyMillis}, {@code sqsjmara.testkit.latencyJitterMillis}, {@code sqsjmara.testkit.errorRate} and
+ * {@code sqsjmara.testkit.throttleRate} system properties.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class TestAmazonSQSClientFactory implements AmazonSQSClientFactory {
+	private static final InMemoryAmazonSQS IN_MEMORY_AMAZON_SQS = new InMemoryAmazonSQS(new InMemoryAmazonSQSConfig()
+			.withAutoCreateQueues(true)
+			.withLatencyMillis(Long.getLong("sqsjmara.testkit.latencyMillis", 0L))
+			.withLatencyJitterMillis(Long.getLong("sqsjmara.testkit.latencyJitterMillis", 0L))
+			.withErrorRate(Double.parseDouble(System.getProperty("sqsjmara.testkit.errorRate", "0")))
+			.withThrottleRate(Double.parseDouble(System.getProperty("sqsjmara.testkit.throttleRate", "0"))));
+
+	private final AmazonSQSClientFactory defaultClientFactory = new DefaultAmazonSQSClientFactory();
+
+	@Override
+	public AmazonSQS createClient(final String region, final AWSCredentialsProvider credentialsProvider, final RequestHandler2 requestHandler) {
+		return Boolean.getBoolean("sqsjmara.testkit") ? IN_MEMORY_AMAZON_SQS : defaultClientFactory.createClient(region, credentialsProvider, requestHandler);
+	}
+
+	@Override
+	public AmazonSQSAsync createAsyncClient(final String region, final AWSCredentialsProvider credentialsProvider, final RequestHandler2 requestHandler) {
+		return Boolean.getBoolean("sqsjmara.testkit") ? IN_MEMORY_AMAZON_SQS : defaultClientFactory.createAsyncClient(region, credentialsProvider, requestHandler);
+	}
+}
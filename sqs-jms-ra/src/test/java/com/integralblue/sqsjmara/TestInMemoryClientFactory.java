@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.integralblue.sqsjmara.testkit.InMemoryAmazonSQS;
+
+/**
+ * Client factory for unit tests: every client it creates is a view of the same {@link InMemoryAmazonSQS}, and fails
+ * every call made after it was shut down, as a real client would.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class TestInMemoryClientFactory implements AmazonSQSClientFactory {
+	private final InMemoryAmazonSQS amazonSQS;
+	private final AtomicInteger created = new AtomicInteger();
+	private final AtomicInteger shutDown = new AtomicInteger();
+
+	public TestInMemoryClientFactory(final InMemoryAmazonSQS amazonSQS) {
+		this.amazonSQS = amazonSQS;
+	}
+
+	@Override
+	public AmazonSQS createClient(final String region, final AWSCredentialsProvider credentialsProvider, final RequestHandler2 requestHandler) {
+		return createAsyncClient(region, credentialsProvider, requestHandler);
+	}
+
+	@Override
+	public AmazonSQSAsync createAsyncClient(final String region, final AWSCredentialsProvider credentialsProvider, final RequestHandler2 requestHandler) {
+		created.incrementAndGet();
+		return (AmazonSQSAsync) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[] {AmazonSQSAsync.class},
+				new ClientHandler());
+	}
+
+	/**
+	 * Number of clients created.
+	 *
+	 * @return the number
+	 */
+	public int getCreated() {
+		return created.get();
+	}
+
+	/**
+	 * Number of clients shut down.
+	 *
+	 * @return the number
+	 */
+	public int getShutDown() {
+		return shutDown.get();
+	}
+
+	/**
+	 * Number of clients created but not shut down.
+	 *
+	 * @return the number
+	 */
+	public int getOpen() {
+		return created.get() - shutDown.get();
+	}
+
+	private final class ClientHandler implements InvocationHandler {
+		private final AtomicBoolean isShutDown = new AtomicBoolean();
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "shutdown":
+					if (isShutDown.compareAndSet(false, true)) {
+						shutDown.incrementAndGet();
+					}
+					return null;
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "TestInMemoryClient@" + Integer.toHexString(System.identityHashCode(proxy));
+				default:
+					break;
+			}
+			if (isShutDown.get()) {
+				throw new IllegalStateException("Client has been shut down");
+			}
+			try {
+				return method.invoke(amazonSQS, args);
+			}
+			catch (final InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.BootstrapContext;
+import javax.resource.spi.ResourceAdapterInternalException;
+
+/**
+ * Sets up resource adapters and managed connection factories for unit tests, outside of a container.
+ *
+ * @author Craig Andrews
+ *
+ */
+public final class TestResourceAdapters {
+	/**
+	 * Region every test uses, given to the AWS SDK's default region provider chain so that it does not look any further.
+	 */
+	public static final String REGION = "us-east-1";
+
+	static {
+		System.setProperty("aws.region", REGION);
+	}
+
+	private TestResourceAdapters() {
+	}
+
+	/**
+	 * Start a resource adapter whose clients are made by the given factory.
+	 *
+	 * @param clientFactory factory of the clients
+	 * @param bootstrapContext the context to start with, or null to start without one
+	 * @return the started resource adapter
+	 * @throws ResourceAdapterInternalException if the resource adapter fails to start
+	 */
+	public static SQSJMSResourceAdapter start(final AmazonSQSClientFactory clientFactory, final BootstrapContext bootstrapContext)
+			throws ResourceAdapterInternalException {
+		final SQSJMSResourceAdapter resourceAdapter = new SQSJMSResourceAdapter();
+		resourceAdapter.start(bootstrapContext);
+		resourceAdapter.getClientRegistry().setClientFactory(clientFactory);
+		return resourceAdapter;
+	}
+
+	/**
+	 * Create a managed connection factory of a resource adapter.
+	 *
+	 * @param resourceAdapter the resource adapter
+	 * @return the managed connection factory
+	 * @throws ResourceException if the factory cannot be associated with the resource adapter
+	 */
+	public static SQSJMSManagedConnectionFactory createManagedConnectionFactory(final SQSJMSResourceAdapter resourceAdapter)
+			throws ResourceException {
+		final SQSJMSManagedConnectionFactory managedConnectionFactory = new SQSJMSManagedConnectionFactory();
+		managedConnectionFactory.setResourceAdapter(resourceAdapter);
+		return managedConnectionFactory;
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.integralblue.sqsjmara;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.spi.work.ExecutionContext;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkListener;
+import javax.resource.spi.work.WorkManager;
+import javax.resource.spi.work.WorkRejectedException;
+
+/**
+ * Work manager for unit tests: runs work on a pool of daemon threads, as a container would, and counts the work scheduled.
+ *
+ * @author Craig Andrews
+ *
+ */
+public class TestWorkManager implements WorkManager {
+	private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "TestWorkManager");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final AtomicInteger scheduled = new AtomicInteger();
+
+	@Override
+	public void doWork(final Work work) throws WorkException {
+		work.run();
+	}
+
+	@Override
+	public void doWork(final Work work, final long startTimeout, final ExecutionContext execContext, final WorkListener workListener)
+			throws WorkException {
+		work.run();
+	}
+
+	@Override
+	public long startWork(final Work work) throws WorkException {
+		scheduleWork(work);
+		return 0;
+	}
+
+	@Override
+	public long startWork(final Work work, final long startTimeout, final ExecutionContext execContext, final WorkListener workListener)
+			throws WorkException {
+		scheduleWork(work, startTimeout, execContext, workListener);
+		return 0;
+	}
+
+	@Override
+	public void scheduleWork(final Work work) throws WorkException {
+		scheduleWork(work, INDEFINITE, null, null);
+	}
+
+	@Override
+	public void scheduleWork(final Work work, final long startTimeout, final ExecutionContext execContext, final WorkListener workListener)
+			throws WorkException {
+		try {
+			executor.execute(work);
+			scheduled.incrementAndGet();
+		}
+		catch (final RejectedExecutionException e) {
+			final WorkRejectedException rejected = new WorkRejectedException(e);
+			if (workListener != null) {
+				workListener.workRejected(new WorkEvent(this, WorkEvent.WORK_REJECTED, work, rejected));
+			}
+			throw rejected;
+		}
+	}
+
+	/**
+	 * Number of works scheduled.
+	 *
+	 * @return the number
+	 */
+	public int getScheduled() {
+		return scheduled.get();
+	}
+
+	/**
+	 * Reject work from now on, and wait for the work already running to finish.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void shutdown() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+}